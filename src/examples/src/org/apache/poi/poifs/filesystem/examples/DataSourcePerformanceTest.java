@@ -0,0 +1,91 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.poifs.filesystem.examples;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.poi.poifs.filesystem.DirectoryEntry;
+import org.apache.poi.poifs.filesystem.DocumentEntry;
+import org.apache.poi.poifs.filesystem.Entry;
+import org.apache.poi.poifs.filesystem.NDocumentInputStream;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+
+/**
+ * Compares how fast all streams of an OLE2 file are read with the default
+ *  channel reader and with a memory-mapped file. Times are averages over
+ *  the measured iterations, after a warm-up run.
+ *
+ * usage: java DataSourcePerformanceTest file iterations
+ */
+public class DataSourcePerformanceTest {
+    private static long checksum;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("usage: java DataSourcePerformanceTest file iterations");
+            System.exit(1);
+        }
+        File file = new File(args[0]);
+        int iterations = Integer.parseInt(args[1]);
+
+        run(file, false);
+        run(file, true);
+        long channel = 0;
+        long mapped = 0;
+        for (int i = 0; i < iterations; i++) {
+            channel += run(file, false);
+            mapped += run(file, true);
+        }
+        System.out.println("channel reader: " + channel / iterations / 1000000 + " ms");
+        System.out.println("memory-mapped:  " + mapped / iterations / 1000000 + " ms");
+        System.out.println("(checksum " + checksum + ")");
+    }
+
+    private static long run(File file, boolean memoryMapped) throws IOException {
+        long start = System.nanoTime();
+        NPOIFSFileSystem fs = new NPOIFSFileSystem(file, true, memoryMapped);
+        try {
+            readAll(fs.getRoot());
+        } finally {
+            fs.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void readAll(DirectoryEntry dir) throws IOException {
+        byte[] chunk = new byte[4096];
+        for (Iterator<Entry> it = dir.getEntries(); it.hasNext();) {
+            Entry entry = it.next();
+            if (entry instanceof DirectoryEntry) {
+                readAll((DirectoryEntry) entry);
+            } else if (entry instanceof DocumentEntry) {
+                NDocumentInputStream is = new NDocumentInputStream((DocumentEntry) entry);
+                try {
+                    int count;
+                    while ((count = is.read(chunk)) > 0) {
+                        checksum += count + chunk[0];
+                    }
+                } finally {
+                    is.close();
+                }
+            }
+        }
+    }
+}
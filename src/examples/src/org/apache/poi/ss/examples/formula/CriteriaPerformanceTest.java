@@ -0,0 +1,122 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+
+package org.apache.poi.ss.examples.formula;
+
+import java.util.Set;
+
+import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFFormulaEvaluator;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Measures SUMIF, COUNTIF and SUMIFS formulas sharing the same criteria ranges, the typical
+ * layout of a dashboard over a data table.
+ * <p>
+ * The data sheet has a region, a product number and an amount per row. Each formula of the
+ * report sheet aggregates the whole table for one region or region and product. Printed are
+ * the times to evaluate all formulas once, and to recalculate them after an amount and after
+ * a region changed, with the number of formulas evaluated or changed. A changed amount only
+ * affects the formulas summing that row. A changed region drops the cached criteria range
+ * and recalculates every formula using it.
+ * </p>
+ *
+ * usage: java CriteriaPerformanceTest xls|xlsx rows formulas
+ */
+public class CriteriaPerformanceTest {
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("usage: java CriteriaPerformanceTest xls|xlsx rows formulas");
+            System.exit(1);
+        }
+        Workbook wb = "xls".equals(args[0]) ? new HSSFWorkbook() : new XSSFWorkbook();
+        int rows = Integer.parseInt(args[1]);
+        int formulas = Integer.parseInt(args[2]);
+
+        Sheet data = wb.createSheet("Data");
+        for (int r = 0; r < rows; r++) {
+            Row row = data.createRow(r);
+            row.createCell(0).setCellValue("Region " + (r % 20));
+            row.createCell(1).setCellValue(r % 50);
+            row.createCell(2).setCellValue(r % 1000 / 10.0);
+        }
+        String regions = "Data!$A$1:$A$" + rows;
+        String products = "Data!$B$1:$B$" + rows;
+        String amounts = "Data!$C$1:$C$" + rows;
+
+        Sheet report = wb.createSheet("Report");
+        for (int i = 0; i < formulas; i++) {
+            Row row = report.createRow(i);
+            String region = "\"Region " + (i % 20) + "\"";
+            switch (i % 3) {
+                case 0:
+                    row.createCell(0).setCellFormula("SUMIF(" + regions + "," + region + "," + amounts + ")");
+                    break;
+                case 1:
+                    row.createCell(0).setCellFormula("COUNTIF(" + regions + "," + region + ")");
+                    break;
+                default:
+                    row.createCell(0).setCellFormula("SUMIFS(" + amounts + "," + regions + "," + region
+                            + "," + products + "," + (i % 50) + ")");
+                    break;
+            }
+        }
+
+        FormulaEvaluator evaluator = wb.getCreationHelper().createFormulaEvaluator();
+        long start = System.nanoTime();
+        for (int i = 0; i < formulas; i++) {
+            evaluator.evaluateFormulaCell(report.getRow(i).getCell(0));
+        }
+        report("evaluate all", System.nanoTime() - start, formulas);
+
+        Cell amount = data.getRow(rows / 2).getCell(2);
+        amount.setCellValue(1000);
+        evaluator.notifyUpdateCell(amount);
+        start = System.nanoTime();
+        int changed = recalculate(evaluator);
+        report("recalculate changed amount", System.nanoTime() - start, changed);
+
+        Cell region = data.getRow(rows / 2).getCell(0);
+        region.setCellValue("Other region");
+        evaluator.notifyUpdateCell(region);
+        start = System.nanoTime();
+        changed = recalculate(evaluator);
+        report("recalculate changed region", System.nanoTime() - start, changed);
+    }
+
+    private static int recalculate(FormulaEvaluator evaluator) {
+        Set<Cell> changed;
+        if (evaluator instanceof HSSFFormulaEvaluator) {
+            changed = ((HSSFFormulaEvaluator) evaluator).recalculate();
+        } else {
+            changed = ((XSSFFormulaEvaluator) evaluator).recalculate();
+        }
+        return changed.size();
+    }
+
+    private static void report(String name, long nanos, int formulas) {
+        System.out.println(name + ": " + (nanos / 1000000) + " ms, " + formulas + " formulas");
+    }
+}
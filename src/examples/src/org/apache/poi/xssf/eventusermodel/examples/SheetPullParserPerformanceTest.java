@@ -0,0 +1,121 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+package org.apache.poi.xssf.eventusermodel.examples;
+
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetPullParser;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Compares how fast the sheets of a workbook are read by {@link XSSFSheetXMLHandler}
+ *  and by {@link XSSFSheetPullParser}, once with raw typed values and once with
+ *  formatted values. Times are averages over the measured iterations, after a warm-up run.
+ *
+ * usage: java SheetPullParserPerformanceTest file.xlsx iterations
+ */
+public class SheetPullParserPerformanceTest {
+    private static long checksum;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("usage: java SheetPullParserPerformanceTest file.xlsx iterations");
+            System.exit(1);
+        }
+        int iterations = Integer.parseInt(args[1]);
+        OPCPackage pkg = OPCPackage.open(args[0], PackageAccess.READ);
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+
+            for (int mode = 0; mode < 3; mode++) {
+                run(mode, reader, styles, strings);
+            }
+            long[] times = new long[3];
+            for (int i = 0; i < iterations; i++) {
+                for (int mode = 0; mode < 3; mode++) {
+                    times[mode] += run(mode, reader, styles, strings);
+                }
+            }
+            System.out.println("SAX handler, formatted values: " + times[0] / iterations / 1000000 + " ms");
+            System.out.println("pull parser, raw values:       " + times[1] / iterations / 1000000 + " ms");
+            System.out.println("pull parser, formatted values: " + times[2] / iterations / 1000000 + " ms");
+            System.out.println("(checksum " + checksum + ")");
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    private static long run(int mode, XSSFReader reader, StylesTable styles, ReadOnlySharedStringsTable strings)
+            throws Exception {
+        long start = System.nanoTime();
+        Iterator<InputStream> sheets = reader.getSheetsData();
+        while (sheets.hasNext()) {
+            InputStream is = sheets.next();
+            try {
+                if (mode == 0) {
+                    XMLReader xmlReader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+                    xmlReader.setContentHandler(new XSSFSheetXMLHandler(styles, strings, new CountingHandler(), false));
+                    xmlReader.parse(new InputSource(is));
+                } else {
+                    XSSFSheetPullParser parser = new XSSFSheetPullParser(is, styles, strings);
+                    DataFormatter formatter = mode == 2 ? new DataFormatter() : null;
+                    int event;
+                    while ((event = parser.next()) != XSSFSheetPullParser.END_DOCUMENT) {
+                        if (event != XSSFSheetPullParser.CELL) {
+                            continue;
+                        }
+                        if (formatter != null) {
+                            checksum += parser.getFormattedValue(formatter).length();
+                        } else if (parser.getCellType() == XSSFSheetPullParser.NUMBER) {
+                            checksum += (long)parser.getNumericValue();
+                        } else {
+                            checksum += parser.getSharedStringIndex();
+                        }
+                    }
+                }
+            } finally {
+                is.close();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static class CountingHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        public void startRow(int rowNum) {
+        }
+        public void endRow() {
+        }
+        public void cell(String cellReference, String formattedValue) {
+            checksum += formattedValue == null ? 0 : formattedValue.length();
+        }
+        public void headerFooter(String text, boolean isHeader, String tagName) {
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *  ====================================================================
+ *    Licensed to the Apache Software Foundation (ASF) under one or more
+ *    contributor license agreements.  See the NOTICE file distributed with
+ *    this work for additional information regarding copyright ownership.
+ *    The ASF licenses this file to You under the Apache License, Version 2.0
+ *    (the "License"); you may not use this file except in compliance with
+ *    the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * ====================================================================
+ */
+package org.apache.poi.xssf.streaming.examples;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.streaming.SXSSFRow;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.streaming.SheetDataWriter;
+
+/**
+ * Measures how fast {@link SheetDataWriter} serializes rows to its temp file.
+ * <p>
+ * The same rows are written repeatedly through the buffer-based writer and through
+ * a baseline that formats every cell the way SXSSF used to: a new <code>CellReference</code>
+ * per cell and string concatenation for numbers. The numbers printed are averages over
+ * the measured iterations, after a warm-up run of each.
+ * </p>
+ *
+ * usage: java SheetDataWriterPerformanceTest rows cols iterations
+ */
+public class SheetDataWriterPerformanceTest {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: java SheetDataWriterPerformanceTest rows cols iterations");
+            System.exit(1);
+        }
+        int rows = Integer.parseInt(args[0]);
+        int cols = Integer.parseInt(args[1]);
+        int iterations = Integer.parseInt(args[2]);
+
+        SXSSFWorkbook wb = new SXSSFWorkbook(-1);
+        try {
+            SXSSFSheet sheet = (SXSSFSheet)wb.createSheet();
+            SXSSFRow[] data = new SXSSFRow[rows];
+            for (int r = 0; r < rows; r++) {
+                Row row = sheet.createRow(r);
+                for (int c = 0; c < cols; c++) {
+                    Cell cell = row.createCell(c);
+                    switch (c % 3) {
+                        case 0: cell.setCellValue(r * cols + c); break;
+                        case 1: cell.setCellValue((r * cols + c) / 100.0); break;
+                        default: cell.setCellValue("label " + (c % 10)); break;
+                    }
+                }
+                data[r] = (SXSSFRow)row;
+            }
+
+            writeRows(data);
+            writeRowsConcatenating(data);
+
+            long fast = 0;
+            long baseline = 0;
+            for (int i = 0; i < iterations; i++) {
+                fast += writeRows(data);
+                baseline += writeRowsConcatenating(data);
+            }
+            long cells = (long)rows * cols;
+            report("SheetDataWriter", fast / iterations, cells);
+            report("concatenating baseline", baseline / iterations, cells);
+        } finally {
+            wb.dispose();
+        }
+    }
+
+    private static void report(String name, long nanos, long cells) {
+        System.out.println(name + ": " + (nanos / 1000000) + " ms, "
+                + (cells * 1000000000L / Math.max(nanos, 1)) + " cells/s");
+    }
+
+    private static long writeRows(SXSSFRow[] data) throws IOException {
+        SheetDataWriter writer = new TempFileRemovingWriter();
+        long start = System.nanoTime();
+        for (int r = 0; r < data.length; r++) {
+            writer.writeRow(r, data[r]);
+        }
+        writer.close();
+        return System.nanoTime() - start;
+    }
+
+    private static class TempFileRemovingWriter extends SheetDataWriter {
+        TempFileRemovingWriter() throws IOException {
+            super();
+        }
+
+        @Override
+        public File createTempFile() throws IOException {
+            File fd = super.createTempFile();
+            fd.deleteOnExit();
+            return fd;
+        }
+    }
+
+    /**
+     * Baseline for the comparison, formats cells with per-cell <code>String</code> allocations
+     */
+    private static long writeRowsConcatenating(SXSSFRow[] data) throws IOException {
+        File tmp = File.createTempFile("poi-sxssf-baseline", ".xml");
+        Writer out = new BufferedWriter(new FileWriter(tmp));
+        long start = System.nanoTime();
+        for (int r = 0; r < data.length; r++) {
+            out.write("<row r=\"" + (r + 1) + "\">\n");
+            SXSSFRow row = data[r];
+            for (int c = 0; c < row.getLastCellNum(); c++) {
+                Cell cell = row.getCell(c);
+                out.write("<c r=\"" + new CellReference(r, c).formatAsString() + "\"");
+                if (cell.getCellType() == Cell.CELL_TYPE_NUMERIC) {
+                    out.write(" t=\"n\"><v>" + cell.getNumericCellValue() + "</v>");
+                } else {
+                    out.write(" t=\"inlineStr\"><is><t>");
+                    char[] chars = cell.getStringCellValue().toCharArray();
+                    out.write(chars, 0, chars.length);
+                    out.write("</t></is>");
+                }
+                out.write("</c>");
+            }
+            out.write("</row>\n");
+        }
+        out.close();
+        long elapsed = System.nanoTime() - start;
+        tmp.delete();
+        return elapsed;
+    }
+}
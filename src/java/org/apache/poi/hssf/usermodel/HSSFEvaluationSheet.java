@@ -17,8 +17,10 @@
 
 package org.apache.poi.hssf.usermodel;
 
+import org.apache.poi.ss.formula.CellValuesReader;
 import org.apache.poi.ss.formula.EvaluationCell;
 import org.apache.poi.ss.formula.EvaluationSheet;
+import org.apache.poi.ss.usermodel.Cell;
 
 /**
  * HSSF wrapper for a sheet under evaluation
@@ -29,6 +31,12 @@ final class HSSFEvaluationSheet implements EvaluationSheet {
 
 	private final HSSFSheet _hs;
 
+	private final CellValuesReader _reader = new CellValuesReader() {
+		protected EvaluationCell createEvaluationCell(Cell cell, int cellType) {
+			return new HSSFEvaluationCell((HSSFCell) cell, HSSFEvaluationSheet.this);
+		}
+	};
+
 	public HSSFEvaluationSheet(HSSFSheet hs) {
 		_hs = hs;
 	}
@@ -47,4 +55,14 @@ final class HSSFEvaluationSheet implements EvaluationSheet {
 		}
 		return new HSSFEvaluationCell(cell, this);
 	}
+
+	public int getLastRowNum() {
+		return _hs.getPhysicalNumberOfRows() == 0 ? -1 : _hs.getLastRowNum();
+	}
+
+	public void getCellValues(int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex,
+			int[] cellTypes, double[] numbers, Object[] values) {
+		_reader.readCells(_hs, firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex,
+				cellTypes, numbers, values);
+	}
 }
\ No newline at end of file
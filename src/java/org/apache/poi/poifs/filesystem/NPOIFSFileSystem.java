@@ -35,7 +35,9 @@ import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.poi.poifs.common.POIFSBigBlockSize;
 import org.apache.poi.poifs.common.POIFSConstants;
@@ -43,6 +45,7 @@ import org.apache.poi.poifs.dev.POIFSViewable;
 import org.apache.poi.poifs.nio.ByteArrayBackedDataSource;
 import org.apache.poi.poifs.nio.DataSource;
 import org.apache.poi.poifs.nio.FileBackedDataSource;
+import org.apache.poi.poifs.nio.MappedFileBackedDataSource;
 import org.apache.poi.poifs.property.DirectoryProperty;
 import org.apache.poi.poifs.property.NPropertyTable;
 import org.apache.poi.poifs.storage.BATBlock;
@@ -86,6 +89,18 @@ public class NPOIFSFileSystem extends BlockStore
     
     private DataSource _data;
     
+    /**
+     * The default number of big blocks kept by the block cache
+     */
+    public static final int DEFAULT_BLOCK_CACHE_SIZE = 128;
+    
+    /**
+     * Recently used big blocks, <code>null</code> if caching is off
+     */
+    private BlockCache _block_cache = new BlockCache(DEFAULT_BLOCK_CACHE_SIZE);
+    private long _block_cache_hits;
+    private long _block_cache_misses;
+    
     /**
      * What big block size the file uses. Most files
      *  use 512 bytes, but a few use 4096
@@ -159,10 +174,36 @@ public class NPOIFSFileSystem extends BlockStore
      */
     public NPOIFSFileSystem(File file, boolean readOnly)
          throws IOException
+    {
+       this(file, readOnly, false);
+    }
+    
+    /**
+     * Creates a POIFSFileSystem from a <tt>File</tt>, optionally 
+     *  memory-mapping it.
+     *  
+     * A memory-mapped file hands out blocks as slices of the mapping, 
+     *  rather than reading each one into a newly allocated buffer, 
+     *  which is faster when streaming through large files. When not
+     *  read-only, changes to the blocks go straight to the file.
+     *  
+     * Note that with this constructor, you will need to call {@link #close()}
+     *  when you're done to have the underlying file closed, as the file is
+     *  kept open during normal operation to read the data out. 
+     *  
+     * @param file the File from which to read the data
+     * @param readOnly whether the file should be opened read-only
+     * @param memoryMapped whether the file should be memory-mapped
+     *
+     * @exception IOException on errors reading, or on invalid data
+     */
+    public NPOIFSFileSystem(File file, boolean readOnly, boolean memoryMapped)
+         throws IOException
     {
        this(
            (new RandomAccessFile(file, readOnly? "r" : "rw")).getChannel(),
-           true
+           true,
+           memoryMapped ? (readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE) : null
        );
     }
     
@@ -181,10 +222,13 @@ public class NPOIFSFileSystem extends BlockStore
     public NPOIFSFileSystem(FileChannel channel)
          throws IOException
     {
-       this(channel, false);
+       this(channel, false, null);
     }
     
-    private NPOIFSFileSystem(FileChannel channel, boolean closeChannelOnError)
+    /**
+     * @param mapMode how to memory-map the channel, <code>null</code> to read it block by block
+     */
+    private NPOIFSFileSystem(FileChannel channel, boolean closeChannelOnError, FileChannel.MapMode mapMode)
          throws IOException
     {
        this(false);
@@ -198,7 +242,11 @@ public class NPOIFSFileSystem extends BlockStore
           _header = new HeaderBlock(headerBuffer);
           
           // Now process the various entries
-          _data = new FileBackedDataSource(channel);
+          if(mapMode == null) {
+             _data = new FileBackedDataSource(channel);
+          } else {
+             _data = new MappedFileBackedDataSource(channel, mapMode == FileChannel.MapMode.READ_ONLY);
+          }
           readCoreContents();
        } catch(IOException e) {
           if(closeChannelOnError) {
@@ -413,6 +461,7 @@ public class NPOIFSFileSystem extends BlockStore
        ByteBuffer buffer = ByteBuffer.allocate(bigBlockSize.getBigBlockSize());
        int writeTo = (1+offset) * bigBlockSize.getBigBlockSize(); // Header isn't in BATs
        _data.write(buffer, writeTo);
+       invalidateBlockCache();
        // All done
        return newBAT;
     }
@@ -421,6 +470,25 @@ public class NPOIFSFileSystem extends BlockStore
      * Load the block at the given offset.
      */
     protected ByteBuffer getBlockAt(final int offset) throws IOException {
+       if(_block_cache == null) {
+          return readBlock(offset);
+       }
+       
+       // Hand out copies of the cached buffer, so that its
+       //  position and limit aren't changed by the caller
+       Integer key = Integer.valueOf(offset);
+       ByteBuffer block = _block_cache.get(key);
+       if(block != null) {
+          _block_cache_hits++;
+       } else {
+          _block_cache_misses++;
+          block = readBlock(offset);
+          _block_cache.put(key, block);
+       }
+       return block.duplicate();
+    }
+    
+    private ByteBuffer readBlock(final int offset) throws IOException {
        // The header block doesn't count, so add one
        long startAt = (offset+1) * bigBlockSize.getBigBlockSize();
        return _data.read(bigBlockSize.getBigBlockSize(), startAt);
@@ -439,11 +507,67 @@ public class NPOIFSFileSystem extends BlockStore
           // Allocate and write
           ByteBuffer buffer = ByteBuffer.allocate(getBigBlockSize());
           _data.write(buffer, startAt);
+          invalidateBlockCache();
           // Retrieve the properly backed block
           return getBlockAt(offset);
        }
     }
     
+    /**
+     * Drops all cached blocks. Needed whenever the data source is
+     *  written to directly, as that may replace the buffers behind
+     *  the cached blocks.
+     */
+    private void invalidateBlockCache() {
+       if(_block_cache != null) {
+          _block_cache.clear();
+       }
+    }
+    
+    /**
+     * Sets how many big blocks are kept in memory after they
+     *  were read. The cache is shared by all streams, including
+     *  the mini stream, and evicts the least recently used block
+     *  when full. Blocks from a memory-mapped file or a byte array 
+     *  are views onto the data, so caching them costs little memory;
+     *  blocks read from a channel are copies.
+     *  
+     * @param blocks the number of blocks to cache, 0 to turn the cache off
+     */
+    public void setBlockCacheSize(int blocks) {
+       if(blocks < 0) {
+          throw new IllegalArgumentException("The block cache size must not be negative");
+       }
+       if(blocks == 0) {
+          _block_cache = null;
+       } else if(_block_cache == null) {
+          _block_cache = new BlockCache(blocks);
+       } else {
+          _block_cache.setMaxSize(blocks);
+       }
+    }
+    
+    /**
+     * @return the number of big blocks the cache holds at most, 0 if it is off
+     */
+    public int getBlockCacheSize() {
+       return _block_cache == null ? 0 : _block_cache.getMaxSize();
+    }
+    
+    /**
+     * @return how often a big block was found in the cache
+     */
+    public long getBlockCacheHits() {
+       return _block_cache_hits;
+    }
+    
+    /**
+     * @return how often a big block had to be read, while the cache was on
+     */
+    public long getBlockCacheMisses() {
+       return _block_cache_misses;
+    }
+    
     /**
      * Returns the BATBlock that handles the specified offset,
      *  and the relative index within it
@@ -660,7 +784,7 @@ public class NPOIFSFileSystem extends BlockStore
      */
     public void writeFilesystem() throws IOException
     {
-       if(_data instanceof FileBackedDataSource) {
+       if(_data instanceof FileBackedDataSource || _data instanceof MappedFileBackedDataSource) {
           // Good, correct type
        } else {
           throw new IllegalArgumentException(
@@ -721,8 +845,38 @@ public class NPOIFSFileSystem extends BlockStore
      *  write from the FileSystem.
      */
     public void close() throws IOException {
+       invalidateBlockCache();
        _data.close();
     }
+    
+    /**
+     * Least recently used big blocks, by block offset
+     */
+    private static final class BlockCache extends LinkedHashMap<Integer, ByteBuffer> {
+       private static final long serialVersionUID = -3183428713052672604L;
+       private int maxSize;
+       
+       private BlockCache(int maxSize) {
+          super(16, 0.75f, true);
+          this.maxSize = maxSize;
+       }
+       private int getMaxSize() {
+          return maxSize;
+       }
+       private void setMaxSize(int maxSize) {
+          this.maxSize = maxSize;
+          // Shrink to the new size, dropping the oldest first
+          Iterator<Integer> it = keySet().iterator();
+          while(size() > maxSize) {
+             it.next();
+             it.remove();
+          }
+       }
+       @Override
+       protected boolean removeEldestEntry(Map.Entry<Integer, ByteBuffer> eldest) {
+          return size() > maxSize;
+       }
+    }
 
     /**
      * read in a file and write it back out again
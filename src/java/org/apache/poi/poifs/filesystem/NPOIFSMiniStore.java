@@ -21,7 +21,6 @@ package org.apache.poi.poifs.filesystem;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.poi.poifs.common.POIFSConstants;
@@ -42,6 +41,10 @@ public class NPOIFSMiniStore extends BlockStore
     private List<BATBlock>   _sbat_blocks;
     private HeaderBlock      _header;
     private RootProperty     _root;
+    /**
+     * The big blocks of the mini stream, <code>null</code> until needed
+     */
+    private int[]            _mini_stream_blocks;
 
     protected NPOIFSMiniStore(NPOIFSFileSystem filesystem, RootProperty root,
          List<BATBlock> sbats, HeaderBlock header)
@@ -64,14 +67,11 @@ public class NPOIFSMiniStore extends BlockStore
        int bigBlockOffset = byteOffset % _filesystem.getBigBlockSize();
        
        // Now locate the data block for it
-       Iterator<ByteBuffer> it = _mini_stream.getBlockIterator();
-       for(int i=0; i<bigBlockNumber; i++) {
-          it.next();
-       }
-       ByteBuffer dataBlock = it.next();
-       if(dataBlock == null) {
+       int[] bigBlocks = getMiniStreamBlocks();
+       if(bigBlockNumber >= bigBlocks.length) {
           throw new IndexOutOfBoundsException("Big block " + bigBlockNumber + " outside stream");
        }
+       ByteBuffer dataBlock = _filesystem.getBlockAt(bigBlocks[bigBlockNumber]);
 
        // Position ourselves, and take a slice 
        dataBlock.position(
@@ -82,6 +82,32 @@ public class NPOIFSMiniStore extends BlockStore
        return miniBuffer;
     }
     
+    /**
+     * Returns the big blocks of the mini stream in order, 
+     *  following the chain only the first time
+     */
+    private int[] getMiniStreamBlocks() throws IOException {
+       if(_mini_stream_blocks == null) {
+          ChainLoopDetector loopDetector = _filesystem.getChainLoopDetector();
+          int[] blocks = new int[16];
+          int count = 0;
+          int block = _mini_stream.getStartBlock();
+          while(block != POIFSConstants.END_OF_CHAIN) {
+             loopDetector.claim(block);
+             if(count == blocks.length) {
+                int[] grown = new int[count*2];
+                System.arraycopy(blocks, 0, grown, 0, count);
+                blocks = grown;
+             }
+             blocks[count++] = block;
+             block = _filesystem.getNextBlock(block);
+          }
+          _mini_stream_blocks = new int[count];
+          System.arraycopy(blocks, 0, _mini_stream_blocks, 0, count);
+       }
+       return _mini_stream_blocks;
+    }
+    
     /**
      * Load the block, extending the underlying stream if needed
      */
@@ -111,6 +137,7 @@ public class NPOIFSMiniStore extends BlockStore
           }
           _filesystem.setNextBlock(block, newBigBlock);
           _filesystem.setNextBlock(newBigBlock, POIFSConstants.END_OF_CHAIN);
+          _mini_stream_blocks = null;
 
           // Now try again to get it
           return createBlockIfNeeded(offset);
@@ -0,0 +1,182 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.poifs.nio;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A POIFS {@link DataSource} backed by a memory-mapped File.
+ * <p>
+ * Reads return slices of the mapping, so no buffer is allocated and
+ *  nothing is copied per block. When opened read-write, changes made
+ *  to the returned buffers go straight to the file.
+ * <p>
+ * The file is mapped in segments of up to 1GB. Reads of blocks never
+ *  straddle two segments, as the segment size is a multiple of every
+ *  block size; other reads that do are copied into a new buffer.
+ * <p>
+ * Java cannot unmap a file explicitly, the mapping is released once
+ *  it is garbage collected. Until then the file may not be deleted
+ *  on some platforms.
+ */
+public class MappedFileBackedDataSource extends DataSource {
+   private static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+   private final FileChannel channel;
+   private final boolean readOnly;
+   private final int segmentSize;
+   private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+   private long size;
+
+   public MappedFileBackedDataSource(File file, boolean readOnly) throws IOException {
+      this(openChannel(file, readOnly), readOnly);
+   }
+   public MappedFileBackedDataSource(FileChannel channel, boolean readOnly) throws IOException {
+      this(channel, readOnly, DEFAULT_SEGMENT_SIZE);
+   }
+   MappedFileBackedDataSource(FileChannel channel, boolean readOnly, int segmentSize) throws IOException {
+      this.channel = channel;
+      this.readOnly = readOnly;
+      this.segmentSize = segmentSize;
+      map(channel.size());
+   }
+
+   private static FileChannel openChannel(File file, boolean readOnly) throws FileNotFoundException {
+      if(!file.exists()) {
+         throw new FileNotFoundException(file.toString());
+      }
+      return (new RandomAccessFile(file, readOnly ? "r" : "rw")).getChannel();
+   }
+
+   public ByteBuffer read(int length, long position) {
+      if(position >= size) {
+         throw new IndexOutOfBoundsException(
+               "Unable to read " + length + " bytes from " +
+               position + " in stream of length " + size
+         );
+      }
+
+      int toRead = (int)Math.min(length, size - position);
+      MappedByteBuffer segment = segments.get((int)(position / segmentSize));
+      int offset = (int)(position % segmentSize);
+      if(offset + toRead <= segment.capacity()) {
+         ByteBuffer dst = segment.duplicate();
+         dst.position(offset);
+         dst.limit(offset + toRead);
+         return dst.slice();
+      }
+
+      // Straddles two segments, copy it
+      ByteBuffer dst = ByteBuffer.allocate(toRead);
+      copy(position, dst);
+      dst.position(0);
+      return dst;
+   }
+
+   public void write(ByteBuffer src, long position) throws IOException {
+      if(readOnly) {
+         throw new IllegalStateException("The file was opened read-only");
+      }
+      long endPosition = position + src.remaining();
+      if(endPosition > size) {
+         // Extend the file, then map the new space
+         while(src.hasRemaining()) {
+            position += channel.write(src, position);
+         }
+         map(Math.max(endPosition, channel.size()));
+         return;
+      }
+
+      while(src.hasRemaining()) {
+         MappedByteBuffer segment = segments.get((int)(position / segmentSize));
+         ByteBuffer dst = segment.duplicate();
+         dst.position((int)(position % segmentSize));
+         int count = Math.min(dst.remaining(), src.remaining());
+         ByteBuffer chunk = src.duplicate();
+         chunk.limit(chunk.position() + count);
+         dst.put(chunk);
+         src.position(src.position() + count);
+         position += count;
+      }
+   }
+
+   public void copyTo(OutputStream stream) throws IOException {
+      // Wrap the OutputSteam as a channel
+      WritableByteChannel out = Channels.newChannel(stream);
+      // Copy each segment straight from the mapping
+      for(MappedByteBuffer segment : segments) {
+         ByteBuffer src = segment.duplicate();
+         src.position(0);
+         while(src.hasRemaining()) {
+            out.write(src);
+         }
+      }
+   }
+
+   public long size() {
+      return size;
+   }
+
+   public void close() throws IOException {
+      segments.clear();
+      size = -1;
+      channel.close();
+   }
+
+   /**
+    * Map the file up to <code>newSize</code>, remapping the last
+    *  segment if it was only partly used
+    */
+   private void map(long newSize) throws IOException {
+      FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+      long mapped = (long)segments.size() * segmentSize;
+      if(segments.size() > 0 && segments.get(segments.size()-1).capacity() < segmentSize) {
+         segments.remove(segments.size()-1);
+         mapped -= segmentSize;
+      }
+      while(mapped < newSize) {
+         long length = Math.min(segmentSize, newSize - mapped);
+         segments.add(channel.map(mode, mapped, length));
+         mapped += length;
+      }
+      size = newSize;
+   }
+
+   private void copy(long position, ByteBuffer dst) {
+      while(dst.hasRemaining()) {
+         ByteBuffer src = segments.get((int)(position / segmentSize)).duplicate();
+         src.position((int)(position % segmentSize));
+         if(src.remaining() > dst.remaining()) {
+            src.limit(src.position() + dst.remaining());
+         }
+         position += src.remaining();
+         dst.put(src);
+      }
+   }
+}
@@ -0,0 +1,119 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+
+package org.apache.poi.ss.formula;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.formula.eval.BlankEval;
+import org.apache.poi.ss.formula.eval.ValueEval;
+
+/**
+ * The values of all cells of an area, read at once by the evaluator and kept in its cache
+ * until any of the cells changes (see {@link CachingAreaEval}).<p/>
+ *
+ * Functions searching the same area many times, like the lookup functions, can keep an index
+ * of the values here. It is dropped together with the values.<p/>
+ *
+ * Only the rows up to the last row of the sheet are stored, the cells of whole columns below
+ * it are all blank.<p/>
+ *
+ * For POI internal use only
+ */
+public final class CachedAreaValues implements ValueEval {
+
+	/**
+	 * The number of cells an area needs for the functions to use its cached values and
+	 * indexes, smaller areas are read cell by cell
+	 */
+	public static final int MIN_INDEXED_SIZE = 64;
+
+	private final int _width;
+	private final int _height;
+	/**
+	 * the values of the first rows, the cells after them are blank
+	 */
+	private final ValueEval[] _values;
+	private Map<Object, Object> _indexes;
+
+	/* package */ CachedAreaValues(int width, int height, ValueEval[] values) {
+		_width = width;
+		_height = height;
+		_values = values;
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public int getHeight() {
+		return _height;
+	}
+
+	/**
+	 * @return the number of cells in the area
+	 */
+	public int getSize() {
+		return _width * _height;
+	}
+
+	/**
+	 * @return the number of cells stored, all cells from this index on are blank. Indexes
+	 * over the values need not visit them
+	 */
+	public int getUsedSize() {
+		return _values.length;
+	}
+
+	/**
+	 * @param index zero based index of the cell, the cells are ordered row by row
+	 * @return never <code>null</code>, {@link BlankEval} for blank cells
+	 */
+	public ValueEval getValue(int index) {
+		if (index >= _values.length) {
+			return BlankEval.instance;
+		}
+		return _values[index];
+	}
+
+	/**
+	 * @param rowIndex relative row index (zero based)
+	 * @param columnIndex relative column index (zero based)
+	 */
+	public ValueEval getValue(int rowIndex, int columnIndex) {
+		return getValue(rowIndex * _width + columnIndex);
+	}
+
+	/**
+	 * @return the index stored for <tt>key</tt>, <code>null</code> if there is none yet
+	 */
+	public Object getIndex(Object key) {
+		if (_indexes == null) {
+			return null;
+		}
+		return _indexes.get(key);
+	}
+
+	public void setIndex(Object key, Object index) {
+		if (_indexes == null) {
+			_indexes = new HashMap<Object, Object>();
+		}
+		_indexes.put(key, index);
+	}
+}
@@ -0,0 +1,36 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+
+package org.apache.poi.ss.formula;
+
+/**
+ * An area whose cell values can be read at once and kept by the evaluator.<p/>
+ *
+ * The formula being evaluated then depends on the area as a whole: its cached result is
+ * cleared as soon as any cell of the area changes, even one it never looked at.<p/>
+ *
+ * For POI internal use only
+ */
+public interface CachingAreaEval extends TwoDEval {
+
+	/**
+	 * @return the values of all cells of this area, <code>null</code> if no other formula cell
+	 * read the area before, or the values can't be cached because of a circular reference
+	 */
+	CachedAreaValues getCachedValues();
+}
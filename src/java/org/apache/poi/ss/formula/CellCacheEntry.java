@@ -17,6 +17,9 @@
 
 package org.apache.poi.ss.formula;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.poi.ss.formula.eval.BlankEval;
 import org.apache.poi.ss.formula.eval.BoolEval;
 import org.apache.poi.ss.formula.eval.ErrorEval;
@@ -110,12 +113,17 @@ abstract class CellCacheEntry implements ICacheEntry {
 	 * @param formulaCells
 	 */
 	protected final void recurseClearCachedFormulaResults() {
-		FormulaCellCacheEntry[] formulaCells = getConsumingCells();
-
-		for (int i = 0; i < formulaCells.length; i++) {
-			FormulaCellCacheEntry fc = formulaCells[i];
-			fc.clearFormulaEntry();
-			fc.recurseClearCachedFormulaResults();
+		// iterative, long chains of formula cells would overflow the stack otherwise
+		List<CellCacheEntry> pending = new ArrayList<CellCacheEntry>();
+		pending.add(this);
+		while (!pending.isEmpty()) {
+			FormulaCellCacheEntry[] formulaCells = pending.remove(pending.size() - 1).getConsumingCells();
+
+			for (int i = formulaCells.length - 1; i >= 0; i--) {
+				FormulaCellCacheEntry fc = formulaCells[i];
+				fc.clearFormulaEntry();
+				pending.add(fc);
+			}
 		}
 	}
 
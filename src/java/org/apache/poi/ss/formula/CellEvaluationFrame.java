@@ -70,6 +70,14 @@ final class CellEvaluationFrame {
 		}
 		_usedBlankCellGroup.addCell(bookIndex, sheetIndex, rowIndex, columnIndex);
 	}
+	public void addUsedBlankArea(int bookIndex, int sheetIndex, int firstRowIndex, int firstColumnIndex,
+			int lastRowIndex, int lastColumnIndex) {
+		if (_usedBlankCellGroup == null) {
+			_usedBlankCellGroup = new FormulaUsedBlankCellSet();
+		}
+		_usedBlankCellGroup.addRectangle(bookIndex, sheetIndex, firstRowIndex, firstColumnIndex,
+				lastRowIndex, lastColumnIndex);
+	}
 
 	public void updateFormulaResult(ValueEval result) {
 		_cce.updateFormulaResult(result, getSensitiveInputCells(), _usedBlankCellGroup);
@@ -0,0 +1,146 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * Reads the cells of a usermodel sheet into the arrays of
+ * {@link EvaluationSheet#getCellValues(int, int, int, int, int[], double[], Object[])},
+ * for the evaluation sheets of the usermodels.<p/>
+ *
+ * For POI internal use only
+ */
+public abstract class CellValuesReader {
+
+	/**
+	 * @param cellType the type of the cell as returned by {@link #getCellType(Row, Cell)}
+	 * @return the evaluation cell stored for a formula cell
+	 */
+	protected abstract EvaluationCell createEvaluationCell(Cell cell, int cellType);
+
+	/**
+	 * @return the type of the cell which is stored, {@link Cell#getCellType()} by default
+	 */
+	protected int getCellType(Row row, Cell cell) {
+		return cell.getCellType();
+	}
+
+	/**
+	 * Reads all cells of an area of <tt>sheet</tt>. Areas taller than the number of rows in the
+	 * sheet (e.g. whole columns) are mostly empty, only the rows which exist are visited.
+	 */
+	public void readCells(Sheet sheet, int firstRowIndex, int firstColumnIndex, int lastRowIndex,
+			int lastColumnIndex, int[] cellTypes, double[] numbers, Object[] values) {
+		int width = lastColumnIndex - firstColumnIndex + 1;
+		int height = lastRowIndex - firstRowIndex + 1;
+		if (height <= sheet.getPhysicalNumberOfRows()) {
+			for (int i = 0; i < height; i++) {
+				readRow(sheet.getRow(firstRowIndex + i), firstColumnIndex, width, i * width,
+						cellTypes, numbers, values);
+			}
+			return;
+		}
+		Arrays.fill(cellTypes, 0, width * height, Cell.CELL_TYPE_BLANK);
+		Arrays.fill(values, 0, width * height, null);
+		for (Iterator<Row> it = sheet.rowIterator(); it.hasNext(); ) {
+			Row row = it.next();
+			int rowIndex = row.getRowNum();
+			if (rowIndex > lastRowIndex) {
+				break;
+			}
+			if (rowIndex >= firstRowIndex) {
+				readRow(row, firstColumnIndex, width, (rowIndex - firstRowIndex) * width,
+						cellTypes, numbers, values);
+			}
+		}
+	}
+
+	/**
+	 * Reads the cells of one row of an area
+	 *
+	 * @param row <code>null</code> if the row does not exist, its cells are blank
+	 * @param offset the index of the row's first cell in the arrays
+	 */
+	public void readRow(Row row, int firstColumnIndex, int width, int offset,
+			int[] cellTypes, double[] numbers, Object[] values) {
+		for (int j = 0; j < width; j++) {
+			int i = offset + j;
+			Cell cell = row == null ? null : row.getCell(firstColumnIndex + j);
+			if (cell == null) {
+				cellTypes[i] = Cell.CELL_TYPE_BLANK;
+				values[i] = null;
+				continue;
+			}
+			int cellType = getCellType(row, cell);
+			cellTypes[i] = cellType;
+			values[i] = null;
+			switch (cellType) {
+				case Cell.CELL_TYPE_NUMERIC:
+					numbers[i] = cell.getNumericCellValue();
+					break;
+				case Cell.CELL_TYPE_STRING:
+					values[i] = cell.getStringCellValue();
+					break;
+				case Cell.CELL_TYPE_BOOLEAN:
+					values[i] = Boolean.valueOf(cell.getBooleanCellValue());
+					break;
+				case Cell.CELL_TYPE_ERROR:
+					values[i] = Integer.valueOf(cell.getErrorCellValue());
+					break;
+				case Cell.CELL_TYPE_FORMULA:
+					values[i] = createEvaluationCell(cell, cellType);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Stores the value of an evaluation cell, for sheets which keep some cells as evaluation
+	 * cells only
+	 *
+	 * @param i the index of the cell in the arrays
+	 */
+	public static void readCell(EvaluationCell cell, int i, int[] cellTypes, double[] numbers, Object[] values) {
+		int cellType = cell.getCellType();
+		cellTypes[i] = cellType;
+		values[i] = null;
+		switch (cellType) {
+			case Cell.CELL_TYPE_NUMERIC:
+				numbers[i] = cell.getNumericCellValue();
+				break;
+			case Cell.CELL_TYPE_STRING:
+				values[i] = cell.getStringCellValue();
+				break;
+			case Cell.CELL_TYPE_BOOLEAN:
+				values[i] = Boolean.valueOf(cell.getBooleanCellValue());
+				break;
+			case Cell.CELL_TYPE_ERROR:
+				values[i] = Integer.valueOf(cell.getErrorCellValue());
+				break;
+			case Cell.CELL_TYPE_FORMULA:
+				values[i] = cell;
+				break;
+		}
+	}
+}
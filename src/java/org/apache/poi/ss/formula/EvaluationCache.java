@@ -17,6 +17,15 @@
 
 package org.apache.poi.ss.formula;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.apache.poi.ss.formula.eval.BlankEval;
 import org.apache.poi.ss.formula.eval.BoolEval;
 import org.apache.poi.ss.formula.eval.ErrorEval;
@@ -39,6 +48,24 @@ final class EvaluationCache {
 
 	private final PlainCellCache _plainCellCache;
 	private final FormulaCellCache _formulaCellCache;
+	/**
+	 * Entries holding the {@link CachedAreaValues} of areas read at once. They take part in
+	 * the dependency tracking like formula cells, but are not attached to any cell
+	 */
+	private final Map<AreaLoc, FormulaCellCacheEntry> _areaValuesEntries;
+	/**
+	 * The cell that read each area without cached values first. The values of an area are only
+	 * cached once a second cell reads it, so that areas read by a single formula, like the
+	 * growing ranges of running totals, don't keep a copy of their values each
+	 */
+	private final Map<AreaLoc, CellCacheEntry> _areaFirstReaders;
+	/**
+	 * Formula cells whose cached results were cleared since they were last recalculated,
+	 * with their value at that time (<code>null</code> if they had none)
+	 */
+	private final Map<FormulaCellCacheEntry, ValueEval> _dirtyFormulaCells;
+	/** <code>false</code> until dirty formula cells are asked for, nothing is recorded before */
+	private boolean _trackDirtyCells;
 	/** only used for testing. <code>null</code> otherwise */
 	final IEvaluationListener _evaluationListener;
 
@@ -46,6 +73,9 @@ final class EvaluationCache {
 		_evaluationListener = evaluationListener;
 		_plainCellCache = new PlainCellCache();
 		_formulaCellCache = new FormulaCellCache();
+		_areaValuesEntries = new HashMap<AreaLoc, FormulaCellCacheEntry>();
+		_areaFirstReaders = new HashMap<AreaLoc, CellCacheEntry>();
+		_dirtyFormulaCells = new LinkedHashMap<FormulaCellCacheEntry, ValueEval>();
 	}
 
 	public void notifyUpdateCell(int bookIndex, int sheetIndex, EvaluationCell cell) {
@@ -58,7 +88,8 @@ final class EvaluationCache {
 
 		if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) {
 			if (fcce == null) {
-				fcce = new FormulaCellCacheEntry();
+				fcce = new FormulaCellCacheEntry(cell, bookIndex);
+				markDirty(fcce);
 				if (pcce == null) {
 					if (_evaluationListener != null) {
 						_evaluationListener.onChangeFromBlankValue(sheetIndex, rowIndex,
@@ -69,13 +100,17 @@ final class EvaluationCache {
 				}
 				_formulaCellCache.put(cell, fcce);
 			} else {
+				markDirty(fcce);
 				fcce.recurseClearCachedFormulaResults(_evaluationListener);
 				fcce.clearFormulaEntry();
+				// the formula itself may have changed
+				fcce.setFormulaTokens(null);
 			}
 			if (pcce == null) {
 				// was formula cell before - no change of type
 			} else {
 				// changing from plain cell to formula cell
+				markConsumersDirty(pcce);
 				pcce.recurseClearCachedFormulaResults(_evaluationListener);
 				_plainCellCache.remove(loc);
 			}
@@ -98,6 +133,7 @@ final class EvaluationCache {
 				}
 			} else {
 				if (pcce.updateValue(value)) {
+					markConsumersDirty(pcce);
 					pcce.recurseClearCachedFormulaResults(_evaluationListener);
 				}
 				if (value == BlankEval.instance) {
@@ -108,6 +144,7 @@ final class EvaluationCache {
 				// was plain cell before - no change of type
 			} else {
 				// was formula cell before - now a plain value
+				markConsumersDirty(fcce);
 				_formulaCellCache.remove(cell);
 				fcce.setSensitiveInputCells(null);
 				fcce.recurseClearCachedFormulaResults(_evaluationListener);
@@ -118,12 +155,20 @@ final class EvaluationCache {
 	private void updateAnyBlankReferencingFormulas(int bookIndex, int sheetIndex,
 			final int rowIndex, final int columnIndex) {
 		final BookSheetKey bsk = new BookSheetKey(bookIndex, sheetIndex);
-		_formulaCellCache.applyOperation(new IEntryOperation() {
+		IEntryOperation operation = new IEntryOperation() {
 
 			public void processEntry(FormulaCellCacheEntry entry) {
+				if (entry.isUsingBlankCell(bsk, rowIndex, columnIndex)) {
+					markDirty(entry);
+				}
 				entry.notifyUpdatedBlankCell(bsk, rowIndex, columnIndex, _evaluationListener);
 			}
-		});
+		};
+		_formulaCellCache.applyOperation(operation);
+		Iterator<FormulaCellCacheEntry> it = _areaValuesEntries.values().iterator();
+		while (it.hasNext()) {
+			operation.processEntry(it.next());
+		}
 	}
 
 	public PlainValueCellCacheEntry getPlainValueEntry(int bookIndex, int sheetIndex,
@@ -148,7 +193,7 @@ final class EvaluationCache {
 		}
 		return result;
 	}
-	private boolean areValuesEqual(ValueEval a, ValueEval b) {
+	/* package */ static boolean areValuesEqual(ValueEval a, ValueEval b) {
 		if (a == null) {
 			return false;
 		}
@@ -175,16 +220,126 @@ final class EvaluationCache {
 		throw new IllegalStateException("Unexpected value class (" + cls.getName() + ")");
 	}
 
-	public FormulaCellCacheEntry getOrCreateFormulaCellEntry(EvaluationCell cell) {
+	public FormulaCellCacheEntry getOrCreateFormulaCellEntry(EvaluationCell cell, int bookIndex) {
 		FormulaCellCacheEntry result = _formulaCellCache.get(cell);
 		if (result == null) {
 
-			result = new FormulaCellCacheEntry();
+			result = new FormulaCellCacheEntry(cell, bookIndex);
 			_formulaCellCache.put(cell, result);
 		}
 		return result;
 	}
 
+	/**
+	 * @param reader the cache entry of the cell reading the area, <code>null</code> if unknown
+	 * @return the entry holding the {@link CachedAreaValues} of the specified area, its value
+	 * is <code>null</code> until the area is read, and again once any of its cells changes.
+	 * <code>null</code> if the area should be read cell by cell, as no other cell read it before
+	 */
+	public FormulaCellCacheEntry getAreaValuesEntry(int bookIndex, int sheetIndex,
+			int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex,
+			CellCacheEntry reader) {
+		AreaLoc key = new AreaLoc(new Loc(bookIndex, sheetIndex, firstRowIndex, firstColumnIndex),
+				lastRowIndex, lastColumnIndex);
+		FormulaCellCacheEntry result = _areaValuesEntries.get(key);
+		if (result == null) {
+			if (!_areaFirstReaders.containsKey(key)) {
+				_areaFirstReaders.put(key, reader);
+				return null;
+			}
+			if (reader != null && _areaFirstReaders.get(key) == reader) {
+				// the same cell again, e.g. recalculated after a change
+				return null;
+			}
+			_areaFirstReaders.remove(key);
+			result = new FormulaCellCacheEntry(null, bookIndex);
+			_areaValuesEntries.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return <code>true</code> if <code>entry</code> is still the cache entry of its cell,
+	 * <code>false</code> if the cell was deleted or is no longer a formula cell
+	 */
+	public boolean isCurrentFormulaCellEntry(FormulaCellCacheEntry entry) {
+		return _formulaCellCache.get(entry.getCell()) == entry;
+	}
+
+	/**
+	 * Removes and returns the dirty formula cells of the specified workbook, in the order
+	 * they were made dirty
+	 * @return the value each cell had before it was made dirty, <code>null</code> for
+	 * formula cells that were not evaluated before
+	 */
+	public Map<FormulaCellCacheEntry, ValueEval> removeDirtyFormulaCells(int bookIndex) {
+		Map<FormulaCellCacheEntry, ValueEval> result = new LinkedHashMap<FormulaCellCacheEntry, ValueEval>();
+		Iterator<Map.Entry<FormulaCellCacheEntry, ValueEval>> it = _dirtyFormulaCells.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<FormulaCellCacheEntry, ValueEval> me = it.next();
+			if (me.getKey().getBookIndex() == bookIndex) {
+				result.put(me.getKey(), me.getValue());
+				it.remove();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Starts or stops recording the formula cells made dirty by cell changes. Recording is off
+	 * by default, as it walks the consumers of every changed cell
+	 */
+	public void setTrackDirtyCells(boolean trackDirtyCells) {
+		_trackDirtyCells = trackDirtyCells;
+		if (!trackDirtyCells) {
+			_dirtyFormulaCells.clear();
+		}
+	}
+
+	public boolean isTrackDirtyCells() {
+		return _trackDirtyCells;
+	}
+
+	/**
+	 * Records the formula cell and all formula cells depending on it as dirty, must be
+	 * called before their cached results are cleared
+	 */
+	private void markDirty(FormulaCellCacheEntry fcce) {
+		if (!_trackDirtyCells) {
+			return;
+		}
+		// entries of cached area values have no cell to recalculate, only their consumers
+		if (fcce.getCell() != null && !_dirtyFormulaCells.containsKey(fcce)) {
+			// keep the value from before the first change
+			_dirtyFormulaCells.put(fcce, fcce.getValue());
+		}
+		markConsumersDirty(fcce);
+	}
+
+	private void markConsumersDirty(CellCacheEntry cce) {
+		if (!_trackDirtyCells) {
+			return;
+		}
+		// iterative, long chains of formula cells would overflow the stack otherwise
+		Set<CellCacheEntry> visited = new HashSet<CellCacheEntry>();
+		List<CellCacheEntry> pending = new ArrayList<CellCacheEntry>();
+		pending.add(cce);
+		visited.add(cce);
+		while (!pending.isEmpty()) {
+			FormulaCellCacheEntry[] formulaCells = pending.remove(pending.size() - 1).getConsumingCells();
+			for (int i = 0; i < formulaCells.length; i++) {
+				FormulaCellCacheEntry fc = formulaCells[i];
+				if (!visited.add(fc)) {
+					continue;
+				}
+				if (fc.getCell() != null && !_dirtyFormulaCells.containsKey(fc)) {
+					_dirtyFormulaCells.put(fc, fc.getValue());
+				}
+				pending.add(fc);
+			}
+		}
+	}
+
 	/**
 	 * Should be called whenever there are changes to input cells in the evaluated workbook.
 	 */
@@ -194,6 +349,9 @@ final class EvaluationCache {
 		}
 		_plainCellCache.clear();
 		_formulaCellCache.clear();
+		_areaValuesEntries.clear();
+		_areaFirstReaders.clear();
+		_dirtyFormulaCells.clear();
 	}
 	public void notifyDeleteCell(int bookIndex, int sheetIndex, EvaluationCell cell) {
 
@@ -202,6 +360,7 @@ final class EvaluationCache {
 			if (fcce == null) {
 				// formula cell has not been evaluated yet
 			} else {
+				markConsumersDirty(fcce);
 				fcce.setSensitiveInputCells(null);
 				fcce.recurseClearCachedFormulaResults(_evaluationListener);
 			}
@@ -212,8 +371,32 @@ final class EvaluationCache {
 			if (pcce == null) {
 				// cache entry doesn't exist. nothing to do
 			} else {
+				markConsumersDirty(pcce);
 				pcce.recurseClearCachedFormulaResults(_evaluationListener);
 			}
 		}
 	}
+
+	private static final class AreaLoc {
+
+		private final Loc _firstCell;
+		private final int _lastRowIndex;
+		private final int _lastColumnIndex;
+
+		public AreaLoc(Loc firstCell, int lastRowIndex, int lastColumnIndex) {
+			_firstCell = firstCell;
+			_lastRowIndex = lastRowIndex;
+			_lastColumnIndex = lastColumnIndex;
+		}
+
+		public int hashCode() {
+			return _firstCell.hashCode() + 31 * _lastRowIndex + 17 * _lastColumnIndex;
+		}
+
+		public boolean equals(Object obj) {
+			AreaLoc other = (AreaLoc) obj;
+			return _firstCell.equals(other._firstCell) && _lastRowIndex == other._lastRowIndex
+					&& _lastColumnIndex == other._lastColumnIndex;
+		}
+	}
 }
@@ -0,0 +1,325 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.poi.ss.formula.ptg.AbstractFunctionPtg;
+import org.apache.poi.ss.formula.ptg.OperationPtg;
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * Collects statistics about formula evaluation, to find the formulas and functions which take
+ * most of the time: the calls and time of each function and operator, the slowest formula cells,
+ * the hits and misses of the evaluation cache and the maximum depth of formula cells evaluated
+ * to evaluate another one.<br/>
+ *
+ * A profile is set with <tt>setEvaluationProfile()</tt> of the HSSF or XSSF formula evaluator.
+ * Nothing is collected without a profile.<br/>
+ *
+ * Times include the evaluation of the cells referenced by a function or cell, as these are
+ * evaluated when they are first used. A profile can be shared by evaluators used concurrently.
+ */
+public final class EvaluationProfile {
+
+	/**
+	 * The calls of a function or operator
+	 */
+	public static final class FunctionStatistics {
+		private final String _name;
+		private long _callCount;
+		private long _totalNanos;
+
+		FunctionStatistics(String name, long callCount, long totalNanos) {
+			_name = name;
+			_callCount = callCount;
+			_totalNanos = totalNanos;
+		}
+
+		/**
+		 * @return the name of the function, or the symbol of the operator (e.g. '+')
+		 */
+		public String getName() {
+			return _name;
+		}
+
+		public long getCallCount() {
+			return _callCount;
+		}
+
+		public long getTotalNanos() {
+			return _totalNanos;
+		}
+	}
+
+	/**
+	 * The evaluation of a formula cell
+	 */
+	public static final class CellStatistics {
+		private final String _sheetName;
+		private final int _rowIndex;
+		private final int _columnIndex;
+		private final long _nanos;
+
+		CellStatistics(String sheetName, int rowIndex, int columnIndex, long nanos) {
+			_sheetName = sheetName;
+			_rowIndex = rowIndex;
+			_columnIndex = columnIndex;
+			_nanos = nanos;
+		}
+
+		public String getSheetName() {
+			return _sheetName;
+		}
+
+		public int getRowIndex() {
+			return _rowIndex;
+		}
+
+		public int getColumnIndex() {
+			return _columnIndex;
+		}
+
+		public long getNanos() {
+			return _nanos;
+		}
+
+		/**
+		 * @return the reference of the cell, like 'Sheet1'!B3
+		 */
+		public String formatAsString() {
+			return new CellReference(_sheetName, _rowIndex, _columnIndex, false, false).formatAsString();
+		}
+	}
+
+	private static final Comparator<CellStatistics> FASTER_CELL_FIRST = new Comparator<CellStatistics>() {
+		public int compare(CellStatistics a, CellStatistics b) {
+			return a._nanos < b._nanos ? -1 : a._nanos > b._nanos ? 1 : 0;
+		}
+	};
+
+	private final int _maxSlowestCells;
+	private final Map<String, FunctionStatistics> _functions;
+	private final PriorityQueue<CellStatistics> _slowestCells;
+	private long _evaluatedCellCount;
+	private long _cellCacheHitCount;
+	private long _areaCacheHitCount;
+	private long _areaCacheMissCount;
+	private int _maxEvaluationDepth;
+
+	/**
+	 * Creates a profile keeping the 10 slowest cells
+	 */
+	public EvaluationProfile() {
+		this(10);
+	}
+
+	/**
+	 * @param maxSlowestCells the number of slowest formula cells to keep
+	 */
+	public EvaluationProfile(int maxSlowestCells) {
+		if (maxSlowestCells < 0) {
+			throw new IllegalArgumentException("maxSlowestCells must not be negative");
+		}
+		_maxSlowestCells = maxSlowestCells;
+		_functions = new HashMap<String, FunctionStatistics>();
+		_slowestCells = new PriorityQueue<CellStatistics>(maxSlowestCells + 1, FASTER_CELL_FIRST);
+	}
+
+	/**
+	 * @return the name of the function, or the symbol of the operator
+	 */
+	/* package */ static String getOperationName(OperationPtg ptg) {
+		if (ptg instanceof AbstractFunctionPtg) {
+			return ((AbstractFunctionPtg) ptg).getName();
+		}
+		String[] operands = new String[ptg.getNumberOfOperands()];
+		for (int i = 0; i < operands.length; i++) {
+			operands[i] = "";
+		}
+		return ptg.toFormulaString(operands);
+	}
+
+	/* package */ synchronized void onEvaluateFunction(String name, long nanos) {
+		FunctionStatistics stats = _functions.get(name);
+		if (stats == null) {
+			stats = new FunctionStatistics(name, 0, 0);
+			_functions.put(name, stats);
+		}
+		stats._callCount++;
+		stats._totalNanos += nanos;
+	}
+
+	/**
+	 * @param depth the number of formula cells being evaluated, including this one
+	 */
+	/* package */ synchronized void onEvaluateCell(String sheetName, int rowIndex, int columnIndex,
+			long nanos, int depth) {
+		_evaluatedCellCount++;
+		if (depth > _maxEvaluationDepth) {
+			_maxEvaluationDepth = depth;
+		}
+		if (_maxSlowestCells == 0) {
+			return;
+		}
+		if (_slowestCells.size() == _maxSlowestCells) {
+			if (_slowestCells.peek()._nanos >= nanos) {
+				return;
+			}
+			_slowestCells.poll();
+		}
+		_slowestCells.add(new CellStatistics(sheetName, rowIndex, columnIndex, nanos));
+	}
+
+	/* package */ synchronized void onCellCacheHit() {
+		_cellCacheHitCount++;
+	}
+
+	/* package */ synchronized void onAreaCacheHit() {
+		_areaCacheHitCount++;
+	}
+
+	/* package */ synchronized void onAreaCacheMiss() {
+		_areaCacheMissCount++;
+	}
+
+	/**
+	 * @return the statistics of all functions and operators called, most time consuming first
+	 */
+	public synchronized List<FunctionStatistics> getFunctionStatistics() {
+		List<FunctionStatistics> result = new ArrayList<FunctionStatistics>(_functions.size());
+		for (FunctionStatistics stats : _functions.values()) {
+			result.add(new FunctionStatistics(stats._name, stats._callCount, stats._totalNanos));
+		}
+		Collections.sort(result, new Comparator<FunctionStatistics>() {
+			public int compare(FunctionStatistics a, FunctionStatistics b) {
+				if (a._totalNanos != b._totalNanos) {
+					return a._totalNanos > b._totalNanos ? -1 : 1;
+				}
+				return a._name.compareTo(b._name);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return the slowest formula cells, slowest first
+	 */
+	public synchronized List<CellStatistics> getSlowestCells() {
+		List<CellStatistics> result = new ArrayList<CellStatistics>(_slowestCells);
+		Collections.sort(result, Collections.reverseOrder(FASTER_CELL_FIRST));
+		return result;
+	}
+
+	/**
+	 * @return the number of formula cells evaluated, which were not in the cache
+	 */
+	public synchronized long getEvaluatedCellCount() {
+		return _evaluatedCellCount;
+	}
+
+	/**
+	 * @return the number of formula cell values taken from the cache
+	 */
+	public synchronized long getCellCacheHitCount() {
+		return _cellCacheHitCount;
+	}
+
+	/**
+	 * @return the number of ranges whose values were taken from the cache (see {@link CachedAreaValues})
+	 */
+	public synchronized long getAreaCacheHitCount() {
+		return _areaCacheHitCount;
+	}
+
+	/**
+	 * @return the number of ranges whose values were read and put into the cache
+	 */
+	public synchronized long getAreaCacheMissCount() {
+		return _areaCacheMissCount;
+	}
+
+	/**
+	 * @return the maximum number of formula cells evaluated at once, each for the one before
+	 * (1 if no formula cell referenced another one)
+	 */
+	public synchronized int getMaxEvaluationDepth() {
+		return _maxEvaluationDepth;
+	}
+
+	/**
+	 * Discards the statistics collected so far
+	 */
+	public synchronized void reset() {
+		_functions.clear();
+		_slowestCells.clear();
+		_evaluatedCellCount = 0;
+		_cellCacheHitCount = 0;
+		_areaCacheHitCount = 0;
+		_areaCacheMissCount = 0;
+		_maxEvaluationDepth = 0;
+	}
+
+	/**
+	 * @return the statistics as text, times in milliseconds
+	 */
+	public String getReport() {
+		StringBuilder sb = new StringBuilder(1024);
+		synchronized (this) {
+			sb.append("Evaluated cells: ").append(_evaluatedCellCount);
+			sb.append(", cache hits: ").append(_cellCacheHitCount);
+			sb.append(", max evaluation depth: ").append(_maxEvaluationDepth).append('\n');
+			sb.append("Cached ranges: ").append(_areaCacheMissCount);
+			sb.append(", cache hits: ").append(_areaCacheHitCount).append('\n');
+		}
+		sb.append("Functions (calls, total ms):\n");
+		for (FunctionStatistics stats : getFunctionStatistics()) {
+			sb.append("  ").append(stats.getName());
+			sb.append('\t').append(stats.getCallCount());
+			sb.append('\t').append(formatMillis(stats.getTotalNanos())).append('\n');
+		}
+		sb.append("Slowest cells (ms):\n");
+		for (CellStatistics stats : getSlowestCells()) {
+			sb.append("  ").append(stats.formatAsString());
+			sb.append('\t').append(formatMillis(stats.getNanos())).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String formatMillis(long nanos) {
+		long micros = nanos / 1000;
+		StringBuilder sb = new StringBuilder();
+		sb.append(micros / 1000).append('.');
+		String fraction = String.valueOf(micros % 1000);
+		for (int i = fraction.length(); i < 3; i++) {
+			sb.append('0');
+		}
+		return sb.append(fraction).toString();
+	}
+
+	@Override
+	public String toString() {
+		return getReport();
+	}
+}
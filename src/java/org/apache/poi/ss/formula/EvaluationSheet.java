@@ -30,4 +30,25 @@ public interface EvaluationSheet {
 	 * @return <code>null</code> if there is no cell at the specified coordinates
 	 */
 	EvaluationCell getCell(int rowIndex, int columnIndex);
+
+	/**
+	 * @return the (zero based) index of the last row which may contain cells, all cells below
+	 * it are blank. -1 if the sheet has no rows
+	 */
+	int getLastRowNum();
+
+	/**
+	 * Reads the cells of a rectangular area at once, so that large areas do not have to be
+	 * read cell by cell with {@link #getCell(int, int)}. The cells are stored row by row, the
+	 * arrays must have (at least) one element for each cell of the area.
+	 *
+	 * @param cellTypes receives the type of each cell (see {@link EvaluationCell#getCellType()}),
+	 *  {@link org.apache.poi.ss.usermodel.Cell#CELL_TYPE_BLANK} if there is no cell
+	 * @param numbers receives the value of numeric cells, other elements are left unchanged
+	 * @param values receives the value of string cells (a <tt>String</tt>), boolean cells
+	 *  (a <tt>Boolean</tt>) and error cells (an <tt>Integer</tt> error code), and the
+	 *  {@link EvaluationCell} of formula cells. <code>null</code> for other cells
+	 */
+	void getCellValues(int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex,
+			int[] cellTypes, double[] numbers, Object[] values);
 }
@@ -73,6 +73,21 @@ final class EvaluationTracker {
 		return true;
 	}
 
+	/**
+	 * @return the number of cells being evaluated
+	 */
+	public int getEvaluationDepth() {
+		return _evaluationFrames.size();
+	}
+
+	/**
+	 * @return the cache entry of the cell being evaluated, <code>null</code> if there is none
+	 */
+	public CellCacheEntry getCurrentEntry() {
+		int nFrames = _evaluationFrames.size();
+		return nFrames < 1 ? null : _evaluationFrames.get(nFrames - 1).getCCE();
+	}
+
 	public void updateCacheResult(ValueEval result) {
 
 		int nFrames = _evaluationFrames.size();
@@ -148,4 +163,18 @@ final class EvaluationTracker {
 			}
 		}
 	}
+
+	/**
+	 * Like {@link #acceptPlainValueDependency(int, int, int, int, ValueEval)} for all cells of
+	 * an area which are known to be blank, without visiting them one by one.
+	 */
+	public void acceptBlankAreaDependency(int bookIndex, int sheetIndex,
+			int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex) {
+		int prevFrameIndex = _evaluationFrames.size() - 1;
+		if (prevFrameIndex >= 0) {
+			CellEvaluationFrame consumingFrame = _evaluationFrames.get(prevFrameIndex);
+			consumingFrame.addUsedBlankArea(bookIndex, sheetIndex, firstRowIndex, firstColumnIndex,
+					lastRowIndex, lastColumnIndex);
+		}
+	}
 }
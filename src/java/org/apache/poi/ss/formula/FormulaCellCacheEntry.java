@@ -22,6 +22,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.ptg.Ptg;
 import org.apache.poi.ss.formula.FormulaUsedBlankCellSet.BookSheetKey;
 
 
@@ -41,8 +42,37 @@ final class FormulaCellCacheEntry extends CellCacheEntry {
 
 	private FormulaUsedBlankCellSet _usedBlankCellGroup;
 
+	/**
+	 * The parsed formula of the cell. Kept when the cached value is cleared because of changed
+	 * inputs, only a change to the formula cell itself makes it stale
+	 */
+	private Ptg[] _formulaTokens;
+	private FormulaEvaluationPlan _evaluationPlan;
+
+	/**
+	 * the formula cell of this entry, <code>null</code> for the entries of
+	 * {@link CachedAreaValues} and in some unit tests
+	 */
+	private final EvaluationCell _cell;
+	private final int _bookIndex;
+
 	public FormulaCellCacheEntry() {
 		// leave fields un-set
+		_cell = null;
+		_bookIndex = 0;
+	}
+
+	public FormulaCellCacheEntry(EvaluationCell cell, int bookIndex) {
+		_cell = cell;
+		_bookIndex = bookIndex;
+	}
+
+	public EvaluationCell getCell() {
+		return _cell;
+	}
+
+	public int getBookIndex() {
+		return _bookIndex;
 	}
 	
 	public boolean isInputSensitive() {
@@ -61,6 +91,26 @@ final class FormulaCellCacheEntry extends CellCacheEntry {
 		_sensitiveInputCells = sensitiveInputCells;
 	}
 
+	public Ptg[] getFormulaTokens() {
+		return _formulaTokens;
+	}
+
+	public void setFormulaTokens(Ptg[] formulaTokens) {
+		_formulaTokens = formulaTokens;
+		_evaluationPlan = null;
+	}
+
+	/**
+	 * @return the plan to evaluate the formula tokens, <code>null</code> until it is set
+	 */
+	public FormulaEvaluationPlan getEvaluationPlan() {
+		return _evaluationPlan;
+	}
+
+	public void setEvaluationPlan(FormulaEvaluationPlan evaluationPlan) {
+		_evaluationPlan = evaluationPlan;
+	}
+
 	public void clearFormulaEntry() {
 		CellCacheEntry[] usedCells = _sensitiveInputCells;
 		if (usedCells != null) {
@@ -110,12 +160,14 @@ final class FormulaCellCacheEntry extends CellCacheEntry {
 		_usedBlankCellGroup = usedBlankAreas;
 	}
 
+	public boolean isUsingBlankCell(BookSheetKey bsk, int rowIndex, int columnIndex) {
+		return _usedBlankCellGroup != null && _usedBlankCellGroup.containsCell(bsk, rowIndex, columnIndex);
+	}
+
 	public void notifyUpdatedBlankCell(BookSheetKey bsk, int rowIndex, int columnIndex, IEvaluationListener evaluationListener) {
-		if (_usedBlankCellGroup != null) {
-			if (_usedBlankCellGroup.containsCell(bsk, rowIndex, columnIndex)) {
-				clearFormulaEntry();
-				recurseClearCachedFormulaResults(evaluationListener);
-			}
+		if (isUsingBlankCell(bsk, rowIndex, columnIndex)) {
+			clearFormulaEntry();
+			recurseClearCachedFormulaResults(evaluationListener);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,211 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+
+package org.apache.poi.ss.formula;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.poi.ss.formula.ptg.Area3DPtg;
+import org.apache.poi.ss.formula.ptg.AreaI;
+import org.apache.poi.ss.formula.ptg.AreaPtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.Ref3DPtg;
+import org.apache.poi.ss.formula.ptg.RefPtg;
+import org.apache.poi.ss.formula.ptg.RefPtgBase;
+
+/**
+ * Splits formula cells into levels for {@link WorkbookEvaluator#evaluateConcurrently}, each
+ * cell being on a higher level than the cells it refers to. The cells of a level can be
+ * evaluated independently once the lower levels are done.<br/>
+ *
+ * Only cell and area references within the workbook are followed. Cells referred to through
+ * names or functions like INDIRECT are not known, they are evaluated again where they are
+ * needed, as are the cells of circular references.
+ */
+final class FormulaCellLevels {
+
+	/**
+	 * The number of references to other formula cells followed at most, as areas over many
+	 * formula cells like running totals add up quickly
+	 */
+	private static final int MAX_REFERENCES = 1000000;
+
+	private FormulaCellLevels() {
+		// no instances of this class
+	}
+
+	/**
+	 * @param sheetIndexes the sheet index of each of the cells
+	 * @return the indexes of the cells by level, in their original order within each level,
+	 *  <code>null</code> if the cells refer to too many other formula cells
+	 */
+	public static int[][] getLevels(EvaluationWorkbook workbook, EvaluationCell[] cells, int[] sheetIndexes) {
+		int[][] precedents = getPrecedents(workbook, cells, sheetIndexes);
+		if (precedents == null) {
+			return null;
+		}
+		int[] levels = getLevels(precedents);
+
+		int levelCount = 0;
+		for (int i = 0; i < levels.length; i++) {
+			levelCount = Math.max(levelCount, levels[i] + 1);
+		}
+		int[] sizes = new int[levelCount];
+		for (int i = 0; i < levels.length; i++) {
+			sizes[levels[i]]++;
+		}
+		int[][] result = new int[levelCount][];
+		for (int l = 0; l < levelCount; l++) {
+			result[l] = new int[sizes[l]];
+			sizes[l] = 0;
+		}
+		for (int i = 0; i < levels.length; i++) {
+			int l = levels[i];
+			result[l][sizes[l]++] = i;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the indexes of the cells each of the cells refers to, <code>null</code> if these
+	 *  are more than {@link #MAX_REFERENCES}
+	 */
+	private static int[][] getPrecedents(EvaluationWorkbook workbook, EvaluationCell[] cells, int[] sheetIndexes) {
+		// sheet index -> column -> row -> cell index
+		Map<Integer, TreeMap<Integer, TreeMap<Integer, Integer>>> cellsBySheet =
+				new HashMap<Integer, TreeMap<Integer, TreeMap<Integer, Integer>>>();
+		for (int i = 0; i < cells.length; i++) {
+			TreeMap<Integer, TreeMap<Integer, Integer>> columns = cellsBySheet.get(sheetIndexes[i]);
+			if (columns == null) {
+				columns = new TreeMap<Integer, TreeMap<Integer, Integer>>();
+				cellsBySheet.put(sheetIndexes[i], columns);
+			}
+			TreeMap<Integer, Integer> rows = columns.get(cells[i].getColumnIndex());
+			if (rows == null) {
+				rows = new TreeMap<Integer, Integer>();
+				columns.put(cells[i].getColumnIndex(), rows);
+			}
+			rows.put(cells[i].getRowIndex(), i);
+		}
+
+		int[][] result = new int[cells.length][];
+		List<Integer> found = new ArrayList<Integer>();
+		int referenceCount = 0;
+		for (int i = 0; i < cells.length; i++) {
+			found.clear();
+			Ptg[] ptgs = workbook.getFormulaTokens(cells[i]);
+			for (int j = 0; j < ptgs.length; j++) {
+				Ptg ptg = ptgs[j];
+				int sheetIndex;
+				if (ptg instanceof RefPtg || ptg instanceof AreaPtg) {
+					sheetIndex = sheetIndexes[i];
+				} else if (ptg instanceof Ref3DPtg || ptg instanceof Area3DPtg) {
+					int externSheetIndex = ((ExternSheetReferenceToken)ptg).getExternSheetIndex();
+					if (workbook.getExternalSheet(externSheetIndex) != null) {
+						// other workbook
+						continue;
+					}
+					sheetIndex = workbook.convertFromExternSheetIndex(externSheetIndex);
+				} else {
+					continue;
+				}
+				TreeMap<Integer, TreeMap<Integer, Integer>> columns = cellsBySheet.get(sheetIndex);
+				if (columns == null) {
+					continue;
+				}
+				if (ptg instanceof RefPtgBase) {
+					RefPtgBase ref = (RefPtgBase)ptg;
+					addCells(columns, ref.getRow(), ref.getColumn(), ref.getRow(), ref.getColumn(), found);
+				} else {
+					AreaI area = (AreaI)ptg;
+					addCells(columns, area.getFirstRow(), area.getFirstColumn(),
+							area.getLastRow(), area.getLastColumn(), found);
+				}
+			}
+			referenceCount += found.size();
+			if (referenceCount > MAX_REFERENCES) {
+				return null;
+			}
+			int[] precedents = new int[found.size()];
+			for (int j = 0; j < precedents.length; j++) {
+				precedents[j] = found.get(j).intValue();
+			}
+			result[i] = precedents;
+		}
+		return result;
+	}
+
+	private static void addCells(TreeMap<Integer, TreeMap<Integer, Integer>> columns, int firstRow,
+			int firstColumn, int lastRow, int lastColumn, List<Integer> result) {
+		Iterator<TreeMap<Integer, Integer>> it = columns.subMap(firstColumn, lastColumn + 1).values().iterator();
+		while (it.hasNext()) {
+			result.addAll(it.next().subMap(firstRow, lastRow + 1).values());
+		}
+	}
+
+	/**
+	 * @return the level of each cell, one more than the highest level of the cells it refers to.
+	 *  References closing a circle are not counted.
+	 */
+	private static int[] getLevels(int[][] precedents) {
+		final int unvisited = -1;
+		final int visiting = -2;
+		int[] result = new int[precedents.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = unvisited;
+		}
+		// depth-first, without recursion as chains of formula cells can be long
+		int[] stack = new int[precedents.length];
+		int[] nextPrecedent = new int[precedents.length];
+		for (int i = 0; i < precedents.length; i++) {
+			if (result[i] != unvisited) {
+				continue;
+			}
+			int depth = 0;
+			stack[0] = i;
+			nextPrecedent[0] = 0;
+			result[i] = visiting;
+			while (depth >= 0) {
+				int cell = stack[depth];
+				int[] cellPrecedents = precedents[cell];
+				if (nextPrecedent[depth] < cellPrecedents.length) {
+					int precedent = cellPrecedents[nextPrecedent[depth]++];
+					if (result[precedent] == unvisited) {
+						result[precedent] = visiting;
+						depth++;
+						stack[depth] = precedent;
+						nextPrecedent[depth] = 0;
+					}
+					continue;
+				}
+				int level = 0;
+				for (int j = 0; j < cellPrecedents.length; j++) {
+					level = Math.max(level, result[cellPrecedents[j]] + 1);
+				}
+				result[cell] = level;
+				depth--;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,532 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import java.util.EmptyStackException;
+
+import org.apache.poi.ss.formula.eval.BlankEval;
+import org.apache.poi.ss.formula.eval.BoolEval;
+import org.apache.poi.ss.formula.eval.ErrorEval;
+import org.apache.poi.ss.formula.eval.EvaluationException;
+import org.apache.poi.ss.formula.eval.MissingArgEval;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.OperandResolver;
+import org.apache.poi.ss.formula.eval.StringEval;
+import org.apache.poi.ss.formula.eval.TwoOperandNumericOperation;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.functions.Choose;
+import org.apache.poi.ss.formula.functions.Function;
+import org.apache.poi.ss.formula.functions.IfFunc;
+import org.apache.poi.ss.formula.ptg.AreaErrPtg;
+import org.apache.poi.ss.formula.ptg.AttrPtg;
+import org.apache.poi.ss.formula.ptg.BoolPtg;
+import org.apache.poi.ss.formula.ptg.ControlPtg;
+import org.apache.poi.ss.formula.ptg.DeletedArea3DPtg;
+import org.apache.poi.ss.formula.ptg.DeletedRef3DPtg;
+import org.apache.poi.ss.formula.ptg.ErrPtg;
+import org.apache.poi.ss.formula.ptg.FuncVarPtg;
+import org.apache.poi.ss.formula.ptg.IntPtg;
+import org.apache.poi.ss.formula.ptg.MemAreaPtg;
+import org.apache.poi.ss.formula.ptg.MemErrPtg;
+import org.apache.poi.ss.formula.ptg.MemFuncPtg;
+import org.apache.poi.ss.formula.ptg.MissingArgPtg;
+import org.apache.poi.ss.formula.ptg.NumberPtg;
+import org.apache.poi.ss.formula.ptg.OperationPtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.RefErrorPtg;
+import org.apache.poi.ss.formula.ptg.StringPtg;
+import org.apache.poi.ss.formula.ptg.UnionPtg;
+import org.apache.poi.util.LittleEndianByteArrayOutputStream;
+
+/**
+ * A formula compiled for repeated evaluation by {@link WorkbookEvaluator}. Each token of the
+ * formula is classified once: functions are resolved, constants are created, operators whose
+ * operands are all constants are folded into their result and the jumps of the optimized IF,
+ * CHOOSE and skip tokens are calculated. Every operation keeps its argument array for the next
+ * evaluation. The results of arithmetic operators are passed on as primitives if the next token
+ * is an arithmetic operator too.<br/>
+ *
+ * References and names are not part of the plan, they are read from the tokens of the evaluated
+ * cell. So all formulas which differ in their references only, like the cells of a shared formula,
+ * share one plan (see {@link #getKey(Ptg[])}). Plans are not thread safe.
+ */
+final class FormulaEvaluationPlan {
+
+	/** parentheses, spaces, MemFunc and other tokens which are skipped */
+	private static final byte NONE = 0;
+	private static final byte CONSTANT = 1;
+	/** references and names, evaluated from the token of the cell */
+	private static final byte REFERENCE = 2;
+	private static final byte OPERATION = 3;
+	private static final byte IF = 4;
+	private static final byte CHOOSE = 5;
+	private static final byte SKIP = 6;
+	/** an operation of {@link TwoOperandNumericOperation} */
+	private static final byte NUMERIC_OPERATION = 7;
+
+	/** <code>null</code> if the formula is not compiled */
+	private final byte[] _kinds;
+	/** index of the token evaluated after each token, if it does not jump */
+	private final int[] _next;
+	private final ValueEval[] _constants;
+	private final OperationPtg[] _operations;
+	/** the resolved function of each operation, <code>null</code> if it is looked up on each evaluation */
+	private final Function[] _functions;
+	private final ValueEval[][] _operands;
+	/** the names of the operations, for {@link EvaluationProfile} */
+	private String[] _operationNames;
+	/**
+	 * the tokens evaluated after an IF (false, error, 1 for a missing false parameter),
+	 * a CHOOSE (error, choices) or a skip token
+	 */
+	private final int[][] _jumps;
+	private boolean _hasNumericOperations;
+	/** the operand arrays are in use, nested evaluations of this plan allocate their own */
+	private boolean _isEvaluating;
+
+	private FormulaEvaluationPlan(int nTokens) {
+		if (nTokens < 0) {
+			_kinds = null;
+			_next = null;
+			_constants = null;
+			_operations = null;
+			_functions = null;
+			_operands = null;
+			_jumps = null;
+			return;
+		}
+		_kinds = new byte[nTokens];
+		_next = new int[nTokens];
+		_constants = new ValueEval[nTokens];
+		_operations = new OperationPtg[nTokens];
+		_functions = new Function[nTokens];
+		_operands = new ValueEval[nTokens][];
+		_jumps = new int[nTokens][];
+	}
+
+	/**
+	 * @return a key which is equal for formulas which can share a plan: those with equal tokens,
+	 * apart from the position of references and the index of names
+	 */
+	public static String getKey(Ptg[] ptgs) {
+		StringBuilder sb = new StringBuilder(ptgs.length * 32);
+		for (int i = 0; i < ptgs.length; i++) {
+			Ptg ptg = ptgs[i];
+			int size = ptg.getSize();
+			sb.append(ptg.getClass().getName()).append(':').append(size);
+			byte kind = getKind(ptg);
+			if (kind != NONE && kind != REFERENCE) {
+				byte[] data = new byte[size];
+				ptg.write(new LittleEndianByteArrayOutputStream(data, 0));
+				sb.append(':');
+				for (int j = 0; j < size; j++) {
+					sb.append((char) (data[j] & 0xFF));
+				}
+			}
+			sb.append(';');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the plan for the supplied formula tokens, which is not compiled if the tokens
+	 * cannot be evaluated without errors (e.g. a bad skip distance)
+	 */
+	public static FormulaEvaluationPlan compile(Ptg[] ptgs) {
+		try {
+			return new FormulaEvaluationPlan(ptgs.length).compileTokens(ptgs);
+		} catch (RuntimeException e) {
+			// leave the error to the evaluation
+			return new FormulaEvaluationPlan(-1);
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the formula must be evaluated token by token
+	 */
+	public boolean isCompiled() {
+		return _kinds != null;
+	}
+
+	private static byte getKind(Ptg ptg) {
+		if (ptg instanceof AttrPtg) {
+			AttrPtg attrPtg = (AttrPtg) ptg;
+			if (attrPtg.isOptimizedChoose()) {
+				return CHOOSE;
+			}
+			if (attrPtg.isOptimizedIf()) {
+				return IF;
+			}
+			if (attrPtg.isSkip()) {
+				return SKIP;
+			}
+			return attrPtg.isSum() ? OPERATION : NONE;
+		}
+		if (ptg instanceof ControlPtg || ptg instanceof MemFuncPtg || ptg instanceof MemAreaPtg
+				|| ptg instanceof MemErrPtg || ptg instanceof UnionPtg) {
+			return NONE;
+		}
+		if (ptg instanceof OperationPtg) {
+			return OPERATION;
+		}
+		return getConstant(ptg) == null ? REFERENCE : CONSTANT;
+	}
+
+	private static ValueEval getConstant(Ptg ptg) {
+		if (ptg instanceof IntPtg) {
+			return new NumberEval(((IntPtg)ptg).getValue());
+		}
+		if (ptg instanceof NumberPtg) {
+			return new NumberEval(((NumberPtg)ptg).getValue());
+		}
+		if (ptg instanceof StringPtg) {
+			return new StringEval(((StringPtg) ptg).getValue());
+		}
+		if (ptg instanceof BoolPtg) {
+			return BoolEval.valueOf(((BoolPtg) ptg).getValue());
+		}
+		if (ptg instanceof ErrPtg) {
+			return ErrorEval.valueOf(((ErrPtg) ptg).getErrorCode());
+		}
+		if (ptg instanceof MissingArgPtg) {
+			return MissingArgEval.instance;
+		}
+		if (ptg instanceof AreaErrPtg ||ptg instanceof RefErrorPtg
+				|| ptg instanceof DeletedArea3DPtg || ptg instanceof DeletedRef3DPtg) {
+			return ErrorEval.REF_INVALID;
+		}
+		return null;
+	}
+
+	private FormulaEvaluationPlan compileTokens(Ptg[] ptgs) {
+		int nTokens = ptgs.length;
+		// the constants on the evaluation stack, and the index of their first token
+		ValueEval[] stackConstants = new ValueEval[nTokens];
+		int[] stackStarts = new int[nTokens];
+		int stackSize = 0;
+		for (int i = 0; i < nTokens; i++) {
+			Ptg ptg = ptgs[i];
+			byte kind = getKind(ptg);
+			_kinds[i] = kind;
+			_next[i] = i + 1;
+			switch (kind) {
+				case CONSTANT:
+					_constants[i] = getConstant(ptg);
+					stackConstants[stackSize] = _constants[i];
+					stackStarts[stackSize] = i;
+					stackSize++;
+					continue;
+				case REFERENCE:
+					stackConstants[stackSize] = null;
+					stackStarts[stackSize] = i;
+					stackSize++;
+					continue;
+				case OPERATION:
+					break;
+				case NONE:
+					if (ptg instanceof ControlPtg && !(ptg instanceof AttrPtg)) {
+						// parentheses
+						continue;
+					}
+					// the evaluation stack is not followed beyond these
+					stackSize = 0;
+					continue;
+				default:
+					_jumps[i] = getJumps((AttrPtg) ptg, ptgs, i);
+					stackSize = 0;
+					continue;
+			}
+
+			OperationPtg optg = ptg instanceof AttrPtg ? FuncVarPtg.SUM : (OperationPtg) ptg;
+			int numops = optg.getNumberOfOperands();
+			_operations[i] = optg;
+			_functions[i] = OperationEvaluatorFactory.getFunction(optg);
+			_operands[i] = new ValueEval[numops];
+			if (_functions[i] instanceof TwoOperandNumericOperation) {
+				_kinds[i] = NUMERIC_OPERATION;
+				_hasNumericOperations = true;
+			}
+
+			ValueEval result = null;
+			if (numops <= stackSize && OperationEvaluatorFactory.isValueOperator(optg)) {
+				result = evaluateConstants(_functions[i], stackConstants, stackSize - numops, numops);
+			}
+			if (stackSize < numops) {
+				stackSize = numops;
+			}
+			stackSize -= numops;
+			if (result == null) {
+				stackConstants[stackSize] = null;
+				stackStarts[stackSize] = i;
+			} else {
+				// the operator and its operands evaluate to a constant
+				int start = stackStarts[stackSize];
+				_kinds[start] = CONSTANT;
+				_constants[start] = result;
+				_next[start] = i + 1;
+				stackConstants[stackSize] = result;
+			}
+			stackSize++;
+		}
+		return this;
+	}
+
+	/**
+	 * @return the result of the operator, or <code>null</code> if an operand is not constant
+	 */
+	private static ValueEval evaluateConstants(Function operator, ValueEval[] stackConstants, int offset, int numops) {
+		ValueEval[] args = new ValueEval[numops];
+		for (int i = 0; i < numops; i++) {
+			ValueEval arg = stackConstants[offset + i];
+			if (arg == null || arg == MissingArgEval.instance) {
+				return null;
+			}
+			args[i] = arg;
+		}
+		// the result of an operator on constants does not depend on the cell
+		return operator.evaluate(args, 0, (short) 0);
+	}
+
+	private static int[] getJumps(AttrPtg attrPtg, Ptg[] ptgs, int i) {
+		if (attrPtg.isOptimizedChoose()) {
+			int[] jumpTable = attrPtg.getJumpTable();
+			int nChoices = jumpTable.length;
+			// Encoded dist for tAttrChoose includes size of jump table, but
+			// countTokensToBeSkipped() does not (it counts whole tokens).
+			int jumpTableSize = nChoices*2+2;
+			int[] result = new int[nChoices + 1];
+			result[0] = i + countTokensToBeSkipped(ptgs, i, attrPtg.getChooseFuncOffset() + 4 - jumpTableSize) + 1;
+			for (int j = 0; j < nChoices; j++) {
+				result[j + 1] = i + countTokensToBeSkipped(ptgs, i, jumpTable[j] - jumpTableSize) + 1;
+			}
+			return result;
+		}
+		if (attrPtg.isOptimizedIf()) {
+			int falseIndex = i + countTokensToBeSkipped(ptgs, i, attrPtg.getData());
+			int errorIndex = falseIndex + countTokensToBeSkipped(ptgs, falseIndex, ((AttrPtg) ptgs[falseIndex]).getData()+1);
+			// an if statement without a false param (as opposed to MissingArgPtg as the false param)
+			boolean noFalseParam = ptgs[falseIndex] instanceof AttrPtg && ptgs[falseIndex+1] instanceof FuncVarPtg;
+			if (noFalseParam) {
+				falseIndex++;
+			}
+			return new int[] { falseIndex + 1, errorIndex + 1, noFalseParam ? 1 : 0, };
+		}
+		return new int[] { i + countTokensToBeSkipped(ptgs, i, attrPtg.getData()+1) + 1, };
+	}
+
+	/**
+	 * @see WorkbookEvaluator#countTokensToBeSkipped(Ptg[], int, int)
+	 */
+	private static int countTokensToBeSkipped(Ptg[] ptgs, int startIndex, int distInBytes) {
+		return WorkbookEvaluator.countTokensToBeSkipped(ptgs, startIndex, distInBytes);
+	}
+
+	/**
+	 * @param ptgs the tokens of the evaluated formula, which must have the key of this plan
+	 * @return the result of the formula, not dereferenced
+	 */
+	public ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec, Ptg[] ptgs) {
+		if (_isEvaluating) {
+			return evaluate(evaluator, ec, ptgs, false);
+		}
+		_isEvaluating = true;
+		try {
+			return evaluate(evaluator, ec, ptgs, true);
+		} finally {
+			_isEvaluating = false;
+		}
+	}
+
+	private ValueEval evaluate(WorkbookEvaluator evaluator, OperationEvaluationContext ec, Ptg[] ptgs,
+			boolean reuseOperands) {
+		int nTokens = _kinds.length;
+		ValueEval[] stack = new ValueEval[nTokens];
+		// the stack elements which are null are numbers, kept here
+		double[] numbers = _hasNumericOperations ? new double[nTokens] : null;
+		EvaluationProfile profile = evaluator.getEvaluationProfile();
+		int stackSize = 0;
+		int i = 0;
+		while (i < nTokens) {
+			ValueEval opResult;
+			long startTime;
+			switch (_kinds[i]) {
+				case CONSTANT:
+					stack[stackSize++] = _constants[i];
+					i = _next[i];
+					continue;
+				case REFERENCE:
+					opResult = evaluator.getEvalForPtg(ptgs[i], ec);
+					break;
+				case OPERATION:
+					startTime = profile == null ? 0 : System.nanoTime();
+					ValueEval[] ops = _operands[i];
+					int numops = ops.length;
+					if (!reuseOperands) {
+						ops = new ValueEval[numops];
+					}
+					stackSize -= numops;
+					for (int j = 0; j < numops; j++) {
+						ops[j] = getValue(stack, numbers, stackSize + j);
+					}
+					Function function = _functions[i];
+					if (function == null) {
+						opResult = OperationEvaluatorFactory.evaluate(_operations[i], ops, ec);
+					} else {
+						opResult = function.evaluate(ops, ec.getRowIndex(), (short) ec.getColumnIndex());
+					}
+					if (reuseOperands) {
+						for (int j = 0; j < numops; j++) {
+							ops[j] = null;
+						}
+					}
+					if (profile != null) {
+						profile.onEvaluateFunction(getOperationName(i), System.nanoTime() - startTime);
+					}
+					break;
+				case NUMERIC_OPERATION:
+					startTime = profile == null ? 0 : System.nanoTime();
+					stackSize -= 2;
+					try {
+						double d0 = getNumber(stack, numbers, stackSize, ec);
+						double d1 = getNumber(stack, numbers, stackSize + 1, ec);
+						numbers[stackSize] = ((TwoOperandNumericOperation) _functions[i]).evaluateNumbers(d0, d1);
+						stack[stackSize] = null;
+					} catch (EvaluationException e) {
+						stack[stackSize] = e.getErrorEval();
+					}
+					if (profile != null) {
+						profile.onEvaluateFunction(getOperationName(i), System.nanoTime() - startTime);
+					}
+					stackSize++;
+					i = _next[i];
+					continue;
+				case IF:
+					stack[stackSize - 1] = getValue(stack, numbers, stackSize - 1);
+					i = evaluateIf(stack, stackSize - 1, _jumps[i], ec, i);
+					if (stack[stackSize - 1] == null) {
+						stackSize--;
+					}
+					continue;
+				case CHOOSE:
+					stack[stackSize - 1] = getValue(stack, numbers, stackSize - 1);
+					i = evaluateChoose(stack, stackSize - 1, _jumps[i], ec);
+					if (stack[stackSize - 1] == null) {
+						stackSize--;
+					}
+					continue;
+				case SKIP:
+					if (stack[stackSize - 1] == MissingArgEval.instance) {
+						stack[stackSize - 1] = BlankEval.instance;
+					}
+					i = _jumps[i][0];
+					continue;
+				default:
+					i++;
+					continue;
+			}
+			if (opResult == null) {
+				throw new RuntimeException("Evaluation result must not be null");
+			}
+			stack[stackSize++] = opResult;
+			i = _next[i];
+		}
+		if (stackSize == 0) {
+			throw new EmptyStackException();
+		}
+		if (stackSize > 1) {
+			throw new IllegalStateException("evaluation stack not empty");
+		}
+		return getValue(stack, numbers, 0);
+	}
+
+	private String getOperationName(int index) {
+		if (_operationNames == null) {
+			_operationNames = new String[_kinds.length];
+		}
+		String result = _operationNames[index];
+		if (result == null) {
+			result = EvaluationProfile.getOperationName(_operations[index]);
+			_operationNames[index] = result;
+		}
+		return result;
+	}
+
+	private static ValueEval getValue(ValueEval[] stack, double[] numbers, int index) {
+		ValueEval result = stack[index];
+		if (result == null) {
+			return new NumberEval(numbers[index]);
+		}
+		return result;
+	}
+
+	/**
+	 * @see TwoOperandNumericOperation#evaluate(int, int, ValueEval, ValueEval)
+	 */
+	private static double getNumber(ValueEval[] stack, double[] numbers, int index,
+			OperationEvaluationContext ec) throws EvaluationException {
+		ValueEval arg = stack[index];
+		if (arg == null) {
+			return numbers[index];
+		}
+		ValueEval ve = OperandResolver.getSingleValue(arg, ec.getRowIndex(), ec.getColumnIndex());
+		return OperandResolver.coerceValueToDouble(ve);
+	}
+
+	/**
+	 * Replaces the predicate at the top of the stack by the value to push, <code>null</code> if none
+	 *
+	 * @return the index of the token evaluated next
+	 */
+	private static int evaluateIf(ValueEval[] stack, int top, int[] jumps, OperationEvaluationContext ec, int i) {
+		boolean evaluatedPredicate;
+		try {
+			evaluatedPredicate = IfFunc.evaluateFirstArg(stack[top], ec.getRowIndex(), ec.getColumnIndex());
+		} catch (EvaluationException e) {
+			stack[top] = e.getErrorEval();
+			return jumps[1];
+		}
+		if (evaluatedPredicate) {
+			// nothing to skip - true param folows
+			stack[top] = null;
+			return i + 1;
+		}
+		stack[top] = jumps[2] == 0 ? null : BoolEval.FALSE;
+		return jumps[0];
+	}
+
+	/**
+	 * Replaces the index at the top of the stack by the error to push, <code>null</code> if none
+	 *
+	 * @return the index of the token evaluated next
+	 */
+	private static int evaluateChoose(ValueEval[] stack, int top, int[] jumps, OperationEvaluationContext ec) {
+		int nChoices = jumps.length - 1;
+		try {
+			int switchIndex = Choose.evaluateFirstArg(stack[top], ec.getRowIndex(), ec.getColumnIndex());
+			if (switchIndex<1 || switchIndex > nChoices) {
+				stack[top] = ErrorEval.VALUE_INVALID;
+				return jumps[0];
+			}
+			stack[top] = null;
+			return jumps[switchIndex];
+		} catch (EvaluationException e) {
+			stack[top] = e.getErrorEval();
+			return jumps[0];
+		}
+	}
+}
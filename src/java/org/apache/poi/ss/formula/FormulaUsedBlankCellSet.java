@@ -86,6 +86,12 @@ final class FormulaUsedBlankCellSet {
 			}
 		}
 
+		public void addRectangle(int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex) {
+			BlankCellRectangleGroup bcrg = new BlankCellRectangleGroup(firstRowIndex, firstColumnIndex, lastColumnIndex);
+			bcrg._lastRowIndex = lastRowIndex;
+			_rectangleGroups.add(bcrg);
+		}
+
 		public boolean containsCell(int rowIndex, int columnIndex) {
 			for (int i=_rectangleGroups.size()-1; i>=0; i--) {
 				BlankCellRectangleGroup bcrg = _rectangleGroups.get(i);
@@ -169,6 +175,15 @@ final class FormulaUsedBlankCellSet {
 		sbcg.addCell(rowIndex, columnIndex);
 	}
 
+	/**
+	 * Adds all cells of a rectangular area at once, e.g. the rows below the last row of a sheet
+	 */
+	public void addRectangle(int bookIndex, int sheetIndex, int firstRowIndex, int firstColumnIndex,
+			int lastRowIndex, int lastColumnIndex) {
+		BlankCellSheetGroup sbcg = getSheetGroup(bookIndex, sheetIndex);
+		sbcg.addRectangle(firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex);
+	}
+
 	private BlankCellSheetGroup getSheetGroup(int bookIndex, int sheetIndex) {
 		BookSheetKey key = new BookSheetKey(bookIndex, sheetIndex);
 
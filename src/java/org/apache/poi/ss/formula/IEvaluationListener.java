@@ -51,4 +51,12 @@ interface IEvaluationListener {
 	void onClearDependentCachedValue(ICacheEntry formulaCell, int depth);
 	void onChangeFromBlankValue(int sheetIndex, int rowIndex, int columnIndex,
 			EvaluationCell cell, ICacheEntry entry);
+	/**
+	 * The parsed formula of the cell was taken from its cache entry
+	 */
+	void onFormulaTokensCacheHit(EvaluationCell cell, ICacheEntry entry);
+	/**
+	 * The parsed formula of the cell was not cached and had to be requested from the workbook
+	 */
+	void onFormulaTokensCacheMiss(EvaluationCell cell, ICacheEntry entry);
 }
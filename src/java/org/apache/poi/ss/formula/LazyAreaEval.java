@@ -28,7 +28,7 @@ import org.apache.poi.ss.util.CellReference;
  *
  * @author Josh Micich
  */
-final class LazyAreaEval extends AreaEvalBase {
+final class LazyAreaEval extends AreaEvalBase implements CachingAreaEval {
 
 	private final SheetRefEvaluator _evaluator;
 
@@ -51,6 +51,10 @@ final class LazyAreaEval extends AreaEvalBase {
 		return _evaluator.getEvalForCell(rowIx, colIx);
 	}
 
+	public CachedAreaValues getCachedValues() {
+		return _evaluator.getCachedValues(getFirstRow(), getFirstColumn(), getLastRow(), getLastColumn());
+	}
+
 	public AreaEval offset(int relFirstRowIx, int relLastRowIx, int relFirstColIx, int relLastColIx) {
 		AreaI area = new OffsetArea(getFirstRow(), getFirstColumn(),
 				relFirstRowIx, relLastRowIx, relFirstColIx, relLastColIx);
@@ -44,6 +44,7 @@ import org.apache.poi.ss.formula.ptg.UnaryPlusPtg;
 import org.apache.poi.ss.formula.eval.ConcatEval;
 import org.apache.poi.ss.formula.eval.FunctionEval;
 import org.apache.poi.ss.formula.eval.IntersectionEval;
+import org.apache.poi.ss.formula.eval.NotImplementedException;
 import org.apache.poi.ss.formula.eval.PercentEval;
 import org.apache.poi.ss.formula.eval.RangeEval;
 import org.apache.poi.ss.formula.eval.RelationalOperationEval;
@@ -54,6 +55,7 @@ import org.apache.poi.ss.formula.eval.ValueEval;
 import org.apache.poi.ss.formula.function.FunctionMetadataRegistry;
 import org.apache.poi.ss.formula.functions.Function;
 import org.apache.poi.ss.formula.functions.Indirect;
+import org.apache.poi.ss.formula.functions.NotImplementedFunction;
 
 /**
  * This class creates <tt>OperationEval</tt> instances to help evaluate <tt>OperationPtg</tt>
@@ -133,4 +135,38 @@ final class OperationEvaluatorFactory {
 		}
 		throw new RuntimeException("Unexpected operation ptg class (" + ptg.getClass().getName() + ")");
 	}
+
+	/**
+	 * @return the function evaluating the supplied operationPtg, or <code>null</code> if it must
+	 * be looked up on each evaluation by {@link #evaluate(OperationPtg, ValueEval[], OperationEvaluationContext)}
+	 * because it needs the evaluation context (INDIRECT, user defined functions) or is not
+	 * implemented (yet, see {@link WorkbookEvaluator#registerFunction(String, Function)})
+	 */
+	public static Function getFunction(OperationPtg ptg) {
+		Function result = _instancesByPtgClass.get(ptg);
+		if (result != null || !(ptg instanceof AbstractFunctionPtg)) {
+			return result;
+		}
+		int functionIndex = ((AbstractFunctionPtg)ptg).getFunctionIndex();
+		switch (functionIndex) {
+			case FunctionMetadataRegistry.FUNCTION_INDEX_INDIRECT:
+			case FunctionMetadataRegistry.FUNCTION_INDEX_EXTERNAL:
+				return null;
+		}
+		try {
+			result = FunctionEval.getBasicFunction(functionIndex);
+		} catch (NotImplementedException e) {
+			return null;
+		}
+		return result instanceof NotImplementedFunction ? null : result;
+	}
+
+	/**
+	 * @return <code>true</code> if the supplied operationPtg is an operator whose result only
+	 * depends on its operands, e.g. '+' or '&amp;' but not ':'
+	 */
+	public static boolean isValueOperator(OperationPtg ptg) {
+		return _instancesByPtgClass.containsKey(ptg)
+				&& ptg != RangePtg.instance && ptg != IntersectionPtg.instance;
+	}
 }
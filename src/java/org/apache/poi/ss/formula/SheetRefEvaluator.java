@@ -51,6 +51,12 @@ final class SheetRefEvaluator {
 		return _bookEvaluator.evaluateReference(getSheet(), _sheetIndex, rowIndex, columnIndex, _tracker);
 	}
 
+	public CachedAreaValues getCachedValues(int firstRowIndex, int firstColumnIndex,
+			int lastRowIndex, int lastColumnIndex) {
+		return _bookEvaluator.getCachedAreaValues(getSheet(), _sheetIndex, firstRowIndex, firstColumnIndex,
+				lastRowIndex, lastColumnIndex, _tracker);
+	}
+
 	private EvaluationSheet getSheet() {
 		if (_sheet == null) {
 			_sheet = _bookEvaluator.getSheet(_sheetIndex);
@@ -18,6 +18,9 @@
 package org.apache.poi.ss.formula;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.poi.ss.formula.atp.AnalysisToolPak;
 import org.apache.poi.ss.formula.eval.*;
@@ -90,6 +93,23 @@ public final class WorkbookEvaluator {
 
     private boolean _ignoreMissingWorkbooks = false;
 
+	/** the number of compiled formulas kept at most, the least recently used ones are dropped */
+	private static final int MAX_EVALUATION_PLANS = 10000;
+
+	/** the compiled formulas, by {@link FormulaEvaluationPlan#getKey(Ptg[])}, in access order */
+	private final Map<String, FormulaEvaluationPlan> _evaluationPlans =
+			new LinkedHashMap<String, FormulaEvaluationPlan>(16, 0.75f, true) {
+				private static final long serialVersionUID = -2067408539146523719L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, FormulaEvaluationPlan> eldest) {
+					return size() > MAX_EVALUATION_PLANS;
+				}
+			};
+
+	/** <code>null</code> unless statistics are collected */
+	private EvaluationProfile _profile;
+
 	/**
 	 * @param udfFinder pass <code>null</code> for default (AnalysisToolPak only)
 	 */
@@ -158,6 +178,9 @@ public final class WorkbookEvaluator {
 	}
 	/* package */ void attachToEnvironment(CollaboratingWorkbooksEnvironment collaboratingWorkbooksEnvironment, EvaluationCache cache, int workbookIx) {
 		_collaboratingWorkbookEnvironment = collaboratingWorkbooksEnvironment;
+		if (_cache.isTrackDirtyCells()) {
+			cache.setTrackDirtyCells(true);
+		}
 		_cache = cache;
 		_workbookIx = workbookIx;
 	}
@@ -171,7 +194,9 @@ public final class WorkbookEvaluator {
 	 */
 	/* package */ void detachFromEnvironment() {
 		_collaboratingWorkbookEnvironment = CollaboratingWorkbooksEnvironment.EMPTY;
+		boolean trackDirtyCells = _cache.isTrackDirtyCells();
 		_cache = new EvaluationCache(_evaluationListener);
+		_cache.setTrackDirtyCells(trackDirtyCells);
 		_workbookIx = 0;
 	}
 	/**
@@ -193,6 +218,7 @@ public final class WorkbookEvaluator {
 	public void clearAllCachedResultValues() {
 		_cache.clear();
 		_sheetIndexesBySheet.clear();
+		_evaluationPlans.clear();
 	}
 
 	/**
@@ -230,6 +256,207 @@ public final class WorkbookEvaluator {
 		return evaluateAny(srcCell, sheetIndex, srcCell.getRowIndex(), srcCell.getColumnIndex(), new EvaluationTracker(_cache));
 	}
 
+	/**
+	 * Re-evaluates the formula cells whose cached results were cleared by the changes notified
+	 * with {@link #notifyUpdateCell(EvaluationCell)} and {@link #notifyDeleteCell(EvaluationCell)}
+	 * since the last call. The dependencies recorded by earlier evaluations decide which cells
+	 * are dirty, so only formula cells evaluated before are recalculated. Dirty precedents are
+	 * evaluated before the cells using them, as the evaluation of a cell recurses into them.<br/>
+	 *
+	 * Dirty cells are only recorded after {@link #setTrackDirtyCells(boolean)}, or once this
+	 * method was called for the first time.
+	 *
+	 * @return the recalculated formula cells whose value changed, in the order they were made dirty
+	 */
+	public List<EvaluationCell> recalculateDirtyCells() {
+		_cache.setTrackDirtyCells(true);
+		Map<FormulaCellCacheEntry, ValueEval> dirtyCells = _cache.removeDirtyFormulaCells(_workbookIx);
+		List<EvaluationCell> result = new ArrayList<EvaluationCell>();
+		for (Map.Entry<FormulaCellCacheEntry, ValueEval> me : dirtyCells.entrySet()) {
+			FormulaCellCacheEntry cce = me.getKey();
+			if (!_cache.isCurrentFormulaCellEntry(cce)) {
+				// deleted, or no longer a formula cell
+				continue;
+			}
+			EvaluationCell cell = cce.getCell();
+			ValueEval value = evaluate(cell);
+			if (!EvaluationCache.areValuesEqual(me.getValue(), value)) {
+				result.add(cell);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Switches the recording of the formula cells made dirty by notified changes on or off,
+	 * see {@link #recalculateDirtyCells()}. Switching it off discards the recorded cells.
+	 */
+	public void setTrackDirtyCells(boolean trackDirtyCells) {
+		_cache.setTrackDirtyCells(trackDirtyCells);
+	}
+
+	/**
+	 * Evaluates the cells concurrently by <code>taskCount</code> tasks on the executor. The cells
+	 * are split into levels by their references, so that the cells of a level only refer to cells
+	 * of lower levels. The levels are evaluated one after another, each split into contiguous parts
+	 * for the tasks, and small levels are evaluated on the calling thread. Every task has its own
+	 * evaluator for the same workbook, with the stability classifier and user defined functions
+	 * of this one but a separate cache, to which the results of the lower levels are added. So
+	 * precedents are evaluated once, and long chains of formula cells do not recurse. Cells
+	 * referred to only through names or functions like INDIRECT may be evaluated again by each
+	 * task. This evaluator and its cache are not used.<br/>
+	 *
+	 * The workbook must not be changed until this method returns. Workbooks attached to a
+	 * {@link CollaboratingWorkbooksEnvironment} are evaluated one cell after another by this evaluator.
+	 *
+	 * @param executor the executor that evaluates the cells, <code>null</code> to evaluate them
+	 *  on the calling thread
+	 * @param taskCount the number of parts, usually the number of threads of the executor
+	 * @return the values of the cells, in the same order
+	 */
+	public ValueEval[] evaluateConcurrently(EvaluationCell[] cells, ExecutorService executor, int taskCount) {
+		ValueEval[] result = new ValueEval[cells.length];
+		if (executor == null || taskCount < 2 || _collaboratingWorkbookEnvironment != CollaboratingWorkbooksEnvironment.EMPTY) {
+			for (int i = 0; i < cells.length; i++) {
+				result[i] = evaluate(cells[i]);
+			}
+			return result;
+		}
+
+		LevelEvaluator[] evaluators = new LevelEvaluator[taskCount];
+		for (int t = 0; t < taskCount; t++) {
+			// the UDFs of this evaluator are already part of the workbook's UDFFinder
+			WorkbookEvaluator evaluator = new WorkbookEvaluator(_workbook, null, _stabilityClassifier, null);
+			evaluator._ignoreMissingWorkbooks = _ignoreMissingWorkbooks;
+			evaluator._profile = _profile;
+			evaluators[t] = new LevelEvaluator(evaluator, cells, result);
+		}
+		int[] sheetIndexes = new int[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			sheetIndexes[i] = getSheetIndex(cells[i].getSheet());
+		}
+		int[][] levels = FormulaCellLevels.getLevels(_workbook, cells, sheetIndexes);
+		if (levels == null) {
+			// too many references to follow, evaluate the cells in their order on this thread
+			int[] all = new int[cells.length];
+			for (int i = 0; i < all.length; i++) {
+				all[i] = i;
+			}
+			evaluators[0].evaluate(all, 0, all, 0, all.length);
+			return result;
+		}
+
+		// the cells of the levels evaluated so far
+		int[] evaluated = new int[cells.length];
+		int evaluatedCount = 0;
+		for (int l = 0; l < levels.length; l++) {
+			int[] level = levels[l];
+			int partCount = Math.min(taskCount, level.length / MIN_CELLS_PER_TASK);
+			if (partCount < 2) {
+				evaluators[0].evaluate(evaluated, evaluatedCount, level, 0, level.length);
+			} else {
+				evaluateLevel(evaluators, partCount, evaluated, evaluatedCount, level, executor);
+			}
+			System.arraycopy(level, 0, evaluated, evaluatedCount, level.length);
+			evaluatedCount += level.length;
+		}
+		return result;
+	}
+
+	/** levels with fewer cells per task are evaluated on the calling thread */
+	private static final int MIN_CELLS_PER_TASK = 16;
+
+	private static void evaluateLevel(LevelEvaluator[] evaluators, int partCount, final int[] evaluated,
+			final int evaluatedCount, final int[] level, ExecutorService executor) {
+		List<Future<?>> tasks = new ArrayList<Future<?>>(partCount);
+		int done = 0;
+		try {
+			for (int t = 0; t < partCount; t++) {
+				final int start = (int)((long)level.length * t / partCount);
+				final int end = (int)((long)level.length * (t + 1) / partCount);
+				final LevelEvaluator evaluator = evaluators[t];
+				tasks.add(executor.submit(new Runnable() {
+					public void run() {
+						evaluator.evaluate(evaluated, evaluatedCount, level, start, end);
+					}
+				}));
+			}
+			for (Future<?> task : tasks) {
+				waitFor(task);
+				done++;
+			}
+		} finally {
+			// on failure, stop the tasks that did not start yet
+			for (int i = done; i < tasks.size(); i++) {
+				tasks.get(i).cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates parts of the levels of {@link WorkbookEvaluator#evaluateConcurrently} with one
+	 * evaluator, used by one task at a time
+	 */
+	private static final class LevelEvaluator {
+
+		private final WorkbookEvaluator _evaluator;
+		private final EvaluationCell[] _cells;
+		private final ValueEval[] _results;
+		/** the number of evaluated cells of lower levels whose results the cache already has */
+		private int _knownCount;
+
+		public LevelEvaluator(WorkbookEvaluator evaluator, EvaluationCell[] cells, ValueEval[] results) {
+			_evaluator = evaluator;
+			_cells = cells;
+			_results = results;
+		}
+
+		/**
+		 * Adds the results of the lower levels not known yet to the cache, then evaluates
+		 * the cells <code>level[start]</code> to <code>level[end - 1]</code>
+		 */
+		public void evaluate(int[] evaluated, int evaluatedCount, int[] level, int start, int end) {
+			for (int i = _knownCount; i < evaluatedCount; i++) {
+				int cell = evaluated[i];
+				_evaluator.setCachedFormulaResult(_cells[cell], _results[cell]);
+			}
+			_knownCount = evaluatedCount;
+			for (int i = start; i < end; i++) {
+				int cell = level[i];
+				_results[cell] = _evaluator.evaluate(_cells[cell]);
+			}
+		}
+	}
+
+	/**
+	 * Sets the result of a formula cell evaluated by another evaluator, unless the cache
+	 * already has one
+	 */
+	private void setCachedFormulaResult(EvaluationCell cell, ValueEval value) {
+		FormulaCellCacheEntry cce = _cache.getOrCreateFormulaCellEntry(cell, _workbookIx);
+		if (cce.getValue() == null) {
+			cce.updateFormulaResult(value, CellCacheEntry.EMPTY_ARRAY, null);
+		}
+	}
+
+	private static void waitFor(Future<?> task) {
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while evaluating formulas", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
 	/**
 	 * Case-insensitive.
 	 * @return -1 if sheet with specified name does not exist
@@ -269,7 +496,7 @@ public final class WorkbookEvaluator {
 			return result;
 		}
 
-		FormulaCellCacheEntry cce = _cache.getOrCreateFormulaCellEntry(srcCell);
+		FormulaCellCacheEntry cce = _cache.getOrCreateFormulaCellEntry(srcCell, _workbookIx);
 		if (shouldCellDependencyBeRecorded || cce.isInputSensitive()) {
 			tracker.acceptFormulaDependency(cce);
 		}
@@ -280,19 +507,26 @@ public final class WorkbookEvaluator {
 				return ErrorEval.CIRCULAR_REF_ERROR;
 			}
 			OperationEvaluationContext ec = new OperationEvaluationContext(this, _workbook, sheetIndex, rowIndex, columnIndex, tracker);
+			EvaluationProfile profile = _profile;
+			long startTime = profile == null ? 0 : System.nanoTime();
 
 			try {
 
-				Ptg[] ptgs = _workbook.getFormulaTokens(srcCell);
+				Ptg[] ptgs = getFormulaTokens(srcCell, cce);
+				FormulaEvaluationPlan plan = getEvaluationPlan(cce, ptgs);
 				if (evalListener == null) {
-					result = evaluateFormula(ec, ptgs);
+					result = evaluateFormula(ec, ptgs, plan);
 				} else {
 					evalListener.onStartEvaluate(srcCell, cce);
-					result = evaluateFormula(ec, ptgs);
+					result = evaluateFormula(ec, ptgs, plan);
 					evalListener.onEndEvaluate(cce, result);
 				}
 
 				tracker.updateCacheResult(result);
+				if (profile != null) {
+					profile.onEvaluateCell(getSheetName(sheetIndex), rowIndex, columnIndex,
+							System.nanoTime() - startTime, tracker.getEvaluationDepth());
+				}
 			}
 			 catch (NotImplementedException e) {
 				throw addExceptionInfo(e, sheetIndex, rowIndex, columnIndex);
@@ -329,6 +563,9 @@ public final class WorkbookEvaluator {
 			if(evalListener != null) {
 				evalListener.onCacheHit(sheetIndex, rowIndex, columnIndex, cce.getValue());
 			}
+			if (_profile != null) {
+				_profile.onCellCacheHit();
+			}
 			return cce.getValue();
 		}
 		if (isDebugLogEnabled()) {
@@ -343,6 +580,51 @@ public final class WorkbookEvaluator {
 		return result;
 	}
 
+	/**
+	 * Parsing is usually the most expensive part of evaluating a formula, so the tokens are
+	 * kept in the cache entry of the cell until it is notified that the cell changed
+	 */
+	private Ptg[] getFormulaTokens(EvaluationCell srcCell, FormulaCellCacheEntry cce) {
+		Ptg[] ptgs = cce.getFormulaTokens();
+		if (ptgs != null) {
+			if (_evaluationListener != null) {
+				_evaluationListener.onFormulaTokensCacheHit(srcCell, cce);
+			}
+			return ptgs;
+		}
+		if (_evaluationListener != null) {
+			_evaluationListener.onFormulaTokensCacheMiss(srcCell, cce);
+		}
+		ptgs = _workbook.getFormulaTokens(srcCell);
+		cce.setFormulaTokens(ptgs);
+		return ptgs;
+	}
+
+	/**
+	 * Formula cells whose tokens only differ in their references share the plan to evaluate them
+	 */
+	private FormulaEvaluationPlan getEvaluationPlan(FormulaCellCacheEntry cce, Ptg[] ptgs) {
+		FormulaEvaluationPlan plan = cce.getEvaluationPlan();
+		if (plan != null) {
+			return plan;
+		}
+		String key = FormulaEvaluationPlan.getKey(ptgs);
+		plan = _evaluationPlans.get(key);
+		if (plan == null) {
+			plan = FormulaEvaluationPlan.compile(ptgs);
+			_evaluationPlans.put(key, plan);
+		}
+		cce.setEvaluationPlan(plan);
+		return plan;
+	}
+
+	/**
+	 * only used for testing
+	 */
+	/* package */ int getEvaluationPlanCount() {
+		return _evaluationPlans.size();
+	}
+
 	/**
 	 * Adds the current cell reference to the exception for easier debugging.
 	 * Would be nice to get the formula text as well, but that seems to require
@@ -397,6 +679,13 @@ public final class WorkbookEvaluator {
 	// current indent level for evalution; negative value for no output
 	private int dbgEvaluationOutputIndent = -1;
 
+	private ValueEval evaluateFormula(OperationEvaluationContext ec, Ptg[] ptgs, FormulaEvaluationPlan plan) {
+		if (!plan.isCompiled() || dbgEvaluationOutputForNextEval || dbgEvaluationOutputIndent > 0) {
+			return evaluateFormula(ec, ptgs);
+		}
+		return dereferenceResult(plan.evaluate(this, ec, ptgs), ec.getRowIndex(), ec.getColumnIndex());
+	}
+
 	// visibility raised for testing
 	/* package */ ValueEval evaluateFormula(OperationEvaluationContext ec, Ptg[] ptgs) {
 
@@ -522,7 +811,13 @@ public final class WorkbookEvaluator {
 					ops[j] = p;
 				}
 //				logDebug("invoke " + operation + " (nAgs=" + numops + ")");
-				opResult = OperationEvaluatorFactory.evaluate(optg, ops, ec);
+				if (_profile == null) {
+					opResult = OperationEvaluatorFactory.evaluate(optg, ops, ec);
+				} else {
+					long startTime = System.nanoTime();
+					opResult = OperationEvaluatorFactory.evaluate(optg, ops, ec);
+					_profile.onEvaluateFunction(EvaluationProfile.getOperationName(optg), System.nanoTime() - startTime);
+				}
 			} else {
 				opResult = getEvalForPtg(ptg, ec);
 			}
@@ -561,7 +856,7 @@ public final class WorkbookEvaluator {
 	 * @return the number of tokens (starting from <tt>startIndex+1</tt>) that need to be skipped
 	 * to achieve the specified <tt>distInBytes</tt> skip distance.
 	 */
-	private static int countTokensToBeSkipped(Ptg[] ptgs, int startIndex, int distInBytes) {
+	/* package */ static int countTokensToBeSkipped(Ptg[] ptgs, int startIndex, int distInBytes) {
 		int remBytes = distInBytes;
 		int index = startIndex;
 		while (remBytes != 0) {
@@ -609,7 +904,7 @@ public final class WorkbookEvaluator {
 	 * StringPtg, BoolPtg <br/>special Note: OperationPtg subtypes cannot be
 	 * passed here!
 	 */
-	private ValueEval getEvalForPtg(Ptg ptg, OperationEvaluationContext ec) {
+	/* package */ ValueEval getEvalForPtg(Ptg ptg, OperationEvaluationContext ec) {
 		//  consider converting all these (ptg instanceof XxxPtg) expressions to (ptg.getClass() == XxxPtg.class)
 
 		if (ptg instanceof NamePtg) {
@@ -701,6 +996,103 @@ public final class WorkbookEvaluator {
 		EvaluationCell cell = sheet.getCell(rowIndex, columnIndex);
 		return evaluateAny(cell, sheetIndex, rowIndex, columnIndex, tracker);
 	}
+
+	/**
+	 * @see #getValueFromNonFormulaCell(EvaluationCell)
+	 * @see EvaluationSheet#getCellValues(int, int, int, int, int[], double[], Object[])
+	 */
+	private static ValueEval getPlainValue(int cellType, double number, Object value) {
+		switch (cellType) {
+			case Cell.CELL_TYPE_NUMERIC:
+				return new NumberEval(number);
+			case Cell.CELL_TYPE_STRING:
+				return new StringEval((String) value);
+			case Cell.CELL_TYPE_BOOLEAN:
+				return BoolEval.valueOf(((Boolean) value).booleanValue());
+			case Cell.CELL_TYPE_BLANK:
+				return BlankEval.instance;
+			case Cell.CELL_TYPE_ERROR:
+				return ErrorEval.valueOf(((Integer) value).intValue());
+		}
+		throw new RuntimeException("Unexpected cell type (" + cellType + ")");
+	}
+
+	/**
+	 * Used by the lazy area evals to read all cells of an area at once. The values are cached
+	 * like the result of a formula cell which depends on every cell of the area, and the
+	 * formula currently being evaluated depends on them in turn. Only areas read by more than
+	 * one formula cell are cached. The rows below the last row of the sheet are not read, their
+	 * cells are recorded as blank all at once.
+	 * @return <code>null</code> if the area is not read by another cell yet, or contains a cell
+	 * taking part in a circular reference
+	 */
+	/* package */ CachedAreaValues getCachedAreaValues(EvaluationSheet sheet, int sheetIndex,
+			int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex,
+			EvaluationTracker tracker) {
+
+		FormulaCellCacheEntry cce = _cache.getAreaValuesEntry(_workbookIx, sheetIndex,
+				firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex, tracker.getCurrentEntry());
+		if (cce == null) {
+			return null;
+		}
+		tracker.acceptFormulaDependency(cce);
+		ValueEval cachedValues = cce.getValue();
+		if (cachedValues != null) {
+			if (_profile != null) {
+				_profile.onAreaCacheHit();
+			}
+			return (CachedAreaValues) cachedValues;
+		}
+		if (!tracker.startEvaluate(cce)) {
+			return null;
+		}
+		if (_profile != null) {
+			_profile.onAreaCacheMiss();
+		}
+		try {
+			int width = lastColumnIndex - firstColumnIndex + 1;
+			int height = lastRowIndex - firstRowIndex + 1;
+			int lastUsedRowIndex = Math.min(lastRowIndex, sheet.getLastRowNum());
+			if (lastUsedRowIndex < lastRowIndex) {
+				tracker.acceptBlankAreaDependency(_workbookIx, sheetIndex,
+						Math.max(firstRowIndex, lastUsedRowIndex + 1), firstColumnIndex, lastRowIndex, lastColumnIndex);
+			}
+			int size = width * Math.max(0, lastUsedRowIndex - firstRowIndex + 1);
+			int[] cellTypes = new int[size];
+			double[] numbers = new double[size];
+			Object[] cellValues = new Object[size];
+			if (size > 0) {
+				sheet.getCellValues(firstRowIndex, firstColumnIndex, lastUsedRowIndex, lastColumnIndex,
+						cellTypes, numbers, cellValues);
+			}
+
+			ValueEval[] values = new ValueEval[size];
+			for (int i = 0; i < size; i++) {
+				int rowIndex = firstRowIndex + i / width;
+				int columnIndex = firstColumnIndex + i % width;
+				ValueEval value;
+				if (cellTypes[i] == Cell.CELL_TYPE_FORMULA) {
+					value = evaluateAny((EvaluationCell) cellValues[i], sheetIndex, rowIndex, columnIndex, tracker);
+					if (value == ErrorEval.CIRCULAR_REF_ERROR) {
+						// the cell may still get a proper value, don't keep the error
+						return null;
+					}
+				} else {
+					// same as evaluateAny() for cells without formula
+					value = getPlainValue(cellTypes[i], numbers[i], cellValues[i]);
+					if (_stabilityClassifier == null || !_stabilityClassifier.isCellFinal(sheetIndex, rowIndex, columnIndex)) {
+						tracker.acceptPlainValueDependency(_workbookIx, sheetIndex, rowIndex, columnIndex, value);
+					}
+				}
+				values[i] = value;
+			}
+			CachedAreaValues result = new CachedAreaValues(width, height, values);
+			tracker.updateCacheResult(result);
+			return result;
+		} finally {
+			tracker.endEvaluate(cce);
+		}
+	}
 	public FreeRefFunction findUserDefinedFunction(String functionName) {
 		return _udfFinder.findFunction(functionName);
 	}
@@ -773,6 +1165,23 @@ public final class WorkbookEvaluator {
         FunctionEval.registerFunction(name, func);
     }
 
+	/**
+	 * Collects statistics of the following evaluations in the supplied profile, which may be
+	 * shared with other evaluators.
+	 *
+	 * @param profile <code>null</code> to stop collecting statistics
+	 */
+	public void setEvaluationProfile(EvaluationProfile profile) {
+		_profile = profile;
+	}
+
+	/**
+	 * @return the profile collecting statistics, <code>null</code> if there is none
+	 */
+	public EvaluationProfile getEvaluationProfile() {
+		return _profile;
+	}
+
     public void setDebugEvaluationOutputForNextEval(boolean value){
         dbgEvaluationOutputForNextEval = value;
     }
@@ -34,22 +34,36 @@ public abstract class TwoOperandNumericOperation extends Fixed2ArgFunction {
 		try {
 			double d0 = singleOperandEvaluate(arg0, srcRowIndex, srcColumnIndex);
 			double d1 = singleOperandEvaluate(arg1, srcRowIndex, srcColumnIndex);
-			result = evaluate(d0, d1);
-			if (result == 0.0) { // this '==' matches +0.0 and -0.0
-				// Excel converts -0.0 to +0.0 for '*', '/', '%', '+' and '^'
-				if (!(this instanceof SubtractEvalClass)) {
-					return NumberEval.ZERO;
-				}
-			}
-			if (Double.isNaN(result) || Double.isInfinite(result)) {
-				return ErrorEval.NUM_ERROR;
-			}
+			result = evaluateNumbers(d0, d1);
 		} catch (EvaluationException e) {
 			return e.getErrorEval();
 		}
+		if (result == 0.0 && !(this instanceof SubtractEvalClass)) {
+			return NumberEval.ZERO;
+		}
 		return new NumberEval(result);
 	}
 
+	/**
+	 * Evaluates this operation for two numbers, without boxing the result. Formula evaluation
+	 * uses it to pass the result of an operation to the next one as a primitive.
+	 *
+	 * @throws EvaluationException if the result is an error (e.g. #DIV/0! or #NUM!)
+	 */
+	public final double evaluateNumbers(double d0, double d1) throws EvaluationException {
+		double result = evaluate(d0, d1);
+		if (result == 0.0) { // this '==' matches +0.0 and -0.0
+			// Excel converts -0.0 to +0.0 for '*', '/', '%', '+' and '^'
+			if (!(this instanceof SubtractEvalClass)) {
+				return 0.0;
+			}
+		}
+		if (Double.isNaN(result) || Double.isInfinite(result)) {
+			throw new EvaluationException(ErrorEval.NUM_ERROR);
+		}
+		return result;
+	}
+
 	protected abstract double evaluate(double d0, double d1) throws EvaluationException;
 
 	public static final Function AddEval = new TwoOperandNumericOperation() {
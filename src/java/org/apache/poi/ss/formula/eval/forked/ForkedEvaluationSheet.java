@@ -21,6 +21,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.poi.ss.formula.CellValuesReader;
 import org.apache.poi.ss.formula.EvaluationCell;
 import org.apache.poi.ss.formula.EvaluationSheet;
 import org.apache.poi.ss.formula.EvaluationWorkbook;
@@ -60,6 +61,29 @@ final class ForkedEvaluationSheet implements EvaluationSheet {
 		return result;
 	}
 
+	public int getLastRowNum() {
+		// cells can only be split from existing master cells
+		return _masterSheet.getLastRowNum();
+	}
+
+	public void getCellValues(int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex,
+			int[] cellTypes, double[] numbers, Object[] values) {
+		_masterSheet.getCellValues(firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex,
+				cellTypes, numbers, values);
+		int width = lastColumnIndex - firstColumnIndex + 1;
+		for (Map.Entry<RowColKey, ForkedEvaluationCell> me : _sharedCellsByRowCol.entrySet()) {
+			RowColKey key = me.getKey();
+			int rowIndex = key.getRowIndex();
+			int columnIndex = key.getColumnIndex();
+			if (rowIndex < firstRowIndex || rowIndex > lastRowIndex
+					|| columnIndex < firstColumnIndex || columnIndex > lastColumnIndex) {
+				continue;
+			}
+			int i = (rowIndex - firstRowIndex) * width + columnIndex - firstColumnIndex;
+			CellValuesReader.readCell(me.getValue(), i, cellTypes, numbers, values);
+		}
+	}
+
 	public ForkedEvaluationCell getOrCreateUpdatableCell(int rowIndex, int columnIndex) {
 		RowColKey key = new RowColKey(rowIndex, columnIndex);
 
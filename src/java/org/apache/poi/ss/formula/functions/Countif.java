@@ -175,6 +175,31 @@ public final class Countif extends Fixed2ArgFunction {
 			return sb.toString();
 		}
 		protected abstract String getValueText();
+		/**
+		 * Criteria with equal value keys and the same operator match the same values, so they
+		 * can share a {@link CriteriaIndex}
+		 */
+		protected abstract Object getValueKey();
+		/**
+		 * @return the value a criteria testing for equality matches, looked up by
+		 * {@link CriteriaIndex}, <code>null</code> for other criteria
+		 */
+		protected abstract Object getLookupValue();
+		protected final boolean isEquality() {
+			return getCode() == CmpOp.NONE || getCode() == CmpOp.EQ;
+		}
+		@Override
+		public final int hashCode() {
+			return _operator.getCode() * 31 + getValueKey().hashCode();
+		}
+		@Override
+		public final boolean equals(Object obj) {
+			if (obj == null || obj.getClass() != getClass()) {
+				return false;
+			}
+			MatcherBase other = (MatcherBase) obj;
+			return _operator == other._operator && getValueKey().equals(other.getValueKey());
+		}
 	}
 
 	private static final class NumberMatcher extends MatcherBase {
@@ -189,6 +214,14 @@ public final class Countif extends Fixed2ArgFunction {
 		protected String getValueText() {
 			return String.valueOf(_value);
 		}
+		@Override
+		protected Object getValueKey() {
+			return Double.valueOf(_value);
+		}
+		@Override
+		protected Object getLookupValue() {
+			return isEquality() ? Double.valueOf(_value) : null;
+		}
 
 		public boolean matches(ValueEval x) {
 			double testValue;
@@ -244,6 +277,14 @@ public final class Countif extends Fixed2ArgFunction {
 		protected String getValueText() {
 			return _value == 1 ? "TRUE" : "FALSE";
 		}
+		@Override
+		protected Object getValueKey() {
+			return Integer.valueOf(_value);
+		}
+		@Override
+		protected Object getLookupValue() {
+			return isEquality() ? Boolean.valueOf(_value == 1) : null;
+		}
 
 		private static int boolToInt(boolean value) {
 			return value ? 1 : 0;
@@ -301,6 +342,14 @@ public final class Countif extends Fixed2ArgFunction {
 		protected String getValueText() {
 			return ErrorConstants.getText(_value);
 		}
+		@Override
+		protected Object getValueKey() {
+			return Integer.valueOf(_value);
+		}
+		@Override
+		protected Object getLookupValue() {
+			return isEquality() ? Integer.valueOf(_value) : null;
+		}
 
 		public boolean matches(ValueEval x) {
 			if(x instanceof ErrorEval) {
@@ -336,6 +385,15 @@ public final class Countif extends Fixed2ArgFunction {
 			}
 			return _pattern.pattern();
 		}
+		@Override
+		protected Object getValueKey() {
+			return _value;
+		}
+		@Override
+		protected Object getLookupValue() {
+			// the empty string also matches blank cells
+			return isEquality() && _pattern == null && _value.length() > 0 ? _value : null;
+		}
 
 		public boolean matches(ValueEval x) {
 			if (x instanceof BlankEval) {
@@ -449,12 +507,27 @@ public final class Countif extends Fixed2ArgFunction {
 		if (rangeArg instanceof RefEval) {
 			return CountUtils.countMatchingCell((RefEval) rangeArg, criteriaPredicate);
 		} else if (rangeArg instanceof TwoDEval) {
+			CriteriaIndex index = CriteriaIndex.forArea((TwoDEval) rangeArg);
+			if (index != null) {
+				return index.getMatchingCells(criteriaPredicate).length;
+			}
 			return CountUtils.countMatchingCellsInArea((TwoDEval) rangeArg, criteriaPredicate);
 		} else {
 			throw new IllegalArgumentException("Bad range arg type (" + rangeArg.getClass().getName() + ")");
 		}
 	}
 
+	/**
+	 * @return the value matched by a criteria testing for equality, <code>null</code> for
+	 * other criteria
+	 */
+	/* package */ static Object getLookupValue(I_MatchPredicate predicate) {
+		if (predicate instanceof MatcherBase) {
+			return ((MatcherBase) predicate).getLookupValue();
+		}
+		return null;
+	}
+
 	/**
 	 * Creates a criteria predicate object for the supplied criteria arg
 	 * @return <code>null</code> if the arg evaluates to blank.
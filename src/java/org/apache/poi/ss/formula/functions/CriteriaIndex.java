@@ -0,0 +1,327 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+
+package org.apache.poi.ss.formula.functions;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.formula.CachedAreaValues;
+import org.apache.poi.ss.formula.CachingAreaEval;
+import org.apache.poi.ss.formula.TwoDEval;
+import org.apache.poi.ss.formula.eval.BoolEval;
+import org.apache.poi.ss.formula.eval.ErrorEval;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.OperandResolver;
+import org.apache.poi.ss.formula.eval.StringEval;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.functions.CountUtils.I_MatchPredicate;
+
+/**
+ * Groups the cells of a criteria range by value, for SUMIF, COUNTIF and SUMIFS.<p/>
+ *
+ * A criteria only looks at the value of a cell, so it is tested once per distinct value
+ * instead of once per cell. Criteria testing for equality look the candidate values up by
+ * hash and keep no state, the results of other criteria are kept for the few criteria used
+ * last.<p/>
+ *
+ * Instances are kept with the {@link CachedAreaValues} of the range, the evaluator drops
+ * them together as soon as any cell of the range changes.
+ */
+final class CriteriaIndex {
+
+	/**
+	 * The number of criteria without lookup whose results are kept, the least recently used
+	 * ones are dropped
+	 */
+	private static final int MAX_CACHED_CRITERIA = 16;
+
+	private static final int[] EMPTY_INT_ARRAY = { };
+
+	private static final class Criteria {
+		/** whether each group of values matches */
+		final boolean[] _groupMatches;
+		/** the matching cells, created when they are first needed */
+		int[] _cells;
+
+		Criteria(boolean[] groupMatches) {
+			_groupMatches = groupMatches;
+		}
+	}
+
+	/** the group of each cell, the cells are ordered row by row */
+	private final int[] _cellGroups;
+	/** the value of each group */
+	private final ValueEval[] _groupValues;
+	/**
+	 * the cells of group <tt>i</tt> are <tt>_groupCells[_groupStarts[i]]</tt> up to
+	 * <tt>_groupCells[_groupStarts[i + 1]]</tt> excluded, created when they are first needed
+	 */
+	private int[] _groupStarts;
+	private int[] _groupCells;
+	/**
+	 * the groups whose values an equality criteria may match, by {@link #getLookupKey(Object)}
+	 * of the criteria value, created when they are first needed
+	 */
+	private Map<Object, int[]> _lookupGroups;
+	/** the criteria without lookup used last, in access order */
+	private final Map<I_MatchPredicate, Criteria> _criteria;
+
+	private CriteriaIndex(CachedAreaValues values) {
+		int size = values.getSize();
+		_cellGroups = new int[size];
+		Map<Object, Integer> groups = new HashMap<Object, Integer>();
+		ValueEval[] groupValues = new ValueEval[16];
+		for (int i = 0; i < size; i++) {
+			ValueEval value = values.getValue(i);
+			Object key = getGroupKey(value);
+			Integer group = groups.get(key);
+			if (group == null) {
+				group = Integer.valueOf(groups.size());
+				groups.put(key, group);
+				if (group.intValue() == groupValues.length) {
+					ValueEval[] newGroupValues = new ValueEval[groupValues.length * 2];
+					System.arraycopy(groupValues, 0, newGroupValues, 0, groupValues.length);
+					groupValues = newGroupValues;
+				}
+				groupValues[group.intValue()] = value;
+			}
+			_cellGroups[i] = group.intValue();
+		}
+		_groupValues = new ValueEval[groups.size()];
+		System.arraycopy(groupValues, 0, _groupValues, 0, _groupValues.length);
+		_criteria = new LinkedHashMap<I_MatchPredicate, Criteria>(16, 0.75f, true) {
+			private static final long serialVersionUID = 3062716485931576113L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<I_MatchPredicate, Criteria> eldest) {
+				return size() > MAX_CACHED_CRITERIA;
+			}
+		};
+	}
+
+	/**
+	 * @return the index of the cells of <tt>area</tt>, <code>null</code> if the area is small
+	 * or its values can't be cached
+	 */
+	public static CriteriaIndex forArea(TwoDEval area) {
+		if (!(area instanceof CachingAreaEval)
+				|| area.getWidth() * area.getHeight() < CachedAreaValues.MIN_INDEXED_SIZE) {
+			return null;
+		}
+		CachedAreaValues values = ((CachingAreaEval) area).getCachedValues();
+		if (values == null) {
+			return null;
+		}
+		CriteriaIndex result = (CriteriaIndex) values.getIndex(CriteriaIndex.class);
+		if (result == null) {
+			result = new CriteriaIndex(values);
+			values.setIndex(CriteriaIndex.class, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Two values are in the same group if and only if no criteria can tell them apart
+	 */
+	private static Object getGroupKey(ValueEval value) {
+		if (value instanceof NumberEval) {
+			return Double.valueOf(((NumberEval) value).getNumberValue());
+		}
+		if (value instanceof StringEval) {
+			return ((StringEval) value).getStringValue();
+		}
+		if (value instanceof BoolEval) {
+			return Boolean.valueOf(((BoolEval) value).getBooleanValue());
+		}
+		if (value instanceof ErrorEval) {
+			return Integer.valueOf(((ErrorEval) value).getErrorCode());
+		}
+		// blank, the only other kind of cell value
+		return value;
+	}
+
+	/**
+	 * Equality criteria compare strings ignoring case, and numbers with <tt>==</tt> when
+	 * numeric strings are compared, so that zero matches negative zero
+	 */
+	private static Object getLookupKey(Object value) {
+		if (value instanceof String) {
+			String s = (String) value;
+			// same as String.compareToIgnoreCase()
+			char[] chars = new char[s.length()];
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+			}
+			return new String(chars);
+		}
+		if (value instanceof Double) {
+			return Double.valueOf(((Double) value).doubleValue() + 0.0);
+		}
+		return value;
+	}
+
+	private void addLookupGroup(Object value, int group) {
+		Object key = getLookupKey(value);
+		int[] groups = _lookupGroups.get(key);
+		if (groups == null) {
+			groups = new int[] { group };
+		} else {
+			int[] newGroups = new int[groups.length + 1];
+			System.arraycopy(groups, 0, newGroups, 0, groups.length);
+			newGroups[groups.length] = group;
+			groups = newGroups;
+		}
+		_lookupGroups.put(key, groups);
+	}
+
+	/**
+	 * @return the groups whose value may match the equality criteria, a superset of the
+	 * matching groups
+	 */
+	private int[] getLookupGroups(Object lookupValue) {
+		if (_lookupGroups == null) {
+			_lookupGroups = new HashMap<Object, int[]>();
+			for (int i = 0; i < _groupValues.length; i++) {
+				Object key = getGroupKey(_groupValues[i]);
+				if (key == _groupValues[i]) {
+					// blank, not matched by any equality criteria with a lookup value
+					continue;
+				}
+				addLookupGroup(key, i);
+				if (key instanceof String) {
+					// number criteria match numeric strings too
+					Double number = OperandResolver.parseDouble((String) key);
+					if (number != null) {
+						addLookupGroup(number, i);
+					}
+				}
+			}
+		}
+		int[] result = _lookupGroups.get(getLookupKey(lookupValue));
+		return result == null ? EMPTY_INT_ARRAY : result;
+	}
+
+	private Criteria getCriteria(I_MatchPredicate predicate) {
+		Criteria result = _criteria.get(predicate);
+		if (result == null) {
+			boolean[] groupMatches = new boolean[_groupValues.length];
+			for (int i = 0; i < groupMatches.length; i++) {
+				groupMatches[i] = predicate.matches(_groupValues[i]);
+			}
+			result = new Criteria(groupMatches);
+			_criteria.put(predicate, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @param index zero based index of the cell, the cells are ordered row by row
+	 */
+	public boolean matches(int index, I_MatchPredicate predicate) {
+		if (Countif.getLookupValue(predicate) != null) {
+			return predicate.matches(_groupValues[_cellGroups[index]]);
+		}
+		return getCriteria(predicate)._groupMatches[_cellGroups[index]];
+	}
+
+	/**
+	 * @return the indexes of the matching cells in ascending order, the cells are ordered row by
+	 * row. The array must not be modified.
+	 */
+	public int[] getMatchingCells(I_MatchPredicate predicate) {
+		Object lookupValue = Countif.getLookupValue(predicate);
+		if (lookupValue != null) {
+			return getMatchingCells(predicate, getLookupGroups(lookupValue));
+		}
+		Criteria criteria = getCriteria(predicate);
+		if (criteria._cells == null) {
+			boolean[] groupMatches = criteria._groupMatches;
+			int count = 0;
+			for (int i = 0; i < _cellGroups.length; i++) {
+				if (groupMatches[_cellGroups[i]]) {
+					count++;
+				}
+			}
+			int[] cells = new int[count];
+			count = 0;
+			for (int i = 0; i < _cellGroups.length; i++) {
+				if (groupMatches[_cellGroups[i]]) {
+					cells[count++] = i;
+				}
+			}
+			criteria._cells = cells;
+		}
+		return criteria._cells;
+	}
+
+	/**
+	 * @return the cells of the given groups whose value matches
+	 */
+	private int[] getMatchingCells(I_MatchPredicate predicate, int[] groups) {
+		if (groups.length == 0) {
+			return EMPTY_INT_ARRAY;
+		}
+		if (_groupStarts == null) {
+			createGroupCells();
+		}
+		int count = 0;
+		for (int i = 0; i < groups.length; i++) {
+			int group = groups[i];
+			if (predicate.matches(_groupValues[group])) {
+				count += _groupStarts[group + 1] - _groupStarts[group];
+			}
+		}
+		int[] result = new int[count];
+		count = 0;
+		int matchingGroups = 0;
+		for (int i = 0; i < groups.length; i++) {
+			int group = groups[i];
+			if (predicate.matches(_groupValues[group])) {
+				int groupSize = _groupStarts[group + 1] - _groupStarts[group];
+				System.arraycopy(_groupCells, _groupStarts[group], result, count, groupSize);
+				count += groupSize;
+				matchingGroups++;
+			}
+		}
+		if (matchingGroups > 1) {
+			Arrays.sort(result);
+		}
+		return result;
+	}
+
+	private void createGroupCells() {
+		int[] starts = new int[_groupValues.length + 1];
+		for (int i = 0; i < _cellGroups.length; i++) {
+			starts[_cellGroups[i] + 1]++;
+		}
+		for (int i = 0; i < _groupValues.length; i++) {
+			starts[i + 1] += starts[i];
+		}
+		int[] cells = new int[_cellGroups.length];
+		int[] next = new int[_groupValues.length];
+		System.arraycopy(starts, 0, next, 0, next.length);
+		for (int i = 0; i < _cellGroups.length; i++) {
+			cells[next[_cellGroups[i]]++] = i;
+		}
+		_groupStarts = starts;
+		_groupCells = cells;
+	}
+}
@@ -17,6 +17,9 @@
 
 package org.apache.poi.ss.formula.functions;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.poi.ss.formula.eval.BlankEval;
 import org.apache.poi.ss.formula.eval.BoolEval;
 import org.apache.poi.ss.formula.eval.ErrorEval;
@@ -27,6 +30,8 @@ import org.apache.poi.ss.formula.eval.OperandResolver;
 import org.apache.poi.ss.formula.eval.RefEval;
 import org.apache.poi.ss.formula.eval.StringEval;
 import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.CachedAreaValues;
+import org.apache.poi.ss.formula.CachingAreaEval;
 import org.apache.poi.ss.formula.TwoDEval;
 
 import java.util.regex.Matcher;
@@ -76,6 +81,12 @@ final class LookupUtils {
 		public int getSize() {
 			return _size;
 		}
+		public CachedAreaValues getCachedValues() {
+			if (!(_tableArray instanceof CachingAreaEval)) {
+				return null;
+			}
+			return ((CachingAreaEval) _tableArray.getRow(_rowIndex)).getCachedValues();
+		}
 	}
 
 	private static final class ColumnVector implements ValueVector {
@@ -105,6 +116,70 @@ final class LookupUtils {
 		public int getSize() {
 			return _size;
 		}
+		public CachedAreaValues getCachedValues() {
+			if (!(_tableArray instanceof CachingAreaEval)) {
+				return null;
+			}
+			return ((CachingAreaEval) _tableArray.getColumn(_columnIndex)).getCachedValues();
+		}
+	}
+
+	/**
+	 * A row or column whose values are kept by the evaluator. Exact lookups search it through
+	 * an {@link ExactMatchIndex}, built by the first of them and kept along with the values.
+	 */
+	private static final class CachedVector implements ValueVector {
+
+		private final CachedAreaValues _values;
+
+		public CachedVector(CachedAreaValues values) {
+			_values = values;
+		}
+
+		public ValueEval getItem(int index) {
+			return _values.getValue(index);
+		}
+		public int getSize() {
+			return _values.getSize();
+		}
+		public int indexOfExactMatchKey(Object key) {
+			ExactMatchIndex index = (ExactMatchIndex) _values.getIndex(ExactMatchIndex.class);
+			if (index == null) {
+				index = new ExactMatchIndex(_values);
+				_values.setIndex(ExactMatchIndex.class, index);
+			}
+			return index.indexOf(key);
+		}
+	}
+
+	/**
+	 * Maps the exact match key of each value in a row or column to the index of its first
+	 * occurrence. Blanks have no key, so whole columns only take as much memory as their
+	 * used rows.
+	 */
+	private static final class ExactMatchIndex {
+
+		private final Map<Object, Integer> _firstIndexes;
+
+		public ExactMatchIndex(CachedAreaValues values) {
+			int size = values.getUsedSize();
+			_firstIndexes = new HashMap<Object, Integer>(size * 4 / 3 + 1);
+			// Note - backward iteration, so that the first occurrence is kept
+			for (int i = size - 1; i >= 0; i--) {
+				Object key = getExactMatchKey(values.getValue(i));
+				if (key != null) {
+					_firstIndexes.put(key, Integer.valueOf(i));
+				}
+			}
+		}
+
+		/**
+		 * @return zero based index of the first value with the specified key, -1 if there is none
+		 */
+		public int indexOf(Object key) {
+			Integer result = _firstIndexes.get(key);
+			return result == null ? -1 : result.intValue();
+		}
 	}
 
 	public static ValueVector createRowVector(TwoDEval tableArray, int relativeRowIndex) {
@@ -126,6 +201,57 @@ final class LookupUtils {
 		return null;
 	}
 
+	/**
+	 * @return a vector over the values the evaluator keeps for the cells of <tt>vector</tt>, or
+	 * <tt>vector</tt> itself if it is short or its values can't be cached. Whole columns are
+	 * cached too, the evaluator only keeps the values of the rows used in the sheet.
+	 */
+	/* package */ static ValueVector getCachedVector(ValueVector vector) {
+		int size = vector.getSize();
+		if (size < CachedAreaValues.MIN_INDEXED_SIZE) {
+			return vector;
+		}
+		CachedAreaValues values;
+		if (vector instanceof ColumnVector) {
+			values = ((ColumnVector) vector).getCachedValues();
+		} else if (vector instanceof RowVector) {
+			values = ((RowVector) vector).getCachedValues();
+		} else {
+			return vector;
+		}
+		return values == null ? vector : new CachedVector(values);
+	}
+
+	/**
+	 * Two values are equal for an exact lookup if and only if their keys are equal. Strings are
+	 * compared ignoring case, like {@link String#compareToIgnoreCase(String)} does.
+	 * @return <code>null</code> for values no lookup value is equal to
+	 */
+	private static Object getExactMatchKey(ValueEval value) {
+		if (value instanceof NumberEval) {
+			return Double.valueOf(((NumberEval) value).getNumberValue());
+		}
+		if (value instanceof StringEval) {
+			return foldCase(((StringEval) value).getStringValue());
+		}
+		if (value instanceof BoolEval) {
+			return Boolean.valueOf(((BoolEval) value).getBooleanValue());
+		}
+		return null;
+	}
+
+	/**
+	 * Maps each character the same way {@link String#compareToIgnoreCase(String)} does before
+	 * comparing it. Unlike {@link String#toLowerCase()} this does not depend on the locale.
+	 */
+	private static String foldCase(String value) {
+		char[] chars = value.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+		}
+		return new String(chars);
+	}
+
 	/**
 	 * Enumeration to support <b>4</b> valued comparison results.<p/>
 	 * Excel lookup functions have complex behaviour in the case where the lookup array has mixed
@@ -251,6 +377,12 @@ final class LookupUtils {
 			return sb.toString();
 		}
 		protected abstract CompareResult compareSameType(ValueEval other);
+		/**
+		 * @return the exact match key of the values this comparer finds equal (see
+		 * {@link LookupUtils#getExactMatchKey(ValueEval)}), <code>null</code> if they can't be
+		 * found by key
+		 */
+		protected abstract Object getExactMatchKey();
 		/** used only for debug purposes */
 		protected abstract String getValueAsString();
 	}
@@ -287,6 +419,12 @@ final class LookupUtils {
 
             return CompareResult.valueOf(_value.compareToIgnoreCase(stringValue));
 		}
+		protected Object getExactMatchKey() {
+			if (_wildCardPattern != null && (_isMatchFunction || !_matchExact)) {
+				return null;
+			}
+			return foldCase(_value);
+		}
 		protected String getValueAsString() {
 			return _value;
 		}
@@ -302,6 +440,9 @@ final class LookupUtils {
 			NumberEval ne = (NumberEval) other;
 			return CompareResult.valueOf(Double.compare(_value, ne.getNumberValue()));
 		}
+		protected Object getExactMatchKey() {
+			return Double.valueOf(_value);
+		}
 		protected String getValueAsString() {
 			return String.valueOf(_value);
 		}
@@ -325,6 +466,9 @@ final class LookupUtils {
 			}
 			return CompareResult.LESS_THAN;
 		}
+		protected Object getExactMatchKey() {
+			return Boolean.valueOf(_value);
+		}
 		protected String getValueAsString() {
 			return String.valueOf(_value);
 		}
@@ -461,7 +605,7 @@ final class LookupUtils {
 		if(isRangeLookup) {
 			result = performBinarySearch(vector, lookupComparer);
 		} else {
-			result = lookupIndexOfExactValue(lookupComparer, vector);
+			result = lookupIndexOfExactValue(lookupComparer, getCachedVector(vector));
 		}
 		if(result < 0) {
 			throw new EvaluationException(ErrorEval.NA);
@@ -477,8 +621,14 @@ final class LookupUtils {
 	 * 	tableArray. For HLOOKUP this is the first row of the tableArray.
 	 * @return zero based index into the vector, -1 if value cannot be found
 	 */
-	private static int lookupIndexOfExactValue(LookupValueComparer lookupComparer, ValueVector vector) {
+	/* package */ static int lookupIndexOfExactValue(LookupValueComparer lookupComparer, ValueVector vector) {
 
+		if (vector instanceof CachedVector && lookupComparer instanceof LookupValueComparerBase) {
+			Object key = ((LookupValueComparerBase) lookupComparer).getExactMatchKey();
+			if (key != null) {
+				return ((CachedVector) vector).indexOfExactMatchKey(key);
+			}
+		}
 		// find first occurrence of lookup value
 		int size = vector.getSize();
 		for (int i = 0; i < size; i++) {
@@ -190,14 +190,14 @@ public final class Match extends Var2or3ArgFunction {
 
 		LookupValueComparer lookupComparer = createLookupComparer(lookupValue, matchExact);
 
+		lookupRange = LookupUtils.getCachedVector(lookupRange);
 		int size = lookupRange.getSize();
 		if(matchExact) {
-			for (int i = 0; i < size; i++) {
-				if(lookupComparer.compareTo(lookupRange.getItem(i)).isEqual()) {
-					return i;
-				}
+			int result = LookupUtils.lookupIndexOfExactValue(lookupComparer, lookupRange);
+			if(result < 0) {
+				throw new EvaluationException(ErrorEval.NA);
 			}
-			throw new EvaluationException(ErrorEval.NA);
+			return result;
 		}
 
 		if(findLargestLessThanOrEqual) {
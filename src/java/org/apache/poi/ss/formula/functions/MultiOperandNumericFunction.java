@@ -78,6 +78,12 @@ public abstract class MultiOperandNumericFunction implements Function {
 			_array[_count] = value;
 			_count++;
 		}
+
+		public void addAll(double[] values) {
+			ensureCapacity(_count + values.length);
+			System.arraycopy(values, 0, _array, _count, values.length);
+			_count += values.length;
+		}
 	}
 
 	private static final int DEFAULT_MAX_NUM_OPERANDS = 30;
@@ -143,6 +149,17 @@ public abstract class MultiOperandNumericFunction implements Function {
 
 		if (operand instanceof TwoDEval) {
 			TwoDEval ae = (TwoDEval) operand;
+			if (!_isBlankCounted && isSubtotalCounted()) {
+				// blanks and strings are ignored, so all numbers can be copied at once
+				NumericAreaValues values = NumericAreaValues.forArea(ae);
+				if (values != null && !(_isReferenceBoolCounted && values.hasBooleans())) {
+					if (values.getFirstError() != null) {
+						throw new EvaluationException(values.getFirstError());
+					}
+					temp.addAll(values.getNumbers());
+					return;
+				}
+			}
 			int width = ae.getWidth();
 			int height = ae.getHeight();
 			for (int rrIx=0; rrIx<height; rrIx++) {
@@ -0,0 +1,140 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula.functions;
+
+import org.apache.poi.ss.formula.CachedAreaValues;
+import org.apache.poi.ss.formula.CachingAreaEval;
+import org.apache.poi.ss.formula.TwoDEval;
+import org.apache.poi.ss.formula.eval.BoolEval;
+import org.apache.poi.ss.formula.eval.ErrorEval;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.NumericValueEval;
+import org.apache.poi.ss.formula.eval.ValueEval;
+
+/**
+ * The numbers of a range in primitive arrays, for the numeric functions like SUM, AVERAGE
+ * or SUMPRODUCT.<p/>
+ *
+ * The arrays are created once from the values of the range, formulas aggregating the same
+ * range copy them instead of reading the range cell by cell.<p/>
+ *
+ * Instances are kept with the {@link CachedAreaValues} of the range, the evaluator drops
+ * them together as soon as any cell of the range changes.
+ */
+final class NumericAreaValues {
+
+	private final CachedAreaValues _values;
+	/** the first error of the range (row by row), <code>null</code> if there is none */
+	private final ErrorEval _firstError;
+	private final boolean _hasBooleans;
+	private double[] _numbers;
+	private double[] _terms;
+
+	private NumericAreaValues(CachedAreaValues values) {
+		ErrorEval firstError = null;
+		boolean hasBooleans = false;
+		// the blank cells after the used ones don't matter
+		for (int i = values.getUsedSize() - 1; i >= 0; i--) {
+			ValueEval value = values.getValue(i);
+			if (value instanceof ErrorEval) {
+				firstError = (ErrorEval) value;
+			} else if (value instanceof BoolEval) {
+				hasBooleans = true;
+			}
+		}
+		_values = values;
+		_firstError = firstError;
+		_hasBooleans = hasBooleans;
+	}
+
+	/**
+	 * @return <code>null</code> if the range is small or its values are not cached, as only
+	 * ranges used by more than one formula cell are
+	 */
+	public static NumericAreaValues forArea(TwoDEval ae) {
+		if (!(ae instanceof CachingAreaEval) || ae.getWidth() * ae.getHeight() < CachedAreaValues.MIN_INDEXED_SIZE) {
+			return null;
+		}
+		CachedAreaValues values = ((CachingAreaEval) ae).getCachedValues();
+		if (values == null) {
+			// not read by other formulas yet, or a circular reference
+			return null;
+		}
+		NumericAreaValues result = (NumericAreaValues) values.getIndex(NumericAreaValues.class);
+		if (result == null) {
+			result = new NumericAreaValues(values);
+			values.setIndex(NumericAreaValues.class, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the first error of the range, <code>null</code> if there is none
+	 */
+	public ErrorEval getFirstError() {
+		return _firstError;
+	}
+
+	public boolean hasBooleans() {
+		return _hasBooleans;
+	}
+
+	/**
+	 * @return the values of the numeric cells, row by row. The array must not be changed.
+	 */
+	public double[] getNumbers() {
+		if (_numbers == null) {
+			int size = _values.getUsedSize();
+			int count = 0;
+			for (int i = 0; i < size; i++) {
+				if (_values.getValue(i) instanceof NumberEval) {
+					count++;
+				}
+			}
+			double[] numbers = new double[count];
+			count = 0;
+			for (int i = 0; i < size; i++) {
+				ValueEval value = _values.getValue(i);
+				if (value instanceof NumberEval) {
+					numbers[count++] = ((NumberEval) value).getNumberValue();
+				}
+			}
+			_numbers = numbers;
+		}
+		return _numbers;
+	}
+
+	/**
+	 * @return the value of each cell as SUMPRODUCT multiplies it, row by row: the value of
+	 * numbers and booleans, 0 for anything else. The array must not be changed.
+	 */
+	public double[] getTerms() {
+		if (_terms == null) {
+			int size = _values.getSize();
+			double[] terms = new double[size];
+			for (int i = 0; i < size; i++) {
+				ValueEval value = _values.getValue(i);
+				if (value instanceof NumericValueEval) {
+					terms[i] = ((NumericValueEval) value).getNumberValue();
+				}
+			}
+			_terms = terms;
+		}
+		return _terms;
+	}
+}
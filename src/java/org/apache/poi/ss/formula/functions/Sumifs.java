@@ -99,6 +99,24 @@ public final class Sumifs implements FreeRefFunction {
         int height = aeSum.getHeight();
         int width = aeSum.getWidth();
 
+        // only the cells matching the most selective indexed criteria need to be looked at
+        CriteriaIndex[] indexes = new CriteriaIndex[ranges.length];
+        int[] candidates = null;
+        for(int i = 0; i < ranges.length; i++){
+            if (predicates[i] != null) {
+                indexes[i] = CriteriaIndex.forArea(ranges[i]);
+            }
+            if (indexes[i] != null) {
+                int[] cells = indexes[i].getMatchingCells(predicates[i]);
+                if (candidates == null || cells.length < candidates.length) {
+                    candidates = cells;
+                }
+            }
+        }
+        if (candidates != null) {
+            return sumMatchingCells(ranges, predicates, indexes, candidates, aeSum);
+        }
+
         double result = 0.0;
         for (int r = 0; r < height; r++) {
             for (int c = 0; c < width; c++) {
@@ -123,6 +141,37 @@ public final class Sumifs implements FreeRefFunction {
         return result;
     }
 
+    /**
+     * @param indexes  the index of each range, <code>null</code> for ranges without index
+     * @param candidates  the cells to look at in ascending order, ordered row by row
+     */
+    private static double sumMatchingCells(AreaEval[] ranges, I_MatchPredicate[] predicates,
+            CriteriaIndex[] indexes, int[] candidates, AreaEval aeSum) {
+        int width = aeSum.getWidth();
+
+        double result = 0.0;
+        for (int j = 0; j < candidates.length; j++) {
+            int cell = candidates[j];
+            int r = cell / width;
+            int c = cell % width;
+
+            boolean matches = true;
+            for(int i = 0; i < ranges.length; i++){
+                if (indexes[i] == null
+                        ? !predicates[i].matches(ranges[i].getRelativeValue(r, c))
+                        : !indexes[i].matches(cell, predicates[i])) {
+                    matches = false;
+                    break;
+                }
+            }
+
+            if(matches) {
+                result += accumulate(aeSum, r, c);
+            }
+        }
+        return result;
+    }
+
 	private static double accumulate(AreaEval aeSum, int relRowIndex,
 			int relColIndex) {
 
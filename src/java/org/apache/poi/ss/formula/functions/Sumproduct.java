@@ -147,6 +147,19 @@ public final class Sumproduct implements Function {
 
 		double acc = 0;
 
+		double[][] terms = getCachedTerms(args);
+		if (terms != null) {
+			int size = height * width;
+			for (int i = 0; i < size; i++) {
+				double term = 1D;
+				for(int n=0; n<maxN; n++) {
+					term *= terms[n][i];
+				}
+				acc += term;
+			}
+			return new NumberEval(acc);
+		}
+
 		for (int rrIx=0; rrIx<height; rrIx++) {
 			for (int rcIx=0; rcIx<width; rcIx++) {
 				double term = 1D;
@@ -161,6 +174,22 @@ public final class Sumproduct implements Function {
 		return new NumberEval(acc);
 	}
 
+	/**
+	 * @return the terms of all areas, <code>null</code> if any area is read cell by cell
+	 * or contains an error
+	 */
+	private static double[][] getCachedTerms(TwoDEval[] args) {
+		double[][] result = new double[args.length][];
+		for (int n = 0; n < args.length; n++) {
+			NumericAreaValues values = NumericAreaValues.forArea(args[n]);
+			if (values == null || values.getFirstError() != null) {
+				return null;
+			}
+			result[n] = values.getTerms();
+		}
+		return result;
+	}
+
 	private static void throwFirstError(TwoDEval areaEval) throws EvaluationException {
 		int height = areaEval.getHeight();
 		int width = areaEval.getWidth();
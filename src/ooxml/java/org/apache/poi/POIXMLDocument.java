@@ -25,9 +25,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.CompressionOption;
 import org.apache.poi.openxml4j.opc.OPCPackage;
 import org.apache.poi.openxml4j.opc.PackagePart;
 import org.apache.poi.openxml4j.opc.PackageRelationship;
@@ -168,6 +170,29 @@ public abstract class POIXMLDocument extends POIXMLDocumentPart{
      * @exception IOException if anything can't be written.
      */
     public final void write(OutputStream stream) throws IOException {
+        commitParts();
+        getPackage().save(stream);
+    }
+
+    /**
+     * Write out this document to an Outputstream, compressing the package parts
+     *  concurrently with the given level.
+     *
+     * @param stream - the java OutputStream you wish to write the file to
+     * @param compression - the compression level of the package parts
+     * @param executor - compresses the package parts, <code>null</code> to compress
+     *  them on the calling thread
+     *
+     * @exception IOException if anything can't be written.
+     * @see OPCPackage#save(OutputStream, CompressionOption, ExecutorService)
+     */
+    public final void write(OutputStream stream, CompressionOption compression, ExecutorService executor)
+            throws IOException {
+        commitParts();
+        getPackage().save(stream, compression, executor);
+    }
+
+    private void commitParts() throws IOException {
         //force all children to commit their changes into the underlying OOXML Package
         Set<PackagePart> context = new HashSet<PackagePart>();
         onSave(context);
@@ -175,7 +200,5 @@ public abstract class POIXMLDocument extends POIXMLDocumentPart{
 
         //save extended and custom properties
         getProperties().commit();
-
-        getPackage().save(stream);
     }
 }
@@ -32,9 +32,11 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.ZipInputStream;
 
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.openxml4j.exceptions.InvalidOperationException;
@@ -52,6 +54,8 @@ import org.apache.poi.openxml4j.opc.internal.marshallers.ZipPackagePropertiesMar
 import org.apache.poi.openxml4j.opc.internal.unmarshallers.PackagePropertiesUnmarshaller;
 import org.apache.poi.openxml4j.opc.internal.unmarshallers.UnmarshallContext;
 import org.apache.poi.openxml4j.util.Nullable;
+import org.apache.poi.openxml4j.util.SpillingZipEntrySource;
+import org.apache.poi.openxml4j.util.ZipEntrySource;
 import org.apache.poi.util.POILogger;
 import org.apache.poi.util.POILogFactory;
 
@@ -271,6 +275,36 @@ public abstract class OPCPackage implements RelationshipSource, Closeable {
 		return pack;
 	}
 
+	/**
+	 * Open a package, keeping at most <code>maxInMemory</code> bytes of
+	 * its parts in memory.
+	 *
+	 * Parts larger than <code>spillThreshold</code>, and all parts read once
+	 * <code>maxInMemory</code> bytes are held, are written to a temp file.
+	 * A large package, such as an upload, can so be opened without saving
+	 * it to a file first and without buffering all of it in memory. Call
+	 * {@link #revert()} once done with the package to delete the temp file.
+	 *
+	 * @param in
+	 *            The InputStream to read the package from
+	 * @param spillThreshold
+	 *            Parts larger than this many bytes are written to the temp file,
+	 *            see {@link SpillingZipEntrySource#DEFAULT_SPILL_THRESHOLD}
+	 * @param maxInMemory
+	 *            The most bytes of part data to keep in memory
+	 * @return A PackageBase object
+	 */
+	public static OPCPackage open(InputStream in, int spillThreshold, long maxInMemory)
+			throws InvalidFormatException, IOException {
+		ZipEntrySource zipArchive = new SpillingZipEntrySource(
+				new ZipInputStream(in), spillThreshold, maxInMemory);
+		OPCPackage pack = new ZipPackage(zipArchive, PackageAccess.READ_WRITE);
+		if (pack.partList == null) {
+			pack.getParts();
+		}
+		return pack;
+	}
+
 	/**
 	 * Opens a package if it exists, else it creates one.
 	 *
@@ -1414,6 +1448,30 @@ public abstract class OPCPackage implements RelationshipSource, Closeable {
 		this.saveImpl(outputStream);
 	}
 
+	/**
+	 * Save the document in the specified output stream, with the given
+	 * compression level, marshalling the parts concurrently.
+	 *
+	 * Each part is marshalled and deflated by a task on the executor, which
+	 * cuts the time to save a package with many large parts. The parts are
+	 * written in the same order as {@link #save(OutputStream)} writes them.
+	 * The executor is not shut down.
+	 *
+	 * @param outputStream
+	 *            The stream to save the package.
+	 * @param compression
+	 *            The compression level of the parts.
+	 * @param executor
+	 *            The executor which marshalls the parts, <code>null</code> to
+	 *            marshall them one after another on the calling thread.
+	 * @see #saveImpl(OutputStream, CompressionOption, ExecutorService)
+	 */
+	public void save(OutputStream outputStream, CompressionOption compression,
+			ExecutorService executor) throws IOException {
+		throwExceptionIfReadOnly();
+		this.saveImpl(outputStream, compression, executor);
+	}
+
 	/**
 	 * Core method to create a package part. This method must be implemented by
 	 * the subclass.
@@ -1462,6 +1520,21 @@ public abstract class OPCPackage implements RelationshipSource, Closeable {
 	protected abstract void saveImpl(OutputStream outputStream)
 			throws IOException;
 
+	/**
+	 * Save the package into the specified output stream, deflating the parts
+	 * with the given level, on the executor if there is one.
+	 *
+	 * @param outputStream
+	 *            The output stream use to save this package.
+	 * @param compression
+	 *            The compression level of the parts.
+	 * @param executor
+	 *            The executor which marshalls the parts, may be <code>null</code>.
+	 */
+	protected abstract void saveImpl(OutputStream outputStream,
+			CompressionOption compression, ExecutorService executor)
+			throws IOException;
+
 	/**
 	 * Get the package part mapped to the specified URI.
 	 *
@@ -17,12 +17,18 @@
 
 package org.apache.poi.openxml4j.opc;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -39,7 +45,10 @@ import org.apache.poi.openxml4j.opc.internal.ZipContentTypeManager;
 import org.apache.poi.openxml4j.opc.internal.ZipHelper;
 import org.apache.poi.openxml4j.opc.internal.marshallers.ZipPackagePropertiesMarshaller;
 import org.apache.poi.openxml4j.opc.internal.marshallers.ZipPartMarshaller;
+import org.apache.poi.openxml4j.util.DeflatedZipEntry;
+import org.apache.poi.openxml4j.util.DeflatedZipOutputStream;
 import org.apache.poi.openxml4j.util.ZipEntrySource;
+import org.apache.poi.openxml4j.util.ZipEntryTasks;
 import org.apache.poi.openxml4j.util.ZipFileZipEntrySource;
 import org.apache.poi.openxml4j.util.ZipInputStreamZipEntrySource;
 import org.apache.poi.util.POILogger;
@@ -85,6 +94,20 @@ public final class ZipPackage extends Package {
 		);
 	}
 
+	/**
+	 * Constructor. Opens a Zip based Open XML document from
+	 *  already read entries.
+	 *
+	 * @param zipArchive
+	 *            The entries of the package.
+	 * @param access
+	 *            The package access mode.
+	 */
+	ZipPackage(ZipEntrySource zipArchive, PackageAccess access) {
+		super(access);
+		this.zipArchive = zipArchive;
+	}
+
    /**
     * Constructor. Opens a Zip based Open XML document.
     *
@@ -413,37 +436,7 @@ public final class ZipPackage extends Package {
 			else
 				zos = (ZipOutputStream) outputStream;
 
-			// If the core properties part does not exist in the part list,
-			// we save it as well
-			if (this.getPartsByRelationshipType(PackageRelationshipTypes.CORE_PROPERTIES).size() == 0 &&
-                this.getPartsByRelationshipType(PackageRelationshipTypes.CORE_PROPERTIES_ECMA376).size() == 0    ) {
-				logger.log(POILogger.DEBUG,"Save core properties part");
-
-				// We have to save the core properties part ...
-				new ZipPackagePropertiesMarshaller().marshall(
-                        this.packageProperties, zos);
-				// ... and to add its relationship ...
-				this.relationships.addRelationship(this.packageProperties
-						.getPartName().getURI(), TargetMode.INTERNAL,
-						PackageRelationshipTypes.CORE_PROPERTIES, null);
-				// ... and the content if it has not been added yet.
-				if (!this.contentTypeManager
-						.isContentTypeRegister(ContentTypes.CORE_PROPERTIES_PART)) {
-					this.contentTypeManager.addContentType(
-							this.packageProperties.getPartName(),
-							ContentTypes.CORE_PROPERTIES_PART);
-				}
-			}
-
-			// Save package relationships part.
-			logger.log(POILogger.DEBUG,"Save package relationships");
-			ZipPartMarshaller.marshallRelationshipPart(this.getRelationships(),
-					PackagingURIHelper.PACKAGE_RELATIONSHIPS_ROOT_PART_NAME,
-					zos);
-
-			// Save content type part.
-			logger.log(POILogger.DEBUG,"Save content types part");
-			this.contentTypeManager.save(zos);
+			savePackageParts(zos);
 
 			// Save parts.
 			for (PackagePart part : getParts()) {
@@ -452,33 +445,236 @@ public final class ZipPackage extends Package {
 				if (part.isRelationshipPart())
 					continue;
 
-				logger.log(POILogger.DEBUG,"Save part '"
-						+ ZipHelper.getZipItemNameFromOPCName(part
-								.getPartName().getName()) + "'");
-				PartMarshaller marshaller = partMarshallers
-						.get(part._contentType);
-				if (marshaller != null) {
-					if (!marshaller.marshall(part, zos)) {
-						throw new OpenXML4JException(
-								"The part "
-										+ part.getPartName().getURI()
-										+ " fail to be saved in the stream with marshaller "
-										+ marshaller);
+				marshallPart(part, zos);
+			}
+			zos.close();
+		} catch (Exception e) {
+            throw new OpenXML4JRuntimeException(
+                    "Fail to save: an error occurs while saving the package : "
+							+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Save this package into the specified stream, deflating the parts with
+	 * the given compression level, on the executor if there is one.
+	 *
+	 * Each part and its relationships are marshalled and deflated by a task
+	 * of their own. The deflated entries are then written in the usual
+	 * order, with the CRCs and sizes computed by the tasks.
+	 *
+	 * @param outputStream
+	 *            The stream use to save this package.
+	 * @param compression
+	 *            The compression level of the parts.
+	 * @param executor
+	 *            The executor which marshalls the parts, <code>null</code>
+	 *            to marshall them one after another on the calling thread.
+	 *
+	 * @see #save(OutputStream, CompressionOption, ExecutorService)
+	 */
+	@Override
+	protected void saveImpl(OutputStream outputStream,
+			CompressionOption compression, ExecutorService executor) {
+		// Check that the document was open in write mode
+		throwExceptionIfReadOnly();
+		final int level = compression.value();
+		ZipEntryTasks<EntryCollector> tasks = null;
+		if (executor != null) {
+			tasks = new ZipEntryTasks<EntryCollector>(executor) {
+				protected void dispose(EntryCollector entries) {
+					entries.dispose();
+				}
+			};
+		}
+
+		try {
+			DeflatedZipOutputStream zos = new DeflatedZipOutputStream(outputStream);
+
+			// The package parts may change the package, save them first
+			EntryCollector packageParts = new EntryCollector(level);
+			savePackageParts(packageParts);
+			packageParts.writeTo(zos);
+
+			for (final PackagePart part : getParts()) {
+				if (part.isRelationshipPart())
+					continue;
+
+				Callable<EntryCollector> task = new Callable<EntryCollector>() {
+					public EntryCollector call() throws Exception {
+						EntryCollector entries = new EntryCollector(level);
+						try {
+							marshallPart(part, entries);
+						} catch (Exception e) {
+							entries.dispose();
+							throw e;
+						}
+						return entries;
 					}
+				};
+				if (tasks == null) {
+					task.call().writeTo(zos);
 				} else {
-					if (!defaultPartMarshaller.marshall(part, zos))
-						throw new OpenXML4JException(
-								"The part "
-										+ part.getPartName().getURI()
-										+ " fail to be saved in the stream with marshaller "
-										+ defaultPartMarshaller);
+					tasks.submit(task);
 				}
 			}
+
+			while (tasks != null && tasks.hasNext()) {
+				tasks.next().writeTo(zos);
+			}
 			zos.close();
 		} catch (Exception e) {
-            throw new OpenXML4JRuntimeException(
-                    "Fail to save: an error occurs while saving the package : "
+			throw new OpenXML4JRuntimeException(
+					"Fail to save: an error occurs while saving the package : "
 							+ e.getMessage(), e);
+		} finally {
+			// on failure, stop and clean up the parts that were not written
+			if (tasks != null) {
+				tasks.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Save the core properties part if it is missing, the package
+	 * relationships part and the content types part.
+	 */
+	private void savePackageParts(ZipOutputStream zos) throws OpenXML4JException {
+		// If the core properties part does not exist in the part list,
+		// we save it as well
+		if (this.getPartsByRelationshipType(PackageRelationshipTypes.CORE_PROPERTIES).size() == 0 &&
+            this.getPartsByRelationshipType(PackageRelationshipTypes.CORE_PROPERTIES_ECMA376).size() == 0    ) {
+			logger.log(POILogger.DEBUG,"Save core properties part");
+
+			// We have to save the core properties part ...
+			new ZipPackagePropertiesMarshaller().marshall(
+                    this.packageProperties, zos);
+			// ... and to add its relationship ...
+			this.relationships.addRelationship(this.packageProperties
+					.getPartName().getURI(), TargetMode.INTERNAL,
+					PackageRelationshipTypes.CORE_PROPERTIES, null);
+			// ... and the content if it has not been added yet.
+			if (!this.contentTypeManager
+					.isContentTypeRegister(ContentTypes.CORE_PROPERTIES_PART)) {
+				this.contentTypeManager.addContentType(
+						this.packageProperties.getPartName(),
+						ContentTypes.CORE_PROPERTIES_PART);
+			}
+		}
+
+		// Save package relationships part.
+		logger.log(POILogger.DEBUG,"Save package relationships");
+		ZipPartMarshaller.marshallRelationshipPart(this.getRelationships(),
+				PackagingURIHelper.PACKAGE_RELATIONSHIPS_ROOT_PART_NAME,
+				zos);
+
+		// Save content type part.
+		logger.log(POILogger.DEBUG,"Save content types part");
+		this.contentTypeManager.save(zos);
+	}
+
+	/**
+	 * Save a part and its relationships
+	 */
+	private void marshallPart(PackagePart part, ZipOutputStream zos) throws OpenXML4JException {
+		logger.log(POILogger.DEBUG,"Save part '"
+				+ ZipHelper.getZipItemNameFromOPCName(part
+						.getPartName().getName()) + "'");
+		PartMarshaller marshaller = partMarshallers
+				.get(part._contentType);
+		if (marshaller != null) {
+			if (!marshaller.marshall(part, zos)) {
+				throw new OpenXML4JException(
+						"The part "
+								+ part.getPartName().getURI()
+								+ " fail to be saved in the stream with marshaller "
+								+ marshaller);
+			}
+		} else {
+			if (!defaultPartMarshaller.marshall(part, zos))
+				throw new OpenXML4JException(
+						"The part "
+								+ part.getPartName().getURI()
+								+ " fail to be saved in the stream with marshaller "
+								+ defaultPartMarshaller);
+		}
+	}
+
+	/**
+	 * Takes the zip entries written by the marshallers, which expect a
+	 * ZipOutputStream, and deflates each into a {@link DeflatedZipEntry}
+	 * instead of writing an archive.
+	 */
+	private static final class EntryCollector extends ZipOutputStream {
+		private final int level;
+		private final List<DeflatedZipEntry> entries = new ArrayList<DeflatedZipEntry>();
+		private OutputStream current;
+
+		EntryCollector(int level) {
+			// nothing is written to the archive stream
+			super(new ByteArrayOutputStream(0));
+			this.level = level;
+		}
+
+		@Override
+		public void putNextEntry(ZipEntry e) throws IOException {
+			closeEntry();
+			DeflatedZipEntry entry = new DeflatedZipEntry(e.getName(), level);
+			entries.add(entry);
+			current = entry.getOutputStream();
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (current == null) {
+				throw new ZipException("no current ZIP entry");
+			}
+			current.write(b, off, len);
+		}
+
+		@Override
+		public void closeEntry() throws IOException {
+			if (current != null) {
+				current.close();
+				current = null;
+			}
+		}
+
+		@Override
+		public void finish() throws IOException {
+			closeEntry();
+		}
+
+		@Override
+		public void close() throws IOException {
+			finish();
+		}
+
+		/**
+		 * Append the entries to the archive, releasing them
+		 */
+		void writeTo(DeflatedZipOutputStream zos) throws IOException {
+			try {
+				closeEntry();
+				for (DeflatedZipEntry entry : entries) {
+					zos.putEntry(entry);
+					entry.dispose();
+				}
+			} finally {
+				dispose();
+			}
+		}
+
+		void dispose() {
+			for (DeflatedZipEntry entry : entries) {
+				entry.dispose();
+			}
+			entries.clear();
 		}
 	}
 
@@ -0,0 +1,208 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.openxml4j.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A zip entry whose data is deflated up front, independently of the archive
+ * it is written to.
+ * <p>
+ * Entries can be compressed concurrently, each on its own thread, and then
+ * appended to a {@link DeflatedZipOutputStream} which copies the compressed
+ * bytes as they are. The CRC and sizes are known before the entry is written,
+ * so no data descriptor is needed.
+ * </p>
+ * <p>
+ * Compressed data is kept in memory up to a threshold and spilled to a temp
+ * file beyond it. Call {@link #dispose()} once the entry has been written.
+ * </p>
+ */
+public final class DeflatedZipEntry {
+	/**
+	 * Compressed data larger than this is moved from memory to a temp file
+	 */
+	private static final int IN_MEMORY_THRESHOLD = 1024 * 1024;
+
+	private final String name;
+	private final int level;
+	private final CRC32 crc = new CRC32();
+	private long size;
+	private long compressedSize;
+	private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+	private File file;
+	private OutputStream out;
+	private boolean closed;
+
+	/**
+	 * @param name the entry name
+	 * @param level the compression level, see {@link Deflater}
+	 */
+	public DeflatedZipEntry(String name, int level) {
+		this.name = name;
+		this.level = level;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the CRC-32 of the uncompressed data, valid once the output stream is closed
+	 */
+	public long getCrc() {
+		return crc.getValue();
+	}
+
+	/**
+	 * @return the number of uncompressed bytes, valid once the output stream is closed
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the number of compressed bytes, valid once the output stream is closed
+	 */
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/**
+	 * Returns the stream to write the uncompressed entry data to.
+	 * The entry is complete once this stream is closed.
+	 */
+	public OutputStream getOutputStream() {
+		if (out != null || closed) {
+			throw new IllegalStateException("The output stream of entry " + name + " was already requested");
+		}
+		final Deflater deflater = new Deflater(level, true);
+		out = new DeflaterOutputStream(new CountingOutputStream(), deflater, 8192) {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				super.write(b, off, len);
+				crc.update(b, off, len);
+				size += len;
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				try {
+					super.close();
+				} finally {
+					deflater.end();
+					closed = true;
+				}
+			}
+		};
+		return out;
+	}
+
+	/**
+	 * Copy the compressed data to <code>os</code>
+	 */
+	void writeCompressedData(OutputStream os) throws IOException {
+		if (!closed) {
+			throw new IllegalStateException("The output stream of entry " + name + " was not closed");
+		}
+		if (file == null) {
+			memory.writeTo(os);
+			return;
+		}
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] chunk = new byte[8192];
+			int count;
+			while ((count = is.read(chunk)) >= 0) {
+				os.write(chunk, 0, count);
+			}
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Release the memory or temp file holding the compressed data.
+	 *
+	 * @return true if there was no temp file or it was deleted
+	 */
+	public boolean dispose() {
+		if (out != null && !closed) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// the data is discarded anyway
+			}
+		}
+		memory = null;
+		return file == null || file.delete();
+	}
+
+	/**
+	 * Receives the compressed bytes, keeping track of their number and
+	 * switching from memory to a temp file past the threshold.
+	 */
+	private class CountingOutputStream extends OutputStream {
+		private OutputStream fileOut;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (fileOut == null && memory.size() + len > IN_MEMORY_THRESHOLD) {
+				file = File.createTempFile("poi-zip-entry", ".tmp");
+				fileOut = new FileOutputStream(file);
+				memory.writeTo(fileOut);
+				memory = null;
+			}
+			if (fileOut != null) {
+				fileOut.write(b, off, len);
+			} else {
+				memory.write(b, off, len);
+			}
+			compressedSize += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (fileOut != null) {
+				fileOut.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.openxml4j.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip archive made of {@link DeflatedZipEntry}s, copying their
+ * compressed data without inflating or deflating it again.
+ * <p>
+ * Only the classic zip format is supported: entries and the archive must be
+ * smaller than 4GB and there can be at most 65535 entries, the same limits
+ * as <code>java.util.zip.ZipOutputStream</code> on Java 5 and 6.
+ * </p>
+ */
+public final class DeflatedZipOutputStream extends FilterOutputStream {
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int VERSION = 20;
+	private static final int FLAG_UTF8 = 0x800;
+	private static final int METHOD_DEFLATED = 8;
+	private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+	/** central directory records, written on {@link #finish()} */
+	private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+	private final Set<String> names = new HashSet<String>();
+	private final int dosTime;
+	private long written;
+	private int entries;
+	private boolean finished;
+
+	public DeflatedZipOutputStream(OutputStream out) {
+		super(out);
+		dosTime = toDosTime(Calendar.getInstance());
+	}
+
+	/**
+	 * Append an entry to the archive
+	 *
+	 * @param entry a completed entry, its output stream must have been closed
+	 */
+	public void putEntry(DeflatedZipEntry entry) throws IOException {
+		if (finished) {
+			throw new ZipException("The archive is already finished");
+		}
+		if (!names.add(entry.getName())) {
+			throw new ZipException("duplicate entry: " + entry.getName());
+		}
+		if (entry.getSize() > MAX_SIZE || entry.getCompressedSize() > MAX_SIZE || written > MAX_SIZE) {
+			throw new ZipException("Zip entry " + entry.getName() + " exceeds the 4GB limit of the zip format");
+		}
+		byte[] name = entry.getName().getBytes("UTF-8");
+		long offset = written;
+
+		writeInt(out, LOCAL_HEADER_SIGNATURE);
+		writeShort(out, VERSION);
+		writeShort(out, FLAG_UTF8);
+		writeShort(out, METHOD_DEFLATED);
+		writeInt(out, dosTime);
+		writeInt(out, (int) entry.getCrc());
+		writeInt(out, (int) entry.getCompressedSize());
+		writeInt(out, (int) entry.getSize());
+		writeShort(out, name.length);
+		writeShort(out, 0);
+		out.write(name);
+		entry.writeCompressedData(out);
+		written += 30 + name.length + entry.getCompressedSize();
+
+		writeInt(centralDirectory, CENTRAL_HEADER_SIGNATURE);
+		writeShort(centralDirectory, VERSION);
+		writeShort(centralDirectory, VERSION);
+		writeShort(centralDirectory, FLAG_UTF8);
+		writeShort(centralDirectory, METHOD_DEFLATED);
+		writeInt(centralDirectory, dosTime);
+		writeInt(centralDirectory, (int) entry.getCrc());
+		writeInt(centralDirectory, (int) entry.getCompressedSize());
+		writeInt(centralDirectory, (int) entry.getSize());
+		writeShort(centralDirectory, name.length);
+		writeShort(centralDirectory, 0); // extra field length
+		writeShort(centralDirectory, 0); // comment length
+		writeShort(centralDirectory, 0); // disk number start
+		writeShort(centralDirectory, 0); // internal file attributes
+		writeInt(centralDirectory, 0);   // external file attributes
+		writeInt(centralDirectory, (int) offset);
+		centralDirectory.write(name);
+		entries++;
+	}
+
+	/**
+	 * Write the central directory. No more entries can be added afterwards.
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		if (entries > 0xFFFF || written > MAX_SIZE) {
+			throw new ZipException("The archive exceeds the limits of the zip format");
+		}
+		finished = true;
+		centralDirectory.writeTo(out);
+		writeInt(out, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+		writeShort(out, 0);
+		writeShort(out, 0);
+		writeShort(out, entries);
+		writeShort(out, entries);
+		writeInt(out, centralDirectory.size());
+		writeInt(out, (int) written);
+		writeShort(out, 0);
+		out.flush();
+	}
+
+	/**
+	 * Finish the archive and close the underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		throw new UnsupportedOperationException("Data can only be added with putEntry(DeflatedZipEntry)");
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		throw new UnsupportedOperationException("Data can only be added with putEntry(DeflatedZipEntry)");
+	}
+
+	private static void writeShort(OutputStream os, int v) throws IOException {
+		os.write(v & 0xFF);
+		os.write((v >>> 8) & 0xFF);
+	}
+
+	private static void writeInt(OutputStream os, int v) throws IOException {
+		writeShort(os, v & 0xFFFF);
+		writeShort(os, (v >>> 16) & 0xFFFF);
+	}
+
+	private static int toDosTime(Calendar cal) {
+		int year = cal.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25
+				| (cal.get(Calendar.MONTH) + 1) << 21
+				| cal.get(Calendar.DAY_OF_MONTH) << 16
+				| cal.get(Calendar.HOUR_OF_DAY) << 11
+				| cal.get(Calendar.MINUTE) << 5
+				| cal.get(Calendar.SECOND) >> 1;
+	}
+}
@@ -0,0 +1,239 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.openxml4j.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.poi.util.TempFile;
+
+/**
+ * Provides a way to get at all the ZipEntries
+ *  from a ZipInputStream, as many times as required,
+ *  without holding all of them in memory.
+ * <p>
+ * Like {@link ZipInputStreamZipEntrySource}, the stream is
+ *  read to the end up front. Entries are kept in memory
+ *  while they are small, and appended to a single temp
+ *  file once they grow past the spill threshold or the
+ *  entries held in memory would exceed the memory ceiling.
+ *  A large workbook received over the network can then be
+ *  opened with a bounded amount of heap.
+ * </p>
+ * <p>
+ * Entries may be read concurrently. Be sure to call
+ *  {@link #close()} as soon as you're done, to free the
+ *  memory and delete the temp file.
+ * </p>
+ */
+public class SpillingZipEntrySource implements ZipEntrySource {
+	/**
+	 * The default size above which an entry is written to the temp file
+	 */
+	public static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+	private ArrayList<SpilledZipEntry> zipEntries;
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private long memoryUsed;
+
+	/**
+	 * Reads all the entries from the ZipInputStream,
+	 *  and closes the source stream.
+	 *
+	 * @param inp the stream to read the entries from
+	 * @param spillThreshold entries larger than this many bytes are written to the temp file
+	 * @param maxInMemory the most bytes of entry data to keep in memory, across all entries
+	 */
+	public SpillingZipEntrySource(ZipInputStream inp, int spillThreshold, long maxInMemory) throws IOException {
+		zipEntries = new ArrayList<SpilledZipEntry>();
+		try {
+			OutputStream fileOut = null;
+			byte[] buffer = new byte[4096];
+			ZipEntry zipEntry;
+			while((zipEntry = inp.getNextEntry()) != null) {
+				SpilledZipEntry entry = new SpilledZipEntry(zipEntry.getName());
+				ByteArrayOutputStream memory = new ByteArrayOutputStream();
+				int read;
+				while((read = inp.read(buffer)) != -1) {
+					if(memory != null) {
+						long size = memory.size() + read;
+						if(size > spillThreshold || memoryUsed + size > maxInMemory) {
+							// Move what we have so far to the temp file
+							if(fileOut == null) {
+								fileOut = openFile();
+							}
+							fileOut.flush();
+							entry.offset = channel.position();
+							memory.writeTo(fileOut);
+							memory = null;
+						}
+					}
+					if(memory != null) {
+						memory.write(buffer, 0, read);
+					} else {
+						fileOut.write(buffer, 0, read);
+					}
+					entry.length += read;
+				}
+				if(memory != null) {
+					entry.data = memory.toByteArray();
+					memoryUsed += entry.length;
+				}
+				inp.closeEntry();
+
+				zipEntries.add(entry);
+			}
+			if(fileOut != null) {
+				fileOut.flush();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		} catch (RuntimeException e) {
+			close();
+			throw e;
+		} finally {
+			inp.close();
+		}
+	}
+
+	private OutputStream openFile() throws IOException {
+		file = TempFile.createTempFile("poi-zip-source", ".tmp");
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		return new BufferedOutputStream(Channels.newOutputStream(channel), 8192);
+	}
+
+	public Enumeration<? extends ZipEntry> getEntries() {
+		return Collections.enumeration(zipEntries);
+	}
+
+	public InputStream getInputStream(ZipEntry zipEntry) {
+		SpilledZipEntry entry = (SpilledZipEntry)zipEntry;
+		if(entry.data != null) {
+			return new ByteArrayInputStream(entry.data);
+		}
+		return new FileRegionInputStream(entry.offset, entry.length);
+	}
+
+	/**
+	 * @return the number of bytes of entry data held in memory
+	 */
+	public long getMemoryUsed() {
+		return memoryUsed;
+	}
+
+	/**
+	 * @return the temp file holding the larger entries, or <code>null</code> if all fitted in memory
+	 */
+	public File getTempFile() {
+		return file;
+	}
+
+	public void close() throws IOException {
+		// Free the memory
+		zipEntries = null;
+		memoryUsed = 0;
+		if(raf != null) {
+			raf.close();
+			raf = null;
+			channel = null;
+		}
+		if(file != null) {
+			file.delete();
+			file = null;
+		}
+	}
+
+	/**
+	 * An entry whose (decompressed!) data is either held
+	 *  in memory, or in a region of the temp file
+	 */
+	private static class SpilledZipEntry extends ZipEntry {
+		private byte[] data;
+		private long offset;
+		private long length;
+
+		private SpilledZipEntry(String name) {
+			super(name);
+		}
+	}
+
+	/**
+	 * Reads a region of the temp file. Uses positional reads
+	 *  only, so several can be used at the same time.
+	 */
+	private class FileRegionInputStream extends InputStream {
+		private final FileChannel source = channel;
+		private long position;
+		private final long end;
+
+		private FileRegionInputStream(long offset, long length) {
+			position = offset;
+			end = offset + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(position >= end) {
+				return -1;
+			}
+			ByteBuffer dst = ByteBuffer.wrap(b, off, (int)Math.min(len, end - position));
+			int count = source.read(dst, position);
+			if(count == -1) {
+				throw new IOException("Unexpected end of the temp file");
+			}
+			position += count;
+			return count;
+		}
+
+		@Override
+		public long skip(long n) {
+			long count = Math.max(0, Math.min(n, end - position));
+			position += count;
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return (int)Math.min(Integer.MAX_VALUE, end - position);
+		}
+	}
+}
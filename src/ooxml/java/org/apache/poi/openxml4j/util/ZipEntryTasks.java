@@ -0,0 +1,193 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.openxml4j.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the tasks building the {@link DeflatedZipEntry deflated entries} of an
+ * archive on an executor, and hands their results over in the order the tasks
+ * were submitted.
+ * <p>
+ * The results hold temp files. Once the results are no longer needed, e.g.
+ * because writing the archive failed, {@link #cancel()} stops the tasks whose
+ * results were not taken and disposes of those results, including the results
+ * of the tasks which were already running.
+ * </p>
+ *
+ * @param <T> the result of a task, e.g. a {@link DeflatedZipEntry}
+ */
+public abstract class ZipEntryTasks<T> {
+	private final ExecutorService executor;
+	private final List<Task> tasks = new ArrayList<Task>();
+	/**
+	 * The index of the first task whose result was not taken yet
+	 */
+	private int next;
+
+	protected ZipEntryTasks(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Release the temp files of a result which will not be written. Called on
+	 * the thread of the task if it completes after {@link #cancel()}.
+	 */
+	protected abstract void dispose(T result);
+
+	public void submit(Callable<T> callable) {
+		Task task = new Task(callable);
+		task.future = executor.submit(task);
+		tasks.add(task);
+	}
+
+	public boolean hasNext() {
+		return next < tasks.size();
+	}
+
+	/**
+	 * Wait for the next task, in the order they were submitted.
+	 *
+	 * @return the result of the task, which the caller has to dispose of
+	 * @throws IOException the failure of the task, or an
+	 *             {@link InterruptedIOException} if the calling thread is
+	 *             interrupted
+	 */
+	public T next() throws IOException {
+		Task task = tasks.get(next);
+		try {
+			task.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException ioe = new InterruptedIOException("Interrupted while writing the zip entries");
+			ioe.initCause(e);
+			throw ioe;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			IOException ioe = new IOException(String.valueOf(cause.getMessage()));
+			ioe.initCause(cause);
+			throw ioe;
+		}
+		next++;
+		return task.take();
+	}
+
+	/**
+	 * Stop the tasks whose results were not taken and dispose of their
+	 * results. Waits for the tasks which were already running, so that none
+	 * of them still reads the sources of the entries afterwards.
+	 */
+	public void cancel() {
+		for (int i = next; i < tasks.size(); i++) {
+			Task task = tasks.get(i);
+			T result = task.abandon();
+			if (result != null) {
+				dispose(result);
+			}
+			task.future.cancel(true);
+		}
+		boolean interrupted = false;
+		for (int i = next; i < tasks.size() && !interrupted; i++) {
+			try {
+				tasks.get(i).awaitFinished();
+			} catch (InterruptedException e) {
+				// the remaining tasks dispose of their results themselves
+				interrupted = true;
+			}
+		}
+		next = tasks.size();
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Keeps the result of a task until it is taken, or disposes of it if the
+	 * task was abandoned in the meantime
+	 */
+	private final class Task implements Callable<T> {
+		private final Callable<T> callable;
+		private Future<T> future;
+		private boolean started;
+		private boolean finished;
+		private boolean abandoned;
+		private T result;
+
+		Task(Callable<T> callable) {
+			this.callable = callable;
+		}
+
+		public T call() throws Exception {
+			synchronized (this) {
+				if (abandoned) {
+					return null;
+				}
+				started = true;
+			}
+			T value = null;
+			try {
+				value = callable.call();
+			} finally {
+				synchronized (this) {
+					if (abandoned) {
+						if (value != null) {
+							dispose(value);
+						}
+					} else {
+						result = value;
+					}
+					finished = true;
+					notifyAll();
+				}
+			}
+			// the result is taken with take()
+			return null;
+		}
+
+		synchronized T take() {
+			T value = result;
+			result = null;
+			return value;
+		}
+
+		/**
+		 * @return the result if the task completed already, <code>null</code>
+		 *         otherwise
+		 */
+		synchronized T abandon() {
+			abandoned = true;
+			return take();
+		}
+
+		synchronized void awaitFinished() throws InterruptedException {
+			while (started && !finished) {
+				wait();
+			}
+		}
+	}
+}
@@ -0,0 +1,322 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * A {@link ReadOnlySharedStringsTable} for shared strings parts too large to keep on the heap.
+ * <p>
+ * While the part is parsed each string is appended, UTF-8 encoded, to a temp file and only its
+ * offset is kept in a <code>long[]</code>, eight bytes per string. Once parsing is done the file is
+ * memory-mapped and {@link #getEntryAt(int)} decodes strings from the mapping on demand, keeping
+ * the most recently used ones in a bounded LRU cache. Cells tend to reference the same strings
+ * over and over, so most lookups are served from the cache.
+ * </p>
+ * <p>
+ * The table can be passed wherever a <code>ReadOnlySharedStringsTable</code> is expected, e.g. to
+ * {@link XSSFSheetXMLHandler} or {@link XSSFSheetPullParser}. Lookups are synchronized, so one
+ * table can be shared by threads parsing different sheets. Call {@link #dispose()} when done to
+ * delete the temp file.
+ * </p>
+ */
+public class MappedSharedStringsTable extends ReadOnlySharedStringsTable {
+    /**
+     * Default number of decoded strings kept in the cache
+     */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /**
+     * Size of each mapped region of the temp file, no string crosses a region boundary
+     */
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final int segmentSize;
+    private final Map<Integer, String> cache;
+
+    private int count;
+    private int uniqueCount;
+
+    private File file;
+    private DataOutputStream out;
+    private long written;
+    private long[] offsets = new long[0];
+    private int size;
+    private List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    private byte[] chunk = new byte[256];
+
+    /**
+     * @param pkg the package to read the shared strings part from
+     */
+    public MappedSharedStringsTable(OPCPackage pkg) throws IOException, SAXException {
+        this(pkg, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param pkg the package to read the shared strings part from
+     * @param cacheSize the number of decoded strings kept in memory
+     */
+    public MappedSharedStringsTable(OPCPackage pkg, int cacheSize) throws IOException, SAXException {
+        this(cacheSize, DEFAULT_SEGMENT_SIZE);
+        ArrayList<PackagePart> parts =
+                pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+
+        // Some workbooks have no shared strings table.
+        if (parts.size() > 0) {
+            readFrom(parts.get(0).getInputStream());
+        }
+    }
+
+    /**
+     * Like POIXMLDocumentPart constructor
+     */
+    public MappedSharedStringsTable(PackagePart part, PackageRelationship rel_ignored)
+            throws IOException, SAXException {
+        this(DEFAULT_CACHE_SIZE, DEFAULT_SEGMENT_SIZE);
+        readFrom(part.getInputStream());
+    }
+
+    /**
+     * Create an empty table, fill it with {@link #readFrom(java.io.InputStream)}
+     *
+     * @param cacheSize the number of decoded strings kept in memory
+     * @param segmentSize the size of each mapped region of the temp file
+     */
+    MappedSharedStringsTable(final int cacheSize, int segmentSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must not be negative");
+        }
+        this.segmentSize = segmentSize;
+        this.cache = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 7720498154380662913L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public int getUniqueCount() {
+        return uniqueCount;
+    }
+
+    /**
+     * Return the string at a given index, decoding it from the temp file unless it is cached.
+     *
+     * @param idx index of item to return.
+     * @return the item at the specified position in this Shared String table.
+     */
+    @Override
+    public synchronized String getEntryAt(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + size);
+        }
+        Integer key = Integer.valueOf(idx);
+        String value = cache.get(key);
+        if (value == null) {
+            value = read(offsets[idx]);
+            cache.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * @return a read-only view of the strings which decodes them as they are accessed
+     */
+    @Override
+    public List<String> getItems() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return getEntryAt(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Release the mapping and delete the temp file. The table is empty afterwards.
+     *
+     * @return true if there was no temp file or it was deleted
+     */
+    public synchronized boolean dispose() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the data is discarded anyway
+            }
+            out = null;
+        }
+        segments.clear();
+        cache.clear();
+        offsets = new long[0];
+        size = 0;
+        written = 0;
+        boolean deleted = file == null || file.delete();
+        if (!deleted) {
+            // the mapping may keep the file open until it is garbage collected
+            file.deleteOnExit();
+        }
+        file = null;
+        return deleted;
+    }
+
+    private String read(long offset) {
+        MappedByteBuffer segment = segments.get((int) (offset / segmentSize));
+        segment.position((int) (offset % segmentSize));
+        int length = segment.getInt();
+        if (chunk.length < length) {
+            chunk = new byte[Math.max(length, chunk.length * 2)];
+        }
+        segment.get(chunk, 0, length);
+        try {
+            return new String(chunk, 0, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void append(String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        int length = 4 + bytes.length;
+        if (length > segmentSize) {
+            throw new IOException("Shared string " + size + " is longer than " + segmentSize + " bytes");
+        }
+        // pad to the next segment rather than letting the string straddle two mappings
+        long room = segmentSize - written % segmentSize;
+        if (length > room) {
+            for (long i = 0; i < room; i++) {
+                out.write(0);
+            }
+            written += room;
+        }
+        if (size == offsets.length) {
+            long[] grown = new long[Math.max(16, size * 2)];
+            System.arraycopy(offsets, 0, grown, 0, size);
+            offsets = grown;
+        }
+        offsets[size++] = written;
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        written += length;
+    }
+
+    private void map() throws IOException {
+        out.close();
+        out = null;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            for (long pos = 0; pos < written; pos += segmentSize) {
+                segments.add(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(segmentSize, written - pos)));
+            }
+        } finally {
+            // the mappings stay valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    //// ContentHandler methods ////
+
+    private StringBuffer characters;
+    private boolean tIsOpen;
+
+    @Override
+    public void startElement(String uri, String localName, String name,
+                             Attributes attributes) throws SAXException {
+        if ("sst".equals(name)) {
+            dispose();
+            String count = attributes.getValue("count");
+            if(count != null) this.count = Integer.parseInt(count);
+            String uniqueCount = attributes.getValue("uniqueCount");
+            if(uniqueCount != null) this.uniqueCount = Integer.parseInt(uniqueCount);
+
+            try {
+                file = File.createTempFile("poi-sst", ".tmp");
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+            offsets = new long[Math.max(16, this.uniqueCount)];
+
+            characters = new StringBuffer();
+        } else if ("si".equals(name)) {
+            characters.setLength(0);
+        } else if ("t".equals(name)) {
+            tIsOpen = true;
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String name)
+            throws SAXException {
+        try {
+            if ("si".equals(name)) {
+                append(characters.toString());
+            } else if ("t".equals(name)) {
+                tIsOpen = false;
+            } else if ("sst".equals(name)) {
+                map();
+            }
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Captures characters only if a t(ext) element is open.
+     */
+    @Override
+    public void characters(char[] ch, int start, int length)
+            throws SAXException {
+        if (tIsOpen)
+            characters.append(ch, start, length);
+    }
+}
@@ -95,6 +95,12 @@ public class ReadOnlySharedStringsTable extends DefaultHandler {
      */
     private List<String> strings;
 
+    /**
+     * For subclasses that keep the strings elsewhere, nothing is read
+     */
+    protected ReadOnlySharedStringsTable() {
+    }
+
     /**
      * @param pkg
      * @throws IOException
@@ -0,0 +1,228 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Parses all sheets of a workbook with {@link XSSFSheetXMLHandler}, one task per sheet
+ * on a caller supplied executor.
+ * <p>
+ * All sheets share one {@link StylesTable} and one {@link ReadOnlySharedStringsTable}.
+ * Both are only read while the sheets are parsed, so they can be used from several threads
+ * at once; a {@link MappedSharedStringsTable} may be passed for very large shared strings parts.
+ * Each sheet gets its own {@link DataFormatter}, which is not thread safe.
+ * </p>
+ * <p>
+ * Callbacks are made in this order:
+ * <ol>
+ *  <li>{@link SheetHandlerFactory#startSheet(int, String)} for every sheet, in workbook order
+ *   on the calling thread, before any sheet is parsed.</li>
+ *  <li>The {@link SheetContentsHandler} of a sheet receives all events of that sheet from a
+ *   single thread, in document order. Handlers of different sheets are called concurrently,
+ *   with no ordering between them, so they must not share state without synchronization.</li>
+ *  <li>{@link SheetHandlerFactory#endSheet(int, SheetContentsHandler)} for every sheet, in
+ *   workbook order on the calling thread, once that sheet and all sheets before it are parsed.
+ *   Everything the handler did is visible to the calling thread at this point.</li>
+ * </ol>
+ * If parsing a sheet fails, the sheets not yet started are cancelled, <code>endSheet</code>
+ * is not called for the failed sheet and the ones after it, and the failure is rethrown.
+ * </p>
+ * <p>
+ * Example:
+ * <pre>
+ * XSSFParallelSheetReader reader = new XSSFParallelSheetReader(pkg);
+ * ExecutorService executor = Executors.newFixedThreadPool(4);
+ * try {
+ *     reader.process(executor, factory, false);
+ * } finally {
+ *     executor.shutdown();
+ * }
+ * </pre>
+ * </p>
+ */
+public class XSSFParallelSheetReader {
+    private final OPCPackage pkg;
+    private final StylesTable styles;
+    private final ReadOnlySharedStringsTable strings;
+
+    /**
+     * Reads the styles and shared strings of <code>pkg</code>
+     */
+    public XSSFParallelSheetReader(OPCPackage pkg) throws IOException, OpenXML4JException, SAXException {
+        this(pkg, new XSSFReader(pkg).getStylesTable(), new ReadOnlySharedStringsTable(pkg));
+    }
+
+    /**
+     * @param styles the styles of the workbook, may be <code>null</code>
+     * @param strings the shared strings of the workbook, shared by all sheets
+     */
+    public XSSFParallelSheetReader(OPCPackage pkg, StylesTable styles, ReadOnlySharedStringsTable strings) {
+        this.pkg = pkg;
+        this.styles = styles;
+        this.strings = strings;
+    }
+
+    public StylesTable getStylesTable() {
+        return styles;
+    }
+
+    public ReadOnlySharedStringsTable getSharedStringsTable() {
+        return strings;
+    }
+
+    /**
+     * Parse all sheets, see the class description for the order of the callbacks.
+     * The executor is not shut down.
+     *
+     * @param executor the executor that parses the sheets, <code>null</code> to parse them
+     *  one after another on the calling thread
+     * @param factory creates the handler of each sheet and receives it back once the sheet is parsed
+     * @param formulasNotResults whether formula cells are reported with their formula instead of their value
+     */
+    public void process(ExecutorService executor, SheetHandlerFactory factory, boolean formulasNotResults)
+            throws IOException, SAXException {
+        List<PackagePart> parts = new ArrayList<PackagePart>();
+        List<SheetContentsHandler> handlers = new ArrayList<SheetContentsHandler>();
+        try {
+            XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) new XSSFReader(pkg).getSheetsData();
+            while (iter.hasNext()) {
+                // only the part is needed here, the task opens its own stream
+                iter.next().close();
+                parts.add(iter.getSheetPart());
+                handlers.add(factory.startSheet(handlers.size(), iter.getSheetName()));
+            }
+        } catch (OpenXML4JException e) {
+            IOException ioe = new IOException("Failed to read the sheets of the workbook");
+            ioe.initCause(e);
+            throw ioe;
+        }
+
+        if (executor == null) {
+            for (int i = 0; i < parts.size(); i++) {
+                parseSheet(parts.get(i), handlers.get(i), formulasNotResults);
+                factory.endSheet(i, handlers.get(i));
+            }
+            return;
+        }
+
+        List<Future<SheetContentsHandler>> tasks = new ArrayList<Future<SheetContentsHandler>>();
+        int done = 0;
+        try {
+            for (int i = 0; i < parts.size(); i++) {
+                final PackagePart part = parts.get(i);
+                final SheetContentsHandler handler = handlers.get(i);
+                final boolean formulas = formulasNotResults;
+                tasks.add(executor.submit(new Callable<SheetContentsHandler>() {
+                    public SheetContentsHandler call() throws IOException, SAXException {
+                        parseSheet(part, handler, formulas);
+                        return handler;
+                    }
+                }));
+            }
+            for (Future<SheetContentsHandler> task : tasks) {
+                factory.endSheet(done, getResult(task));
+                done++;
+            }
+        } finally {
+            // on failure, stop the sheets that did not start yet
+            for (int i = done; i < tasks.size(); i++) {
+                tasks.get(i).cancel(false);
+            }
+        }
+    }
+
+    private void parseSheet(PackagePart part, SheetContentsHandler handler, boolean formulasNotResults)
+            throws IOException, SAXException {
+        InputStream is = part.getInputStream();
+        try {
+            XMLReader sheetParser = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+            sheetParser.setContentHandler(new XSSFSheetXMLHandler(
+                    styles, strings, handler, new DataFormatter(), formulasNotResults));
+            sheetParser.parse(new InputSource(is));
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException("SAX parser appears to be broken - " + e.getMessage());
+        } finally {
+            is.close();
+        }
+    }
+
+    private static SheetContentsHandler getResult(Future<SheetContentsHandler> task)
+            throws IOException, SAXException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ioe = new InterruptedIOException("Interrupted while parsing the sheets");
+            ioe.initCause(e);
+            throw ioe;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException)cause;
+            if (cause instanceof SAXException) throw (SAXException)cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            IOException ioe = new IOException("Failed to parse sheet");
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Supplies the handler of each sheet and receives it back once the sheet is parsed
+     */
+    public interface SheetHandlerFactory {
+        /**
+         * Called on the calling thread, in workbook order, before any sheet is parsed
+         *
+         * @param sheetIndex the zero based index of the sheet
+         * @param sheetName the name of the sheet
+         * @return the handler that receives the contents of this sheet
+         */
+        SheetContentsHandler startSheet(int sheetIndex, String sheetName);
+
+        /**
+         * Called on the calling thread, in workbook order, once the sheet is parsed
+         *
+         * @param sheetIndex the zero based index of the sheet
+         * @param handler the handler returned by {@link #startSheet(int, String)} for this sheet
+         */
+        void endSheet(int sheetIndex, SheetContentsHandler handler);
+    }
+}
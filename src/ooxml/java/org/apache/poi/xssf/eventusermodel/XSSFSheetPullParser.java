@@ -0,0 +1,1086 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+
+/**
+ * A pull parser for the <code>sheetData</code> of a sheet#.xml part, as returned by
+ *  {@link XSSFReader#getSheetsData()}. It is a faster alternative to
+ *  {@link XSSFSheetXMLHandler} for bulk reads of large sheets.
+ * <p>
+ * Cells are returned with their row and column index as ints and their value in its raw,
+ *  typed form: a double for numbers, an index for shared strings, a boolean. The sheet is
+ *  read directly from the UTF-8 bytes, without SAX and without creating a <code>String</code>
+ *  per cell: text values are decoded into a reused buffer and handed out as a
+ *  {@link CharSequence}. Strings are only created when the caller asks for them, e.g. through
+ *  {@link #getFormattedValue(DataFormatter)}.
+ * </p>
+ * <p>Typical use:
+ * <pre>
+ * XSSFSheetPullParser parser = new XSSFSheetPullParser(sheetStream);
+ * int event;
+ * while ((event = parser.next()) != XSSFSheetPullParser.END_DOCUMENT) {
+ *     if (event == XSSFSheetPullParser.CELL
+ *             &amp;&amp; parser.getCellType() == XSSFSheetPullParser.NUMBER) {
+ *         total += parser.getNumericValue();
+ *     }
+ * }
+ * parser.close();
+ * </pre>
+ * or, with callbacks, {@link #parse(SheetCellHandler)}.
+ * </p>
+ * <p>
+ * Only the elements of <code>sheetData</code> are reported, parsing stops at its end.
+ *  Document type declarations are skipped and not processed.
+ * </p>
+ */
+public class XSSFSheetPullParser {
+    /** A <code>row</code> element has started, see {@link #getRowIndex()} */
+    public static final int START_ROW = 1;
+    /** A cell was read, see {@link #getCellType()} and the value getters */
+    public static final int CELL = 2;
+    /** A <code>row</code> element has ended */
+    public static final int END_ROW = 3;
+    /** The end of the sheet data was reached */
+    public static final int END_DOCUMENT = 4;
+
+    /** A cell without a value, {@link #getText()} is empty */
+    public static final int BLANK = 0;
+    /** A number, see {@link #getNumericValue()} */
+    public static final int NUMBER = 1;
+    /** A reference to the shared strings table, see {@link #getSharedStringIndex()} */
+    public static final int SHARED_STRING = 2;
+    /** A string stored in the cell, or an ISO 8601 date (<code>t="d"</code>), see {@link #getText()} */
+    public static final int INLINE_STRING = 3;
+    /** A string result of a formula, see {@link #getText()} */
+    public static final int FORMULA_STRING = 4;
+    /** A boolean, see {@link #getBooleanValue()} */
+    public static final int BOOLEAN = 5;
+    /** An error code such as <code>#DIV/0!</code>, see {@link #getText()} */
+    public static final int ERROR = 6;
+
+    /**
+     * Powers of ten that are exactly representable as a double
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // elements of interest, by local name
+    private static final int EL_OTHER = 0;
+    private static final int EL_SHEET_DATA = 1;
+    private static final int EL_ROW = 2;
+    private static final int EL_C = 3;
+    private static final int EL_V = 4;
+    private static final int EL_F = 5;
+    private static final int EL_IS = 6;
+    private static final int EL_T = 7;
+    private static final int EL_RPH = 8;
+
+    // where text content goes
+    private static final int CAPTURE_NONE = 0;
+    private static final int CAPTURE_VALUE = 1;
+    private static final int CAPTURE_FORMULA = 2;
+
+    private final InputStream _in;
+    private final byte[] _buf = new byte[64 * 1024];
+    private int _pos;
+    private int _limit;
+
+    private final StylesTable _styles;
+    private final ReadOnlySharedStringsTable _strings;
+    // data formats by style index, filled as styles are seen
+    private short[] _formatIndexes;
+    private String[] _formatStrings;
+
+    // scratch buffer for element and attribute names
+    private final byte[] _name = new byte[64];
+    private int _nameLength;
+
+    private boolean _inSheetData;
+    private boolean _done;
+    private boolean _pendingEndRow;
+    private boolean _inCell;
+    private boolean _inInlineString;
+    private boolean _inPhonetic;
+    private int _capture = CAPTURE_NONE;
+
+    private int _rowIndex = -1;
+    private int _columnIndex = -1;
+    private int _styleIndex;
+    private int _rawType;
+    private int _cellType;
+    private boolean _hasFormula;
+    private double _numericValue;
+    private int _sharedStringIndex;
+    private final TextBuffer _value = new TextBuffer();
+    private final TextBuffer _formula = new TextBuffer();
+
+    /**
+     * @param sheet the XML of a sheet, e.g. from {@link XSSFReader.SheetIterator}
+     */
+    public XSSFSheetPullParser(InputStream sheet) {
+        this(sheet, null, null);
+    }
+
+    /**
+     * @param sheet the XML of a sheet, e.g. from {@link XSSFReader.SheetIterator}
+     * @param styles the styles of the workbook, only needed to format numbers with
+     *  {@link #getFormattedValue(DataFormatter)}, may be <code>null</code>
+     * @param strings the shared strings of the workbook, only needed to look up shared strings with
+     *  {@link #getStringValue()}, may be <code>null</code>
+     */
+    public XSSFSheetPullParser(InputStream sheet, StylesTable styles, ReadOnlySharedStringsTable strings) {
+        _in = sheet;
+        _styles = styles;
+        _strings = strings;
+    }
+
+    /**
+     * Advance to the next row or cell event
+     *
+     * @return one of {@link #START_ROW}, {@link #CELL}, {@link #END_ROW} or {@link #END_DOCUMENT}
+     */
+    public int next() throws IOException {
+        if (_pendingEndRow) {
+            _pendingEndRow = false;
+            return END_ROW;
+        }
+        while (!_done) {
+            if (!skipToTag()) {
+                _done = true;
+                break;
+            }
+            int b = read();
+            if (b == '/') {
+                int element = readName();
+                skipPast('>');
+                int event = endElement(element);
+                if (event != 0) {
+                    return event;
+                }
+            } else if (b == '?') {
+                skipPast('?', '>');
+            } else if (b == '!') {
+                skipDeclaration();
+            } else if (b >= 0) {
+                _pos--;
+                int element = readName();
+                int event = startElement(element);
+                if (event != 0) {
+                    return event;
+                }
+            }
+        }
+        return END_DOCUMENT;
+    }
+
+    /**
+     * Read the whole sheet, reporting rows and cells to <code>handler</code>. Blank cells are not reported.
+     * <p>
+     * During a callback this parser still points at the current cell, so e.g. {@link #getFormula()}
+     * or {@link #getFormattedValue(DataFormatter)} can be called for it.
+     * </p>
+     */
+    public void parse(SheetCellHandler handler) throws IOException {
+        int event;
+        while ((event = next()) != END_DOCUMENT) {
+            switch (event) {
+                case START_ROW:
+                    handler.startRow(_rowIndex);
+                    break;
+                case END_ROW:
+                    handler.endRow(_rowIndex);
+                    break;
+                case CELL:
+                    switch (_cellType) {
+                        case NUMBER:
+                            handler.numericCell(_rowIndex, _columnIndex, _styleIndex, _numericValue);
+                            break;
+                        case SHARED_STRING:
+                            handler.sharedStringCell(_rowIndex, _columnIndex, _styleIndex, _sharedStringIndex);
+                            break;
+                        case BOOLEAN:
+                            handler.booleanCell(_rowIndex, _columnIndex, _styleIndex, getBooleanValue());
+                            break;
+                        case INLINE_STRING:
+                        case FORMULA_STRING:
+                            handler.textCell(_rowIndex, _columnIndex, _styleIndex, _value);
+                            break;
+                        case ERROR:
+                            handler.errorCell(_rowIndex, _columnIndex, _styleIndex, _value);
+                            break;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Close the underlying stream
+     */
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    /**
+     * @return the 0-based index of the current row
+     */
+    public int getRowIndex() {
+        return _rowIndex;
+    }
+
+    /**
+     * @return the 0-based column index of the current cell
+     */
+    public int getColumnIndex() {
+        return _columnIndex;
+    }
+
+    /**
+     * @return the index of the style of the current cell in the styles table, 0 if it has none
+     */
+    public int getStyleIndex() {
+        return _styleIndex;
+    }
+
+    /**
+     * @return the type of the value of the current cell, one of {@link #BLANK}, {@link #NUMBER},
+     *  {@link #SHARED_STRING}, {@link #INLINE_STRING}, {@link #FORMULA_STRING}, {@link #BOOLEAN}, {@link #ERROR}
+     */
+    public int getCellType() {
+        return _cellType;
+    }
+
+    /**
+     * @return whether the current cell has a formula, see {@link #getFormula()}
+     */
+    public boolean hasFormula() {
+        return _hasFormula;
+    }
+
+    /**
+     * @return the value of a {@link #NUMBER} cell, 0 for other cells
+     */
+    public double getNumericValue() {
+        return _numericValue;
+    }
+
+    /**
+     * @return the index of the string of a {@link #SHARED_STRING} cell, -1 for other cells
+     */
+    public int getSharedStringIndex() {
+        return _sharedStringIndex;
+    }
+
+    /**
+     * @return the value of a {@link #BOOLEAN} cell, <code>false</code> for other cells
+     */
+    public boolean getBooleanValue() {
+        return _cellType == BOOLEAN && _numericValue != 0;
+    }
+
+    /**
+     * Returns the text of the current cell: the string of an inline string or a string formula result,
+     *  the code of an error, or the raw content of the <code>v</code> element for other cells.
+     * <p>
+     * The returned sequence is reused: it is only valid until the next call to {@link #next()}.
+     * </p>
+     */
+    public CharSequence getText() {
+        return _value;
+    }
+
+    /**
+     * Returns the formula of the current cell. Cells that use a shared formula defined in
+     *  another cell have an empty formula.
+     * <p>
+     * The returned sequence is reused: it is only valid until the next call to {@link #next()}.
+     * </p>
+     *
+     * @return the formula, <code>null</code> if the cell has none
+     */
+    public CharSequence getFormula() {
+        return _hasFormula ? _formula : null;
+    }
+
+    /**
+     * @return the string value of a string cell, shared strings are looked up in the shared strings
+     *  table this parser was created with; <code>null</code> if the cell does not hold a string
+     */
+    public String getStringValue() {
+        switch (_cellType) {
+            case SHARED_STRING:
+                if (_strings == null) {
+                    throw new IllegalStateException("No shared strings table to look up shared string " + _sharedStringIndex);
+                }
+                return _strings.getEntryAt(_sharedStringIndex);
+            case INLINE_STRING:
+            case FORMULA_STRING:
+                return _value.toString();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Format the value of the current cell the way {@link XSSFSheetXMLHandler} does: numbers are formatted
+     *  with the data format of their style, if the parser was given a styles table, booleans
+     *  become <code>TRUE</code> or <code>FALSE</code> and errors are prefixed with <code>ERROR:</code>.
+     */
+    public String getFormattedValue(DataFormatter formatter) {
+        switch (_cellType) {
+            case NUMBER:
+                if (_styles != null && _styleIndex > 0) {
+                    loadFormat(_styleIndex);
+                    String formatString = _formatStrings[_styleIndex];
+                    if (formatString != null) {
+                        return formatter.formatRawCellContents(_numericValue, _formatIndexes[_styleIndex], formatString);
+                    }
+                }
+                return _value.toString();
+            case BOOLEAN:
+                return getBooleanValue() ? "TRUE" : "FALSE";
+            case ERROR:
+                return "ERROR:" + _value;
+            case BLANK:
+                return "";
+            default:
+                return getStringValue();
+        }
+    }
+
+    private void loadFormat(int styleIndex) {
+        if (_formatStrings == null || styleIndex >= _formatStrings.length) {
+            int length = Math.max(styleIndex + 1, _formatStrings == null ? 16 : _formatStrings.length * 2);
+            short[] indexes = new short[length];
+            String[] strings = new String[length];
+            if (_formatStrings != null) {
+                System.arraycopy(_formatIndexes, 0, indexes, 0, _formatIndexes.length);
+                System.arraycopy(_formatStrings, 0, strings, 0, _formatStrings.length);
+            }
+            _formatIndexes = indexes;
+            _formatStrings = strings;
+        }
+        if (_formatStrings[styleIndex] == null) {
+            XSSFCellStyle style = _styles.getStyleAt(styleIndex);
+            short formatIndex = style.getDataFormat();
+            String formatString = style.getDataFormatString();
+            if (formatString == null) {
+                formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+            }
+            _formatIndexes[styleIndex] = formatIndex;
+            _formatStrings[styleIndex] = formatString;
+        }
+    }
+
+    /**
+     * Handle a start tag, the name was read
+     *
+     * @return the event to report, 0 for none
+     */
+    private int startElement(int element) throws IOException {
+        if (!_inSheetData) {
+            boolean empty = skipAttributes();
+            if (element == EL_SHEET_DATA) {
+                _inSheetData = !empty;
+                _done = empty;
+            }
+            return 0;
+        }
+        switch (element) {
+            case EL_ROW: {
+                int rowIndex = _rowIndex + 1;
+                boolean empty = false;
+                int b;
+                while ((b = nextAttribute()) == 'a') {
+                    if (isName('r')) {
+                        rowIndex = parseInt(readAttributeValue()) - 1;
+                    } else {
+                        readAttributeValue();
+                    }
+                }
+                empty = b == '/';
+                _rowIndex = rowIndex;
+                _columnIndex = -1;
+                _pendingEndRow = empty;
+                return START_ROW;
+            }
+            case EL_C: {
+                int columnIndex = _columnIndex + 1;
+                _styleIndex = 0;
+                _rawType = NUMBER;
+                int b;
+                while ((b = nextAttribute()) == 'a') {
+                    if (isName('r')) {
+                        columnIndex = parseColumn(readAttributeValue());
+                    } else if (isName('s')) {
+                        _styleIndex = parseInt(readAttributeValue());
+                    } else if (isName('t')) {
+                        _rawType = parseType(readAttributeValue());
+                    } else {
+                        readAttributeValue();
+                    }
+                }
+                _columnIndex = columnIndex;
+                _hasFormula = false;
+                _value.clear();
+                _formula.clear();
+                if (b == '/') {
+                    return endCell();
+                }
+                _inCell = true;
+                return 0;
+            }
+            case EL_V:
+                if (!skipAttributes() && _inCell) {
+                    _capture = CAPTURE_VALUE;
+                }
+                return 0;
+            case EL_F:
+                if (_inCell) {
+                    _hasFormula = true;
+                    if (!skipAttributes()) {
+                        _capture = CAPTURE_FORMULA;
+                    }
+                } else {
+                    skipAttributes();
+                }
+                return 0;
+            case EL_IS:
+                _inInlineString = !skipAttributes() && _inCell;
+                return 0;
+            case EL_RPH:
+                _inPhonetic = !skipAttributes();
+                return 0;
+            case EL_T:
+                if (!skipAttributes() && _inInlineString && !_inPhonetic) {
+                    _capture = CAPTURE_VALUE;
+                }
+                return 0;
+            default:
+                skipAttributes();
+                return 0;
+        }
+    }
+
+    /**
+     * Handle an end tag
+     *
+     * @return the event to report, 0 for none
+     */
+    private int endElement(int element) {
+        _capture = CAPTURE_NONE;
+        switch (element) {
+            case EL_SHEET_DATA:
+                if (_inSheetData) {
+                    _done = true;
+                }
+                return 0;
+            case EL_ROW:
+                return _inSheetData ? END_ROW : 0;
+            case EL_C:
+                if (_inCell) {
+                    _inCell = false;
+                    return endCell();
+                }
+                return 0;
+            case EL_IS:
+                _inInlineString = false;
+                return 0;
+            case EL_RPH:
+                _inPhonetic = false;
+                return 0;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Convert the raw value of the cell that just ended
+     */
+    private int endCell() {
+        _inInlineString = false;
+        _inPhonetic = false;
+        _numericValue = 0;
+        _sharedStringIndex = -1;
+        if (_value.length() == 0 && _rawType != INLINE_STRING && _rawType != FORMULA_STRING) {
+            _cellType = BLANK;
+            return CELL;
+        }
+        _cellType = _rawType;
+        switch (_rawType) {
+            case NUMBER:
+                _numericValue = parseDouble(_value._chars, _value._length);
+                break;
+            case SHARED_STRING:
+                _sharedStringIndex = parseInt(_value);
+                break;
+            case BOOLEAN: {
+                char c = _value.charAt(0);
+                _numericValue = c == '1' || c == 't' ? 1 : 0;
+                break;
+            }
+        }
+        return CELL;
+    }
+
+    /**
+     * Skip text up to the next tag, capturing it if needed
+     *
+     * @return false at the end of the stream
+     */
+    private boolean skipToTag() throws IOException {
+        if (_capture != CAPTURE_NONE) {
+            return readText(_capture == CAPTURE_VALUE ? _value : _formula);
+        }
+        while (true) {
+            byte[] buf = _buf;
+            for (int i = _pos; i < _limit; i++) {
+                if (buf[i] == '<') {
+                    _pos = i + 1;
+                    return true;
+                }
+            }
+            _pos = _limit;
+            if (fill() < 0) {
+                return false;
+            }
+            _pos--;
+        }
+    }
+
+    /**
+     * Decode UTF-8 text up to the next tag into <code>text</code>
+     */
+    private boolean readText(TextBuffer text) throws IOException {
+        int b;
+        while ((b = read()) >= 0) {
+            if (b == '<') {
+                return true;
+            }
+            if (b == '&') {
+                readEntity(text);
+            } else if (b < 0x80) {
+                text.append((char) b);
+            } else {
+                appendMultiByte(text, b);
+            }
+        }
+        return false;
+    }
+
+    private void appendMultiByte(TextBuffer text, int b) throws IOException {
+        int codePoint;
+        if ((b & 0xE0) == 0xC0) {
+            codePoint = ((b & 0x1F) << 6) | (read() & 0x3F);
+        } else if ((b & 0xF0) == 0xE0) {
+            codePoint = ((b & 0x0F) << 12) | ((read() & 0x3F) << 6) | (read() & 0x3F);
+        } else {
+            codePoint = ((b & 0x07) << 18) | ((read() & 0x3F) << 12) | ((read() & 0x3F) << 6) | (read() & 0x3F);
+        }
+        appendCodePoint(text, codePoint);
+    }
+
+    private static void appendCodePoint(TextBuffer text, int codePoint) {
+        if (codePoint >= 0x10000) {
+            codePoint -= 0x10000;
+            text.append((char) (0xD800 + (codePoint >> 10)));
+            text.append((char) (0xDC00 + (codePoint & 0x3FF)));
+        } else {
+            text.append((char) codePoint);
+        }
+    }
+
+    private void readEntity(TextBuffer text) throws IOException {
+        _nameLength = 0;
+        int b;
+        while ((b = read()) >= 0 && b != ';') {
+            if (_nameLength < _name.length) {
+                _name[_nameLength++] = (byte) b;
+            }
+        }
+        if (_nameLength > 1 && _name[0] == '#') {
+            boolean hex = _name[1] == 'x';
+            int codePoint = 0;
+            for (int i = hex ? 2 : 1; i < _nameLength; i++) {
+                int digit = Character.digit((char) _name[i], hex ? 16 : 10);
+                if (digit < 0) {
+                    throw new IOException("Invalid character reference in sheet XML");
+                }
+                codePoint = codePoint * (hex ? 16 : 10) + digit;
+            }
+            appendCodePoint(text, codePoint);
+        } else if (isName("amp")) {
+            text.append('&');
+        } else if (isName("lt")) {
+            text.append('<');
+        } else if (isName("gt")) {
+            text.append('>');
+        } else if (isName("quot")) {
+            text.append('"');
+        } else if (isName("apos")) {
+            text.append('\'');
+        } else {
+            throw new IOException("Unknown entity &" + new String(_name, 0, _nameLength, "UTF-8") + "; in sheet XML");
+        }
+    }
+
+    /**
+     * Handle the markup following <code>&lt;!</code>: comments, CDATA sections and document type declarations
+     */
+    private void skipDeclaration() throws IOException {
+        int b = read();
+        if (b == '-') {
+            read();
+            skipPast('-', '-');
+            skipPast('>');
+        } else if (b == '[') {
+            // <![CDATA[
+            for (int i = 0; i < 6; i++) {
+                read();
+            }
+            TextBuffer text = _capture == CAPTURE_VALUE ? _value : _capture == CAPTURE_FORMULA ? _formula : null;
+            int prev2 = 0, prev1 = 0;
+            while ((b = read()) >= 0) {
+                if (b == '>' && prev1 == ']' && prev2 == ']') {
+                    if (text != null) {
+                        text._length -= 2;
+                    }
+                    break;
+                }
+                if (text != null) {
+                    if (b < 0x80) {
+                        text.append((char) b);
+                    } else {
+                        appendMultiByte(text, b);
+                        b = 0;
+                    }
+                }
+                prev2 = prev1;
+                prev1 = b;
+            }
+        } else {
+            // a DOCTYPE, its internal subset is skipped without being processed
+            int depth = 0;
+            while ((b = read()) >= 0) {
+                if (b == '[') {
+                    depth++;
+                } else if (b == ']') {
+                    depth--;
+                } else if (b == '>' && depth <= 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read an element name into the name buffer
+     *
+     * @return the element id of its local name
+     */
+    private int readName() throws IOException {
+        _nameLength = 0;
+        int b;
+        while ((b = read()) >= 0) {
+            if (b == ' ' || b == '>' || b == '/' || b == '\t' || b == '\n' || b == '\r') {
+                _pos--;
+                break;
+            }
+            if (b == ':') {
+                // drop the namespace prefix
+                _nameLength = 0;
+            } else if (_nameLength < _name.length) {
+                _name[_nameLength++] = (byte) b;
+            }
+        }
+        switch (_nameLength) {
+            case 1:
+                switch (_name[0]) {
+                    case 'c': return EL_C;
+                    case 'v': return EL_V;
+                    case 'f': return EL_F;
+                    case 't': return EL_T;
+                }
+                return EL_OTHER;
+            case 2:
+                return _name[0] == 'i' && _name[1] == 's' ? EL_IS : EL_OTHER;
+            case 3:
+                if (isName("row")) return EL_ROW;
+                if (isName("rPh")) return EL_RPH;
+                return EL_OTHER;
+            case 9:
+                return isName("sheetData") ? EL_SHEET_DATA : EL_OTHER;
+            default:
+                return EL_OTHER;
+        }
+    }
+
+    /**
+     * Move to the next attribute of a start tag and read its name into the name buffer
+     *
+     * @return <code>'a'</code> if an attribute name was read,
+     *  <code>'/'</code> at the end of an empty element and <code>'&gt;'</code> at the end of the tag
+     */
+    private int nextAttribute() throws IOException {
+        int b;
+        do {
+            b = read();
+        } while (b == ' ' || b == '\t' || b == '\n' || b == '\r');
+        if (b == '/') {
+            skipPast('>');
+            return '/';
+        }
+        if (b == '>' || b < 0) {
+            return '>';
+        }
+        _nameLength = 0;
+        while (b >= 0 && b != '=' && b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+            if (b == ':') {
+                _nameLength = 0;
+            } else if (_nameLength < _name.length) {
+                _name[_nameLength++] = (byte) b;
+            }
+            b = read();
+        }
+        return 'a';
+    }
+
+    /**
+     * Read the value of the attribute whose name was just read into the value buffer
+     */
+    private TextBuffer readAttributeValue() throws IOException {
+        int quote;
+        do {
+            quote = read();
+        } while (quote != '"' && quote != '\'' && quote >= 0);
+        TextBuffer value = _value;
+        value.clear();
+        int b;
+        while ((b = read()) >= 0 && b != quote) {
+            if (b == '&') {
+                readEntity(value);
+            } else if (b < 0x80) {
+                value.append((char) b);
+            } else {
+                appendMultiByte(value, b);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Skip the attributes of a start tag
+     *
+     * @return whether the element is empty, i.e. the tag ends with <code>/&gt;</code>
+     */
+    private boolean skipAttributes() throws IOException {
+        int quote = 0;
+        int prev = 0;
+        int b;
+        while ((b = read()) >= 0) {
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return prev == '/';
+            }
+            prev = b;
+        }
+        return false;
+    }
+
+    private boolean isName(char c) {
+        return _nameLength == 1 && _name[0] == c;
+    }
+
+    private boolean isName(String name) {
+        if (_nameLength != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < _nameLength; i++) {
+            if (_name[i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipPast(int c) throws IOException {
+        int b;
+        while ((b = read()) >= 0 && b != c) {
+            // skip
+        }
+    }
+
+    private void skipPast(int c1, int c2) throws IOException {
+        int prev = 0;
+        int b;
+        while ((b = read()) >= 0) {
+            if (prev == c1 && b == c2) {
+                return;
+            }
+            prev = b;
+        }
+    }
+
+    private int read() throws IOException {
+        if (_pos < _limit) {
+            return _buf[_pos++] & 0xFF;
+        }
+        return fill();
+    }
+
+    /**
+     * Refill the buffer
+     *
+     * @return the first byte read, -1 at the end of the stream
+     */
+    private int fill() throws IOException {
+        int count;
+        do {
+            count = _in.read(_buf, 0, _buf.length);
+        } while (count == 0);
+        if (count < 0) {
+            _pos = _limit = 0;
+            return -1;
+        }
+        _limit = count;
+        _pos = 1;
+        return _buf[0] & 0xFF;
+    }
+
+    private static int parseType(TextBuffer type) {
+        switch (type.length()) {
+            case 1:
+                switch (type.charAt(0)) {
+                    case 's': return SHARED_STRING;
+                    case 'b': return BOOLEAN;
+                    case 'e': return ERROR;
+                    case 'n': return NUMBER;
+                    case 'd': return INLINE_STRING;
+                }
+                break;
+            case 3:
+                if (type.charAt(0) == 's') return FORMULA_STRING;
+                break;
+            case 9:
+                return INLINE_STRING;
+        }
+        return NUMBER;
+    }
+
+    /**
+     * @return the 0-based column of an A1-style cell reference
+     */
+    private static int parseColumn(TextBuffer ref) {
+        int column = 0;
+        for (int i = 0; i < ref._length; i++) {
+            char c = ref._chars[i];
+            if (c >= 'A' && c <= 'Z') {
+                column = column * 26 + (c - 'A' + 1);
+            } else if (c >= 'a' && c <= 'z') {
+                column = column * 26 + (c - 'a' + 1);
+            } else if (c != '$') {
+                break;
+            }
+        }
+        return column - 1;
+    }
+
+    private static int parseInt(TextBuffer text) {
+        int value = 0;
+        boolean negative = false;
+        for (int i = 0; i < text._length; i++) {
+            char c = text._chars[i];
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else if (c == '-' && i == 0) {
+                negative = true;
+            } else if (c != ' ') {
+                throw new NumberFormatException("Invalid integer '" + text + "' in sheet XML");
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a decimal number.
+     * <p>
+     * Numbers with up to 15 significant digits and a decimal exponent within 22 of it,
+     *  which covers nearly all spreadsheet data, are computed exactly from a long mantissa
+     *  and a power of ten: both are exactly representable as doubles so the single
+     *  multiplication or division is correctly rounded, just like {@link Double#parseDouble(String)}.
+     *  Other numbers fall back to {@link Double#parseDouble(String)}.
+     * </p>
+     */
+    static double parseDouble(char[] chars, int length) {
+        int start = 0;
+        int end = length;
+        while (start < end && chars[start] <= ' ') start++;
+        while (end > start && chars[end - 1] <= ' ') end--;
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && c == '0') {
+                    // leading zeros are not significant
+                    if (seenPoint) exponent--;
+                    continue;
+                }
+                if (++digits > 15) {
+                    return Double.parseDouble(new String(chars, start, end - start));
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenPoint) exponent--;
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (i < end) {
+            char c = chars[i];
+            if (!seenDigit || (c != 'E' && c != 'e')) {
+                return Double.parseDouble(new String(chars, start, end - start));
+            }
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                i++;
+            }
+            int exp = 0;
+            int expDigits = 0;
+            for (; i < end; i++) {
+                c = chars[i];
+                if (c < '0' || c > '9' || ++expDigits > 4) {
+                    return Double.parseDouble(new String(chars, start, end - start));
+                }
+                exp = exp * 10 + (c - '0');
+            }
+            if (expDigits == 0) {
+                return Double.parseDouble(new String(chars, start, end - start));
+            }
+            exponent += negativeExponent ? -exp : exp;
+        }
+        if (!seenDigit) {
+            return Double.parseDouble(new String(chars, start, end - start));
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return Double.parseDouble(new String(chars, start, end - start));
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * A growable, reused character buffer
+     */
+    private static final class TextBuffer implements CharSequence {
+        char[] _chars = new char[64];
+        int _length;
+
+        void clear() {
+            _length = 0;
+        }
+
+        void append(char c) {
+            if (_length == _chars.length) {
+                char[] chars = new char[_chars.length * 2];
+                System.arraycopy(_chars, 0, chars, 0, _length);
+                _chars = chars;
+            }
+            _chars[_length++] = c;
+        }
+
+        public int length() {
+            return _length;
+        }
+
+        public char charAt(int index) {
+            if (index >= _length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + _length);
+            }
+            return _chars[index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > _length || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + _length);
+            }
+            return new String(_chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(_chars, 0, _length);
+        }
+    }
+
+    /**
+     * Receives the rows and cells of a sheet from {@link XSSFSheetPullParser#parse(SheetCellHandler)}.
+     * Character sequences passed to the callbacks are only valid during the call.
+     */
+    public interface SheetCellHandler {
+        /** A row with the (zero based) row number has started */
+        void startRow(int rowIndex);
+        /** A row with the (zero based) row number has ended */
+        void endRow(int rowIndex);
+        /** A number, or a numeric formula result */
+        void numericCell(int rowIndex, int columnIndex, int styleIndex, double value);
+        /** A reference to the shared strings table */
+        void sharedStringCell(int rowIndex, int columnIndex, int styleIndex, int sharedStringIndex);
+        /** A boolean, or a boolean formula result */
+        void booleanCell(int rowIndex, int columnIndex, int styleIndex, boolean value);
+        /** An inline string, or a string formula result */
+        void textCell(int rowIndex, int columnIndex, int styleIndex, CharSequence text);
+        /** An error code, e.g. <code>#N/A</code> */
+        void errorCell(int rowIndex, int columnIndex, int styleIndex, CharSequence error);
+    }
+}
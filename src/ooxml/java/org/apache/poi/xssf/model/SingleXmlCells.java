@@ -27,6 +27,7 @@ import org.apache.poi.POIXMLDocumentPart;
 import org.apache.poi.openxml4j.opc.PackagePart;
 import org.apache.poi.openxml4j.opc.PackageRelationship;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.apache.poi.xssf.usermodel.helpers.XSSFSingleXmlCell;
 import org.apache.xmlbeans.XmlException;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTSingleXmlCell;
@@ -69,7 +70,11 @@ public class SingleXmlCells extends POIXMLDocumentPart {
 	}
 	
 	public XSSFSheet getXSSFSheet(){
-		return (XSSFSheet) getParent();
+		XSSFSheet sheet = (XSSFSheet) getParent();
+		// go through the workbook, which parses the sheet if it loads sheets on demand
+		XSSFWorkbook workbook = sheet.getWorkbook();
+		int index = workbook.getSheetIndex(sheet);
+		return index < 0 ? sheet : workbook.getSheetAt(index);
 	}
 
 	protected void writeTo(OutputStream out) throws IOException {
@@ -0,0 +1,191 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.streaming;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes sheet data to a temp file compressed with a fast LZ77 block codec.
+ * <p>
+ * Unlike {@link GZIPSheetDataWriter} this trades compression ratio for speed: sheet XML
+ * typically shrinks to a fifth to a third of its size at a fraction of the CPU cost of gzip,
+ * which helps when temp disks are small or slow.
+ * </p>
+ * <p>
+ * The file is a series of blocks of up to 64KB of sheet data, each preceded by its
+ * uncompressed length and its compressed length. A compressed length of zero marks
+ * a block stored uncompressed because compression did not make it smaller.
+ * </p>
+ */
+public class CompressedFileSheetDataStorage implements SheetDataStorage {
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final File _fd;
+    private long _bytesWritten;
+    private long _bytesSpilled;
+
+    public CompressedFileSheetDataStorage() throws IOException {
+        _fd = File.createTempFile("poi-sxssf-sheet", ".lz");
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_fd)));
+        return new OutputStream() {
+            private final LZBlockCodec _codec = new LZBlockCodec();
+            private final byte[] _block = new byte[BLOCK_SIZE];
+            private final byte[] _compressed = new byte[LZBlockCodec.maxCompressedLength(BLOCK_SIZE)];
+            private int _length;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (_length == BLOCK_SIZE) {
+                    writeBlock();
+                }
+                _block[_length++] = (byte) b;
+                _bytesWritten++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (_length == BLOCK_SIZE) {
+                        writeBlock();
+                    }
+                    int n = Math.min(len, BLOCK_SIZE - _length);
+                    System.arraycopy(b, off, _block, _length, n);
+                    _length += n;
+                    off += n;
+                    len -= n;
+                    _bytesWritten += n;
+                }
+            }
+
+            private void writeBlock() throws IOException {
+                int compressedLength = _codec.compress(_block, _length, _compressed);
+                out.writeInt(_length);
+                if (compressedLength < _length) {
+                    out.writeInt(compressedLength);
+                    out.write(_compressed, 0, compressedLength);
+                    _bytesSpilled += 8 + compressedLength;
+                } else {
+                    out.writeInt(0);
+                    out.write(_block, 0, _length);
+                    _bytesSpilled += 8 + _length;
+                }
+                _length = 0;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (_length > 0) {
+                    writeBlock();
+                }
+                out.close();
+            }
+        };
+    }
+
+    public InputStream getInputStream() throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_fd)));
+        return new InputStream() {
+            private final byte[] _block = new byte[BLOCK_SIZE];
+            private final byte[] _compressed = new byte[LZBlockCodec.maxCompressedLength(BLOCK_SIZE)];
+            private int _length;
+            private int _position;
+
+            private boolean fill() throws IOException {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return false;
+                }
+                int compressedLength = in.readInt();
+                if (compressedLength == 0) {
+                    in.readFully(_block, 0, length);
+                } else {
+                    in.readFully(_compressed, 0, compressedLength);
+                    if (LZBlockCodec.decompress(_compressed, compressedLength, _block) != length) {
+                        throw new IOException("Corrupt block in " + _fd);
+                    }
+                }
+                _length = length;
+                _position = 0;
+                return true;
+            }
+
+            @Override
+            public int read() throws IOException {
+                if (_position == _length && !fill()) {
+                    return -1;
+                }
+                return _block[_position++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (_position == _length && !fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, _length - _position);
+                System.arraycopy(_block, _position, b, off, n);
+                _position += n;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    public long getBytesWritten() {
+        return _bytesWritten;
+    }
+
+    public long getBytesSpilled() {
+        return _bytesSpilled;
+    }
+
+    public boolean dispose() {
+        return _fd.delete();
+    }
+
+    /**
+     * Creates a {@link CompressedFileSheetDataStorage} per sheet
+     */
+    public static class Provider implements SheetDataStorageProvider {
+        public SheetDataStorage createStorage() throws IOException {
+            return new CompressedFileSheetDataStorage();
+        }
+    }
+}
@@ -32,6 +32,14 @@ public class GZIPSheetDataWriter extends SheetDataWriter {
         super();
     }
 
+    /**
+     * @param sharedStringSource the table to write string cells to as <code>t="s"</code> references,
+     *  or <code>null</code> to write them as inline strings
+     */
+    public GZIPSheetDataWriter(SpillingSharedStringsTable sharedStringSource) throws IOException {
+        super(sharedStringSource);
+    }
+
     /**
      * @return temp file to write sheet data
      */
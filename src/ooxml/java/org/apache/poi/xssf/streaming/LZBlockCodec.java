@@ -0,0 +1,156 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.streaming;
+
+import java.util.Arrays;
+
+/**
+ * A fast, low-ratio LZ77 block codec in the spirit of LZ4.
+ * <p>
+ * A compressed block is a series of sequences. Each sequence starts with a token byte
+ * whose high nibble is the number of literals and whose low nibble is the match length
+ * minus four; a nibble of 15 is followed by extension bytes that are added to it until one
+ * is less than 255. The literals follow, then a two-byte little-endian match offset. The last
+ * sequence of a block consists of literals only.
+ * </p>
+ * <p>
+ * Instances keep a hash table between calls and are not thread-safe.
+ * </p>
+ */
+final class LZBlockCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_LOG = 14;
+
+    /** positions + 1 of the last occurrence of each 4-byte hash, 0 if none */
+    private final int[] _table = new int[1 << HASH_LOG];
+
+    /**
+     * @return the maximum size of the compressed form of <code>length</code> bytes
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compress <code>src[0..length)</code> into <code>dst</code>
+     *
+     * @param dst buffer of at least {@link #maxCompressedLength(int)} bytes
+     * @return the number of bytes written to <code>dst</code>
+     */
+    int compress(byte[] src, int length, byte[] dst) {
+        Arrays.fill(_table, 0);
+        int ip = 0;
+        int op = 0;
+        int anchor = 0;
+        int limit = length - MIN_MATCH;
+        while (ip <= limit) {
+            int seq = readInt(src, ip);
+            int h = (seq * -1640531535) >>> (32 - HASH_LOG);
+            int ref = _table[h] - 1;
+            _table[h] = ip + 1;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                ip++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < length && src[ref + matchLength] == src[ip + matchLength]) {
+                matchLength++;
+            }
+            op = writeSequence(src, anchor, ip - anchor, dst, op, matchLength - MIN_MATCH);
+            dst[op++] = (byte) (ip - ref);
+            dst[op++] = (byte) ((ip - ref) >>> 8);
+            if (matchLength - MIN_MATCH >= 15) {
+                op = writeLength(dst, op, matchLength - MIN_MATCH - 15);
+            }
+            ip += matchLength;
+            anchor = ip;
+        }
+        return writeSequence(src, anchor, length - anchor, dst, op, 0);
+    }
+
+    /**
+     * Write the token and literals of a sequence. The offset and the match length
+     * extension, if any, are written by the caller.
+     */
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, byte[] dst, int op, int matchLength) {
+        int token = op++;
+        dst[token] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(matchLength, 15));
+        if (literalLength >= 15) {
+            op = writeLength(dst, op, literalLength - 15);
+        }
+        System.arraycopy(src, literalStart, dst, op, literalLength);
+        op += literalLength;
+        return op;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    /**
+     * Decompress <code>src[0..length)</code> into <code>dst</code>
+     *
+     * @return the number of bytes written to <code>dst</code>
+     */
+    static int decompress(byte[] src, int length, byte[] dst) {
+        int ip = 0;
+        int op = 0;
+        while (true) {
+            int token = src[ip++] & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    b = src[ip++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            System.arraycopy(src, ip, dst, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (ip >= length) {
+                return op;
+            }
+            int offset = (src[ip++] & 0xFF) | (src[ip++] & 0xFF) << 8;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int ref = op - offset;
+            // byte by byte, the match may overlap the bytes it produces
+            for (int i = 0; i < matchLength; i++) {
+                dst[op++] = dst[ref + i];
+            }
+        }
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+}
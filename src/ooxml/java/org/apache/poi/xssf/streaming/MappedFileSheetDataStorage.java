@@ -0,0 +1,180 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.streaming;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes sheet data to a memory-mapped temp file.
+ * <p>
+ * The file is mapped in segments as it grows, so writing and reading back copy straight
+ * between the Java arrays and the page cache without read/write system calls. The operating
+ * system decides when dirty pages reach the disk, which suits small or slow ephemeral disks
+ * where most data can stay in the page cache.
+ * </p>
+ * <p>
+ * Java cannot unmap a file explicitly. The mappings are released when they are garbage
+ * collected, and on some platforms the temp file cannot be deleted before that happens.
+ * </p>
+ */
+public class MappedFileSheetDataStorage implements SheetDataStorage {
+    /**
+     * Default size of each mapped region of the temp file
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final int _segmentSize;
+    private final File _fd;
+    private final RandomAccessFile _file;
+    private final List<MappedByteBuffer> _segments = new ArrayList<MappedByteBuffer>();
+    private long _bytesWritten;
+
+    public MappedFileSheetDataStorage() throws IOException {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize size of each mapped region of the temp file
+     */
+    public MappedFileSheetDataStorage(int segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize must be greater than 0");
+        }
+        _segmentSize = segmentSize;
+        _fd = File.createTempFile("poi-sxssf-sheet", ".xml");
+        _file = new RandomAccessFile(_fd, "rw");
+    }
+
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    MappedByteBuffer segment = _segments.isEmpty() ? null : _segments.get(_segments.size() - 1);
+                    if (segment == null || !segment.hasRemaining()) {
+                        long position = (long) _segments.size() * _segmentSize;
+                        segment = _file.getChannel().map(FileChannel.MapMode.READ_WRITE, position, _segmentSize);
+                        _segments.add(segment);
+                    }
+                    int n = Math.min(len, segment.remaining());
+                    segment.put(b, off, n);
+                    off += n;
+                    len -= n;
+                    _bytesWritten += n;
+                }
+            }
+        };
+    }
+
+    public InputStream getInputStream() {
+        return new InputStream() {
+            private int _index;
+            private long _remaining = _bytesWritten;
+            private ByteBuffer _current;
+
+            private ByteBuffer current() {
+                while (_current == null || !_current.hasRemaining()) {
+                    if (_index == _segments.size()) {
+                        return null;
+                    }
+                    _current = _segments.get(_index++).duplicate();
+                    _current.flip();
+                }
+                return _current;
+            }
+
+            @Override
+            public int read() {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                ByteBuffer buf = _remaining == 0 ? null : current();
+                if (buf == null) {
+                    return -1;
+                }
+                int n = (int) Math.min(Math.min(len, buf.remaining()), _remaining);
+                buf.get(b, off, n);
+                _remaining -= n;
+                return n;
+            }
+        };
+    }
+
+    public long getBytesWritten() {
+        return _bytesWritten;
+    }
+
+    /**
+     * @return the number of bytes written, all sheet data goes to the mapped file
+     */
+    public long getBytesSpilled() {
+        return _bytesWritten;
+    }
+
+    public boolean dispose() {
+        _segments.clear();
+        try {
+            _file.close();
+        } catch (IOException e) {
+            return false;
+        }
+        return _fd.delete();
+    }
+
+    /**
+     * Creates a {@link MappedFileSheetDataStorage} per sheet
+     */
+    public static class Provider implements SheetDataStorageProvider {
+        private final int _segmentSize;
+
+        public Provider() {
+            this(DEFAULT_SEGMENT_SIZE);
+        }
+
+        /**
+         * @param segmentSize size of each mapped region of the temp files
+         */
+        public Provider(int segmentSize) {
+            _segmentSize = segmentSize;
+        }
+
+        public SheetDataStorage createStorage() throws IOException {
+            return new MappedFileSheetDataStorage(_segmentSize);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.streaming;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps sheet data in direct (off-heap) byte buffers, so it neither touches the disk
+ * nor adds to the Java heap.
+ * <p>
+ * Memory is allocated in chunks of 1MB up to a configurable limit. Data beyond the limit
+ * is spilled to a plain temp file. Direct memory is returned to the system when the buffers
+ * are garbage collected after {@link #dispose()}; the JVM caps it with
+ * <code>-XX:MaxDirectMemorySize</code>.
+ * </p>
+ */
+public class OffHeapSheetDataStorage implements SheetDataStorage {
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final long _maxMemory;
+    private final List<ByteBuffer> _chunks = new ArrayList<ByteBuffer>();
+    private File _fd;
+    private OutputStream _fileOut;
+    private long _bytesWritten;
+    private long _bytesSpilled;
+
+    /**
+     * @param maxMemory number of bytes kept off-heap before spilling to a temp file
+     */
+    public OffHeapSheetDataStorage(long maxMemory) {
+        if (maxMemory < 0) {
+            throw new IllegalArgumentException("maxMemory must not be negative");
+        }
+        _maxMemory = maxMemory;
+    }
+
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                _bytesWritten += len;
+                while (len > 0 && _fileOut == null) {
+                    ByteBuffer chunk = _chunks.isEmpty() ? null : _chunks.get(_chunks.size() - 1);
+                    if (chunk == null || !chunk.hasRemaining()) {
+                        long allocated = (long) _chunks.size() * CHUNK_SIZE;
+                        if (allocated + CHUNK_SIZE > _maxMemory) {
+                            _fd = File.createTempFile("poi-sxssf-sheet", ".xml");
+                            _fileOut = new BufferedOutputStream(new FileOutputStream(_fd));
+                            break;
+                        }
+                        chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+                        _chunks.add(chunk);
+                    }
+                    int n = Math.min(len, chunk.remaining());
+                    chunk.put(b, off, n);
+                    off += n;
+                    len -= n;
+                }
+                if (len > 0) {
+                    _fileOut.write(b, off, len);
+                    _bytesSpilled += len;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (_fileOut != null) {
+                    _fileOut.close();
+                }
+            }
+        };
+    }
+
+    public InputStream getInputStream() throws IOException {
+        InputStream memory = new InputStream() {
+            private int _index;
+            private ByteBuffer _current;
+
+            private ByteBuffer current() {
+                while (_current == null || !_current.hasRemaining()) {
+                    if (_index == _chunks.size()) {
+                        return null;
+                    }
+                    _current = _chunks.get(_index++).duplicate();
+                    _current.flip();
+                }
+                return _current;
+            }
+
+            @Override
+            public int read() {
+                ByteBuffer buf = current();
+                return buf == null ? -1 : buf.get() & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                ByteBuffer buf = current();
+                if (buf == null) {
+                    return -1;
+                }
+                int n = Math.min(len, buf.remaining());
+                buf.get(b, off, n);
+                return n;
+            }
+        };
+        if (_fd == null) {
+            return memory;
+        }
+        return new SequenceInputStream(memory, new FileInputStream(_fd));
+    }
+
+    public long getBytesWritten() {
+        return _bytesWritten;
+    }
+
+    public long getBytesSpilled() {
+        return _bytesSpilled;
+    }
+
+    public boolean dispose() {
+        _chunks.clear();
+        if (_fd == null) {
+            return true;
+        }
+        try {
+            _fileOut.close();
+        } catch (IOException e) {
+            return false;
+        }
+        return _fd.delete();
+    }
+
+    /**
+     * Creates an {@link OffHeapSheetDataStorage} per sheet
+     */
+    public static class Provider implements SheetDataStorageProvider {
+        private final long _maxMemory;
+
+        /**
+         * @param maxMemory number of bytes each sheet keeps off-heap before spilling to a temp file
+         */
+        public Provider(long maxMemory) {
+            _maxMemory = maxMemory;
+        }
+
+        public SheetDataStorage createStorage() {
+            return new OffHeapSheetDataStorage(_maxMemory);
+        }
+    }
+}
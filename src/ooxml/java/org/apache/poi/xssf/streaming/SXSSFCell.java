@@ -259,6 +259,7 @@ public class SXSSFCell implements Cell
 
         ensureFormulaType(computeTypeFromFormula(formula));
         ((FormulaValue)_value).setValue(formula);
+        _row.onFormulaSet();
     }
     /**
      * Return a formula for the cell, for example, <code>SUM(C4:E4)</code>
@@ -415,7 +416,7 @@ public class SXSSFCell implements Cell
      */
     public void setCellErrorValue(byte value)
     {
-        ensureType(CELL_TYPE_ERROR);
+        ensureTypeOrFormulaType(CELL_TYPE_ERROR);
         if(_value.getType()==CELL_TYPE_FORMULA)
             ((ErrorFormulaValue)_value).setPreEvaluatedValue(value);
         else
@@ -797,6 +798,7 @@ public class SXSSFCell implements Cell
     }
     void setFormulaType(int type)
     {
+        Value prevValue=_value;
         switch(type)
         {
             case CELL_TYPE_NUMERIC:
@@ -824,6 +826,9 @@ public class SXSSFCell implements Cell
                 throw new IllegalArgumentException("Illegal type " + type);
             }
         }
+        // only the type of the cached result changes, the formula is kept
+        if(prevValue instanceof FormulaValue)
+            ((FormulaValue)_value).setValue(((FormulaValue)prevValue).getValue());
     }
 //TODO: implement this correctly
     int computeTypeFromFormula(String formula)
@@ -834,7 +839,7 @@ public class SXSSFCell implements Cell
     /**
      * Used to help format error messages
      */
-    private static RuntimeException typeMismatch(int expectedTypeCode, int actualTypeCode, boolean isFormulaCell) {
+    static RuntimeException typeMismatch(int expectedTypeCode, int actualTypeCode, boolean isFormulaCell) {
         String msg = "Cannot get a "
             + getCellTypeName(expectedTypeCode) + " value from a "
             + getCellTypeName(actualTypeCode) + " " + (isFormulaCell ? "formula " : "") + "cell";
@@ -843,7 +848,7 @@ public class SXSSFCell implements Cell
 /**
      * Used to help format error messages
      */
-    private static String getCellTypeName(int cellTypeCode) {
+    static String getCellTypeName(int cellTypeCode) {
         switch (cellTypeCode) {
             case CELL_TYPE_BLANK:   return "blank";
             case CELL_TYPE_STRING:  return "text";
@@ -0,0 +1,568 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.streaming;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.apache.poi.ss.formula.FormulaParseException;
+import org.apache.poi.ss.formula.eval.ErrorEval;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Hyperlink;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.ss.util.NumberToTextConverter;
+import org.apache.poi.xssf.usermodel.XSSFHyperlink;
+
+import static org.apache.poi.xssf.streaming.SXSSFCompactRow.*;
+
+/**
+ * A view of one cell of a {@link SXSSFCompactRow}. It holds no value of its own, only the row and
+ * the column, so views are cheap to create and any number of them can refer to the same cell.
+ * Two views of the same cell are equal.
+ * <p>
+ * Values behave as those of {@link SXSSFCell}.
+ * </p>
+ */
+final class SXSSFCompactCell implements Cell
+{
+    final SXSSFCompactRow _row;
+    /**
+     * not final so that {@link SheetDataWriter} can move a single view along a row
+     */
+    int _column;
+
+    SXSSFCompactCell(SXSSFCompactRow row, int column)
+    {
+        _row=row;
+        _column=column;
+    }
+
+//start of interface implementation
+
+    public int getColumnIndex()
+    {
+        return _column;
+    }
+
+    public int getRowIndex()
+    {
+        return _row.getRowNum();
+    }
+
+    public Sheet getSheet()
+    {
+        return _row.getSheet();
+    }
+
+    public Row getRow()
+    {
+        return _row;
+    }
+
+    public void setCellType(int cellType)
+    {
+        if(getCellType()!=cellType)
+            setType(cellType);
+    }
+
+    public int getCellType()
+    {
+        return toCellType(tag());
+    }
+
+    public int getCachedFormulaResultType()
+    {
+        byte tag=tag();
+        if(!isFormula(tag)) {
+            throw new IllegalStateException("Only formula cells have cached results");
+        }
+        return toCachedResultType(tag);
+    }
+
+    public void setCellValue(double value)
+    {
+        if(Double.isInfinite(value)) {
+            // Excel does not support positive/negative infinities,
+            // rather, it gives a #DIV/0! error in these cases.
+            setCellErrorValue(FormulaError.DIV0.getCode());
+        } else if (Double.isNaN(value)){
+            setCellErrorValue(FormulaError.NUM.getCode());
+        } else {
+            ensureTypeOrFormulaType(CELL_TYPE_NUMERIC);
+            _row._numbers[_column]=value;
+        }
+    }
+
+    public void setCellValue(Date value)
+    {
+        boolean date1904 = false;
+        setCellValue(DateUtil.getExcelDate(value, date1904));
+    }
+
+    public void setCellValue(Calendar value)
+    {
+        boolean date1904 = false;
+        setCellValue( DateUtil.getExcelDate(value, date1904 ));
+    }
+
+    /**
+     * Set a rich string value for the cell, <code>null</code> makes it a blank cell
+     */
+    public void setCellValue(RichTextString value)
+    {
+        if(value==null)
+        {
+            setType(CELL_TYPE_BLANK);
+            return;
+        }
+        if(tag()!=RICH_TEXT)
+        {
+            clearValue();
+            _row._types[_column]=RICH_TEXT;
+        }
+        _row.setObject(_column,value);
+    }
+
+    /**
+     * Set a string value for the cell, <code>null</code> makes it a blank cell
+     */
+    public void setCellValue(String value)
+    {
+        if(value==null)
+        {
+            setType(CELL_TYPE_BLANK);
+            return;
+        }
+        ensureTypeOrFormulaType(CELL_TYPE_STRING);
+        if(tag()==FORMULA_STRING)
+            _row.setFormulaResult(_column,value);
+        else
+            _row.setObject(_column,value);
+    }
+
+    public void setCellFormula(String formula) throws FormulaParseException
+    {
+        if(formula == null) {
+            setType(Cell.CELL_TYPE_BLANK);
+            return;
+        }
+
+        if(tag()!=FORMULA_NUMERIC)
+            setFormulaType(CELL_TYPE_NUMERIC);
+        _row.setObject(_column,formula);
+        _row.onFormulaSet();
+    }
+
+    public String getCellFormula()
+    {
+        byte tag=tag();
+        if(!isFormula(tag))
+            throw SXSSFCell.typeMismatch(CELL_TYPE_FORMULA,toCellType(tag),false);
+        return (String)_row.getObject(_column);
+    }
+
+    public double getNumericCellValue()
+    {
+        switch(tag())
+        {
+            case BLANK:
+                return 0.0;
+            case NUMERIC:
+            case FORMULA_NUMERIC:
+                return _row._numbers[_column];
+            case FORMULA_STRING:
+            case FORMULA_BOOLEAN:
+            case FORMULA_ERROR:
+                throw SXSSFCell.typeMismatch(CELL_TYPE_NUMERIC, CELL_TYPE_FORMULA, false);
+            default:
+                throw SXSSFCell.typeMismatch(CELL_TYPE_NUMERIC, getCellType(), false);
+        }
+    }
+
+    public Date getDateCellValue()
+    {
+        if (tag() == BLANK)
+        {
+            return null;
+        }
+
+        double value = getNumericCellValue();
+        boolean date1904 = false;
+        return DateUtil.getJavaDate(value, date1904);
+    }
+
+    public RichTextString getRichStringCellValue()
+    {
+        byte tag=tag();
+        if(tag==RICH_TEXT)
+            return (RichTextString)_row.getObject(_column);
+        if(tag!=STRING)
+            throw SXSSFCell.typeMismatch(CELL_TYPE_STRING, toCellType(tag), false);
+        return getSheet().getWorkbook().getCreationHelper().createRichTextString(getStringCellValue());
+    }
+
+    public String getStringCellValue()
+    {
+        switch(tag())
+        {
+            case BLANK:
+                return "";
+            case STRING:
+            {
+                String value=(String)_row.getObject(_column);
+                return value==null?"":value;
+            }
+            case RICH_TEXT:
+                return ((RichTextString)_row.getObject(_column)).getString();
+            case FORMULA_STRING:
+            {
+                String value=_row.getFormulaResult(_column);
+                return value==null?"":value;
+            }
+            case FORMULA_NUMERIC:
+            case FORMULA_BOOLEAN:
+            case FORMULA_ERROR:
+                throw SXSSFCell.typeMismatch(CELL_TYPE_STRING, CELL_TYPE_FORMULA, false);
+            default:
+                throw SXSSFCell.typeMismatch(CELL_TYPE_STRING, getCellType(), false);
+        }
+    }
+
+    public void setCellValue(boolean value)
+    {
+        ensureTypeOrFormulaType(CELL_TYPE_BOOLEAN);
+        _row._numbers[_column]=value?1:0;
+    }
+
+    public void setCellErrorValue(byte value)
+    {
+        ensureTypeOrFormulaType(CELL_TYPE_ERROR);
+        _row._numbers[_column]=value;
+    }
+
+    public boolean getBooleanCellValue()
+    {
+        switch(tag())
+        {
+            case BLANK:
+                return false;
+            case BOOLEAN:
+            case FORMULA_BOOLEAN:
+                return _row._numbers[_column]!=0;
+            case FORMULA_NUMERIC:
+            case FORMULA_STRING:
+            case FORMULA_ERROR:
+                throw SXSSFCell.typeMismatch(CELL_TYPE_BOOLEAN, CELL_TYPE_FORMULA, false);
+            default:
+                throw SXSSFCell.typeMismatch(CELL_TYPE_BOOLEAN, getCellType(), false);
+        }
+    }
+
+    public byte getErrorCellValue()
+    {
+        switch(tag())
+        {
+            case BLANK:
+                return 0;
+            case ERROR:
+            case FORMULA_ERROR:
+                return (byte)_row._numbers[_column];
+            case FORMULA_NUMERIC:
+            case FORMULA_STRING:
+            case FORMULA_BOOLEAN:
+                throw SXSSFCell.typeMismatch(CELL_TYPE_ERROR, CELL_TYPE_FORMULA, false);
+            default:
+                throw SXSSFCell.typeMismatch(CELL_TYPE_ERROR, getCellType(), false);
+        }
+    }
+
+    public void setCellStyle(CellStyle style)
+    {
+        tag();
+        _row._styles[_column]=style==null?0:style.getIndex();
+    }
+
+    /**
+     * @return the cell's style, looked up in the workbook by its index
+     */
+    public CellStyle getCellStyle()
+    {
+        tag();
+        return getSheet().getWorkbook().getCellStyleAt(_row._styles[_column]);
+    }
+
+    public void setAsActiveCell()
+    {
+    }
+
+    public void setCellComment(Comment comment)
+    {
+        tag();
+        _row.setComment(_column,comment);
+    }
+
+    public Comment getCellComment()
+    {
+        tag();
+        return _row.getComment(_column);
+    }
+
+    public void removeCellComment()
+    {
+        tag();
+        _row.setComment(_column,null);
+    }
+
+    public Hyperlink getHyperlink()
+    {
+        tag();
+        return _row.getHyperlink(_column);
+    }
+
+    public void setHyperlink(Hyperlink link)
+    {
+        tag();
+        _row.setHyperlink(_column,link);
+
+        XSSFHyperlink xssfobj = (XSSFHyperlink)link;
+        // Assign to us
+        CellReference ref = new CellReference(getRowIndex(), getColumnIndex());
+        xssfobj.getCTHyperlink().setRef( ref.formatAsString()  );
+
+        // Add to the lists
+        ((SXSSFSheet)getSheet())._sh.addHyperlink(xssfobj);
+    }
+
+    public CellRangeAddress getArrayFormulaRange()
+    {
+        return null;
+    }
+
+    public boolean isPartOfArrayFormulaGroup()
+    {
+        return false;
+    }
+//end of interface implementation
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if(!(o instanceof SXSSFCompactCell)) return false;
+        SXSSFCompactCell other=(SXSSFCompactCell)o;
+        return other._row==_row&&other._column==_column;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return System.identityHashCode(_row)*31+_column;
+    }
+
+    /**
+     * Returns a string representation of the cell, the same as {@link SXSSFCell#toString()}
+     */
+    @Override
+    public String toString() {
+        switch (getCellType()) {
+            case CELL_TYPE_BLANK:
+                return "";
+            case CELL_TYPE_BOOLEAN:
+                return getBooleanCellValue() ? "TRUE" : "FALSE";
+            case CELL_TYPE_ERROR:
+                return ErrorEval.getText(getErrorCellValue());
+            case CELL_TYPE_FORMULA:
+                return getCellFormula();
+            case CELL_TYPE_NUMERIC:
+                if (DateUtil.isCellDateFormatted(this)) {
+                    DateFormat sdf = new SimpleDateFormat("dd-MMM-yyyy");
+                    return sdf.format(getDateCellValue());
+                }
+                return getNumericCellValue() + "";
+            case CELL_TYPE_STRING:
+                return getRichStringCellValue().toString();
+            default:
+                return "Unknown Cell Type: " + getCellType();
+        }
+    }
+
+    /**
+     * @return the type tag of this cell
+     * @throws IllegalStateException if the cell was removed from its row
+     */
+    private byte tag()
+    {
+        byte[] types=_row._types;
+        byte tag=_column<types.length?types[_column]:NONE;
+        if(tag==NONE)
+            throw new IllegalStateException("The cell at column " + _column + " was removed from its row");
+        return tag;
+    }
+
+    private static boolean isFormula(byte tag)
+    {
+        return tag>=FORMULA_NUMERIC;
+    }
+
+    private static int toCellType(byte tag)
+    {
+        switch(tag)
+        {
+            case BLANK: return CELL_TYPE_BLANK;
+            case NUMERIC: return CELL_TYPE_NUMERIC;
+            case STRING:
+            case RICH_TEXT: return CELL_TYPE_STRING;
+            case BOOLEAN: return CELL_TYPE_BOOLEAN;
+            case ERROR: return CELL_TYPE_ERROR;
+            default: return CELL_TYPE_FORMULA;
+        }
+    }
+
+    private static int toCachedResultType(byte tag)
+    {
+        switch(tag)
+        {
+            case FORMULA_STRING: return CELL_TYPE_STRING;
+            case FORMULA_BOOLEAN: return CELL_TYPE_BOOLEAN;
+            case FORMULA_ERROR: return CELL_TYPE_ERROR;
+            default: return CELL_TYPE_NUMERIC;
+        }
+    }
+
+    /**
+     * Reset the value of the cell, keeping its style, comment and hyperlink
+     */
+    private void clearValue()
+    {
+        _row._numbers[_column]=0;
+        _row.setObject(_column,null);
+        _row.setFormulaResult(_column,null);
+    }
+
+    private void ensureTypeOrFormulaType(int type)
+    {
+        byte tag=tag();
+        int cellType=toCellType(tag);
+        if(cellType==type)
+        {
+            if(tag==RICH_TEXT)
+                setType(CELL_TYPE_STRING);
+            return;
+        }
+        if(cellType==CELL_TYPE_FORMULA)
+        {
+            if(toCachedResultType(tag)!=type)
+                setFormulaType(type); // once a formula, always a formula
+            return;
+        }
+        setType(type);
+    }
+
+    private void setType(int type)
+    {
+        byte tag;
+        String str=null;
+        boolean bool=false;
+        switch(type)
+        {
+            case CELL_TYPE_NUMERIC: tag=NUMERIC; break;
+            case CELL_TYPE_STRING:
+                // if a cell is not blank then convert the old value to string
+                str=convertCellValueToString();
+                tag=STRING;
+                break;
+            case CELL_TYPE_FORMULA: tag=FORMULA_NUMERIC; break;
+            case CELL_TYPE_BLANK: tag=BLANK; break;
+            case CELL_TYPE_BOOLEAN:
+                bool=convertCellValueToBoolean();
+                tag=BOOLEAN;
+                break;
+            case CELL_TYPE_ERROR: tag=ERROR; break;
+            default:
+                throw new IllegalArgumentException("Illegal type " + type);
+        }
+        clearValue();
+        _row._types[_column]=tag;
+        if(str!=null) _row.setObject(_column,str);
+        if(bool) _row._numbers[_column]=1;
+    }
+
+    /**
+     * Change the type of the cached result, the formula is kept
+     */
+    private void setFormulaType(int type)
+    {
+        byte tag;
+        switch(type)
+        {
+            case CELL_TYPE_NUMERIC: tag=FORMULA_NUMERIC; break;
+            case CELL_TYPE_STRING: tag=FORMULA_STRING; break;
+            case CELL_TYPE_BOOLEAN: tag=FORMULA_BOOLEAN; break;
+            case CELL_TYPE_ERROR: tag=FORMULA_ERROR; break;
+            default:
+                throw new IllegalArgumentException("Illegal type " + type);
+        }
+        byte current=tag();
+        Object formula=isFormula(current)?_row.getObject(_column):null;
+        clearValue();
+        _row._types[_column]=tag;
+        _row.setObject(_column,formula);
+    }
+
+    private boolean convertCellValueToBoolean() {
+        byte tag = tag();
+        switch (tag) {
+            case BOOLEAN:
+            case FORMULA_BOOLEAN:
+            case NUMERIC:
+            case FORMULA_NUMERIC:
+                return _row._numbers[_column] != 0;
+            case STRING:
+            case RICH_TEXT:
+            case FORMULA_STRING:
+                return Boolean.valueOf(getStringCellValue()).booleanValue();
+            default:
+                return false;
+        }
+    }
+
+    private String convertCellValueToString() {
+        switch (tag()) {
+            case BOOLEAN:
+                return getBooleanCellValue() ? "TRUE" : "FALSE";
+            case STRING:
+            case RICH_TEXT:
+                return getStringCellValue();
+            case NUMERIC:
+                return NumberToTextConverter.toText(_row._numbers[_column]);
+            case ERROR:
+                return FormulaError.forInt(getErrorCellValue()).getString();
+            default:
+                return "";
+        }
+    }
+}
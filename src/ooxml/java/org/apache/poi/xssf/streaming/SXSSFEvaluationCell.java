@@ -0,0 +1,81 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+
+package org.apache.poi.xssf.streaming;
+
+import org.apache.poi.ss.formula.EvaluationCell;
+import org.apache.poi.ss.formula.EvaluationSheet;
+import org.apache.poi.ss.usermodel.Cell;
+
+/**
+ * SXSSF wrapper for a cell under evaluation, either a {@link SXSSFCell} or a view of a
+ * cell of a compact row. A formula cell may stand for its cached result, it is then
+ * reported as a plain cell of the type of the result.
+ */
+final class SXSSFEvaluationCell implements EvaluationCell {
+
+    private final SXSSFEvaluationSheet _evalSheet;
+    private final Cell _cell;
+    private final int _cellType;
+
+    SXSSFEvaluationCell(Cell cell, SXSSFEvaluationSheet evaluationSheet) {
+        this(cell, evaluationSheet, cell.getCellType());
+    }
+
+    SXSSFEvaluationCell(Cell cell, SXSSFEvaluationSheet evaluationSheet, int cellType) {
+        _cell = cell;
+        _evalSheet = evaluationSheet;
+        _cellType = cellType;
+    }
+
+    public Object getIdentityKey() {
+        // views of compact cells are equal if they refer to the same cell
+        return _cell;
+    }
+
+    Cell getCell() {
+        return _cell;
+    }
+    public boolean getBooleanCellValue() {
+        return _cell.getBooleanCellValue();
+    }
+    public int getCellType() {
+        return _cellType;
+    }
+    public int getColumnIndex() {
+        return _cell.getColumnIndex();
+    }
+    public int getErrorCellValue() {
+        return _cell.getErrorCellValue();
+    }
+    public double getNumericCellValue() {
+        return _cell.getNumericCellValue();
+    }
+    public int getRowIndex() {
+        return _cell.getRowIndex();
+    }
+    public EvaluationSheet getSheet() {
+        return _evalSheet;
+    }
+    public String getStringCellValue() {
+        return _cell.getStringCellValue();
+    }
+    public int getCachedFormulaResultType() {
+        return _cell.getCachedFormulaResultType();
+    }
+}
@@ -0,0 +1,242 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+
+package org.apache.poi.xssf.streaming;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.CellValuesReader;
+import org.apache.poi.ss.formula.EvaluationCell;
+import org.apache.poi.ss.formula.EvaluationSheet;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+
+/**
+ * SXSSF wrapper for a sheet under evaluation. Only the rows in the random access window
+ * can be read, rows which were not created yet are blank. The formulas evaluated on flush
+ * can also read the rows flushed last, see {@link SXSSFSheet#_flushedRows}.
+ */
+final class SXSSFEvaluationSheet implements EvaluationSheet {
+
+    private final SXSSFSheet _xs;
+    /**
+     * whether formula cells of rows without pending formulas stand for their cached result
+     */
+    private final boolean _useCachedResults;
+    private final int _sheetIndex;
+    /**
+     * the areas read whose cells may still change, only recorded with <code>_useCachedResults</code>.
+     * The wrapper is replaced when the cache is cleared
+     */
+    private final Set<ReadArea> _readAreas = new HashSet<ReadArea>();
+    /**
+     * the first row read, <code>Integer.MAX_VALUE</code> if none
+     */
+    private int _firstReadRow = Integer.MAX_VALUE;
+    private final CellValuesReader _reader = new CellValuesReader() {
+        protected EvaluationCell createEvaluationCell(Cell cell, int cellType) {
+            return new SXSSFEvaluationCell(cell, SXSSFEvaluationSheet.this, cellType);
+        }
+
+        protected int getCellType(Row row, Cell cell) {
+            return SXSSFEvaluationSheet.this.getCellType(row, cell);
+        }
+    };
+
+    SXSSFEvaluationSheet(SXSSFSheet sheet, int sheetIndex, boolean useCachedResults) {
+        _xs = sheet;
+        _sheetIndex = sheetIndex;
+        _useCachedResults = useCachedResults;
+    }
+
+    SXSSFSheet getSXSSFSheet() {
+        return _xs;
+    }
+
+    /**
+     * @return the index of the sheet when the wrapper was created
+     */
+    int getSheetIndex() {
+        return _sheetIndex;
+    }
+
+    public EvaluationCell getCell(int rowIndex, int columnIndex) {
+        SXSSFRow row = _xs._rows.get(rowIndex);
+        if (row == null && _useCachedResults) {
+            row = _xs._flushedRows.get(rowIndex);
+        }
+        if (row == null) {
+            checkNotFlushed(rowIndex);
+        }
+        recordRead(rowIndex, columnIndex, rowIndex, columnIndex);
+        if (row == null) {
+            return null;
+        }
+        Cell cell = row.getCell(columnIndex);
+        if (cell == null) {
+            return null;
+        }
+        return new SXSSFEvaluationCell(cell, this, getCellType(row, cell));
+    }
+
+    public int getLastRowNum() {
+        if (_useCachedResults) {
+            // rows created later are read as well, the reads are recorded for them
+            return SpreadsheetVersion.EXCEL2007.getLastRowIndex();
+        }
+        return _xs._rows.size() == 0 ? -1 : _xs._rows.lastRowNum();
+    }
+
+    public void getCellValues(int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex,
+            int[] cellTypes, double[] numbers, Object[] values) {
+        checkNotFlushed(firstRowIndex);
+        recordRead(firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex);
+        int width = lastColumnIndex - firstColumnIndex + 1;
+        int height = lastRowIndex - firstRowIndex + 1;
+        Arrays.fill(cellTypes, 0, width * height, Cell.CELL_TYPE_BLANK);
+        Arrays.fill(values, 0, width * height, null);
+        if (_useCachedResults) {
+            readRows(_xs._flushedRows, firstRowIndex, firstColumnIndex, lastRowIndex, width,
+                    cellTypes, numbers, values);
+        }
+        readRows(_xs._rows, firstRowIndex, firstColumnIndex, lastRowIndex, width,
+                cellTypes, numbers, values);
+    }
+
+    private void readRows(SXSSFRowBuffer rows, int firstRowIndex, int firstColumnIndex, int lastRowIndex,
+            int width, int[] cellTypes, double[] numbers, Object[] values) {
+        if (rows.size() == 0) {
+            return;
+        }
+        // only the buffered rows can hold cells, however large the area is
+        int firstRow = Math.max(firstRowIndex, rows.firstRowNum());
+        int lastRow = Math.min(lastRowIndex, rows.lastRowNum());
+        for (int rowIndex = firstRow; rowIndex <= lastRow; rowIndex++) {
+            SXSSFRow row = rows.get(rowIndex);
+            if (row != null) {
+                _reader.readRow(row, firstColumnIndex, width, (rowIndex - firstRowIndex) * width,
+                        cellTypes, numbers, values);
+            }
+        }
+    }
+
+    /**
+     * @return the type of the cell, or that of its cached result for the formula cells of
+     *  rows whose formulas were evaluated already
+     */
+    private int getCellType(Row row, Cell cell) {
+        int cellType = cell.getCellType();
+        if (cellType == Cell.CELL_TYPE_FORMULA && _useCachedResults && !((SXSSFRow)row)._formulasPending) {
+            return cell.getCachedFormulaResultType();
+        }
+        return cellType;
+    }
+
+    /**
+     * @throws SXSSFFormulaEvaluator.RowFlushedException if the row was written out already and
+     *  is no longer kept for the formulas evaluated on flush
+     */
+    private void checkNotFlushed(int rowIndex) {
+        if (_xs._writer.getNumberOfFlushedRows() == 0) {
+            return;
+        }
+        int lastUnavailableRow = _useCachedResults ? _xs._lastDroppedRow : _xs._writer.getLastFlushedRow();
+        if (rowIndex <= lastUnavailableRow) {
+            throw new SXSSFFormulaEvaluator.RowFlushedException(_xs.getSheetName(), rowIndex);
+        }
+    }
+
+    /**
+     * Records an area read by a formula evaluated on flush. The rows not flushed yet may
+     * still change, their cells are passed to {@link #collectReadCells(List)} later.
+     */
+    private void recordRead(int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex) {
+        if (!_useCachedResults) {
+            return;
+        }
+        _firstReadRow = Math.min(_firstReadRow, firstRowIndex);
+        int lastFlushedRow = _xs._writer.getLastFlushedRow();
+        if (lastRowIndex > lastFlushedRow) {
+            _readAreas.add(new ReadArea(Math.max(firstRowIndex, lastFlushedRow + 1), firstColumnIndex,
+                    lastRowIndex, lastColumnIndex));
+        }
+    }
+
+    /**
+     * @return whether a row read is no longer kept, the values
+     *  cached for it would never be used again
+     */
+    boolean hasDroppedReadRows() {
+        return _firstReadRow <= _xs._lastDroppedRow;
+    }
+
+    /**
+     * Adds the cells of the rows not flushed yet in the areas read, the cache must be told
+     * about their changes. The areas of rows flushed by now
+     * are forgotten, their cells were collected before they were flushed.
+     */
+    void collectReadCells(List<EvaluationCell> cells) {
+        int lastFlushedRow = _xs._writer.getLastFlushedRow();
+        for (Iterator<ReadArea> it = _readAreas.iterator(); it.hasNext(); ) {
+            ReadArea area = it.next();
+            if (area._lastRowIndex <= lastFlushedRow) {
+                it.remove();
+                continue;
+            }
+            for (Iterator<SXSSFRow> rows = _xs._rows.iterator(area._firstRowIndex, area._lastRowIndex); rows.hasNext(); ) {
+                SXSSFRow row = rows.next();
+                for (Iterator<Cell> rowCells = row.iterator(); rowCells.hasNext(); ) {
+                    Cell cell = rowCells.next();
+                    int columnIndex = cell.getColumnIndex();
+                    if (columnIndex >= area._firstColumnIndex && columnIndex <= area._lastColumnIndex) {
+                        cells.add(new SXSSFEvaluationCell(cell, this, getCellType(row, cell)));
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class ReadArea {
+        final int _firstRowIndex;
+        final int _firstColumnIndex;
+        final int _lastRowIndex;
+        final int _lastColumnIndex;
+
+        ReadArea(int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex) {
+            _firstRowIndex = firstRowIndex;
+            _firstColumnIndex = firstColumnIndex;
+            _lastRowIndex = lastRowIndex;
+            _lastColumnIndex = lastColumnIndex;
+        }
+
+        public int hashCode() {
+            return ((_firstRowIndex * 31 + _firstColumnIndex) * 31 + _lastRowIndex) * 31 + _lastColumnIndex;
+        }
+
+        public boolean equals(Object obj) {
+            ReadArea other = (ReadArea) obj;
+            return _firstRowIndex == other._firstRowIndex && _firstColumnIndex == other._firstColumnIndex
+                    && _lastRowIndex == other._lastRowIndex && _lastColumnIndex == other._lastColumnIndex;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+
+package org.apache.poi.xssf.streaming;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.EvaluationCell;
+import org.apache.poi.ss.formula.EvaluationName;
+import org.apache.poi.ss.formula.EvaluationSheet;
+import org.apache.poi.ss.formula.EvaluationWorkbook;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaParsingWorkbook;
+import org.apache.poi.ss.formula.FormulaRenderingWorkbook;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.ptg.NamePtg;
+import org.apache.poi.ss.formula.ptg.NameXPtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.udf.UDFFinder;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+
+/**
+ * SXSSF wrapper for a workbook under evaluation. Cells are read from the sheets of the
+ * {@link SXSSFWorkbook}, names, user defined functions and sheet names are those of the
+ * underlying {@link org.apache.poi.xssf.usermodel.XSSFWorkbook}.
+ */
+final class SXSSFEvaluationWorkbook implements FormulaRenderingWorkbook, EvaluationWorkbook, FormulaParsingWorkbook {
+
+    private final SXSSFWorkbook _uBook;
+    private final XSSFEvaluationWorkbook _xBook;
+    /**
+     * one wrapper per sheet, the evaluator looks sheets up by identity
+     */
+    private final Map<SXSSFSheet, SXSSFEvaluationSheet> _sheets = new HashMap<SXSSFSheet, SXSSFEvaluationSheet>();
+    private final boolean _useCachedResults;
+
+    /**
+     * @param useCachedResults whether formula cells are read as their cached result unless
+     *  their row has formulas pending evaluation
+     */
+    SXSSFEvaluationWorkbook(SXSSFWorkbook book, boolean useCachedResults) {
+        _uBook = book;
+        _xBook = XSSFEvaluationWorkbook.create(book.getXSSFWorkbook());
+        _useCachedResults = useCachedResults;
+    }
+
+    SXSSFEvaluationSheet getEvaluationSheet(SXSSFSheet sheet) {
+        SXSSFEvaluationSheet result = _sheets.get(sheet);
+        if (result == null) {
+            result = new SXSSFEvaluationSheet(sheet, _uBook.getSheetIndex(sheet), _useCachedResults);
+            _sheets.put(sheet, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the wrappers of the sheets evaluated so far
+     */
+    Collection<SXSSFEvaluationSheet> getEvaluationSheets() {
+        return _sheets.values();
+    }
+
+    /**
+     * @return whether a sheet evaluated so far was removed or moved since, the cached values
+     *  are looked up by sheet index
+     */
+    boolean haveSheetsMoved() {
+        for (SXSSFEvaluationSheet evalSheet : _sheets.values()) {
+            if (_uBook.getSheetIndex(evalSheet.getSXSSFSheet()) != evalSheet.getSheetIndex()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the wrappers of removed sheets
+     */
+    void clearSheets() {
+        _sheets.clear();
+    }
+
+    public int getExternalSheetIndex(String sheetName) {
+        return _xBook.getExternalSheetIndex(sheetName);
+    }
+
+    public int getExternalSheetIndex(String workbookName, String sheetName) {
+        return _xBook.getExternalSheetIndex(workbookName, sheetName);
+    }
+
+    public EvaluationName getName(String name, int sheetIndex) {
+        return _xBook.getName(name, sheetIndex);
+    }
+
+    public EvaluationName getName(NamePtg namePtg) {
+        return _xBook.getName(namePtg);
+    }
+
+    public NameXPtg getNameXPtg(String name) {
+        return _xBook.getNameXPtg(name);
+    }
+
+    public String resolveNameXText(NameXPtg n) {
+        return _xBook.resolveNameXText(n);
+    }
+
+    public String getNameText(NamePtg namePtg) {
+        return _xBook.getNameText(namePtg);
+    }
+
+    public int getSheetIndex(EvaluationSheet evalSheet) {
+        return _uBook.getSheetIndex(((SXSSFEvaluationSheet)evalSheet).getSXSSFSheet());
+    }
+
+    public int getSheetIndex(String sheetName) {
+        return _uBook.getSheetIndex(sheetName);
+    }
+
+    public String getSheetName(int sheetIndex) {
+        return _uBook.getSheetName(sheetIndex);
+    }
+
+    public EvaluationSheet getSheet(int sheetIndex) {
+        return getEvaluationSheet((SXSSFSheet)_uBook.getSheetAt(sheetIndex));
+    }
+
+    public ExternalSheet getExternalSheet(int externSheetIndex) {
+        return _xBook.getExternalSheet(externSheetIndex);
+    }
+
+    public ExternalName getExternalName(int externSheetIndex, int externNameIndex) {
+        return _xBook.getExternalName(externSheetIndex, externNameIndex);
+    }
+
+    public int convertFromExternSheetIndex(int externSheetIndex) {
+        return _xBook.convertFromExternSheetIndex(externSheetIndex);
+    }
+
+    public String getSheetNameByExternSheet(int externSheetIndex) {
+        return _xBook.getSheetNameByExternSheet(externSheetIndex);
+    }
+
+    public Ptg[] getFormulaTokens(EvaluationCell evalCell) {
+        Cell cell = ((SXSSFEvaluationCell)evalCell).getCell();
+        int sheetIndex = _uBook.getSheetIndex(cell.getSheet());
+        return FormulaParser.parse(cell.getCellFormula(), this, FormulaType.CELL, sheetIndex);
+    }
+
+    public UDFFinder getUDFFinder() {
+        return _xBook.getUDFFinder();
+    }
+
+    public SpreadsheetVersion getSpreadsheetVersion() {
+        return SpreadsheetVersion.EXCEL2007;
+    }
+}
@@ -0,0 +1,335 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+
+package org.apache.poi.xssf.streaming;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.poi.ss.formula.EvaluationCell;
+import org.apache.poi.ss.formula.EvaluationProfile;
+import org.apache.poi.ss.formula.IStabilityClassifier;
+import org.apache.poi.ss.formula.WorkbookEvaluator;
+import org.apache.poi.ss.formula.eval.BoolEval;
+import org.apache.poi.ss.formula.eval.ErrorEval;
+import org.apache.poi.ss.formula.eval.NotImplementedException;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.eval.StringEval;
+import org.apache.poi.ss.formula.eval.ValueEval;
+import org.apache.poi.ss.formula.udf.UDFFinder;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.POILogFactory;
+import org.apache.poi.util.POILogger;
+
+/**
+ * Evaluates formula cells of a {@link SXSSFWorkbook}.
+ * <p>
+ * Only the rows in the random access window of a sheet are held in memory, so formulas can
+ * only reference these rows. Evaluating a formula which references a row already flushed
+ * fails with a {@link RowFlushedException}, rows which were not created yet are blank.
+ * </p>
+ * <p>
+ * For performance reasons, this class keeps a cache of all previously calculated intermediate
+ * cell values.  Be sure to call {@link #clearAllCachedResultValues()} if any workbook cells are
+ * changed between calls to evaluate~ methods on this class.
+ * </p>
+ *
+ * @see SXSSFWorkbook#setEvaluateFormulasOnFlush(boolean)
+ */
+public final class SXSSFFormulaEvaluator implements FormulaEvaluator {
+
+    private static POILogger logger = POILogFactory.getLogger(SXSSFFormulaEvaluator.class);
+
+    private final SXSSFWorkbook _book;
+    private final SXSSFEvaluationWorkbook _evalBook;
+    private final WorkbookEvaluator _bookEvaluator;
+
+    public SXSSFFormulaEvaluator(SXSSFWorkbook workbook) {
+        this(workbook, null, null, false);
+    }
+    /**
+     * @param useCachedResults whether the formulas of rows evaluated before are read as
+     *  their cached result, as done before rows are flushed
+     */
+    SXSSFFormulaEvaluator(SXSSFWorkbook workbook, IStabilityClassifier stabilityClassifier, UDFFinder udfFinder,
+            boolean useCachedResults) {
+        _book = workbook;
+        _evalBook = new SXSSFEvaluationWorkbook(workbook, useCachedResults);
+        _bookEvaluator = new WorkbookEvaluator(_evalBook, stabilityClassifier, udfFinder);
+    }
+
+    /**
+     * @param stabilityClassifier used to optimise caching performance. Pass <code>null</code>
+     * for the (conservative) assumption that any cell may have its definition changed after
+     * evaluation begins.
+     * @param udfFinder pass <code>null</code> for default (AnalysisToolPak only)
+     */
+    public static SXSSFFormulaEvaluator create(SXSSFWorkbook workbook, IStabilityClassifier stabilityClassifier, UDFFinder udfFinder) {
+        return new SXSSFFormulaEvaluator(workbook, stabilityClassifier, udfFinder, false);
+    }
+
+    /**
+     * Should be called whenever there are changes to input cells in the evaluated workbook.
+     * Failure to call this method after changing cell values will cause incorrect behaviour
+     * of the evaluate~ methods of this class
+     */
+    public void clearAllCachedResultValues() {
+        _bookEvaluator.clearAllCachedResultValues();
+        _evalBook.clearSheets();
+    }
+    public void notifySetFormula(Cell cell) {
+        _bookEvaluator.notifyUpdateCell(toEvaluationCell(cell));
+    }
+    public void notifyDeleteCell(Cell cell) {
+        _bookEvaluator.notifyDeleteCell(toEvaluationCell(cell));
+    }
+    public void notifyUpdateCell(Cell cell) {
+        _bookEvaluator.notifyUpdateCell(toEvaluationCell(cell));
+    }
+
+    /**
+     * If cell contains a formula, the formula is evaluated and returned,
+     * else the CellValue simply copies the appropriate cell value from
+     * the cell and also its cell type. This method should be preferred over
+     * evaluateInCell() when the call should not modify the contents of the
+     * original cell.
+     *
+     * @throws RowFlushedException if the formula references a row already flushed
+     */
+    public CellValue evaluate(Cell cell) {
+        if (cell == null) {
+            return null;
+        }
+
+        switch (cell.getCellType()) {
+            case Cell.CELL_TYPE_BOOLEAN:
+                return CellValue.valueOf(cell.getBooleanCellValue());
+            case Cell.CELL_TYPE_ERROR:
+                return CellValue.getError(cell.getErrorCellValue());
+            case Cell.CELL_TYPE_FORMULA:
+                return evaluateFormulaCellValue(cell);
+            case Cell.CELL_TYPE_NUMERIC:
+                return new CellValue(cell.getNumericCellValue());
+            case Cell.CELL_TYPE_STRING:
+                return new CellValue(cell.getStringCellValue());
+            case Cell.CELL_TYPE_BLANK:
+                return null;
+        }
+        throw new IllegalStateException("Bad cell type (" + cell.getCellType() + ")");
+    }
+
+    /**
+     * If cell contains formula, it evaluates the formula, and saves the result of the
+     * formula. The cell remains as a formula cell and the result is written out as its
+     * cached value when the row is flushed.
+     *
+     * @return The type of the formula result, -1 if the cell is not a formula cell
+     * @throws RowFlushedException if the formula references a row already flushed
+     */
+    public int evaluateFormulaCell(Cell cell) {
+        if (cell == null || cell.getCellType() != Cell.CELL_TYPE_FORMULA) {
+            return -1;
+        }
+        CellValue cv = evaluateFormulaCellValue(cell);
+        // cell remains a formula cell, but the cached value is changed
+        setCellValue(cell, cv);
+        return cv.getCellType();
+    }
+
+    /**
+     * If cell contains formula, it evaluates the formula, and
+     *  puts the formula result back into the cell, in place
+     *  of the old formula.
+     * Else if cell does not contain formula, this method leaves
+     *  the cell unchanged.
+     *
+     * @throws RowFlushedException if the formula references a row already flushed
+     */
+    public Cell evaluateInCell(Cell cell) {
+        if (cell == null) {
+            return null;
+        }
+        if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) {
+            CellValue cv = evaluateFormulaCellValue(cell);
+            cell.setCellType(cv.getCellType()); // cell will no longer be a formula cell
+            setCellValue(cell, cv);
+        }
+        return cell;
+    }
+
+    /**
+     * Evaluates all formula cells in the random access windows of the sheets and saves their
+     * results.
+     *
+     * @throws RowFlushedException if a formula references a row already flushed
+     */
+    public void evaluateAll() {
+        for (int i = 0; i < _book.getNumberOfSheets(); i++) {
+            for (Row r : _book.getSheetAt(i)) {
+                for (Cell c : r) {
+                    if (c.getCellType() == Cell.CELL_TYPE_FORMULA) {
+                        evaluateFormulaCell(c);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates the pending formulas of the given rows before they are flushed. Formulas which
+     * reference rows no longer kept or use functions that are not implemented are logged and
+     * keep the value they had.
+     * <p>
+     * Formula cells of rows evaluated by an earlier call stand for their cached result, so
+     * that formulas can build on results whose own input is flushed by now. The cache is kept
+     * between calls, the cells read before which may have changed since are updated in it.
+     * </p>
+     */
+    void evaluatePendingFormulas(List<SXSSFRow> rows) {
+        updateCache();
+        for (SXSSFRow row : rows) {
+            if (!row._formulasPending) {
+                // removed since
+                continue;
+            }
+            for (Iterator<Cell> it = row.iterator(); it.hasNext(); ) {
+                Cell cell = it.next();
+                if (cell.getCellType() != Cell.CELL_TYPE_FORMULA) {
+                    continue;
+                }
+                try {
+                    evaluateFormulaCell(cell);
+                } catch (RowFlushedException e) {
+                    logSkippedCell(cell, e);
+                } catch (NotImplementedException e) {
+                    logSkippedCell(cell, e);
+                }
+            }
+            row._formulasPending = false;
+        }
+    }
+
+    /**
+     * Tells the cache about the cells read before which may have changed since. The cache is
+     * cleared instead once it holds rows no longer kept or the sheets were moved.
+     */
+    private void updateCache() {
+        boolean clear = _evalBook.haveSheetsMoved();
+        for (SXSSFEvaluationSheet evalSheet : _evalBook.getEvaluationSheets()) {
+            clear |= evalSheet.hasDroppedReadRows();
+        }
+        if (clear) {
+            _bookEvaluator.clearAllCachedResultValues();
+            _evalBook.clearSheets();
+            return;
+        }
+        List<EvaluationCell> cells = new ArrayList<EvaluationCell>();
+        for (SXSSFEvaluationSheet evalSheet : _evalBook.getEvaluationSheets()) {
+            evalSheet.collectReadCells(cells);
+        }
+        for (EvaluationCell cell : cells) {
+            _bookEvaluator.notifyUpdateCell(cell);
+        }
+    }
+
+    private static void logSkippedCell(Cell cell, RuntimeException e) {
+        String ref = new CellReference(cell.getSheet().getSheetName(), cell.getRowIndex(),
+                cell.getColumnIndex(), false, false).formatAsString();
+        logger.log(POILogger.WARN, "Formula of cell " + ref + " was not evaluated: " + e.getMessage());
+    }
+
+    private SXSSFEvaluationCell toEvaluationCell(Cell cell) {
+        SXSSFSheet sheet = (SXSSFSheet)cell.getSheet();
+        if (sheet.getWorkbook() != _book) {
+            throw new IllegalArgumentException("Cell does not belong to the evaluated workbook");
+        }
+        return new SXSSFEvaluationCell(cell, _evalBook.getEvaluationSheet(sheet));
+    }
+
+    private CellValue evaluateFormulaCellValue(Cell cell) {
+        ValueEval eval = _bookEvaluator.evaluate(toEvaluationCell(cell));
+        if (eval instanceof NumberEval) {
+            NumberEval ne = (NumberEval) eval;
+            return new CellValue(ne.getNumberValue());
+        }
+        if (eval instanceof BoolEval) {
+            BoolEval be = (BoolEval) eval;
+            return CellValue.valueOf(be.getBooleanValue());
+        }
+        if (eval instanceof StringEval) {
+            StringEval ne = (StringEval) eval;
+            return new CellValue(ne.getStringValue());
+        }
+        if (eval instanceof ErrorEval) {
+            return CellValue.getError(((ErrorEval)eval).getErrorCode());
+        }
+        throw new RuntimeException("Unexpected eval class (" + eval.getClass().getName() + ")");
+    }
+
+    private static void setCellValue(Cell cell, CellValue cv) {
+        int cellType = cv.getCellType();
+        switch (cellType) {
+            case Cell.CELL_TYPE_BOOLEAN:
+                cell.setCellValue(cv.getBooleanValue());
+                break;
+            case Cell.CELL_TYPE_ERROR:
+                cell.setCellErrorValue(cv.getErrorValue());
+                break;
+            case Cell.CELL_TYPE_NUMERIC:
+                cell.setCellValue(cv.getNumberValue());
+                break;
+            case Cell.CELL_TYPE_STRING:
+                cell.setCellValue(cv.getStringValue());
+                break;
+            default:
+                throw new IllegalStateException("Unexpected cell value type (" + cellType + ")");
+        }
+    }
+
+    /**
+     * Collects statistics about the following evaluations in the supplied profile: the time
+     * taken by each function and the slowest cells, cache hits and the evaluation depth.
+     *
+     * @param profile <code>null</code> to stop collecting statistics
+     */
+    public void setEvaluationProfile(EvaluationProfile profile) {
+        _bookEvaluator.setEvaluationProfile(profile);
+    }
+
+    /** {@inheritDoc} */
+    public void setDebugEvaluationOutputForNextEval(boolean value) {
+        _bookEvaluator.setDebugEvaluationOutputForNextEval(value);
+    }
+
+    /**
+     * Thrown when a formula references a row which was already flushed, its cells are no
+     * longer available.
+     */
+    public static class RowFlushedException extends IllegalStateException {
+        private static final long serialVersionUID = 4381569023476815204L;
+
+        RowFlushedException(String sheetName, int rowIndex) {
+            super("Row " + (rowIndex + 1) + " of sheet '" + sheetName + "' was already flushed");
+        }
+    }
+}
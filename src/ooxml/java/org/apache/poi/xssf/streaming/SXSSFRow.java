@@ -40,6 +40,10 @@ public class SXSSFRow implements Row
     short _height=-1;
     boolean _zHeight = false;
     int _outlineLevel = 0;   // Outlining level of the row, when outlining is on
+    /**
+     * whether formulas were set that are not evaluated yet, see {@link SXSSFWorkbook#setEvaluateFormulasOnFlush(boolean)}
+     */
+    boolean _formulasPending = false;
 
     public SXSSFRow(SXSSFSheet sheet, int initialSize)
     {
@@ -55,6 +59,18 @@ public class SXSSFRow implements Row
         return _height!=-1;
     }
 
+    /**
+     * Called when a formula is set on a cell of this row, so that it is evaluated before the row is flushed
+     */
+    void onFormulaSet()
+    {
+        if(!_formulasPending&&_sheet._workbook.isEvaluateFormulasOnFlush())
+        {
+            _formulasPending=true;
+            _sheet._formulaRows.add(this);
+        }
+    }
+
     int getOutlineLevel(){
         return _outlineLevel;
     }
@@ -99,6 +115,16 @@ public class SXSSFRow implements Row
     {
         checkBounds(column);
 
+        Cell cell=newCell(column,type);
+        if(column>_maxColumn) _maxColumn=column;
+        return cell;
+    }
+
+    /**
+     * Create the cell at the given column, replacing the existing one
+     */
+    Cell newCell(int column, int type)
+    {
         if(column>=_cells.length)
         {
             SXSSFCell[] newCells=new SXSSFCell[Math.max(column+1,_cells.length*2)];
@@ -106,14 +132,38 @@ public class SXSSFRow implements Row
             _cells=newCells;
         }
         _cells[column]=new SXSSFCell(this,type);
-        if(column>_maxColumn) _maxColumn=column;
         return _cells[column];
     }
 
+    /**
+     * @return whether there is a cell at the given column, which must not be greater than <code>_maxColumn</code>
+     */
+    boolean hasCell(int column)
+    {
+        return _cells[column]!=null;
+    }
+
+    /**
+     * @return the cell at the given column, which must not be greater than <code>_maxColumn</code>,
+     *  or <code>null</code> if there is none
+     */
+    Cell cellAt(int column)
+    {
+        return _cells[column];
+    }
+
+    /**
+     * Remove the cell at the given column, which must not be greater than <code>_maxColumn</code>
+     */
+    void clearCell(int column)
+    {
+        _cells[column]=null;
+    }
+
     /**
      * @throws RuntimeException if the bounds are exceeded.
      */
-    private static void checkBounds(int cellIndex) {
+    static void checkBounds(int cellIndex) {
         SpreadsheetVersion v = SpreadsheetVersion.EXCEL2007;
         int maxcol = SpreadsheetVersion.EXCEL2007.getLastColumnIndex();
         if (cellIndex < 0 || cellIndex > maxcol) {
@@ -133,8 +183,8 @@ public class SXSSFRow implements Row
         int index=getCellIndex(cell);
         if(index>=0)
         {
-            _cells[index]=null;
-            while(_maxColumn>=0&&_cells[_maxColumn]==null) _maxColumn--;
+            clearCell(index);
+            while(_maxColumn>=0&&!hasCell(_maxColumn)) _maxColumn--;
         }
     }
 
@@ -179,7 +229,7 @@ public class SXSSFRow implements Row
     public Cell getCell(int cellnum) {
         if(cellnum < 0) throw new IllegalArgumentException("Cell index must be >= 0");
 
-        Cell cell = cellnum > _maxColumn ? null : _cells[cellnum];
+        Cell cell = cellnum > _maxColumn ? null : cellAt(cellnum);
 
         MissingCellPolicy policy = _sheet.getWorkbook().getMissingCellPolicy();
         if(policy == RETURN_NULL_AND_BLANK) {
@@ -246,7 +296,7 @@ public class SXSSFRow implements Row
     public short getFirstCellNum()
     {
         for(int i=0;i<=_maxColumn;i++)
-            if(_cells[i]!=null) return (short)i;
+            if(hasCell(i)) return (short)i;
         return -1;
     }
 
@@ -285,7 +335,7 @@ public class SXSSFRow implements Row
         int count=0;
         for(int i=0;i<=_maxColumn;i++)
         {
-            if(_cells[i]!=null) count++;
+            if(hasCell(i)) count++;
         }
         return count;
     }
@@ -416,7 +466,7 @@ public class SXSSFRow implements Row
 
         FilledCellIterator(){
             for (int i = 0; i <= _maxColumn; i++) {
-                if (_cells[i] != null) {
+                if (hasCell(i)) {
                     pos = i;
                     break;
                 }
@@ -430,13 +480,13 @@ public class SXSSFRow implements Row
         void advanceToNext()
         {
             pos++;
-            while(pos<=_maxColumn&&_cells[pos]==null) pos++;
+            while(pos<=_maxColumn&&!hasCell(pos)) pos++;
         }
         public Cell next() throws NoSuchElementException
         {
             if (hasNext())
             {
-                Cell retval=_cells[pos];
+                Cell retval=cellAt(pos);
                 advanceToNext();
                 return retval;
             }
@@ -461,7 +511,7 @@ public class SXSSFRow implements Row
         public Cell next() throws NoSuchElementException
         {
             if (hasNext())
-                return _cells[pos++];
+                return cellAt(pos++);
             else
                 throw new NoSuchElementException();
         }
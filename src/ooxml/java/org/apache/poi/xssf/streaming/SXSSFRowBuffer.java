@@ -0,0 +1,256 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.streaming;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The rows of a {@link SXSSFSheet} that are not flushed yet, ordered by row number.
+ * <p>
+ * Row numbers are kept in an <code>int[]</code> parallel to the array of rows, so no
+ * <code>Integer</code> keys or tree nodes are allocated per row. Rows are usually
+ * created in ascending order and flushed from the top, both of which are constant time:
+ * new rows are appended and flushed rows advance the start of the live range.
+ * Other insertions and removals shift the rows after them.
+ * </p>
+ */
+final class SXSSFRowBuffer {
+    private int[] _rowNums;
+    private SXSSFRow[] _rows;
+    /**
+     * the live entries are <code>[_start, _end)</code>
+     */
+    private int _start;
+    private int _end;
+
+    SXSSFRowBuffer() {
+        _rowNums = new int[16];
+        _rows = new SXSSFRow[16];
+    }
+
+    int size() {
+        return _end - _start;
+    }
+
+    /**
+     * @return the row with the given number, <code>null</code> if there is none
+     */
+    SXSSFRow get(int rownum) {
+        int pos = search(rownum);
+        return pos >= 0 ? _rows[pos] : null;
+    }
+
+    /**
+     * Add a row, replacing the row that had the same number
+     */
+    void put(int rownum, SXSSFRow row) {
+        int pos = search(rownum);
+        if (pos >= 0) {
+            _rows[pos] = row;
+            return;
+        }
+        pos = -(pos + 1);
+        if (_end == _rows.length) {
+            pos -= _start;
+            makeRoom();
+            pos += _start;
+        }
+        if (pos < _end) {
+            System.arraycopy(_rowNums, pos, _rowNums, pos + 1, _end - pos);
+            System.arraycopy(_rows, pos, _rows, pos + 1, _end - pos);
+        }
+        _rowNums[pos] = rownum;
+        _rows[pos] = row;
+        _end++;
+    }
+
+    /**
+     * @return the number of the first row, only valid if the buffer is not empty
+     */
+    int firstRowNum() {
+        return _rowNums[_start];
+    }
+
+    /**
+     * @return the number of the last row, only valid if the buffer is not empty
+     */
+    int lastRowNum() {
+        return _rowNums[_end - 1];
+    }
+
+    /**
+     * @return the first row, only valid if the buffer is not empty
+     */
+    SXSSFRow firstRow() {
+        return _rows[_start];
+    }
+
+    /**
+     * Remove the first row
+     */
+    void removeFirst() {
+        _rows[_start++] = null;
+        if (_start == _end) {
+            _start = _end = 0;
+        }
+    }
+
+    /**
+     * Remove the given row, the comparison is by identity
+     *
+     * @return whether the row was found
+     */
+    boolean remove(SXSSFRow row) {
+        int pos = indexOf(row);
+        if (pos < 0) {
+            return false;
+        }
+        removeAt(pos);
+        return true;
+    }
+
+    /**
+     * @return the number of the given row, -1 if it is not in the buffer
+     */
+    int getRowNum(SXSSFRow row) {
+        int pos = indexOf(row);
+        return pos < 0 ? -1 : _rowNums[pos];
+    }
+
+    /**
+     * @return an iterator over all rows in ascending order
+     */
+    Iterator<SXSSFRow> iterator() {
+        return new RowIterator(_start);
+    }
+
+    /**
+     * @return an iterator over the rows numbered <code>fromRow</code> to <code>toRow</code>, both inclusive
+     */
+    Iterator<SXSSFRow> iterator(int fromRow, int toRow) {
+        int pos = search(fromRow);
+        return new RowIterator(pos >= 0 ? pos : -(pos + 1), toRow);
+    }
+
+    private int indexOf(SXSSFRow row) {
+        for (int i = _start; i < _end; i++) {
+            if (_rows[i] == row) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int pos) {
+        if (pos == _start) {
+            removeFirst();
+            return;
+        }
+        System.arraycopy(_rowNums, pos + 1, _rowNums, pos, _end - pos - 1);
+        System.arraycopy(_rows, pos + 1, _rows, pos, _end - pos - 1);
+        _rows[--_end] = null;
+    }
+
+    /**
+     * Binary search over the live range, same contract as {@link java.util.Arrays#binarySearch(int[], int)}
+     */
+    private int search(int rownum) {
+        int low = _start;
+        int high = _end - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midVal = _rowNums[mid];
+            if (midVal < rownum) {
+                low = mid + 1;
+            } else if (midVal > rownum) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Make room for one more entry at the end, moving the live range to the front
+     * if the flushed rows freed enough space, growing the arrays otherwise
+     */
+    private void makeRoom() {
+        int size = size();
+        int[] rowNums = _rowNums;
+        SXSSFRow[] rows = _rows;
+        if (size >= rows.length / 2) {
+            rowNums = new int[rows.length * 2];
+            rows = new SXSSFRow[rows.length * 2];
+        }
+        System.arraycopy(_rowNums, _start, rowNums, 0, size);
+        System.arraycopy(_rows, _start, rows, 0, size);
+        if (rows == _rows) {
+            for (int i = size; i < _end; i++) {
+                rows[i] = null;
+            }
+        }
+        _rowNums = rowNums;
+        _rows = rows;
+        _start = 0;
+        _end = size;
+    }
+
+    private class RowIterator implements Iterator<SXSSFRow> {
+        private final int _toRow;
+        private int _pos;
+        private int _last = -1;
+
+        RowIterator(int pos) {
+            this(pos, Integer.MAX_VALUE);
+        }
+
+        RowIterator(int pos, int toRow) {
+            _pos = pos;
+            _toRow = toRow;
+        }
+
+        public boolean hasNext() {
+            return _pos < _end && _pos >= _start && _rowNums[_pos] <= _toRow;
+        }
+
+        public SXSSFRow next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            _last = _pos;
+            return _rows[_pos++];
+        }
+
+        public void remove() {
+            if (_last < 0) {
+                throw new IllegalStateException();
+            }
+            boolean first = _last == _start;
+            removeAt(_last);
+            // removing the first entry advances the start, removing any other shifts the tail back by one
+            if (first) {
+                _pos = _start;
+            } else {
+                _pos = _last;
+            }
+            _last = -1;
+        }
+    }
+}
@@ -19,9 +19,9 @@ package org.apache.poi.xssf.streaming;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.List;
 
 import org.apache.poi.hssf.util.PaneInformation;
 import org.apache.poi.ss.SpreadsheetVersion;
@@ -55,10 +55,23 @@ public class SXSSFSheet implements Sheet, Cloneable
 {
     SXSSFWorkbook _workbook;
     XSSFSheet _sh;
-    TreeMap<Integer,SXSSFRow> _rows=new TreeMap<Integer,SXSSFRow>();
+    SXSSFRowBuffer _rows=new SXSSFRowBuffer();
     SheetDataWriter _writer;
     int _randomAccessWindowSize = SXSSFWorkbook.DEFAULT_WINDOW_SIZE;
     int outlineLevelRow = 0;
+    /**
+     * rows with formulas to evaluate before they are flushed, see {@link SXSSFWorkbook#setEvaluateFormulasOnFlush(boolean)}
+     */
+    final List<SXSSFRow> _formulaRows = new ArrayList<SXSSFRow>();
+    /**
+     * the last rows flushed, up to the size of the window, kept while formulas are evaluated on
+     * flush so that the formulas of the next rows to flush can still reference them
+     */
+    final SXSSFRowBuffer _flushedRows = new SXSSFRowBuffer();
+    /**
+     * the last row which can no longer be read by the formulas evaluated on flush, -1 if there is none
+     */
+    int _lastDroppedRow = -1;
 
     public SXSSFSheet(SXSSFWorkbook workbook, XSSFSheet xSheet) throws IOException
     {
@@ -76,6 +89,15 @@ public class SXSSFSheet implements Sheet, Cloneable
         return _writer;
     }
 
+    /**
+     * @return the temp storage of this sheet's data, <code>null</code> if the workbook
+     *  has no {@link SheetDataStorageProvider} and the data goes to a temp file
+     * @see SXSSFWorkbook#setSheetDataStorageProvider(SheetDataStorageProvider)
+     */
+    public SheetDataStorage getSheetDataStorage(){
+        return _writer.getSheetDataStorage();
+    }
+
 /* Gets "<sheetData>" document fragment*/
     public InputStream getWorksheetXMLInputStream() throws IOException 
     {
@@ -132,8 +154,10 @@ public class SXSSFSheet implements Sheet, Cloneable
 //default to 10 on the first row.
         if(initialAllocationSize<=0)
             initialAllocationSize=10;
-        SXSSFRow newRow=new SXSSFRow(this,initialAllocationSize);
-        _rows.put(new Integer(rownum),newRow);
+        SXSSFRow newRow=_workbook.isCompactCellStorage()
+                ? new SXSSFCompactRow(this,initialAllocationSize)
+                : new SXSSFRow(this,initialAllocationSize);
+        _rows.put(rownum,newRow);
         if(_randomAccessWindowSize>=0&&_rows.size()>_randomAccessWindowSize)
         {
             try
@@ -159,14 +183,10 @@ public class SXSSFSheet implements Sheet, Cloneable
             throw new IllegalArgumentException("Specified row does not belong to this sheet");
         }
 
-        for(Iterator<Map.Entry<Integer,SXSSFRow>> iter=_rows.entrySet().iterator();iter.hasNext();)
+        if(row instanceof SXSSFRow)
         {
-            Map.Entry<Integer,SXSSFRow> entry=iter.next();
-            if(entry.getValue()==row)
-            {
-                iter.remove();
-                return;
-            }
+            _rows.remove((SXSSFRow)row);
+            ((SXSSFRow)row)._formulasPending = false;
         }
     }
 
@@ -179,7 +199,7 @@ public class SXSSFSheet implements Sheet, Cloneable
      */
     public Row getRow(int rownum)
     {
-        return _rows.get(new Integer(rownum));
+        return _rows.get(rownum);
     }
 
     /**
@@ -201,7 +221,7 @@ public class SXSSFSheet implements Sheet, Cloneable
     {
         if(_writer.getNumberOfFlushedRows() > 0)
             return _writer.getLowestIndexOfFlushedRows();
-        return _rows.size() == 0 ? 0 : _rows.firstKey();
+        return _rows.size() == 0 ? 0 : _rows.firstRowNum();
     }
 
     /**
@@ -211,7 +231,7 @@ public class SXSSFSheet implements Sheet, Cloneable
      */
     public int getLastRowNum()
     {
-        return _rows.size() == 0 ? 0 : _rows.lastKey();
+        return _rows.size() == 0 ? 0 : _rows.lastRowNum();
     }
 
     /**
@@ -432,7 +452,7 @@ public class SXSSFSheet implements Sheet, Cloneable
     public Iterator<Row> rowIterator()
     {
         @SuppressWarnings("unchecked")
-        Iterator<Row> result = (Iterator<Row>)(Iterator<? extends Row>)_rows.values().iterator();
+        Iterator<Row> result = (Iterator<Row>)(Iterator<? extends Row>)_rows.iterator();
         return result;
     }
 
@@ -1096,7 +1116,8 @@ public class SXSSFSheet implements Sheet, Cloneable
      */
     public void groupRow(int fromRow, int toRow)
     {
-        for(SXSSFRow row : _rows.subMap(fromRow, toRow + 1).values()){
+        for(Iterator<SXSSFRow> it = _rows.iterator(fromRow, toRow); it.hasNext(); ){
+            SXSSFRow row = it.next();
             int level = row.getOutlineLevel() + 1;
             row.setOutlineLevel(level);
 
@@ -1338,9 +1359,37 @@ public class SXSSFSheet implements Sheet, Cloneable
      */
     public void flushRows(int remaining) throws IOException
     {
+        if(_rows.size() > remaining && _workbook.isEvaluateFormulasOnFlush())
+            evaluatePendingFormulas(_rows.size() - remaining);
         while(_rows.size() > remaining) flushOneRow();
     }
 
+    /**
+     * Evaluate the pending formulas of the given number of rows, the next ones to flush
+     */
+    private void evaluatePendingFormulas(int count)
+    {
+        List<SXSSFRow> rows = new ArrayList<SXSSFRow>();
+        if(!_formulaRows.isEmpty())
+        {
+            Iterator<SXSSFRow> it = _rows.iterator();
+            for(int i = 0; i < count; i++)
+            {
+                SXSSFRow row = it.next();
+                if(row._formulasPending) rows.add(row);
+            }
+        }
+        // called without rows too, the cells read before may have changed since
+        _workbook.evaluatePendingFormulas(rows);
+        if(!rows.isEmpty())
+        {
+            for(Iterator<SXSSFRow> it = _formulaRows.iterator(); it.hasNext(); )
+            {
+                if(!it.next()._formulasPending) it.remove();
+            }
+        }
+    }
+
     /**
      * Flush all rows to disk. After this call no rows can be accessed via getRow()
      *
@@ -1353,30 +1402,37 @@ public class SXSSFSheet implements Sheet, Cloneable
 
     private void flushOneRow() throws IOException
     {
-        Integer firstRowNum = _rows.firstKey();
-        if (firstRowNum!=null) {
-            int rowIndex = firstRowNum.intValue();
-            SXSSFRow row = _rows.get(firstRowNum);
+        if (_rows.size() > 0) {
+            int rowIndex = _rows.firstRowNum();
+            SXSSFRow row = _rows.firstRow();
             _writer.writeRow(rowIndex, row);
-            _rows.remove(firstRowNum);
+            _rows.removeFirst();
+            if(_workbook.isEvaluateFormulasOnFlush() && _randomAccessWindowSize > 0)
+            {
+                _flushedRows.put(rowIndex, row);
+                if(_flushedRows.size() > _randomAccessWindowSize)
+                {
+                    _lastDroppedRow = _flushedRows.firstRowNum();
+                    _flushedRows.removeFirst();
+                }
+            }
+            else
+            {
+                _lastDroppedRow = rowIndex;
+            }
         }
     }
     public void changeRowNum(SXSSFRow row, int newRowNum)
     {
         
         removeRow(row);
-        _rows.put(new Integer(newRowNum),row);
+        _rows.put(newRowNum,row);
     }
 
     public int getRowNum(SXSSFRow row)
     {
-        for(Iterator<Map.Entry<Integer,SXSSFRow>> iter=_rows.entrySet().iterator();iter.hasNext();)
-        {
-            Map.Entry<Integer,SXSSFRow> entry=iter.next();
-            if(entry.getValue()==row)
-                return entry.getKey().intValue();
-        }
-        return -1;
+        int rowNum = _rows.getRowNum(row);
+        return rowNum >= 0 ? rowNum : _flushedRows.getRowNum(row);
     }
 
     /**
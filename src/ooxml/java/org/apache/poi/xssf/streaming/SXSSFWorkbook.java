@@ -36,10 +36,16 @@ import java.io.OutputStreamWriter;
 import java.io.FileOutputStream;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 import java.util.zip.ZipEntry;
 
+import org.apache.poi.openxml4j.util.DeflatedZipEntry;
+import org.apache.poi.openxml4j.util.DeflatedZipOutputStream;
+import org.apache.poi.openxml4j.util.ZipEntryTasks;
 import org.apache.poi.ss.formula.udf.UDFFinder;
 import org.apache.poi.ss.usermodel.Row.MissingCellPolicy;
 import org.apache.poi.ss.util.CellRangeAddress;
@@ -72,6 +78,31 @@ public class SXSSFWorkbook implements Workbook
      */
     private boolean _compressTmpFiles = false;
 
+    /**
+     * shared strings table string cells are written to, <code>null</code> if strings are written inline
+     */
+    final SpillingSharedStringsTable _sharedStringSource;
+
+    /**
+     * creates the temp storage of new sheets, <code>null</code> to use temp files
+     */
+    private SheetDataStorageProvider _storageProvider;
+
+    /**
+     * whether new rows keep their cells in primitive arrays, see {@link #setCompactCellStorage(boolean)}
+     */
+    private boolean _compactCellStorage = false;
+
+    /**
+     * whether formulas are evaluated before their rows are flushed, see {@link #setEvaluateFormulasOnFlush(boolean)}
+     */
+    private boolean _evaluateFormulasOnFlush = false;
+
+    /**
+     * evaluates the formulas of rows about to be flushed, created once the option is first set
+     */
+    private SXSSFFormulaEvaluator _flushFormulaEvaluator;
+
     /**
      * Construct a new workbook
      */
@@ -165,6 +196,39 @@ public class SXSSFWorkbook implements Workbook
      * @param compressTmpFiles whether to use gzip compression for temporary files
      */
     public SXSSFWorkbook(XSSFWorkbook workbook, int rowAccessWindowSize, boolean compressTmpFiles){
+    	this(workbook,rowAccessWindowSize, compressTmpFiles, false);
+    }
+
+    /**
+     * Constructs an workbook from an existing workbook.
+     * <p>
+     * When a new node is created via createRow() and the total number
+     * of unflushed records would exceed the specified value, then the
+     * row with the lowest index value is flushed and cannot be accessed
+     * via getRow() anymore.
+     * </p>
+     * <p>
+     * A value of -1 indicates unlimited access. In this case all
+     * records that have not been flushed by a call to flush() are available
+     * for random access.
+     * <p>
+     * <p></p>
+     * A value of 0 is not allowed because it would flush any newly created row
+     * without having a chance to specify any cells.
+     * </p>
+     * <p>
+     * By default string cells are written as inline strings. With <code>useSharedStringsTable</code>
+     * set, strings are deduplicated through the workbook's shared strings table and written as
+     * references to it, which gives much smaller files when values repeat. Only the first
+     * {@link SpillingSharedStringsTable#DEFAULT_IN_MEMORY_LIMIT} unique strings are kept in memory,
+     * see {@link #setSharedStringsInMemoryLimit(int)}.
+     * </p>
+     *
+     * @param rowAccessWindowSize
+     * @param compressTmpFiles whether to use gzip compression for temporary files
+     * @param useSharedStringsTable whether to write string cells through the shared strings table
+     */
+    public SXSSFWorkbook(XSSFWorkbook workbook, int rowAccessWindowSize, boolean compressTmpFiles, boolean useSharedStringsTable){
     	setRandomAccessWindowSize(rowAccessWindowSize);
     	setCompressTempFiles(compressTmpFiles);
     	if (workbook == null)
@@ -174,6 +238,11 @@ public class SXSSFWorkbook implements Workbook
     	else
     	{
     		_wb=workbook;
+    	}
+    	_sharedStringSource = useSharedStringsTable ?
+    	        new SpillingSharedStringsTable(_wb.getSharedStringSource(), SpillingSharedStringsTable.DEFAULT_IN_MEMORY_LIMIT) : null;
+    	if (workbook != null)
+    	{
             for ( int i = 0; i < _wb.getNumberOfSheets(); i++ )
             {
                 XSSFSheet sheet = _wb.getSheetAt( i );
@@ -234,11 +303,129 @@ public class SXSSFWorkbook implements Workbook
         _compressTmpFiles = compress;
     }
 
+    /**
+     * Set how many unique strings are held in memory when string cells are written through
+     * the shared strings table. Strings beyond this limit are spilled to a temp file and merged
+     * into the shared strings part on {@link #write(OutputStream)}.
+     * <p>
+     *     Has no effect unless the workbook was constructed with <code>useSharedStringsTable</code> set.
+     * </p>
+     * @param limit maximum number of unique strings kept in memory
+     */
+    public void setSharedStringsInMemoryLimit(int limit){
+        if(_sharedStringSource != null) {
+            _sharedStringSource.setInMemoryLimit(limit);
+        }
+    }
+
+    /**
+     * Set where the sheet data of new sheets is buffered until the workbook is written.
+     * <p>
+     *   By default every sheet writes its data to a plain temp file, or a gzipped one if
+     *   {@link #setCompressTempFiles(boolean)} is set. A provider replaces both, for example with
+     *   {@link OffHeapSheetDataStorage.Provider off-heap memory},
+     *   a {@link MappedFileSheetDataStorage.Provider memory-mapped file} or
+     *   a {@link CompressedFileSheetDataStorage.Provider fast compressed file}.
+     *   The storage of a sheet reports how much data it received and how much went to disk,
+     *   see {@link SXSSFSheet#getSheetDataStorage()}.
+     * </p>
+     * <p>
+     *   Only sheets created after this call are affected.
+     * </p>
+     * @param provider the storage provider, <code>null</code> to go back to temp files
+     */
+    public void setSheetDataStorageProvider(SheetDataStorageProvider provider){
+        _storageProvider = provider;
+    }
+
+    /**
+     * Set whether rows keep their cells in compact, primitive-array storage.
+     * <p>
+     *   By default every cell of a row in the random access window is an {@link SXSSFCell}
+     *   object holding a value object and a style reference. With compact storage a row keeps
+     *   the type of its cells in a <code>byte[]</code>, their numeric values in a <code>double[]</code>
+     *   and their style indexes in a <code>short[]</code>, only strings and formulas are kept as
+     *   objects. This cuts the memory used by large random access windows several times.
+     * </p>
+     * <p>
+     *   Cells of compact rows are still available through the {@link org.apache.poi.ss.usermodel.Row} and {@link org.apache.poi.ss.usermodel.Cell}
+     *   interfaces,
+     *   but as lightweight views: a new object is returned on every call to
+     *   {@link org.apache.poi.ss.usermodel.Row#getCell(int)}
+     *   and they can't be cast to {@link SXSSFCell}. Two views of the same cell are equal.
+     * </p>
+     * <p>
+     *   Only rows created after this call are affected.
+     * </p>
+     * @param compact whether new rows use compact cell storage
+     */
+    public void setCompactCellStorage(boolean compact){
+        _compactCellStorage = compact;
+    }
+
+    /**
+     * @return whether new rows use compact cell storage
+     * @see #setCompactCellStorage(boolean)
+     */
+    public boolean isCompactCellStorage(){
+        return _compactCellStorage;
+    }
+
+    /**
+     * Set whether formulas are evaluated before their rows are flushed, so that their results are
+     * written out as cached values and can be read without recalculating the workbook.
+     * <p>
+     *   Whenever a sheet flushes rows, the formulas set in the rows being flushed are evaluated
+     *   first. A formula can therefore reference the rows still in the random access window,
+     *   including the rows below it, and other sheets are read in the same way. Rows which were
+     *   not created yet are blank. The rows flushed last, as many as fit in the window, are kept
+     *   for these formulas as well, and formula cells evaluated by an earlier flush count as their
+     *   result, so running totals work however far back their input was flushed. The remaining
+     *   formulas of all sheets are evaluated when the workbook is written.
+     * </p>
+     * <p>
+     *   Formulas referencing a row which is no longer kept, or using a function which is not
+     *   implemented, are logged and written with the cached value they had, see
+     *   {@link SXSSFFormulaEvaluator.RowFlushedException}. A larger random access window keeps
+     *   more rows available to the formulas.
+     * </p>
+     * <p>
+     *   Only formulas set while this option is on are evaluated.
+     * </p>
+     * @param evaluate whether formulas are evaluated before their rows are flushed
+     * @see SXSSFFormulaEvaluator
+     */
+    public void setEvaluateFormulasOnFlush(boolean evaluate){
+        _evaluateFormulasOnFlush = evaluate;
+        if(evaluate && _flushFormulaEvaluator == null) {
+            _flushFormulaEvaluator = new SXSSFFormulaEvaluator(this, null, null, true);
+        }
+    }
+
+    /**
+     * @return whether formulas are evaluated before their rows are flushed
+     * @see #setEvaluateFormulasOnFlush(boolean)
+     */
+    public boolean isEvaluateFormulasOnFlush(){
+        return _evaluateFormulasOnFlush;
+    }
+
+    /**
+     * Evaluate the pending formulas of the given rows before they are flushed
+     */
+    void evaluatePendingFormulas(List<SXSSFRow> rows){
+        if(_flushFormulaEvaluator != null) {
+            _flushFormulaEvaluator.evaluatePendingFormulas(rows);
+        }
+    }
+
     SheetDataWriter createSheetDataWriter() throws IOException {
-        if(_compressTmpFiles) {
-            return new GZIPSheetDataWriter();
+        if(_storageProvider != null) {
+            return new SheetDataWriter(_sharedStringSource, _storageProvider.createStorage());
+        } else if(_compressTmpFiles) {
+            return new GZIPSheetDataWriter(_sharedStringSource);
         } else {
-            return new SheetDataWriter();
+            return new SheetDataWriter(_sharedStringSource);
         }
     }
 
@@ -273,6 +460,10 @@ public class SXSSFWorkbook implements Workbook
         }
         return null;
     }
+    private boolean isSharedStringsEntry(String entryName)
+    {
+        return entryName.equals(_wb.getSharedStringSource().getPackagePart().getPartName().getName().substring(1));
+    }
     private void injectData(File zipfile, OutputStream out) throws IOException 
     {
         ZipFile zip = new ZipFile(zipfile);
@@ -289,7 +480,11 @@ public class SXSSFWorkbook implements Workbook
                     zos.putNextEntry(new ZipEntry(ze.getName()));
                     InputStream is = zip.getInputStream(ze);
                     XSSFSheet xSheet=getSheetFromZipEntryName(ze.getName());
-                    if(xSheet!=null)
+                    if(_sharedStringSource!=null && isSharedStringsEntry(ze.getName()))
+                    {
+                        _sharedStringSource.writeSharedStringsPart(is, zos);
+                    }
+                    else if(xSheet!=null)
                     {
                         SXSSFSheet sxSheet=getSXSSFSheet(xSheet);
                         InputStream xis = sxSheet.getWorksheetXMLInputStream();
@@ -319,6 +514,104 @@ public class SXSSFWorkbook implements Workbook
             zip.close();
         }
     }
+    /**
+     * Same as {@link #injectData(File, OutputStream)} but every zip entry is built and deflated
+     * by a task on <code>executor</code>. The pre-deflated entries are then copied to the archive
+     * in their original order on the calling thread.
+     */
+    private void injectDataConcurrently(File zipfile, OutputStream out, ExecutorService executor) throws IOException
+    {
+        final ZipFile zip = new ZipFile(zipfile);
+        ZipEntryTasks<DeflatedZipEntry> tasks = new ZipEntryTasks<DeflatedZipEntry>(executor) {
+            protected void dispose(DeflatedZipEntry entry) {
+                entry.dispose();
+            }
+        };
+        try
+        {
+            @SuppressWarnings("unchecked")
+            Enumeration<ZipEntry> en = (Enumeration<ZipEntry>) zip.entries();
+            while (en.hasMoreElements())
+            {
+                final ZipEntry ze = en.nextElement();
+                tasks.submit(new Callable<DeflatedZipEntry>() {
+                    public DeflatedZipEntry call() throws IOException {
+                        return deflateEntry(zip, ze);
+                    }
+                });
+            }
+
+            DeflatedZipOutputStream zos = new DeflatedZipOutputStream(out);
+            while (tasks.hasNext())
+            {
+                DeflatedZipEntry entry = tasks.next();
+                try
+                {
+                    zos.putEntry(entry);
+                }
+                finally
+                {
+                    entry.dispose();
+                }
+            }
+            zos.close();
+        }
+        finally
+        {
+            // on failure, stop and clean up the entries that were not written
+            tasks.cancel();
+            zip.close();
+        }
+    }
+    private DeflatedZipEntry deflateEntry(ZipFile zip, ZipEntry ze) throws IOException
+    {
+        DeflatedZipEntry entry = new DeflatedZipEntry(ze.getName(), Deflater.DEFAULT_COMPRESSION);
+        OutputStream os = entry.getOutputStream();
+        try
+        {
+            InputStream is = zip.getInputStream(ze);
+            try
+            {
+                XSSFSheet xSheet=getSheetFromZipEntryName(ze.getName());
+                if(_sharedStringSource!=null && isSharedStringsEntry(ze.getName()))
+                {
+                    _sharedStringSource.writeSharedStringsPart(is, os);
+                }
+                else if(xSheet!=null)
+                {
+                    InputStream xis = getSXSSFSheet(xSheet).getWorksheetXMLInputStream();
+                    try
+                    {
+                        copyStreamAndInjectWorksheet(is,os,xis);
+                    }
+                    finally
+                    {
+                        xis.close();
+                    }
+                }
+                else
+                {
+                    copyStream(is, os);
+                }
+            }
+            finally
+            {
+                is.close();
+            }
+            os.close();
+            return entry;
+        }
+        catch (IOException e)
+        {
+            entry.dispose();
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            entry.dispose();
+            throw e;
+        }
+    }
     private static void copyStream(InputStream in, OutputStream out) throws IOException {
         byte[] chunk = new byte[1024];
         int count;
@@ -753,6 +1046,38 @@ public class SXSSFWorkbook implements Workbook
      */
     public void write(OutputStream stream) throws IOException
     {
+        write(stream, null);
+    }
+
+    /**
+     * Write out this workbook to an Outputstream, building and compressing the zip entries
+     * of the sheets concurrently.
+     * <p>
+     * Each sheet's data is merged with its template and deflated by a separate task on
+     * <code>executor</code>; the compressed entries are then written to <code>stream</code>
+     * in order on the calling thread. For workbooks with many large sheets the time spent
+     * in compression scales with the number of threads of the executor. Compressed entries
+     * larger than 1MB are buffered in temp files until they are written.
+     * </p>
+     * <p>
+     * The executor is not shut down. Sheets must not be modified while the workbook is written.
+     * </p>
+     *
+     * @param stream - the java OutputStream you wish to write to
+     * @param executor - the executor that compresses the zip entries, <code>null</code>
+     *  to write the workbook sequentially on the calling thread
+     * @exception IOException if anything can't be written.
+     */
+    public void write(OutputStream stream, ExecutorService executor) throws IOException
+    {
+        // evaluate all sheets before any of them is flushed, formulas may reference other sheets
+        List<SXSSFRow> formulaRows = new ArrayList<SXSSFRow>();
+        for (SXSSFSheet sheet : _xFromSxHash.values())
+        {
+            formulaRows.addAll(sheet._formulaRows);
+            sheet._formulaRows.clear();
+        }
+        evaluatePendingFormulas(formulaRows);
     	for (SXSSFSheet sheet : _xFromSxHash.values())
     	{
     		sheet.flushRows();
@@ -773,7 +1098,14 @@ public class SXSSFWorkbook implements Workbook
             }
 
             //Substitute the template entries with the generated sheet data files
-            injectData(tmplFile, stream);
+            if (executor == null)
+            {
+                injectData(tmplFile, stream);
+            }
+            else
+            {
+                injectDataConcurrently(tmplFile, stream, executor);
+            }
         }
         finally
         {
@@ -793,6 +1125,10 @@ public class SXSSFWorkbook implements Workbook
         {
             success = sheet.dispose() && success;
         }
+        if (_sharedStringSource != null)
+        {
+            success = _sharedStringSource.dispose() && success;
+        }
         return success;
     }
 
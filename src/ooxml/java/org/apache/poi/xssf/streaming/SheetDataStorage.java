@@ -0,0 +1,63 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Temporary storage for the "sheetData" fragment of one SXSSF sheet.
+ * <p>
+ * {@link SheetDataWriter} writes the sheet data to {@link #getOutputStream()} while rows are
+ * flushed, closes that stream, and reads the data back through {@link #getInputStream()} when
+ * the workbook is written. Implementations decide where the bytes live: on the heap, off-heap,
+ * in a memory-mapped or compressed temp file.
+ * </p>
+ *
+ * @see SXSSFWorkbook#setSheetDataStorageProvider(SheetDataStorageProvider)
+ */
+public interface SheetDataStorage {
+    /**
+     * @return the stream the sheet data is written to. Called once.
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * @return a stream to read back the sheet data, called after the output stream was closed
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * @return the number of bytes of sheet data written so far
+     */
+    long getBytesWritten();
+
+    /**
+     * @return the number of bytes this storage has put on disk so far, which can be less than
+     *  {@link #getBytesWritten()} if data is kept in memory or compressed
+     */
+    long getBytesSpilled();
+
+    /**
+     * Release the memory and delete the files held by this storage.
+     *
+     * @return true if all resources were released
+     */
+    boolean dispose();
+}
@@ -22,11 +22,7 @@ package org.apache.poi.xssf.streaming;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.FormulaError;
-import org.apache.poi.ss.util.CellReference;
-import org.apache.xmlbeans.XmlCursor;
-import org.openxmlformats.schemas.spreadsheetml.x2006.main.STXstring;
 
-import javax.xml.namespace.QName;
 import java.io.*;
 import java.util.Iterator;
 
@@ -35,11 +31,50 @@ import java.util.Iterator;
  * Unlike the original code which wrote the entire document,
  * this class only writes the "sheetData" document fragment
  * so that it was renamed to "SheetDataWriter"
+ * <p>
+ * Row and cell markup is formatted into reusable character buffers: cell references,
+ * row numbers, style indexes and most numeric values are written without creating
+ * intermediate <code>String</code> or <code>CellReference</code> objects.
+ * </p>
  */
 public class SheetDataWriter {
+    /**
+     * Powers of ten that are exactly representable as a double,
+     * used to find the shortest fixed-point form of a numeric cell value
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+    /**
+     * Largest magnitude of a double that can be written as a fixed-point number.
+     * Larger values are written using {@link Double#toString(double)}
+     */
+    private static final double MAX_FIXED_POINT = 1e15;
+    /**
+     * Smallest magnitude of a double that can be written as a fixed-point number.
+     * Smaller non-zero values are written using {@link Double#toString(double)}
+     */
+    private static final double MIN_FIXED_POINT = 1e-5;
+
     private final File _fd;
     private final Writer _out;
     private int _rownum;
+    /**
+     * Table to deduplicate string cells through, <code>null</code> to write inline strings
+     */
+    private final SpillingSharedStringsTable _sharedStringSource;
+    /**
+     * Storage the sheet data is written to, <code>null</code> if it goes to {@link #getTempFile()}
+     */
+    private final SheetDataStorage _storage;
+    /**
+     * scratch buffer for numbers and cell references, large enough for any long and a fraction
+     */
+    private final char[] _numberBuffer = new char[48];
+    /**
+     * reusable copy of the characters of the string being escaped, grown on demand
+     */
+    private char[] _stringBuffer = new char[256];
     private boolean _rowContainedNullCells = false;
     int _numberOfFlushedRows;
     int _lowestIndexOfFlushedRows; // meaningful only of _numberOfFlushedRows>0
@@ -47,8 +82,33 @@ public class SheetDataWriter {
     int _numberLastFlushedRow = -1; // meaningful only of _numberOfFlushedRows>0
 
     public SheetDataWriter() throws IOException {
+        this(null);
+    }
+
+    /**
+     * @param sharedStringSource the table to write string cells to as <code>t="s"</code> references,
+     *  or <code>null</code> to write them as inline strings
+     */
+    public SheetDataWriter(SpillingSharedStringsTable sharedStringSource) throws IOException {
         _fd = createTempFile();
         _out = createWriter(_fd);
+        _sharedStringSource = sharedStringSource;
+        _storage = null;
+    }
+
+    /**
+     * Write the sheet data to a {@link SheetDataStorage} instead of a temp file.
+     * {@link #createTempFile()} and {@link #createWriter(File)} are not called.
+     *
+     * @param sharedStringSource the table to write string cells to as <code>t="s"</code> references,
+     *  or <code>null</code> to write them as inline strings
+     * @param storage the storage to write the sheet data to
+     */
+    public SheetDataWriter(SpillingSharedStringsTable sharedStringSource, SheetDataStorage storage) throws IOException {
+        _fd = null;
+        _out = new BufferedWriter(new OutputStreamWriter(storage.getOutputStream(), "UTF-8"));
+        _sharedStringSource = sharedStringSource;
+        _storage = storage;
     }
 
     /**
@@ -82,14 +142,27 @@ public class SheetDataWriter {
         _out.close();
     }
 
+    /**
+     * @return the temp file with the sheet data, <code>null</code> if the data is written to a {@link SheetDataStorage}
+     */
     File getTempFile(){
         return _fd;
     }
+
+    /**
+     * @return the storage the sheet data is written to, <code>null</code> if it is written to a temp file
+     */
+    public SheetDataStorage getSheetDataStorage() {
+        return _storage;
+    }
     
     /**
      * @return a stream to read temp file with the sheet data
      */
     public InputStream getWorksheetXMLInputStream() throws IOException {
+        if (_storage != null) {
+            return _storage.getInputStream();
+        }
         File fd = getTempFile();
         return new FileInputStream(fd);
     }
@@ -111,7 +184,11 @@ public class SheetDataWriter {
     }
 
     protected void finalize() throws Throwable {
-        _fd.delete();
+        if (_storage != null) {
+            _storage.dispose();
+        } else {
+            _fd.delete();
+        }
     }
 
     /**
@@ -127,26 +204,49 @@ public class SheetDataWriter {
         _numberOfCellsOfLastFlushedRow = row.getLastCellNum();
         _numberOfFlushedRows++;
         beginRow(rownum, row);
-        Iterator<Cell> cells = row.allCellsIterator();
-        int columnIndex = 0;
-        while (cells.hasNext()) {
-            writeCell(columnIndex++, cells.next());
+        if (row instanceof SXSSFCompactRow) {
+            // move a single view along the row instead of creating one per cell
+            SXSSFCompactRow compactRow = (SXSSFCompactRow)row;
+            SXSSFCompactCell cell = new SXSSFCompactCell(compactRow, 0);
+            for (int columnIndex = 0; columnIndex <= compactRow._maxColumn; columnIndex++) {
+                if (compactRow.hasCell(columnIndex)) {
+                    cell._column = columnIndex;
+                    writeCell(columnIndex, cell);
+                } else {
+                    writeCell(columnIndex, null);
+                }
+            }
+        } else {
+            Iterator<Cell> cells = row.allCellsIterator();
+            int columnIndex = 0;
+            while (cells.hasNext()) {
+                writeCell(columnIndex++, cells.next());
+            }
         }
         endRow();
     }
 
     void beginRow(int rownum, SXSSFRow row) throws IOException {
-        _out.write("<row r=\"" + (rownum + 1) + "\"");
-        if (row.hasCustomHeight())
-            _out.write(" customHeight=\"true\"  ht=\"" + row.getHeightInPoints() + "\"");
+        _out.write("<row r=\"");
+        writeInt(rownum + 1);
+        _out.write('"');
+        if (row.hasCustomHeight()) {
+            _out.write(" customHeight=\"true\"  ht=\"");
+            _out.write(Float.toString(row.getHeightInPoints()));
+            _out.write('"');
+        }
         if (row.getZeroHeight())
             _out.write(" hidden=\"true\"");
         if (row.isFormatted()) {
-            _out.write(" s=\"" + row._style + "\"");
+            _out.write(" s=\"");
+            writeInt(row._style);
+            _out.write('"');
             _out.write(" customFormat=\"1\"");
         }
         if (row.getOutlineLevel() != 0) {
-            _out.write(" outlineLevel=\"" + row.getOutlineLevel() + "\"");
+            _out.write(" outlineLevel=\"");
+            writeInt(row.getOutlineLevel());
+            _out.write('"');
         }
         _out.write(">\n");
         this._rownum = rownum;
@@ -162,10 +262,15 @@ public class SheetDataWriter {
             _rowContainedNullCells = true;
             return;
         }
-        String ref = new CellReference(_rownum, columnIndex).formatAsString();
-        _out.write("<c r=\"" + ref + "\"");
-        CellStyle cellStyle = cell.getCellStyle();
-        if (cellStyle.getIndex() != 0) _out.write(" s=\"" + cellStyle.getIndex() + "\"");
+        _out.write("<c r=\"");
+        writeCellReference(columnIndex, _rownum);
+        _out.write('"');
+        int styleIndex = getCellStyleIndex(cell);
+        if (styleIndex != 0) {
+            _out.write(" s=\"");
+            writeInt(styleIndex);
+            _out.write('"');
+        }
         int cellType = cell.getCellType();
         switch (cellType) {
             case Cell.CELL_TYPE_BLANK: {
@@ -173,21 +278,61 @@ public class SheetDataWriter {
                 break;
             }
             case Cell.CELL_TYPE_FORMULA: {
-                _out.write(">");
+                int resultType = cell.getCachedFormulaResultType();
+                switch (resultType) {
+                    case Cell.CELL_TYPE_STRING:
+                        _out.write(" t=\"str\">");
+                        break;
+                    case Cell.CELL_TYPE_BOOLEAN:
+                        _out.write(" t=\"b\">");
+                        break;
+                    case Cell.CELL_TYPE_ERROR:
+                        _out.write(" t=\"e\">");
+                        break;
+                    default:
+                        _out.write(">");
+                        break;
+                }
                 _out.write("<f>");
                 outputQuotedString(cell.getCellFormula());
                 _out.write("</f>");
-                switch (cell.getCachedFormulaResultType()) {
+                switch (resultType) {
                     case Cell.CELL_TYPE_NUMERIC:
                         double nval = cell.getNumericCellValue();
                         if (!Double.isNaN(nval)) {
-                            _out.write("<v>" + nval + "</v>");
+                            _out.write("<v>");
+                            writeDouble(nval);
+                            _out.write("</v>");
                         }
                         break;
+                    case Cell.CELL_TYPE_STRING:
+                        String sval = cell.getStringCellValue();
+                        if (sval != null) {
+                            _out.write("<v>");
+                            outputQuotedString(sval);
+                            _out.write("</v>");
+                        }
+                        break;
+                    case Cell.CELL_TYPE_BOOLEAN:
+                        _out.write(cell.getBooleanCellValue() ? "<v>1</v>" : "<v>0</v>");
+                        break;
+                    case Cell.CELL_TYPE_ERROR:
+                        FormulaError error = FormulaError.forInt(cell.getErrorCellValue());
+                        _out.write("<v>");
+                        _out.write(error.getString());
+                        _out.write("</v>");
+                        break;
                 }
                 break;
             }
             case Cell.CELL_TYPE_STRING: {
+                if (_sharedStringSource != null) {
+                    _out.write(" t=\"s\">");
+                    _out.write("<v>");
+                    writeInt(_sharedStringSource.addString(cell.getStringCellValue()));
+                    _out.write("</v>");
+                    break;
+                }
                 _out.write(" t=\"inlineStr\">");
                 _out.write("<is><t");
                 if(hasLeadingTrailingSpaces(cell.getStringCellValue())) {
@@ -200,19 +345,23 @@ public class SheetDataWriter {
             }
             case Cell.CELL_TYPE_NUMERIC: {
                 _out.write(" t=\"n\">");
-                _out.write("<v>" + cell.getNumericCellValue() + "</v>");
+                _out.write("<v>");
+                writeDouble(cell.getNumericCellValue());
+                _out.write("</v>");
                 break;
             }
             case Cell.CELL_TYPE_BOOLEAN: {
                 _out.write(" t=\"b\">");
-                _out.write("<v>" + (cell.getBooleanCellValue() ? "1" : "0") + "</v>");
+                _out.write(cell.getBooleanCellValue() ? "<v>1</v>" : "<v>0</v>");
                 break;
             }
             case Cell.CELL_TYPE_ERROR: {
                 FormulaError error = FormulaError.forInt(cell.getErrorCellValue());
 
                 _out.write(" t=\"e\">");
-                _out.write("<v>" + error.getString() + "</v>");
+                _out.write("<v>");
+                _out.write(error.getString());
+                _out.write("</v>");
                 break;
             }
             default: {
@@ -222,6 +371,131 @@ public class SheetDataWriter {
         _out.write("</c>");
     }
 
+    /**
+     * Read the style index without materializing a style object:
+     * {@link SXSSFCell#getCellStyle()} looks up style zero in the workbook for unstyled cells
+     * and cells of compact rows only hold the index.
+     */
+    private static int getCellStyleIndex(Cell cell) {
+        if (cell instanceof SXSSFCell) {
+            CellStyle style = ((SXSSFCell)cell)._style;
+            return style == null ? 0 : style.getIndex();
+        }
+        if (cell instanceof SXSSFCompactCell) {
+            SXSSFCompactCell compactCell = (SXSSFCompactCell)cell;
+            return compactCell._row._styles[compactCell._column];
+        }
+        return cell.getCellStyle().getIndex();
+    }
+
+    /**
+     * Write an A1-style reference, e.g. <code>AB12</code>, for the given 0-based column and row
+     */
+    void writeCellReference(int columnIndex, int rowIndex) throws IOException {
+        char[] buf = _numberBuffer;
+        int pos = buf.length;
+        int col = columnIndex + 1;
+        while (col > 0) {
+            int rem = (col - 1) % 26;
+            buf[--pos] = (char)('A' + rem);
+            col = (col - rem - 1) / 26;
+        }
+        _out.write(buf, pos, buf.length - pos);
+        writeInt(rowIndex + 1);
+    }
+
+    /**
+     * Write the decimal representation of an int
+     */
+    void writeInt(int value) throws IOException {
+        writeLong(value);
+    }
+
+    private void writeLong(long value) throws IOException {
+        char[] buf = _numberBuffer;
+        int pos = formatLong(value, buf, buf.length);
+        _out.write(buf, pos, buf.length - pos);
+    }
+
+    /**
+     * Format a long right-aligned into <code>buf</code> ending at <code>end</code>
+     *
+     * @return the start position of the formatted number
+     */
+    private static int formatLong(long value, char[] buf, int end) {
+        int pos = end;
+        if (value == Long.MIN_VALUE) {
+            String str = Long.toString(value);
+            pos -= str.length();
+            str.getChars(0, str.length(), buf, pos);
+            return pos;
+        }
+        boolean negative = value < 0;
+        long v = negative ? -value : value;
+        do {
+            long q = v / 10;
+            buf[--pos] = (char)('0' + (int)(v - q * 10));
+            v = q;
+        } while (v != 0);
+        if (negative) {
+            buf[--pos] = '-';
+        }
+        return pos;
+    }
+
+    /**
+     * Write a numeric cell value.
+     * <p>
+     * Values that round-trip through a short fixed-point form, which covers integers,
+     * currency amounts and most other user-entered data, are formatted directly into a
+     * scratch buffer. Everything else falls back to {@link Double#toString(double)}.
+     * </p>
+     */
+    void writeDouble(double value) throws IOException {
+        if (value == 0.0) {
+            // also covers -0.0 which Excel has no notion of
+            _out.write('0');
+            return;
+        }
+        double abs = Math.abs(value);
+        if (abs < MAX_FIXED_POINT && abs >= MIN_FIXED_POINT) {
+            for (int scale = 0; scale < POWERS_OF_TEN.length; scale++) {
+                double pow = POWERS_OF_TEN[scale];
+                double scaled = abs * pow;
+                if (scaled >= 9007199254740992.0) { // 2^53, beyond this longs are not exact doubles
+                    break;
+                }
+                long digits = Math.round(scaled);
+                // division of two exact doubles is correctly rounded, so this guarantees
+                // that parsing the written decimal yields exactly the same double
+                if (digits / pow == abs) {
+                    writeFixedPoint(value < 0, digits, scale);
+                    return;
+                }
+            }
+        }
+        _out.write(Double.toString(value));
+    }
+
+    private void writeFixedPoint(boolean negative, long digits, int scale) throws IOException {
+        char[] buf = _numberBuffer;
+        int end = buf.length;
+        int pos = formatLong(digits, buf, end);
+        if (scale > 0) {
+            // pad with leading zeros so there is at least one digit before the decimal point
+            while (end - pos <= scale) {
+                buf[--pos] = '0';
+            }
+            int point = end - scale;
+            System.arraycopy(buf, pos, buf, pos - 1, point - pos);
+            buf[point - 1] = '.';
+            pos--;
+        }
+        if (negative) {
+            buf[--pos] = '-';
+        }
+        _out.write(buf, pos, end - pos);
+    }
 
     /**
      * @return  whether the string has leading / trailing spaces that
@@ -242,9 +516,13 @@ public class SheetDataWriter {
             return;
         }
 
-        char[] chars = s.toCharArray();
-        int last = 0;
         int length = s.length();
+        if (_stringBuffer.length < length) {
+            _stringBuffer = new char[Math.max(length, _stringBuffer.length * 2)];
+        }
+        char[] chars = _stringBuffer;
+        s.getChars(0, length, chars, 0);
+        int last = 0;
         for (int counter = 0; counter < length; counter++) {
             char c = chars[counter];
             switch (c) {
@@ -318,7 +596,7 @@ public class SheetDataWriter {
                         // If the character is outside of ascii, write the
                         // numeric value.
                         _out.write("&#");
-                        _out.write(String.valueOf((int) c));
+                        writeInt(c);
                         _out.write(";");
                     }
                     break;
@@ -336,7 +614,7 @@ public class SheetDataWriter {
     boolean dispose() {
         try {
             _out.close();
-            return _fd.delete();
+            return _storage != null ? _storage.dispose() : _fd.delete();
         } catch (IOException e){
             return false;
         }
@@ -0,0 +1,283 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.streaming;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.poi.xssf.model.SharedStringsTable;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+
+/**
+ * Shared strings table used by SXSSF when string cells are written as <code>t="s"</code>
+ * references instead of inline strings.
+ * <p>
+ * The first {@link #getInMemoryLimit()} unique strings are added to the workbook's
+ * {@link SharedStringsTable} and saved with it. Strings added after that limit is reached
+ * are appended as <code>&lt;si&gt;</code> fragments to a temp file and spliced into the
+ * shared strings part when the workbook is written, so memory stays flat however many
+ * unique values a workbook contains.
+ * </p>
+ * <p>
+ * Lookups go through a bounded, least-recently-used dictionary of plain strings.
+ * A spilled string that has dropped out of the dictionary and is seen again gets a
+ * new entry: the table then holds duplicates, which is valid SpreadsheetML and only
+ * costs some file size.
+ * </p>
+ */
+public class SpillingSharedStringsTable {
+    /**
+     * Default number of unique strings kept in memory before new strings are spilled to disk
+     */
+    public static final int DEFAULT_IN_MEMORY_LIMIT = 100000;
+
+    private final SharedStringsTable _sst;
+    private final Dictionary _dictionary;
+    private int _inMemoryLimit;
+
+    /**
+     * number of string references not counted by {@link SharedStringsTable#addEntry}
+     */
+    private int _extraCount;
+    /**
+     * number of entries written to the spill file
+     */
+    private int _spilledCount;
+    private File _fd;
+    private Writer _out;
+
+    public SpillingSharedStringsTable(SharedStringsTable sst, int inMemoryLimit) {
+        _sst = sst;
+        setInMemoryLimit(inMemoryLimit);
+        _dictionary = new Dictionary();
+    }
+
+    /**
+     * @return the maximum number of unique strings held in memory
+     */
+    public int getInMemoryLimit() {
+        return _inMemoryLimit;
+    }
+
+    /**
+     * Set the maximum number of unique strings held in memory. This bounds both the
+     * entries stored in the workbook's shared strings table and the lookup dictionary.
+     * Strings that were already added keep their index.
+     *
+     * @param limit maximum number of in-memory strings, must be positive
+     */
+    public void setInMemoryLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("in-memory limit must be greater than 0");
+        }
+        _inMemoryLimit = limit;
+    }
+
+    /**
+     * @return the number of entries written to the spill file
+     */
+    public int getSpilledCount() {
+        return _spilledCount;
+    }
+
+    /**
+     * @return the total number of unique entries, in memory and spilled
+     */
+    public int getUniqueCount() {
+        return _sst.getItems().size() + _spilledCount;
+    }
+
+    /**
+     * @return the total number of string references handed out
+     */
+    public int getCount() {
+        return _sst.getCount() + _extraCount;
+    }
+
+    /**
+     * Return the index of the given string in the shared strings table, adding it if needed.
+     *
+     * @param value the string
+     * @return 0-based index of the entry
+     */
+    public int addString(String value) throws IOException {
+        Integer idx = _dictionary.get(value);
+        if (idx != null) {
+            _extraCount++;
+            return idx;
+        }
+        int index;
+        // once spilling has started new entries must go to the spill file to keep indexes in order
+        if (_spilledCount == 0 && _sst.getItems().size() < _inMemoryLimit) {
+            index = _sst.addEntry(new XSSFRichTextString(value).getCTRst());
+        } else {
+            index = spill(value);
+            _extraCount++;
+        }
+        _dictionary.put(value, index);
+        return index;
+    }
+
+    private int spill(String value) throws IOException {
+        if (_out == null) {
+            _fd = File.createTempFile("poi-sxssf-sst", ".xml");
+            _out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(_fd), "UTF-8"));
+        }
+        _out.write("<si><t");
+        if (hasLeadingTrailingSpaces(value)) {
+            _out.write(" xml:space=\"preserve\"");
+        }
+        _out.write('>');
+        writeEscaped(value);
+        _out.write("</t></si>");
+        return _sst.getItems().size() + _spilledCount++;
+    }
+
+    private static boolean hasLeadingTrailingSpaces(String str) {
+        if (str.length() > 0) {
+            return Character.isWhitespace(str.charAt(0)) || Character.isWhitespace(str.charAt(str.length() - 1));
+        }
+        return false;
+    }
+
+    private void writeEscaped(String s) throws IOException {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '<': _out.write("&lt;"); break;
+                case '>': _out.write("&gt;"); break;
+                case '&': _out.write("&amp;"); break;
+                case '\n': _out.write("&#xa;"); break;
+                case '\r': _out.write("&#xd;"); break;
+                case '\t': _out.write("&#x9;"); break;
+                default:
+                    // same rule as XmlBeans and SheetDataWriter: control characters
+                    // and "not a character" symbols are replaced with question marks
+                    if (c < ' ' || ('\uFFFE' <= c && c <= '\uFFFF')) {
+                        _out.write('?');
+                    } else {
+                        _out.write(c);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Copy the shared strings part saved by the template workbook to <code>out</code>,
+     * appending the spilled entries and updating the <code>count</code> and
+     * <code>uniqueCount</code> attributes.
+     *
+     * @param in the shared strings part written by {@link SharedStringsTable}
+     * @param out the stream to write to, it is not closed
+     */
+    void writeSharedStringsPart(InputStream in, OutputStream out) throws IOException {
+        // the template part only holds the in-memory entries, it is fine to read it at once
+        StringBuilder xml = new StringBuilder();
+        Reader reader = new InputStreamReader(in, "UTF-8");
+        char[] chunk = new char[4096];
+        int count;
+        while ((count = reader.read(chunk)) >= 0) {
+            xml.append(chunk, 0, count);
+        }
+
+        int rootStart = xml.indexOf("<sst");
+        int rootEnd = rootStart < 0 ? -1 : xml.indexOf(">", rootStart);
+        if (rootEnd < 0) {
+            throw new IOException("Invalid shared strings part: cannot find the <sst> element");
+        }
+        boolean selfClosing = xml.charAt(rootEnd - 1) == '/';
+        String startTag = xml.substring(rootStart, selfClosing ? rootEnd - 1 : rootEnd)
+                .replaceAll("\\s(count|uniqueCount)=\"[^\"]*\"", "");
+        String body, trailer;
+        if (selfClosing) {
+            body = "";
+            trailer = xml.substring(rootEnd + 1);
+        } else {
+            int rootClose = xml.lastIndexOf("</sst>");
+            body = xml.substring(rootEnd + 1, rootClose);
+            trailer = xml.substring(rootClose + "</sst>".length());
+        }
+
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        writer.write(xml.substring(0, rootStart));
+        writer.write(startTag);
+        writer.write(" count=\"" + getCount() + "\" uniqueCount=\"" + getUniqueCount() + "\">");
+        writer.write(body);
+        writer.flush();
+        if (_out != null) {
+            _out.flush();
+            InputStream spilled = new FileInputStream(_fd);
+            try {
+                byte[] buf = new byte[4096];
+                while ((count = spilled.read(buf)) >= 0) {
+                    out.write(buf, 0, count);
+                }
+            } finally {
+                spilled.close();
+            }
+        }
+        writer.write("</sst>");
+        writer.write(trailer);
+        writer.flush();
+    }
+
+    /**
+     * Deletes the temporary file holding the spilled entries.
+     * @return true if there was no file or it was deleted, false if it wasn't.
+     */
+    boolean dispose() {
+        if (_fd == null) {
+            return true;
+        }
+        try {
+            _out.close();
+            return _fd.delete();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Bounded string-to-index dictionary, evicts the least recently used entry
+     */
+    private class Dictionary extends LinkedHashMap<String, Integer> {
+        private static final long serialVersionUID = 6208314257891648405L;
+
+        Dictionary() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > _inMemoryLimit;
+        }
+    }
+}
@@ -17,8 +17,10 @@
 
 package org.apache.poi.xssf.usermodel;
 
+import org.apache.poi.ss.formula.CellValuesReader;
 import org.apache.poi.ss.formula.EvaluationCell;
 import org.apache.poi.ss.formula.EvaluationSheet;
+import org.apache.poi.ss.usermodel.Cell;
 
 /**
  * XSSF wrapper for a sheet under evaluation
@@ -29,6 +31,12 @@ final class XSSFEvaluationSheet implements EvaluationSheet {
 
 	private final XSSFSheet _xs;
 
+	private final CellValuesReader _reader = new CellValuesReader() {
+		protected EvaluationCell createEvaluationCell(Cell cell, int cellType) {
+			return new XSSFEvaluationCell((XSSFCell) cell, XSSFEvaluationSheet.this);
+		}
+	};
+
 	public XSSFEvaluationSheet(XSSFSheet sheet) {
 		_xs = sheet;
 	}
@@ -47,4 +55,14 @@ final class XSSFEvaluationSheet implements EvaluationSheet {
 		}
 		return new XSSFEvaluationCell(cell, this);
 	}
+
+	public int getLastRowNum() {
+		return _xs.getPhysicalNumberOfRows() == 0 ? -1 : _xs.getLastRowNum();
+	}
+
+	public void getCellValues(int firstRowIndex, int firstColumnIndex, int lastRowIndex, int lastColumnIndex,
+			int[] cellTypes, double[] numbers, Object[] values) {
+		_reader.readCells(_xs, firstRowIndex, firstColumnIndex, lastRowIndex, lastColumnIndex,
+				cellTypes, numbers, values);
+	}
 }
@@ -17,6 +17,9 @@
 
 package org.apache.poi.xssf.usermodel;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.poi.ss.formula.functions.FreeRefFunction;
 import org.apache.poi.ss.formula.ptg.NamePtg;
 import org.apache.poi.ss.formula.ptg.NameXPtg;
@@ -30,9 +33,13 @@ import org.apache.poi.ss.formula.FormulaParser;
 import org.apache.poi.ss.formula.FormulaParsingWorkbook;
 import org.apache.poi.ss.formula.FormulaRenderingWorkbook;
 import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.SharedFormula;
 import org.apache.poi.ss.formula.udf.UDFFinder;
 import org.apache.poi.ss.formula.udf.IndexedUDFFinder;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCellFormula;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDefinedName;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.STCellFormulaType;
 
 /**
  * Internal POI use only
@@ -42,6 +49,11 @@ import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDefinedName;
 public final class XSSFEvaluationWorkbook implements FormulaRenderingWorkbook, EvaluationWorkbook, FormulaParsingWorkbook {
 
 	private final XSSFWorkbook _uBook;
+	/**
+	 * Parsed master formulas of shared formula groups, so that a group is parsed
+	 * only once rather than once per cell
+	 */
+	private final Map<SharedFormulaKey, Ptg[]> _sharedFormulaTokens = new HashMap<SharedFormulaKey, Ptg[]>();
 
 	public static XSSFEvaluationWorkbook create(XSSFWorkbook book) {
 		if (book == null) {
@@ -144,14 +156,74 @@ public final class XSSFEvaluationWorkbook implements FormulaRenderingWorkbook, E
 	}
 	public Ptg[] getFormulaTokens(EvaluationCell evalCell) {
 		XSSFCell cell = ((XSSFEvaluationCell)evalCell).getXSSFCell();
-		XSSFEvaluationWorkbook frBook = XSSFEvaluationWorkbook.create(_uBook);
-		return FormulaParser.parse(cell.getCellFormula(), frBook, FormulaType.CELL, _uBook.getSheetIndex(cell.getSheet()));
+		int sheetIndex = _uBook.getSheetIndex(cell.getSheet());
+		CTCellFormula f = cell.getCTCell().getF();
+		if (f != null && f.getT() == STCellFormulaType.SHARED) {
+			return getSharedFormulaTokens(cell, (int)f.getSi(), sheetIndex);
+		}
+		return FormulaParser.parse(cell.getCellFormula(), this, FormulaType.CELL, sheetIndex);
+	}
+
+	/**
+	 * Same tokens as parsing {@link XSSFCell#getCellFormula()}, without rendering and
+	 * re-parsing the shared formula for every cell of the group
+	 */
+	private Ptg[] getSharedFormulaTokens(XSSFCell cell, int si, int sheetIndex) {
+		CTCellFormula master = cell.getSheet().getSharedFormula(si);
+		if (master == null) {
+			throw new IllegalStateException(
+					"Master cell of a shared formula with sid="+si+" was not found");
+		}
+		String formula = master.getStringValue();
+		SharedFormulaKey key = new SharedFormulaKey(sheetIndex, formula);
+		Ptg[] ptgs;
+		// evaluators running concurrently share this workbook
+		synchronized (_sharedFormulaTokens) {
+			ptgs = _sharedFormulaTokens.get(key);
+		}
+		if (ptgs == null) {
+			ptgs = FormulaParser.parse(formula, this, FormulaType.CELL, sheetIndex);
+			synchronized (_sharedFormulaTokens) {
+				_sharedFormulaTokens.put(key, ptgs);
+			}
+		}
+		CellRangeAddress ref = CellRangeAddress.valueOf(master.getRef());
+		SharedFormula sf = new SharedFormula(SpreadsheetVersion.EXCEL2007);
+		return sf.convertSharedFormulas(ptgs,
+				cell.getRowIndex() - ref.getFirstRow(), cell.getColumnIndex() - ref.getFirstColumn());
+	}
+
+	/**
+	 * Forgets the parsed shared formulas, needed after names or sheets of the
+	 * workbook were changed
+	 */
+	/* package */ void clearFormulaTokens() {
+		synchronized (_sharedFormulaTokens) {
+			_sharedFormulaTokens.clear();
+		}
 	}
 
     public UDFFinder getUDFFinder(){
         return _uBook.getUDFFinder();
     }
 
+	private static final class SharedFormulaKey {
+		private final int _sheetIndex;
+		private final String _formula;
+
+		public SharedFormulaKey(int sheetIndex, String formula) {
+			_sheetIndex = sheetIndex;
+			_formula = formula;
+		}
+		public int hashCode() {
+			return _sheetIndex * 17 + _formula.hashCode();
+		}
+		public boolean equals(Object obj) {
+			SharedFormulaKey other = (SharedFormulaKey) obj;
+			return _sheetIndex == other._sheetIndex && _formula.equals(other._formula);
+		}
+	}
+
 	private static final class Name implements EvaluationName {
 
 		private final XSSFName _nameRecord;
@@ -17,7 +17,15 @@
 
 package org.apache.poi.xssf.usermodel;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
 import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.ss.formula.EvaluationCell;
+import org.apache.poi.ss.formula.EvaluationProfile;
 import org.apache.poi.ss.formula.IStabilityClassifier;
 import org.apache.poi.ss.formula.WorkbookEvaluator;
 import org.apache.poi.ss.formula.eval.BoolEval;
@@ -29,6 +37,7 @@ import org.apache.poi.ss.formula.udf.UDFFinder;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellValue;
 import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Workbook;
 
 /**
@@ -45,6 +54,7 @@ public class XSSFFormulaEvaluator implements FormulaEvaluator {
 
 	private WorkbookEvaluator _bookEvaluator;
 	private XSSFWorkbook _book;
+	private XSSFEvaluationWorkbook _evalBook;
 
 	public XSSFFormulaEvaluator(XSSFWorkbook workbook) {
 		this(workbook, null, null);
@@ -57,12 +67,14 @@ public class XSSFFormulaEvaluator implements FormulaEvaluator {
 	 */
     @Deprecated
     public XSSFFormulaEvaluator(XSSFWorkbook workbook, IStabilityClassifier stabilityClassifier) {
-		_bookEvaluator = new WorkbookEvaluator(XSSFEvaluationWorkbook.create(workbook), stabilityClassifier, null);
+		_evalBook = XSSFEvaluationWorkbook.create(workbook);
+		_bookEvaluator = new WorkbookEvaluator(_evalBook, stabilityClassifier, null);
 		_book = workbook;
 	}
 	private XSSFFormulaEvaluator(XSSFWorkbook workbook, IStabilityClassifier stabilityClassifier, UDFFinder udfFinder) {
-		_bookEvaluator = new WorkbookEvaluator(XSSFEvaluationWorkbook.create(workbook), stabilityClassifier, udfFinder);
-      _book = workbook;
+		_evalBook = XSSFEvaluationWorkbook.create(workbook);
+		_bookEvaluator = new WorkbookEvaluator(_evalBook, stabilityClassifier, udfFinder);
+		_book = workbook;
 	}
 
 	/**
@@ -84,6 +96,7 @@ public class XSSFFormulaEvaluator implements FormulaEvaluator {
 	 */
 	public void clearAllCachedResultValues() {
 		_bookEvaluator.clearAllCachedResultValues();
+		_evalBook.clearFormulaTokens();
 	}
 	public void notifySetFormula(Cell cell) {
 		_bookEvaluator.notifyUpdateCell(new XSSFEvaluationCell((XSSFCell)cell));
@@ -247,11 +260,93 @@ public class XSSFFormulaEvaluator implements FormulaEvaluator {
     *  are made.
     * This is a helpful wrapper around looping over all
     *  cells, and calling evaluateFormulaCell on each one.
+    * The formula cells made dirty by later changes are
+    *  recorded from now on, see {@link #recalculate()}.
     */
    public void evaluateAll() {
-      HSSFFormulaEvaluator.evaluateAllFormulaCells(_book);
+      _bookEvaluator.setTrackDirtyCells(true);
+      // use this evaluator, so that its cache can be used for recalculate()
+      for (XSSFSheet sheet : _book) {
+         for (Row r : sheet) {
+            for (Cell c : r) {
+               if (c.getCellType() == XSSFCell.CELL_TYPE_FORMULA) {
+                  evaluateFormulaCell(c);
+               }
+            }
+         }
+      }
    }
 
+	/**
+	 * Same as {@link #evaluateAll()}, but the formula cells are evaluated concurrently by
+	 * <code>taskCount</code> tasks on the executor, each with its own evaluator and cache. Cells
+	 * are evaluated after the cells they refer to, see
+	 * {@link WorkbookEvaluator#evaluateConcurrently(EvaluationCell[], ExecutorService, int)}. The
+	 * results are identical and are saved on the calling thread once all cells are evaluated.
+	 * The cache of this evaluator is not used, and the workbook must not be changed meanwhile.
+	 * The executor is not shut down.
+	 *
+	 * @param executor the executor that evaluates the formulas, <code>null</code> to evaluate
+	 *  them on the calling thread
+	 * @param taskCount the number of tasks the formula cells are split into, usually the number
+	 *  of threads of the executor
+	 */
+	public void evaluateAll(ExecutorService executor, int taskCount) {
+		if (executor == null) {
+			evaluateAll();
+			return;
+		}
+		List<Cell> cells = new ArrayList<Cell>();
+		List<EvaluationCell> evalCells = new ArrayList<EvaluationCell>();
+		for (XSSFSheet sheet : _book) {
+			XSSFEvaluationSheet evalSheet = new XSSFEvaluationSheet(sheet);
+			for (Row r : sheet) {
+				for (Cell c : r) {
+					if (c.getCellType() == XSSFCell.CELL_TYPE_FORMULA) {
+						cells.add(c);
+						evalCells.add(new XSSFEvaluationCell((XSSFCell)c, evalSheet));
+					}
+				}
+			}
+		}
+		ValueEval[] values = _bookEvaluator.evaluateConcurrently(
+				evalCells.toArray(new EvaluationCell[evalCells.size()]), executor, taskCount);
+		for (int i = 0; i < values.length; i++) {
+			setCellValue(cells.get(i), toCellValue(values[i]));
+		}
+	}
+
+	/**
+	 * Recalculates the formula cells affected by the changes made since the last call. Changes
+	 * must be reported with {@link #notifyUpdateCell(Cell)}, {@link #notifySetFormula(Cell)} or
+	 * {@link #notifyDeleteCell(Cell)}, which follow the recorded dependencies to find the dirty
+	 * formula cells. Only formula cells evaluated before are tracked, so {@link #evaluateAll()}
+	 * is usually called once first. Dirty cells are recorded once {@link #evaluateAll()} or
+	 * {@link #setTrackDirtyCells(boolean)} was called, or this method, so that changes cost
+	 * nothing extra for callers not using it. The results of the changed cells are saved, as
+	 * done by {@link #evaluateFormulaCell(Cell)}.
+	 *
+	 * @return the formula cells whose value changed
+	 */
+	public Set<Cell> recalculate() {
+		Set<Cell> result = new LinkedHashSet<Cell>();
+		for (EvaluationCell evalCell : _bookEvaluator.recalculateDirtyCells()) {
+			XSSFCell cell = ((XSSFEvaluationCell)evalCell).getXSSFCell();
+			evaluateFormulaCell(cell);
+			result.add(cell);
+		}
+		return result;
+	}
+
+	/**
+	 * Switches the recording of the formula cells made dirty by notified changes on or off,
+	 * for callers evaluating cells one by one before calling {@link #recalculate()}. Switching
+	 * it off discards the recorded cells.
+	 */
+	public void setTrackDirtyCells(boolean trackDirtyCells) {
+		_bookEvaluator.setTrackDirtyCells(trackDirtyCells);
+	}
+
 	/**
 	 * Returns a CellValue wrapper around the supplied ValueEval instance.
 	 */
@@ -261,7 +356,10 @@ public class XSSFFormulaEvaluator implements FormulaEvaluator {
                     " Only XSSFCells can be evaluated.");
         }
 
-		ValueEval eval = _bookEvaluator.evaluate(new XSSFEvaluationCell((XSSFCell) cell));
+		return toCellValue(_bookEvaluator.evaluate(new XSSFEvaluationCell((XSSFCell)cell)));
+	}
+
+	private static CellValue toCellValue(ValueEval eval) {
 		if (eval instanceof NumberEval) {
 			NumberEval ne = (NumberEval) eval;
 			return new CellValue(ne.getNumberValue());
@@ -280,6 +378,16 @@ public class XSSFFormulaEvaluator implements FormulaEvaluator {
 		throw new RuntimeException("Unexpected eval class (" + eval.getClass().getName() + ")");
 	}
 	
+    /**
+     * Collects statistics about the following evaluations in the supplied profile: the time
+     * taken by each function and the slowest cells, cache hits and the evaluation depth.
+     *
+     * @param profile <code>null</code> to stop collecting statistics
+     */
+    public void setEvaluationProfile(EvaluationProfile profile) {
+        _bookEvaluator.setEvaluationProfile(profile);
+    }
+
     /** {@inheritDoc} */
     public void setDebugEvaluationOutputForNextEval(boolean value){
         _bookEvaluator.setDebugEvaluationOutputForNextEval(value);
@@ -17,9 +17,13 @@
 
 package org.apache.poi.xssf.usermodel;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -55,6 +59,7 @@ import org.apache.poi.util.POILogger;
 import org.apache.poi.xssf.model.CommentsTable;
 import org.apache.poi.xssf.usermodel.helpers.ColumnHelper;
 import org.apache.poi.xssf.usermodel.helpers.XSSFRowShifter;
+import org.apache.xmlbeans.XmlCursor;
 import org.apache.xmlbeans.XmlException;
 import org.apache.xmlbeans.XmlOptions;
 import org.openxmlformats.schemas.officeDocument.x2006.relationships.STRelationshipId;
@@ -88,6 +93,10 @@ public class XSSFSheet extends POIXMLDocumentPart implements Sheet {
     private TreeMap<String,XSSFTable> tables;
     private List<CellRangeAddress> arrayFormulas;
     private XSSFDataValidationHelper dataValidationHelper;    
+    /**
+     * whether the worksheet part is not parsed yet, see {@link XSSFWorkbook#XSSFWorkbook(org.apache.poi.openxml4j.opc.OPCPackage, boolean)}
+     */
+    private boolean readDeferred;
 
     /**
      * Creates new XSSFSheet   - called by XSSFWorkbook to create a sheet from scratch.
@@ -133,7 +142,50 @@ public class XSSFSheet extends POIXMLDocumentPart implements Sheet {
         }
     }
 
+    /**
+     * Defer parsing the worksheet part until {@link #ensureRead()} is called
+     */
+    void deferRead() {
+        readDeferred = true;
+    }
+
+    /**
+     * Parse the worksheet part if that was deferred, called by the workbook before the
+     * sheet is handed out
+     */
+    void ensureRead() {
+        if (readDeferred) {
+            readDeferred = false;
+            onDocumentRead();
+        }
+    }
+
+    /**
+     * @return whether the worksheet part was not parsed yet, it is then written unchanged
+     */
+    boolean isReadDeferred() {
+        return readDeferred;
+    }
+
     protected void read(InputStream is) throws IOException {
+        readWorksheet(is);
+        initRelations();
+    }
+
+    /**
+     * Parse the worksheet part and build the rows. Only this sheet is changed, so the
+     * workbook can run this for several sheets at once, see {@link #initRelations()}
+     */
+    void readWorksheet() throws IOException {
+        InputStream is = getPackagePart().getInputStream();
+        try {
+            readWorksheet(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private void readWorksheet(InputStream is) throws IOException {
         try {
             worksheet = WorksheetDocument.Factory.parse(is).getWorksheet();
         } catch (XmlException e){
@@ -142,7 +194,13 @@ public class XSSFSheet extends POIXMLDocumentPart implements Sheet {
 
         initRows(worksheet);
         columnHelper = new ColumnHelper(worksheet);
+    }
 
+    /**
+     * Link the parsed worksheet with its comments, tables and hyperlinks,
+     * once {@link #readWorksheet()} is done
+     */
+    void initRelations() {
         // Look for bits we're interested in
         for(POIXMLDocumentPart p : getRelations()){
             if(p instanceof CommentsTable) {
@@ -2651,6 +2709,10 @@ public class XSSFSheet extends POIXMLDocumentPart implements Sheet {
 
     @Override
     protected void commit() throws IOException {
+        if (readDeferred) {
+            // never used, the package part still holds the original worksheet
+            return;
+        }
         PackagePart part = getPackagePart();
         OutputStream out = part.getOutputStream();
         write(out);
@@ -2693,7 +2755,75 @@ public class XSSFSheet extends POIXMLDocumentPart implements Sheet {
         map.put(STRelationshipId.type.getName().getNamespaceURI(), "r");
         xmlOptions.setSaveSuggestedPrefixes(map);
 
-        worksheet.save(out, xmlOptions);
+        if (_rows.isEmpty() || !writeWithSheetData(out, xmlOptions)) {
+            worksheet.save(out, xmlOptions);
+        }
+    }
+
+    /**
+     * Save the worksheet with the rows written by {@link XSSFSheetDataWriter}. XMLBeans only
+     * saves a copy of the worksheet with an empty <code>sheetData</code>, which is small, and
+     * the rows are written in its place.
+     *
+     * @return false if the copy could not be saved so that the rows fit in, nothing is written then
+     */
+    private boolean writeWithSheetData(OutputStream out, XmlOptions xmlOptions) throws IOException {
+        QName sheetDataName = new QName(CTWorksheet.type.getName().getNamespaceURI(), "sheetData");
+        Map<String, String> prefixes = new HashMap<String, String>();
+
+        // copy the worksheet element, but not its rows
+        CTWorksheet shell = CTWorksheet.Factory.newInstance();
+        XmlCursor dst = shell.newCursor();
+        XmlCursor src = worksheet.newCursor();
+        try {
+            dst.toEndToken();
+            XmlCursor.TokenType token = src.toNextToken();
+            for (; token.isAttr() || token.isNamespace(); token = src.toNextToken()) {
+                QName name = src.getName();
+                if (token.isNamespace()) {
+                    dst.insertNamespace(name.getLocalPart(), name.getNamespaceURI());
+                    prefixes.put(name.getNamespaceURI(), name.getLocalPart());
+                } else {
+                    dst.insertAttributeWithValue(name, src.getTextValue());
+                }
+            }
+            // a new worksheet is a fragment, which ends with the document
+            for (; !token.isEnd() && !token.isEnddoc() && !token.isNone(); token = src.toNextToken()) {
+                if (token.isStart()) {
+                    if (sheetDataName.equals(src.getName())) {
+                        dst.insertElement(sheetDataName);
+                    } else {
+                        src.copyXml(dst);
+                    }
+                    src.toEndToken();
+                } else if (token.isText()) {
+                    dst.insertChars(src.getChars());
+                } else if (token.isComment()) {
+                    dst.insertComment(src.getTextValue());
+                }
+            }
+        } finally {
+            src.dispose();
+            dst.dispose();
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        shell.save(bos, xmlOptions);
+        String xml = bos.toString("UTF-8");
+        String marker = "<sheetData/>";
+        int pos = xml.indexOf(marker);
+        if (pos == -1 || pos != xml.lastIndexOf(marker)) {
+            return false;
+        }
+
+        // the main namespace is the default one in the saved worksheet
+        prefixes.put(sheetDataName.getNamespaceURI(), "");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        writer.write(xml, 0, pos);
+        new XSSFSheetDataWriter(writer, prefixes).writeSheetData(_rows.values());
+        writer.write(xml, pos + marker.length(), xml.length() - pos - marker.length());
+        writer.flush();
+        return true;
     }
 
     /**
@@ -0,0 +1,284 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.usermodel;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCell;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCellFormula;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTRow;
+
+/**
+ * Writes the rows of a worksheet as <code>sheetData</code> markup straight from the
+ * row and cell beans, without going through the XMLBeans saver.
+ * <p>
+ * Cells and their values are written by hand. Row and formula attributes are copied
+ * as they are, including ones from other namespaces such as <code>x14ac:dyDescent</code>.
+ * The rarely used parts, inline strings and extension lists, are saved by XMLBeans.
+ * </p>
+ * <p>
+ * The markup is written into a worksheet whose main namespace is the default namespace
+ * and whose root element declares the given namespace prefixes.
+ * </p>
+ *
+ * @see XSSFSheet#write(java.io.OutputStream)
+ */
+final class XSSFSheetDataWriter {
+    private final Writer _out;
+    private final Map<String, String> _prefixes;
+    private final XmlOptions _fragmentOptions;
+    private char[] _chars = new char[64];
+    private int _localPrefixes;
+
+    /**
+     * @param out receives the markup
+     * @param prefixes the prefixes declared on the worksheet element, keyed by namespace URI;
+     *  the main namespace is the default one
+     */
+    XSSFSheetDataWriter(Writer out, Map<String, String> prefixes) {
+        _out = out;
+        _prefixes = prefixes;
+
+        Map<String, String> implicit = new HashMap<String, String>();
+        for (Map.Entry<String, String> e : prefixes.entrySet()) {
+            implicit.put(e.getValue(), e.getKey());
+        }
+        _fragmentOptions = new XmlOptions();
+        _fragmentOptions.setSaveOuter();
+        _fragmentOptions.setSaveAggressiveNamespaces();
+        _fragmentOptions.setSaveImplicitNamespaces(implicit);
+    }
+
+    /**
+     * Write the <code>sheetData</code> element holding the given rows
+     */
+    void writeSheetData(Iterable<XSSFRow> rows) throws IOException {
+        _out.write("<sheetData>");
+        for (XSSFRow row : rows) {
+            writeRow(row.getCTRow());
+        }
+        _out.write("</sheetData>");
+    }
+
+    @SuppressWarnings("deprecation") //YK: getXYZArray() array accessors are deprecated in xmlbeans with JDK 1.5 support
+    private void writeRow(CTRow row) throws IOException {
+        _out.write("<row");
+        writeAttributes(row);
+
+        CTCell[] cells = row.getCArray();
+        boolean extLst = row.isSetExtLst();
+        if (cells.length == 0 && !extLst) {
+            _out.write("/>");
+            return;
+        }
+        _out.write('>');
+        for (CTCell cell : cells) {
+            writeCell(cell);
+        }
+        if (extLst) {
+            writeFragment(row.getExtLst());
+        }
+        _out.write("</row>");
+    }
+
+    /**
+     * Copy all attributes of the bean, as they were read
+     */
+    private void writeAttributes(XmlObject bean) throws IOException {
+        _localPrefixes = 0;
+        XmlCursor cursor = bean.newCursor();
+        try {
+            if (cursor.toFirstAttribute()) {
+                do {
+                    writeAttribute(cursor.getName(), cursor.getTextValue());
+                } while (cursor.toNextAttribute());
+            }
+        } finally {
+            cursor.dispose();
+        }
+    }
+
+    private void writeCell(CTCell cell) throws IOException {
+        _out.write("<c");
+        if (cell.isSetR()) writeAttribute("r", cell.getR());
+        if (cell.isSetS()) writeAttribute("s", cell.getS());
+        if (cell.isSetT()) writeAttribute("t", cell.getT().toString());
+        if (cell.isSetCm()) writeAttribute("cm", cell.getCm());
+        if (cell.isSetVm()) writeAttribute("vm", cell.getVm());
+        if (cell.isSetPh()) writeAttribute("ph", cell.getPh());
+
+        boolean f = cell.isSetF();
+        boolean v = cell.isSetV();
+        boolean is = cell.isSetIs();
+        boolean extLst = cell.isSetExtLst();
+        if (!f && !v && !is && !extLst) {
+            _out.write("/>");
+            return;
+        }
+        _out.write('>');
+        if (f) {
+            writeFormula(cell.getF());
+        }
+        if (v) {
+            String value = cell.getV();
+            _out.write("<v");
+            if (hasLeadingTrailingSpaces(value)) {
+                writeAttribute("xml:space", "preserve");
+            }
+            writeContent("v", value);
+        }
+        if (is) {
+            writeFragment(cell.getIs());
+        }
+        if (extLst) {
+            writeFragment(cell.getExtLst());
+        }
+        _out.write("</c>");
+    }
+
+    private void writeFormula(CTCellFormula f) throws IOException {
+        _out.write("<f");
+        // shared and array formulas have attributes, most formulas have none
+        writeAttributes(f);
+        writeContent("f", f.getStringValue());
+    }
+
+    /**
+     * Finish a start tag with the given text content and the end tag
+     */
+    private void writeContent(String name, String text) throws IOException {
+        if (text == null || text.length() == 0) {
+            _out.write("/>");
+            return;
+        }
+        _out.write('>');
+        writeEscaped(text, false);
+        _out.write("</");
+        _out.write(name);
+        _out.write('>');
+    }
+
+    private void writeFragment(XmlObject bean) throws IOException {
+        bean.save(_out, _fragmentOptions);
+    }
+
+    private void writeAttribute(String name, long value) throws IOException {
+        writeAttribute(name, Long.toString(value));
+    }
+
+    private void writeAttribute(String name, boolean value) throws IOException {
+        writeAttribute(name, value ? "true" : "false");
+    }
+
+    private void writeAttribute(String name, String value) throws IOException {
+        _out.write(' ');
+        _out.write(name);
+        _out.write("=\"");
+        writeEscaped(value, true);
+        _out.write('"');
+    }
+
+    private void writeAttribute(QName name, String value) throws IOException {
+        String uri = name.getNamespaceURI();
+        if (uri == null || uri.length() == 0) {
+            writeAttribute(name.getLocalPart(), value);
+            return;
+        }
+        String prefix = _prefixes.get(uri);
+        if (prefix == null) {
+            // not declared on the worksheet, declare it here
+            prefix = "ns" + (++_localPrefixes);
+            writeAttribute("xmlns:" + prefix, uri);
+        }
+        writeAttribute(prefix + ":" + name.getLocalPart(), value);
+    }
+
+    /**
+     * Write text or an attribute value, escaping the markup characters.
+     * Characters that are not allowed in XML are replaced with '?', as XMLBeans does.
+     */
+    private void writeEscaped(String s, boolean attribute) throws IOException {
+        int length = s.length();
+        if (_chars.length < length) {
+            _chars = new char[Math.max(length, _chars.length * 2)];
+        }
+        char[] chars = _chars;
+        s.getChars(0, length, chars, 0);
+        int last = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            String replacement;
+            switch (c) {
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '"':
+                    replacement = attribute ? "&quot;" : null;
+                    break;
+                case '\n':
+                    replacement = attribute ? "&#10;" : null;
+                    break;
+                case '\t':
+                    replacement = attribute ? "&#9;" : null;
+                    break;
+                case '\r':
+                    replacement = "&#13;";
+                    break;
+                default:
+                    replacement = isValidXmlChar(c) ? null : "?";
+                    break;
+            }
+            if (replacement != null) {
+                if (i > last) {
+                    _out.write(chars, last, i - last);
+                }
+                _out.write(replacement);
+                last = i + 1;
+            }
+        }
+        if (length > last) {
+            _out.write(chars, last, length - last);
+        }
+    }
+
+    private static boolean hasLeadingTrailingSpaces(String str) {
+        if (str != null && str.length() > 0) {
+            return Character.isWhitespace(str.charAt(0))
+                    || Character.isWhitespace(str.charAt(str.length() - 1));
+        }
+        return false;
+    }
+
+    private static boolean isValidXmlChar(char c) {
+        return c >= 0x20 ? (c < 0xFFFE) : (c == '\t' || c == '\n' || c == '\r');
+    }
+}
@@ -77,7 +77,10 @@ public class XSSFTable extends POIXMLDocumentPart {
 	}
 	
 	public XSSFSheet getXSSFSheet(){
-		return (XSSFSheet) getParent();
+		XSSFSheet sheet = (XSSFSheet) getParent();
+		// the sheet may not be parsed yet if the workbook loads sheets on demand
+		sheet.ensureRead();
+		return sheet;
 	}
 
 	public void writeTo(OutputStream out) throws IOException {
@@ -286,7 +289,7 @@ public class XSSFTable extends POIXMLDocumentPart {
      * "Found unreadable content" message on startup.
      */
     public void updateHeaders(){
-        XSSFSheet sheet = (XSSFSheet)getParent();
+        XSSFSheet sheet = getXSSFSheet();
         CellReference ref = getStartCellReference();
         if(ref == null) return;
 
@@ -22,8 +22,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import javax.xml.namespace.QName;
@@ -139,6 +144,18 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook, Iterable<X
      */
     private XSSFDataFormat formatter;
 
+    /**
+     * whether worksheet parts are parsed when a sheet is first used rather than on open,
+     * see {@link #XSSFWorkbook(OPCPackage, boolean)}
+     */
+    private boolean loadSheetsOnDemand;
+
+    /**
+     * parses the worksheet parts while the workbook is being read, only set during
+     * {@link #XSSFWorkbook(OPCPackage, ExecutorService)}
+     */
+    private ExecutorService sheetReader;
+
     /**
      * The policy to apply in the event of missing or
      *  blank cells when fetching from a row.
@@ -180,12 +197,61 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook, Iterable<X
      * @param pkg the OpenXML4J <code>OPC Package</code> object.
      */
     public XSSFWorkbook(OPCPackage pkg) throws IOException {
+        this(pkg, false);
+    }
+
+    /**
+     * Constructs a XSSFWorkbook object given a OpenXML4J <code>Package</code> object,
+     *  optionally deferring the parsing of the worksheets.
+     * <p>
+     *  With <code>loadSheetsOnDemand</code> set, a worksheet part is only parsed when its sheet
+     *  is first returned by {@link #getSheetAt(int)}, {@link #getSheet(String)} or the
+     *  {@link #iterator()}. Opening a workbook to read a few of its many sheets then only pays
+     *  for those sheets. Sheet names, the number of sheets and the other parts of the workbook
+     *  are available straight away. Sheets that were never used are written back unchanged,
+     *  without being parsed.
+     * </p>
+     * <p>
+     *  Operations which affect all sheets, like renaming a sheet that formulas refer to, parse
+     *  all sheets.
+     * </p>
+     *
+     * @param pkg the OpenXML4J <code>OPC Package</code> object.
+     * @param loadSheetsOnDemand whether worksheets are parsed when first used
+     */
+    public XSSFWorkbook(OPCPackage pkg, boolean loadSheetsOnDemand) throws IOException {
         super(pkg);
+        this.loadSheetsOnDemand = loadSheetsOnDemand;
 
         //build a tree of POIXMLDocumentParts, this workbook being the root
         load(XSSFFactory.getInstance());
     }
 
+    /**
+     * Constructs a XSSFWorkbook object given a OpenXML4J <code>Package</code> object,
+     *  parsing the worksheets concurrently.
+     * <p>
+     *  Each worksheet part is parsed by a task on the given executor, which cuts the time
+     *  to open a workbook with many large sheets. Linking the sheets with their comments,
+     *  tables and hyperlinks, and everything else, is still done on the calling thread.
+     *  The executor is only used while the workbook is read and is not shut down.
+     * </p>
+     *
+     * @param pkg the OpenXML4J <code>OPC Package</code> object.
+     * @param executor the executor that parses the worksheets, <code>null</code> to parse them
+     *  one after another on the calling thread
+     */
+    public XSSFWorkbook(OPCPackage pkg, ExecutorService executor) throws IOException {
+        super(pkg);
+        this.sheetReader = executor;
+        try {
+            //build a tree of POIXMLDocumentParts, this workbook being the root
+            load(XSSFFactory.getInstance());
+        } finally {
+            this.sheetReader = null;
+        }
+    }
+
     /**
      * Constructs a XSSFWorkbook object, by buffering the whole stream into memory
      *  and then opening an {@link OPCPackage} object for it.
@@ -276,6 +342,7 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook, Iterable<X
 
             // Load individual sheets. The order of sheets is defined by the order of CTSheet elements in the workbook
             sheets = new ArrayList<XSSFSheet>(shIdMap.size());
+            List<XSSFSheet> parallel = new ArrayList<XSSFSheet>();
             for (CTSheet ctSheet : this.workbook.getSheets().getSheetArray()) {
                 XSSFSheet sh = shIdMap.get(ctSheet.getId());
                 if(sh == null) {
@@ -283,9 +350,18 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook, Iterable<X
                     continue;
                 }
                 sh.sheet = ctSheet;
-                sh.onDocumentRead();
+                if (loadSheetsOnDemand) {
+                    sh.deferRead();
+                } else if (sheetReader != null && !(sh instanceof XSSFChartSheet)) {
+                    parallel.add(sh);
+                } else {
+                    sh.onDocumentRead();
+                }
                 sheets.add(sh);
             }
+            if (!parallel.isEmpty()) {
+                readSheets(parallel, sheetReader);
+            }
 
             // Process the named ranges
             namedRanges = new ArrayList<XSSFName>();
@@ -300,6 +376,51 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook, Iterable<X
         }
     }
 
+    /**
+     * Parse the worksheets on the executor, then link them with their related parts
+     *  on the calling thread, in workbook order
+     */
+    private static void readSheets(List<XSSFSheet> toRead, ExecutorService executor) throws IOException {
+        List<Future<Object>> tasks = new ArrayList<Future<Object>>(toRead.size());
+        int done = 0;
+        try {
+            for (final XSSFSheet sh : toRead) {
+                tasks.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        sh.readWorksheet();
+                        return null;
+                    }
+                }));
+            }
+            for (; done < tasks.size(); done++) {
+                getResult(tasks.get(done));
+                toRead.get(done).initRelations();
+            }
+        } finally {
+            // on failure, stop the sheets that did not start yet
+            for (int i = done; i < tasks.size(); i++) {
+                tasks.get(i).cancel(false);
+            }
+        }
+    }
+
+    private static void getResult(Future<Object> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ioe = new InterruptedIOException("Interrupted while reading the sheets");
+            ioe.initCause(e);
+            throw ioe;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException)cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new POIXMLException(cause);
+        }
+    }
+
     /**
      * Create a new CTWorkbook with all values set to default
      */
@@ -421,7 +542,7 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook, Iterable<X
     public XSSFSheet cloneSheet(int sheetNum) {
         validateSheetIndex(sheetNum);
 
-        XSSFSheet srcSheet = sheets.get(sheetNum);
+        XSSFSheet srcSheet = getSheetAt(sheetNum);
         String srcName = srcSheet.getSheetName();
         String clonedName = getUniqueSheetName(srcName);
 
@@ -816,6 +937,7 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook, Iterable<X
     public XSSFSheet getSheet(String name) {
         for (XSSFSheet sheet : sheets) {
             if (name.equalsIgnoreCase(sheet.getSheetName())) {
+                sheet.ensureRead();
                 return sheet;
             }
         }
@@ -832,7 +954,9 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook, Iterable<X
      */
     public XSSFSheet getSheetAt(int index) {
         validateSheetIndex(index);
-        return sheets.get(index);
+        XSSFSheet sheet = sheets.get(index);
+        sheet.ensureRead();
+        return sheet;
     }
 
     /**
@@ -887,7 +1011,31 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook, Iterable<X
      * </code></pre>
      */
     public Iterator<XSSFSheet> iterator() {
-        return sheets.iterator();
+        if (!loadSheetsOnDemand) {
+            return sheets.iterator();
+        }
+        final Iterator<XSSFSheet> it = sheets.iterator();
+        return new Iterator<XSSFSheet>() {
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            public XSSFSheet next() {
+                XSSFSheet sheet = it.next();
+                sheet.ensureRead();
+                return sheet;
+            }
+            public void remove() {
+                it.remove();
+            }
+        };
+    }
+
+    /**
+     * @return whether worksheets are parsed when first used
+     * @see #XSSFWorkbook(OPCPackage, boolean)
+     */
+    public boolean isLoadSheetsOnDemand() {
+        return loadSheetsOnDemand;
     }
     /**
      * Are we a normal workbook (.xlsx), or a
@@ -1201,7 +1349,7 @@ public class XSSFWorkbook extends POIXMLDocument implements Workbook, Iterable<X
      */
     public void setSelectedTab(int index) {
         for (int i = 0 ; i < sheets.size() ; ++i) {
-            XSSFSheet sheet = sheets.get(i);
+            XSSFSheet sheet = getSheetAt(i);
             sheet.setSelected(i == index);
         }
     }
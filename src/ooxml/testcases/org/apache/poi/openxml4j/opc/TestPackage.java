@@ -21,7 +21,11 @@ import java.io.*;
 import java.lang.reflect.Field;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import junit.framework.TestCase;
 
@@ -30,6 +34,9 @@ import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.openxml4j.exceptions.InvalidOperationException;
 import org.apache.poi.openxml4j.opc.internal.ContentTypeManager;
 import org.apache.poi.openxml4j.opc.internal.FileHelper;
+import org.apache.poi.openxml4j.opc.internal.PackagePropertiesPart;
+import org.apache.poi.openxml4j.util.SpillingZipEntrySource;
+import org.apache.poi.util.IOUtils;
 import org.apache.poi.util.TempFile;
 import org.apache.poi.util.POILogger;
 import org.apache.poi.util.POILogFactory;
@@ -542,4 +549,92 @@ public final class TestPackage extends TestCase {
         assertFalse(mgr.isContentTypeRegister("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml"));
         assertTrue(mgr.isContentTypeRegister("application/vnd.ms-excel.sheet.macroEnabled.main+xml"));
     }
+
+    /**
+     * Opening from a stream with a memory ceiling gives the same parts,
+     *  with the larger ones read back from a temp file
+     */
+    public void testOpenSpillingToDisk() throws Exception {
+        OPCPackage expected = OPCPackage.open(OpenXML4JTestDataSamples.openSampleStream("sample.docx"));
+        OPCPackage p = OPCPackage.open(OpenXML4JTestDataSamples.openSampleStream("sample.docx"), 1024, 4096);
+        SpillingZipEntrySource source = (SpillingZipEntrySource)((ZipPackage)p).getZipArchive();
+        File tempFile = source.getTempFile();
+        assertNotNull(tempFile);
+        assertTrue(tempFile.exists());
+        assertTrue(source.getMemoryUsed() <= 4096);
+
+        List<PackagePart> parts = p.getParts();
+        assertEquals(expected.getParts().size(), parts.size());
+        for (PackagePart part : parts) {
+            if (part instanceof PackagePropertiesPart) {
+                continue;
+            }
+            PackagePart expectedPart = expected.getPart(part.getPartName());
+            assertNotNull(expectedPart);
+            assertTrue(part.getPartName().getName(), Arrays.equals(
+                    IOUtils.toByteArray(expectedPart.getInputStream()),
+                    IOUtils.toByteArray(part.getInputStream())));
+        }
+
+        // the result saves like the in-memory one
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        p.save(saved);
+        OPCPackage reopened = OPCPackage.open(new ByteArrayInputStream(saved.toByteArray()));
+        assertEquals(parts.size(), reopened.getParts().size());
+
+        p.revert();
+        assertFalse(tempFile.exists());
+    }
+
+    /**
+     * Saving with the parts compressed concurrently gives the same parts,
+     *  in the same order, with the requested compression level
+     */
+    public void testSaveConcurrently() throws Exception {
+        OPCPackage p = OPCPackage.open(OpenXML4JTestDataSamples.openSampleStream("sample.xlsx"));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        p.save(expected);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        Map<CompressionOption, byte[]> saved = new HashMap<CompressionOption, byte[]>();
+        try {
+            for (CompressionOption compression : CompressionOption.values()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                p.save(out, compression, executor);
+                saved.put(compression, out.toByteArray());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        p.save(sequential, CompressionOption.NORMAL, null);
+        saved.put(null, sequential.toByteArray());
+
+        List<String> expectedNames = getEntryNames(expected.toByteArray());
+        OPCPackage expectedPkg = OPCPackage.open(new ByteArrayInputStream(expected.toByteArray()));
+        for (Map.Entry<CompressionOption, byte[]> e : saved.entrySet()) {
+            assertEquals(String.valueOf(e.getKey()), expectedNames, getEntryNames(e.getValue()));
+            OPCPackage result = OPCPackage.open(new ByteArrayInputStream(e.getValue()));
+            for (PackagePart part : result.getParts()) {
+                if (part instanceof PackagePropertiesPart) {
+                    continue;
+                }
+                assertTrue(part.getPartName().getName(), Arrays.equals(
+                        IOUtils.toByteArray(expectedPkg.getPart(part.getPartName()).getInputStream()),
+                        IOUtils.toByteArray(part.getInputStream())));
+            }
+        }
+        assertTrue(saved.get(CompressionOption.MAXIMUM).length <= saved.get(CompressionOption.FAST).length);
+        assertTrue(saved.get(CompressionOption.FAST).length < saved.get(CompressionOption.NOT_COMPRESSED).length);
+    }
+
+    private static List<String> getEntryNames(byte[] zip) throws IOException {
+        List<String> names = new ArrayList<String>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip));
+        for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+            names.add(entry.getName());
+        }
+        zis.close();
+        return names;
+    }
 }
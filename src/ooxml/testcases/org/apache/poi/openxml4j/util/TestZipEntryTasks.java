@@ -0,0 +1,137 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.openxml4j.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public final class TestZipEntryTasks extends TestCase {
+
+	private final List<String> created = new ArrayList<String>();
+	private final List<String> disposed = new ArrayList<String>();
+
+	private final class Tasks extends ZipEntryTasks<String> {
+		Tasks(ExecutorService executor) {
+			super(executor);
+		}
+
+		protected void dispose(String result) {
+			synchronized (disposed) {
+				disposed.add(result);
+			}
+		}
+	}
+
+	private Callable<String> createTask(final String result) {
+		return new Callable<String>() {
+			public String call() {
+				synchronized (created) {
+					created.add(result);
+				}
+				return result;
+			}
+		};
+	}
+
+	public void testResultsInOrder() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			Tasks tasks = new Tasks(executor);
+			for (int i = 0; i < 10; i++) {
+				tasks.submit(createTask("entry" + i));
+			}
+			for (int i = 0; i < 10; i++) {
+				assertTrue(tasks.hasNext());
+				assertEquals("entry" + i, tasks.next());
+			}
+			assertFalse(tasks.hasNext());
+			tasks.cancel();
+			assertTrue(disposed.isEmpty());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * The results of the tasks not taken are disposed of, also if the tasks
+	 * were running when writing stopped and complete afterwards
+	 */
+	public void testCancel() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch failed = new CountDownLatch(1);
+			Tasks tasks = new Tasks(executor);
+			tasks.submit(new Callable<String>() {
+				public String call() throws Exception {
+					started.await();
+					failed.countDown();
+					throw new IOException("broken entry");
+				}
+			});
+			tasks.submit(new Callable<String>() {
+				public String call() {
+					started.countDown();
+					// completes even when interrupted
+					while (true) {
+						try {
+							failed.await();
+							Thread.sleep(100);
+							break;
+						} catch (InterruptedException e) {
+							break;
+						}
+					}
+					synchronized (created) {
+						created.add("running");
+					}
+					return "running";
+				}
+			});
+			for (int i = 0; i < 5; i++) {
+				tasks.submit(createTask("entry" + i));
+			}
+
+			try {
+				tasks.next();
+				fail("the failure of the task should be reported");
+			} catch (IOException e) {
+				assertEquals("broken entry", e.getMessage());
+			}
+			tasks.cancel();
+			assertFalse(tasks.hasNext());
+			assertTrue(created.contains("running"));
+			synchronized (created) {
+				synchronized (disposed) {
+					assertEquals(new HashSet<String>(created), new HashSet<String>(disposed));
+					assertEquals(created.size(), disposed.size());
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -36,16 +36,23 @@ import java.util.ArrayList;
  * @author Yegor Kozlov
  */
 public final class SXSSFITestDataProvider implements ITestDataProvider {
-    public static final SXSSFITestDataProvider instance = new SXSSFITestDataProvider();
+    public static final SXSSFITestDataProvider instance = new SXSSFITestDataProvider(false);
+    /**
+     * creates workbooks that keep their rows in compact cell storage
+     */
+    public static final SXSSFITestDataProvider compactInstance = new SXSSFITestDataProvider(true);
 
     private ArrayList<SXSSFWorkbook> instances = new ArrayList<SXSSFWorkbook>();
+    private final boolean compactCellStorage;
 
-    private SXSSFITestDataProvider() {
+    private SXSSFITestDataProvider(boolean compactCellStorage) {
         // enforce singleton
+        this.compactCellStorage = compactCellStorage;
     }
     public Workbook openSampleWorkbook(String sampleFileName) {
     	XSSFWorkbook xssfWorkbook = XSSFITestDataProvider.instance.openSampleWorkbook(sampleFileName);
         SXSSFWorkbook swb = new SXSSFWorkbook(xssfWorkbook);
+        swb.setCompactCellStorage(compactCellStorage);
         instances.add(swb);
     	return swb;
     }
@@ -68,6 +75,7 @@ public final class SXSSFITestDataProvider implements ITestDataProvider {
     }
     public SXSSFWorkbook createWorkbook(){
         SXSSFWorkbook wb = new SXSSFWorkbook();
+        wb.setCompactCellStorage(compactCellStorage);
         instances.add(wb);
         return wb;
     }
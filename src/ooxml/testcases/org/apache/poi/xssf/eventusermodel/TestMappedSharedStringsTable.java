@@ -0,0 +1,114 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.POIDataSamples;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+
+/**
+ * Tests for {@link MappedSharedStringsTable}
+ */
+public final class TestMappedSharedStringsTable extends TestCase {
+    private static POIDataSamples _ssTests = POIDataSamples.getSpreadSheetInstance();
+
+    public void testSameAsReadOnlyTable() throws Exception {
+        String[] files = { "SampleSS.xlsx", "InlineStrings.xlsx", "WithVariousData.xlsx", "sample.xlsx" };
+        for (String file : files) {
+            OPCPackage pkg = OPCPackage.open(_ssTests.openResourceAsStream(file));
+            List<PackagePart> parts = pkg.getPartsByName(Pattern.compile("/xl/sharedStrings.xml"));
+            if (parts.isEmpty()) {
+                continue;
+            }
+            ReadOnlySharedStringsTable expected = new ReadOnlySharedStringsTable(parts.get(0), null);
+            MappedSharedStringsTable actual = new MappedSharedStringsTable(pkg);
+            try {
+                assertEquals(file, expected.getCount(), actual.getCount());
+                assertEquals(file, expected.getUniqueCount(), actual.getUniqueCount());
+                assertEquals(file, expected.getItems(), actual.getItems());
+                for (int i = 0; i < expected.getItems().size(); i++) {
+                    assertEquals(file, expected.getEntryAt(i), actual.getEntryAt(i));
+                }
+            } finally {
+                assertTrue(actual.dispose());
+            }
+        }
+    }
+
+    public void testSmallCacheAndSegments() throws Exception {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" count=\"500\" uniqueCount=\"500\">");
+        for (int i = 0; i < 500; i++) {
+            xml.append("<si><r><t>Text ").append(i).append("</t></r><r><t xml:space=\"preserve\"> \u00e9\u4e2d\ud834\udd1e</t></r></si>");
+        }
+        xml.append("</sst>");
+
+        // strings of about 25 bytes never straddle the 64 byte segments
+        MappedSharedStringsTable table = new MappedSharedStringsTable(3, 64);
+        try {
+            table.readFrom(new ByteArrayInputStream(xml.toString().getBytes("UTF-8")));
+            assertEquals(500, table.getCount());
+            assertEquals(500, table.getUniqueCount());
+            assertEquals(500, table.getItems().size());
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 499; i >= 0; i--) {
+                    assertEquals("Text " + i + " \u00e9\u4e2d\ud834\udd1e", table.getEntryAt(i));
+                }
+            }
+            try {
+                table.getEntryAt(500);
+                fail("expected IndexOutOfBoundsException");
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+        } finally {
+            assertTrue(table.dispose());
+        }
+        assertEquals(0, table.getItems().size());
+    }
+
+    public void testPullParser() throws Exception {
+        OPCPackage pkg = OPCPackage.open(_ssTests.openResourceAsStream("SampleSS.xlsx"));
+        XSSFReader reader = new XSSFReader(pkg);
+        MappedSharedStringsTable strings = new MappedSharedStringsTable(pkg);
+        try {
+            XSSFSheetPullParser parser = new XSSFSheetPullParser(
+                    reader.getSheetsData().next(), reader.getStylesTable(), strings);
+            int found = 0;
+            ReadOnlySharedStringsTable expected = new ReadOnlySharedStringsTable(pkg);
+            int event;
+            while ((event = parser.next()) != XSSFSheetPullParser.END_DOCUMENT) {
+                if (event == XSSFSheetPullParser.CELL
+                        && parser.getCellType() == XSSFSheetPullParser.SHARED_STRING) {
+                    assertEquals(expected.getEntryAt(parser.getSharedStringIndex()), parser.getStringValue());
+                    found++;
+                }
+            }
+            parser.close();
+            assertTrue(found > 0);
+        } finally {
+            strings.dispose();
+        }
+    }
+}
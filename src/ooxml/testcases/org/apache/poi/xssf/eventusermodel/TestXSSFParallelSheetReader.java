@@ -0,0 +1,135 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.eventusermodel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.POIDataSamples;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+
+/**
+ * Tests for {@link XSSFParallelSheetReader}
+ */
+public final class TestXSSFParallelSheetReader extends TestCase {
+    private static POIDataSamples _ssTests = POIDataSamples.getSpreadSheetInstance();
+
+    public void testSameAsSequential() throws Exception {
+        String[] files = { "SampleSS.xlsx", "FormulaEvalTestData_Copy.xlsx", "WithVariousData.xlsx", "Formatting.xlsx" };
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (String file : files) {
+                OPCPackage pkg = OPCPackage.open(_ssTests.openResourceAsStream(file));
+                XSSFParallelSheetReader reader = new XSSFParallelSheetReader(pkg);
+
+                RecordingFactory sequential = new RecordingFactory();
+                reader.process(null, sequential, false);
+                RecordingFactory parallel = new RecordingFactory();
+                reader.process(executor, parallel, false);
+
+                assertTrue(file, sequential.names.size() > 0);
+                assertEquals(file, sequential.names, parallel.names);
+                assertEquals(file, sequential.names.size(), parallel.ended.size());
+                for (int i = 0; i < parallel.ended.size(); i++) {
+                    assertEquals(Integer.valueOf(i), parallel.ended.get(i));
+                    assertEquals(file, sequential.contents.get(i).toString(), parallel.contents.get(i).toString());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testFailure() throws Exception {
+        OPCPackage pkg = OPCPackage.open(_ssTests.openResourceAsStream("FormulaEvalTestData_Copy.xlsx"));
+        XSSFParallelSheetReader reader = new XSSFParallelSheetReader(pkg);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        RecordingFactory factory = new RecordingFactory() {
+            @Override
+            public SheetContentsHandler startSheet(int sheetIndex, String sheetName) {
+                final SheetContentsHandler handler = super.startSheet(sheetIndex, sheetName);
+                if (sheetIndex != 0) {
+                    return handler;
+                }
+                return new RecordingHandler(new StringBuilder()) {
+                    @Override
+                    public void startRow(int rowNum) {
+                        throw new IllegalStateException("failed on purpose");
+                    }
+                };
+            }
+        };
+        try {
+            reader.process(executor, factory, false);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("failed on purpose", e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, factory.ended.size());
+    }
+
+    private static class RecordingFactory implements XSSFParallelSheetReader.SheetHandlerFactory {
+        final List<String> names = new ArrayList<String>();
+        final List<StringBuilder> contents = new ArrayList<StringBuilder>();
+        final List<Integer> ended = new ArrayList<Integer>();
+
+        public SheetContentsHandler startSheet(int sheetIndex, String sheetName) {
+            assertEquals(names.size(), sheetIndex);
+            assertTrue(ended.isEmpty());
+            names.add(sheetName);
+            StringBuilder out = new StringBuilder();
+            contents.add(out);
+            return new RecordingHandler(out);
+        }
+
+        public void endSheet(int sheetIndex, SheetContentsHandler handler) {
+            ended.add(Integer.valueOf(sheetIndex));
+        }
+    }
+
+    private static class RecordingHandler implements SheetContentsHandler {
+        private final StringBuilder out;
+
+        RecordingHandler(StringBuilder out) {
+            this.out = out;
+        }
+
+        public void startRow(int rowNum) {
+            out.append("row ").append(rowNum).append('\n');
+        }
+
+        public void endRow() {
+            out.append("end\n");
+        }
+
+        public void cell(String cellReference, String formattedValue) {
+            out.append(cellReference).append('=').append(formattedValue).append('\n');
+        }
+
+        public void headerFooter(String text, boolean isHeader, String tagName) {
+            out.append(tagName).append('=').append(text).append('\n');
+        }
+    }
+}
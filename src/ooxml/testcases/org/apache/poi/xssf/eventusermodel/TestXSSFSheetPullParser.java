@@ -0,0 +1,318 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.eventusermodel;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.POIDataSamples;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Tests for {@link XSSFSheetPullParser}
+ */
+public final class TestXSSFSheetPullParser extends TestCase {
+    private static POIDataSamples _ssTests = POIDataSamples.getSpreadSheetInstance();
+
+    private static XSSFSheetPullParser parser(String xml) throws Exception {
+        return new XSSFSheetPullParser(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    public void testEventsAndTypes() throws Exception {
+        XSSFSheetPullParser p = parser(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+                "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">" +
+                "<dimension ref=\"A1:E3\"/><sheetViews><sheetView workbookViewId=\"0\"><selection activeCell=\"A1\"/></sheetView></sheetViews>" +
+                "<sheetData>" +
+                "<row r=\"1\" spans=\"1:5\">" +
+                "<c r=\"A1\" s=\"3\"><v>12.5</v></c>" +
+                "<c r=\"B1\" t=\"s\"><v>7</v></c>" +
+                "<c r=\"C1\" t=\"b\"><v>1</v></c>" +
+                "<c r=\"D1\" t=\"e\"><v>#DIV/0!</v></c>" +
+                "<c r=\"E1\" t=\"inlineStr\"><is><t>a &amp; b &lt;c&gt; &#x41;&#66;</t></is></c>" +
+                "</row>" +
+                "<row r=\"3\"><c r=\"AA3\" s=\"1\"/><c r=\"AB3\"><f>SUM(A1:A2)</f><v>-1.5E-3</v></c>" +
+                "<c r=\"AC3\" t=\"str\"><f>\"x\"&amp;\"y\"</f><v>xy</v></c></row>" +
+                "<row r=\"4\"/>" +
+                "</sheetData><pageMargins left=\"0.7\"/></worksheet>");
+
+        assertEquals(XSSFSheetPullParser.START_ROW, p.next());
+        assertEquals(0, p.getRowIndex());
+
+        assertEquals(XSSFSheetPullParser.CELL, p.next());
+        assertEquals(0, p.getColumnIndex());
+        assertEquals(3, p.getStyleIndex());
+        assertEquals(XSSFSheetPullParser.NUMBER, p.getCellType());
+        assertEquals(12.5, p.getNumericValue(), 0.0);
+        assertEquals("12.5", p.getText().toString());
+        assertFalse(p.hasFormula());
+        assertNull(p.getFormula());
+
+        assertEquals(XSSFSheetPullParser.CELL, p.next());
+        assertEquals(1, p.getColumnIndex());
+        assertEquals(0, p.getStyleIndex());
+        assertEquals(XSSFSheetPullParser.SHARED_STRING, p.getCellType());
+        assertEquals(7, p.getSharedStringIndex());
+
+        assertEquals(XSSFSheetPullParser.CELL, p.next());
+        assertEquals(XSSFSheetPullParser.BOOLEAN, p.getCellType());
+        assertTrue(p.getBooleanValue());
+
+        assertEquals(XSSFSheetPullParser.CELL, p.next());
+        assertEquals(XSSFSheetPullParser.ERROR, p.getCellType());
+        assertEquals("#DIV/0!", p.getText().toString());
+        assertEquals("ERROR:#DIV/0!", p.getFormattedValue(new DataFormatter()));
+
+        assertEquals(XSSFSheetPullParser.CELL, p.next());
+        assertEquals(4, p.getColumnIndex());
+        assertEquals(XSSFSheetPullParser.INLINE_STRING, p.getCellType());
+        assertEquals("a & b <c> AB", p.getStringValue());
+
+        assertEquals(XSSFSheetPullParser.END_ROW, p.next());
+
+        assertEquals(XSSFSheetPullParser.START_ROW, p.next());
+        assertEquals(2, p.getRowIndex());
+        assertEquals(XSSFSheetPullParser.CELL, p.next());
+        assertEquals(26, p.getColumnIndex());
+        assertEquals(1, p.getStyleIndex());
+        assertEquals(XSSFSheetPullParser.BLANK, p.getCellType());
+        assertEquals(XSSFSheetPullParser.CELL, p.next());
+        assertEquals(27, p.getColumnIndex());
+        assertEquals(0, p.getStyleIndex());
+        assertEquals(XSSFSheetPullParser.NUMBER, p.getCellType());
+        assertEquals(-1.5E-3, p.getNumericValue(), 0.0);
+        assertEquals("SUM(A1:A2)", p.getFormula().toString());
+        assertEquals(XSSFSheetPullParser.CELL, p.next());
+        assertEquals(XSSFSheetPullParser.FORMULA_STRING, p.getCellType());
+        assertEquals("xy", p.getText().toString());
+        assertEquals("\"x\"&\"y\"", p.getFormula().toString());
+        assertEquals(XSSFSheetPullParser.END_ROW, p.next());
+
+        assertEquals(XSSFSheetPullParser.START_ROW, p.next());
+        assertEquals(3, p.getRowIndex());
+        assertEquals(XSSFSheetPullParser.END_ROW, p.next());
+        assertEquals(XSSFSheetPullParser.END_DOCUMENT, p.next());
+        assertEquals(XSSFSheetPullParser.END_DOCUMENT, p.next());
+    }
+
+    public void testMarkup() throws Exception {
+        // namespace prefixes, comments, CDATA, rich text runs and phonetic runs, no cell references
+        XSSFSheetPullParser p = parser(
+                "<x:worksheet xmlns:x=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">" +
+                "<!-- <sheetData><row r='9'/></sheetData> -->" +
+                "<x:sheetData><x:row>" +
+                "<x:c t='inlineStr'><x:is><x:r><x:rPr><x:b/></x:rPr><x:t>bold</x:t></x:r>" +
+                "<x:r><x:t xml:space='preserve'> é€😀</x:t></x:r>" +
+                "<x:rPh sb='0' eb='1'><x:t>phonetic</x:t></x:rPh></x:is></x:c>" +
+                "<x:c><x:v><![CDATA[42]]></x:v></x:c>" +
+                "</x:row><x:row><x:c><x:v>1</x:v></x:c></x:row></x:sheetData></x:worksheet>");
+
+        assertEquals(XSSFSheetPullParser.START_ROW, p.next());
+        assertEquals(0, p.getRowIndex());
+        assertEquals(XSSFSheetPullParser.CELL, p.next());
+        assertEquals(0, p.getColumnIndex());
+        assertEquals("bold é€😀", p.getStringValue());
+        assertEquals(XSSFSheetPullParser.CELL, p.next());
+        assertEquals(1, p.getColumnIndex());
+        assertEquals(42.0, p.getNumericValue(), 0.0);
+        assertEquals(XSSFSheetPullParser.END_ROW, p.next());
+        assertEquals(XSSFSheetPullParser.START_ROW, p.next());
+        assertEquals(1, p.getRowIndex());
+        assertEquals(XSSFSheetPullParser.CELL, p.next());
+        assertEquals(0, p.getColumnIndex());
+        assertEquals(XSSFSheetPullParser.END_ROW, p.next());
+        assertEquals(XSSFSheetPullParser.END_DOCUMENT, p.next());
+    }
+
+    public void testParseDouble() {
+        String[] values = {
+                "0", "-0", "1", "-1", "0.1", "0.30000000000000004", "123456789012345", "1234567890123456789",
+                "3.14159", "1E22", "1E23", "1.5E-10", "4.9E-324", "1.7976931348623157E308", "0.000001",
+                "12345.678901234567", "  7.25 ", "+3", "2.5e3", "9007199254740993", "1e-22", "123e-25"
+        };
+        for (String value : values) {
+            char[] chars = value.toCharArray();
+            double expected = Double.parseDouble(value);
+            assertEquals(value, Double.doubleToLongBits(expected),
+                    Double.doubleToLongBits(XSSFSheetPullParser.parseDouble(chars, chars.length)));
+        }
+        // random values, printed the way Excel and POI write them
+        Random rnd = new Random(12345);
+        for (int i = 0; i < 10000; i++) {
+            double d = (rnd.nextDouble() - 0.5) * Math.pow(10, rnd.nextInt(30) - 15);
+            String[] texts = { Double.toString(d), Long.toString(Math.round(d * 100)) + "E-2" };
+            for (String text : texts) {
+                char[] chars = text.toCharArray();
+                assertEquals(text, Double.doubleToLongBits(Double.parseDouble(text)),
+                        Double.doubleToLongBits(XSSFSheetPullParser.parseDouble(chars, chars.length)));
+            }
+        }
+    }
+
+    /**
+     * The values read from sample files must match those read by the usermodel
+     */
+    public void testSampleFiles() throws Exception {
+        String[] files = {
+                "SampleSS.xlsx", "InlineStrings.xlsx", "Booleans.xlsx", "Formatting.xlsx",
+                "FormulaEvalTestData_Copy.xlsx", "WithVariousData.xlsx", "sample.xlsx"
+        };
+        for (String file : files) {
+            XSSFWorkbook wb = new XSSFWorkbook(_ssTests.openResourceAsStream(file));
+            OPCPackage pkg = OPCPackage.open(_ssTests.openResourceAsStream(file));
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            XSSFReader.SheetIterator it = (XSSFReader.SheetIterator)reader.getSheetsData();
+            int sheetIndex = 0;
+            while (it.hasNext()) {
+                InputStream is = it.next();
+                XSSFSheet sheet = wb.getSheetAt(sheetIndex++);
+                assertEquals(sheet.getSheetName(), it.getSheetName());
+                XSSFSheetPullParser p = new XSSFSheetPullParser(is, reader.getStylesTable(), strings);
+                int cells = 0;
+                int event;
+                while ((event = p.next()) != XSSFSheetPullParser.END_DOCUMENT) {
+                    if (event != XSSFSheetPullParser.CELL) {
+                        continue;
+                    }
+                    cells++;
+                    String where = file + " " + sheet.getSheetName() + " " + p.getRowIndex() + "," + p.getColumnIndex();
+                    XSSFCell cell = sheet.getRow(p.getRowIndex()).getCell(p.getColumnIndex());
+                    assertNotNull(where, cell);
+                    assertEquals(where, cell.getCellStyle().getIndex(), p.getStyleIndex());
+                    assertEquals(where, cell.getCellType() == Cell.CELL_TYPE_FORMULA, p.hasFormula());
+                    int type = cell.getCellType() == Cell.CELL_TYPE_FORMULA ? cell.getCachedFormulaResultType() : cell.getCellType();
+                    switch (p.getCellType()) {
+                        case XSSFSheetPullParser.NUMBER:
+                            assertEquals(where, Cell.CELL_TYPE_NUMERIC, type);
+                            assertEquals(where, cell.getNumericCellValue(), p.getNumericValue(), 0.0);
+                            break;
+                        case XSSFSheetPullParser.SHARED_STRING:
+                        case XSSFSheetPullParser.INLINE_STRING:
+                        case XSSFSheetPullParser.FORMULA_STRING:
+                            assertEquals(where, Cell.CELL_TYPE_STRING, type);
+                            assertEquals(where, cell.getStringCellValue(), p.getStringValue());
+                            break;
+                        case XSSFSheetPullParser.BOOLEAN:
+                            assertEquals(where, Cell.CELL_TYPE_BOOLEAN, type);
+                            assertEquals(where, cell.getBooleanCellValue(), p.getBooleanValue());
+                            break;
+                        case XSSFSheetPullParser.ERROR:
+                            assertEquals(where, Cell.CELL_TYPE_ERROR, type);
+                            assertEquals(where, cell.getErrorCellString(), p.getText().toString());
+                            break;
+                    }
+                }
+                int expected = 0;
+                for (int r = sheet.getFirstRowNum(); r <= sheet.getLastRowNum(); r++) {
+                    if (sheet.getRow(r) != null) {
+                        expected += sheet.getRow(r).getPhysicalNumberOfCells();
+                    }
+                }
+                assertEquals(file + " " + sheet.getSheetName(), expected, cells);
+                p.close();
+            }
+        }
+    }
+
+    /**
+     * Formatted values must match those of {@link XSSFSheetXMLHandler}
+     */
+    public void testCallbacksAndFormatting() throws Exception {
+        String[] files = { "SampleSS.xlsx", "Formatting.xlsx", "FormulaEvalTestData_Copy.xlsx", "Booleans.xlsx" };
+        int total = 0;
+        for (String file : files) {
+            OPCPackage pkg = OPCPackage.open(_ssTests.openResourceAsStream(file));
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            List<String> pulled = parseWithCallbacks(reader.getSheetsData().next(), reader.getStylesTable(), strings);
+            List<String> sax = parseWithSAX(reader.getSheetsData().next(), reader.getStylesTable(), strings);
+            assertEquals(file, sax, pulled);
+            total += pulled.size();
+        }
+        assertTrue(total > 100);
+    }
+
+    private static List<String> parseWithCallbacks(InputStream is, StylesTable styles,
+            ReadOnlySharedStringsTable strings) throws Exception {
+        final XSSFSheetPullParser p = new XSSFSheetPullParser(is, styles, strings);
+        final DataFormatter formatter = new DataFormatter();
+        final List<String> values = new ArrayList<String>();
+        p.parse(new XSSFSheetPullParser.SheetCellHandler() {
+            public void startRow(int rowIndex) {
+                values.add("row " + rowIndex);
+            }
+            public void endRow(int rowIndex) {
+            }
+            public void numericCell(int rowIndex, int columnIndex, int styleIndex, double value) {
+                values.add(p.getFormattedValue(formatter));
+            }
+            public void sharedStringCell(int rowIndex, int columnIndex, int styleIndex, int sharedStringIndex) {
+                values.add(p.getFormattedValue(formatter));
+            }
+            public void booleanCell(int rowIndex, int columnIndex, int styleIndex, boolean value) {
+                values.add(p.getFormattedValue(formatter));
+            }
+            public void textCell(int rowIndex, int columnIndex, int styleIndex, CharSequence text) {
+                values.add(text.toString());
+            }
+            public void errorCell(int rowIndex, int columnIndex, int styleIndex, CharSequence error) {
+                values.add(p.getFormattedValue(formatter));
+            }
+        });
+        p.close();
+        return values;
+    }
+
+    private static List<String> parseWithSAX(InputStream is, StylesTable styles,
+            ReadOnlySharedStringsTable strings) throws Exception {
+        final List<String> values = new ArrayList<String>();
+        XMLReader xmlReader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+        xmlReader.setContentHandler(new XSSFSheetXMLHandler(styles, strings,
+                new XSSFSheetXMLHandler.SheetContentsHandler() {
+                    public void startRow(int rowNum) {
+                        values.add("row " + rowNum);
+                    }
+                    public void endRow() {
+                    }
+                    public void cell(String cellReference, String formattedValue) {
+                        values.add(formattedValue);
+                    }
+                    public void headerFooter(String text, boolean isHeader, String tagName) {
+                    }
+                }, new DataFormatter(), false));
+        xmlReader.parse(new InputSource(is));
+        is.close();
+        return values;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *  ====================================================================
+ *    Licensed to the Apache Software Foundation (ASF) under one or more
+ *    contributor license agreements.  See the NOTICE file distributed with
+ *    this work for additional information regarding copyright ownership.
+ *    The ASF licenses this file to You under the Apache License, Version 2.0
+ *    (the "License"); you may not use this file except in compliance with
+ *    the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * ====================================================================
+ */
+
+package org.apache.poi.xssf.streaming;
+
+import org.apache.poi.ss.usermodel.BaseTestCell;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.SXSSFITestDataProvider;
+
+/**
+ * Runs the cell tests against cells of rows with compact cell storage
+ */
+public class TestSXSSFCompactCell extends BaseTestCell {
+
+    public TestSXSSFCompactCell() {
+        super(SXSSFITestDataProvider.compactInstance);
+    }
+
+    @Override
+    public void tearDown(){
+        SXSSFITestDataProvider.compactInstance.cleanup();
+    }
+
+    /**
+     * this test involves evaluation of formulas which isn't supported for SXSSF
+     */
+    @Override
+    public void testConvertStringFormulaCell() {
+        try {
+            super.testConvertStringFormulaCell();
+            fail("expected exception");
+        } catch (IllegalArgumentException e){
+            assertEquals(
+                    "Unexpected type of cell: class org.apache.poi.xssf.streaming.SXSSFCompactCell. " +
+                    "Only XSSFCells can be evaluated.", e.getMessage());
+        }
+    }
+
+    /**
+     * this test involves evaluation of formulas which isn't supported for SXSSF
+     */
+    @Override
+    public void testSetTypeStringOnFormulaCell() {
+        try {
+            super.testSetTypeStringOnFormulaCell();
+            fail("expected exception");
+        } catch (IllegalArgumentException e){
+            assertEquals(
+                    "Unexpected type of cell: class org.apache.poi.xssf.streaming.SXSSFCompactCell. " +
+                    "Only XSSFCells can be evaluated.", e.getMessage());
+        }
+    }
+
+    public void testViewsOfTheSameCell() {
+        Workbook wb = _testDataProvider.createWorkbook();
+        Row row = wb.createSheet().createRow(3);
+        Cell cell = row.createCell(2);
+        cell.setCellValue(1.5);
+
+        assertEquals(cell, row.getCell(2));
+        assertEquals(cell.hashCode(), row.getCell(2).hashCode());
+        assertFalse(cell.equals(row.createCell(1)));
+        assertEquals(2, cell.getColumnIndex());
+        assertEquals(3, cell.getRowIndex());
+
+        row.getCell(2).setCellValue("text");
+        assertEquals("text", cell.getStringCellValue());
+
+        row.removeCell(row.getCell(2));
+        assertNull(row.getCell(2));
+        try {
+            cell.getCellType();
+            fail("expected exception");
+        } catch (IllegalStateException e) {
+            // expected, the cell was removed
+        }
+    }
+
+    public void testFormulaKeepsFormulaWhenResultTypeChanges() {
+        Workbook wb = _testDataProvider.createWorkbook();
+        Cell cell = wb.createSheet().createRow(0).createCell(0);
+        cell.setCellFormula("A2&A3");
+        cell.setCellValue("cached");
+
+        assertEquals(Cell.CELL_TYPE_FORMULA, cell.getCellType());
+        assertEquals(Cell.CELL_TYPE_STRING, cell.getCachedFormulaResultType());
+        assertEquals("A2&A3", cell.getCellFormula());
+        assertEquals("cached", cell.getStringCellValue());
+    }
+
+    public void testWriteCompactRows() {
+        Workbook wb = _testDataProvider.createWorkbook();
+        CellStyle style = wb.createCellStyle();
+        style.setDataFormat(wb.createDataFormat().getFormat("0.00"));
+        Sheet sh = wb.createSheet();
+        ((SXSSFSheet)sh).setRandomAccessWindowSize(2);
+        for (int r = 0; r < 10; r++) {
+            Row row = sh.createRow(r);
+            row.createCell(0).setCellValue(r);
+            row.createCell(2).setCellValue("row " + r);
+            row.createCell(3).setCellValue(r % 2 == 0);
+            row.createCell(4).setCellErrorValue(FormulaError.NA.getCode());
+            Cell formula = row.createCell(5);
+            formula.setCellFormula("A" + (r + 1) + "*2");
+            formula.setCellValue(r * 2);
+            row.getCell(0).setCellStyle(style);
+        }
+        assertNull(sh.getRow(0));
+        assertNotNull(sh.getRow(9));
+
+        Workbook xwb = _testDataProvider.writeOutAndReadBack(wb);
+        Sheet xsh = xwb.getSheetAt(0);
+        assertEquals(9, xsh.getLastRowNum());
+        for (int r = 0; r < 10; r++) {
+            Row row = xsh.getRow(r);
+            assertEquals(5, row.getPhysicalNumberOfCells());
+            assertEquals((double)r, row.getCell(0).getNumericCellValue(), 0.0);
+            assertEquals(style.getIndex(), row.getCell(0).getCellStyle().getIndex());
+            assertNull(row.getCell(1));
+            assertEquals("row " + r, row.getCell(2).getStringCellValue());
+            assertEquals(r % 2 == 0, row.getCell(3).getBooleanCellValue());
+            assertEquals(FormulaError.NA.getCode(), row.getCell(4).getErrorCellValue());
+            assertEquals("A" + (r + 1) + "*2", row.getCell(5).getCellFormula());
+            assertEquals(r * 2.0, row.getCell(5).getNumericCellValue(), 0.0);
+        }
+    }
+}
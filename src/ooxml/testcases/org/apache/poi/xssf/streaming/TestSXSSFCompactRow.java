@@ -0,0 +1,91 @@
+/*
+ *  ====================================================================
+ *    Licensed to the Apache Software Foundation (ASF) under one or more
+ *    contributor license agreements.  See the NOTICE file distributed with
+ *    this work for additional information regarding copyright ownership.
+ *    The ASF licenses this file to You under the Apache License, Version 2.0
+ *    (the "License"); you may not use this file except in compliance with
+ *    the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * ====================================================================
+ */
+
+package org.apache.poi.xssf.streaming;
+
+import java.util.Iterator;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.BaseTestRow;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.SXSSFITestDataProvider;
+
+/**
+ * Runs the row tests against rows with compact cell storage
+ */
+public final class TestSXSSFCompactRow extends BaseTestRow {
+
+    public TestSXSSFCompactRow() {
+        super(SXSSFITestDataProvider.compactInstance);
+    }
+
+
+    @Override
+    public void tearDown(){
+        SXSSFITestDataProvider.compactInstance.cleanup();
+    }
+
+    public void testRowBounds() {
+        baseTestRowBounds(SpreadsheetVersion.EXCEL2007.getLastRowIndex());
+    }
+
+    public void testCellBounds() {
+        baseTestCellBounds(SpreadsheetVersion.EXCEL2007.getLastColumnIndex());
+    }
+
+    /**
+     * cells of compact rows are views, compare them with equals() instead of by identity
+     */
+    @Override
+    public void testCellIterator() {
+        Workbook wb = SXSSFITestDataProvider.compactInstance.createWorkbook();
+        Sheet sheet = wb.createSheet();
+        Row row = sheet.createRow(0);
+
+        Cell cell1 = row.createCell(1);
+        Cell cell2 = row.createCell(99);
+        Cell cell3 = row.createCell(0);
+        Iterator<Cell> it = row.cellIterator();
+        assertEquals(cell3, it.next());
+        assertEquals(cell1, it.next());
+        assertEquals(cell2, it.next());
+        assertFalse(it.hasNext());
+
+        // Replace cell1
+        Cell cell4 = row.createCell(1, Cell.CELL_TYPE_STRING);
+        Cell cell5 = row.createCell(2, Cell.CELL_TYPE_BOOLEAN);
+        it = row.cellIterator();
+        assertEquals(cell3, it.next());
+        assertEquals(cell4, it.next());
+        assertEquals(Cell.CELL_TYPE_STRING, cell1.getCellType());
+        assertEquals(cell5, it.next());
+        assertEquals(cell2, it.next());
+        assertFalse(it.hasNext());
+        assertEquals(4, row.getPhysicalNumberOfCells());
+        assertEquals(0, row.getFirstCellNum());
+        assertEquals(100, row.getLastCellNum());
+
+        row.removeCell(cell2);
+        assertEquals(3, row.getLastCellNum());
+    }
+
+}
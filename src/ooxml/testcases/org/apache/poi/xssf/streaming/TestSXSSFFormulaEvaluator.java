@@ -0,0 +1,207 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+
+package org.apache.poi.xssf.streaming;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.SXSSFITestDataProvider;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Tests for {@link SXSSFFormulaEvaluator} and the evaluation of formulas before rows are flushed
+ */
+public final class TestSXSSFFormulaEvaluator extends TestCase {
+
+    @Override
+    public void tearDown(){
+        SXSSFITestDataProvider.instance.cleanup();
+        SXSSFITestDataProvider.compactInstance.cleanup();
+    }
+
+    public void testEvaluateInWindow() {
+        confirmEvaluateInWindow(SXSSFITestDataProvider.instance.createWorkbook());
+        confirmEvaluateInWindow(SXSSFITestDataProvider.compactInstance.createWorkbook());
+    }
+
+    private static void confirmEvaluateInWindow(SXSSFWorkbook wb) {
+        Sheet sheet = wb.createSheet("Data");
+        for (int i = 0; i < 10; i++) {
+            sheet.createRow(i).createCell(0).setCellValue(i + 1);
+        }
+        Row row = sheet.createRow(10);
+        Cell sum = row.createCell(0);
+        sum.setCellFormula("SUM(A1:A10)");
+        Cell text = row.createCell(1);
+        text.setCellFormula("\"n=\"&A3");
+        Cell bool = row.createCell(2);
+        bool.setCellFormula("A11>50");
+        Cell error = row.createCell(3);
+        error.setCellFormula("A1/0");
+
+        SXSSFFormulaEvaluator evaluator = new SXSSFFormulaEvaluator(wb);
+        assertEquals(Cell.CELL_TYPE_NUMERIC, evaluator.evaluateFormulaCell(sum));
+        assertEquals(55.0, sum.getNumericCellValue(), 0.0);
+        assertEquals(Cell.CELL_TYPE_STRING, evaluator.evaluateFormulaCell(text));
+        assertEquals("n=3", text.getStringCellValue());
+        assertEquals(Cell.CELL_TYPE_BOOLEAN, evaluator.evaluateFormulaCell(bool));
+        assertTrue(bool.getBooleanCellValue());
+        assertEquals(Cell.CELL_TYPE_ERROR, evaluator.evaluateFormulaCell(error));
+        assertEquals(FormulaError.DIV0.getCode(), error.getErrorCellValue());
+        // the formulas are kept
+        assertEquals("\"n=\"&A3", text.getCellFormula());
+        assertEquals("A1/0", error.getCellFormula());
+        assertEquals("n=3", evaluator.evaluate(text).getStringValue());
+    }
+
+    public void testRowFlushed() throws Exception {
+        SXSSFWorkbook wb = new SXSSFWorkbook(2);
+        try {
+            Sheet sheet = wb.createSheet();
+            for (int i = 0; i < 5; i++) {
+                sheet.createRow(i).createCell(0).setCellValue(i);
+            }
+            Cell cell = sheet.getRow(4).createCell(1);
+            SXSSFFormulaEvaluator evaluator = new SXSSFFormulaEvaluator(wb);
+            cell.setCellFormula("A4+A5+A9");
+            evaluator.evaluateFormulaCell(cell);
+            assertEquals(7.0, cell.getNumericCellValue(), 0.0);
+
+            cell.setCellFormula("A3+A5");
+            evaluator.clearAllCachedResultValues();
+            try {
+                evaluator.evaluateFormulaCell(cell);
+                fail("expected RowFlushedException");
+            } catch (SXSSFFormulaEvaluator.RowFlushedException e) {
+                assertEquals("Row 3 of sheet 'Sheet0' was already flushed", e.getMessage());
+            }
+        } finally {
+            wb.dispose();
+        }
+    }
+
+    public void testEvaluateOnFlush() {
+        confirmEvaluateOnFlush(SXSSFITestDataProvider.instance.createWorkbook());
+        confirmEvaluateOnFlush(SXSSFITestDataProvider.compactInstance.createWorkbook());
+    }
+
+    private static void confirmEvaluateOnFlush(SXSSFWorkbook wb) {
+        wb.setEvaluateFormulasOnFlush(true);
+        Sheet sheet = wb.createSheet("Data");
+        ((SXSSFSheet)sheet).setRandomAccessWindowSize(5);
+        for (int i = 0; i < 20; i++) {
+            Row row = sheet.createRow(i);
+            row.createCell(0).setCellValue(i);
+            if (i > 0) {
+                // running total, references the row above
+                row.createCell(1).setCellFormula("B" + i + "+A" + (i + 1));
+            } else {
+                // references a row below, which exists once the row is flushed
+                row.createCell(1).setCellFormula("A3");
+            }
+            row.createCell(2).setCellFormula("IF(MOD(A" + (i + 1) + ",2)=0,\"even\",\"odd\")");
+            row.createCell(3).setCellFormula("A" + (i + 1) + ">10");
+        }
+        // rows 0 to 14 are flushed
+        Cell flushed = sheet.getRow(19).createCell(4);
+        flushed.setCellFormula("A1");
+        flushed.setCellValue(-1);
+        Sheet other = wb.createSheet("Other");
+        other.createRow(0).createCell(0).setCellFormula("Data!B20*2");
+
+        XSSFWorkbook result = (XSSFWorkbook) SXSSFITestDataProvider.instance.writeOutAndReadBack(wb);
+        XSSFSheet data = result.getSheet("Data");
+        assertEquals(2.0, data.getRow(0).getCell(1).getNumericCellValue(), 0.0);
+        double total = 2.0;
+        for (int i = 0; i < 20; i++) {
+            Row row = data.getRow(i);
+            if (i > 0) {
+                total += i;
+                assertEquals(total, row.getCell(1).getNumericCellValue(), 0.0);
+            }
+            assertEquals(Cell.CELL_TYPE_STRING, row.getCell(2).getCachedFormulaResultType());
+            assertEquals(i % 2 == 0 ? "even" : "odd", row.getCell(2).getStringCellValue());
+            assertEquals(Cell.CELL_TYPE_BOOLEAN, row.getCell(3).getCachedFormulaResultType());
+            assertEquals(i > 10, row.getCell(3).getBooleanCellValue());
+        }
+        // could not be evaluated, the value set is kept
+        assertEquals("A1", data.getRow(19).getCell(4).getCellFormula());
+        assertEquals(-1.0, data.getRow(19).getCell(4).getNumericCellValue(), 0.0);
+        assertEquals(total * 2, result.getSheet("Other").getRow(0).getCell(0).getNumericCellValue(), 0.0);
+    }
+
+    public void testEvaluateOnFlushForwardReference() {
+        SXSSFWorkbook wb = SXSSFITestDataProvider.instance.createWorkbook();
+        wb.setEvaluateFormulasOnFlush(true);
+        Sheet sheet = wb.createSheet();
+        ((SXSSFSheet)sheet).setRandomAccessWindowSize(10);
+        for (int i = 0; i < 100; i++) {
+            Row row = sheet.createRow(i);
+            row.createCell(0).setCellValue(10 * i);
+            // references the row below, complete once the row is flushed
+            row.createCell(1).setCellFormula("A" + (i + 2) + "-A" + (i + 1));
+        }
+
+        XSSFWorkbook result = (XSSFWorkbook) SXSSFITestDataProvider.instance.writeOutAndReadBack(wb);
+        XSSFSheet data = result.getSheetAt(0);
+        for (int i = 0; i < 99; i++) {
+            assertEquals(10.0, data.getRow(i).getCell(1).getNumericCellValue(), 0.0);
+        }
+    }
+
+    public void testEvaluateOnFlushAfterChange() {
+        SXSSFWorkbook wb = SXSSFITestDataProvider.instance.createWorkbook();
+        wb.setEvaluateFormulasOnFlush(true);
+        Sheet sheet = wb.createSheet();
+        ((SXSSFSheet)sheet).setRandomAccessWindowSize(2);
+        Row row0 = sheet.createRow(0);
+        row0.createCell(0).setCellValue(1);
+        row0.createCell(1).setCellFormula("A2*2");
+        Row row1 = sheet.createRow(1);
+        row1.createCell(0).setCellValue(5);
+        row1.createCell(1).setCellFormula("A2+1");
+        // flushes the first row, which reads A2
+        sheet.createRow(2);
+        // the value read before changes before its row is flushed
+        row1.getCell(0).setCellValue(7);
+        sheet.createRow(3);
+
+        XSSFWorkbook result = (XSSFWorkbook) SXSSFITestDataProvider.instance.writeOutAndReadBack(wb);
+        XSSFSheet data = result.getSheetAt(0);
+        assertEquals(10.0, data.getRow(0).getCell(1).getNumericCellValue(), 0.0);
+        assertEquals(8.0, data.getRow(1).getCell(1).getNumericCellValue(), 0.0);
+    }
+
+    public void testWithoutEvaluation() {
+        SXSSFWorkbook wb = SXSSFITestDataProvider.instance.createWorkbook();
+        Sheet sheet = wb.createSheet();
+        Row row = sheet.createRow(0);
+        row.createCell(0).setCellValue(3);
+        row.createCell(1).setCellFormula("A1*2");
+
+        XSSFWorkbook result = (XSSFWorkbook) SXSSFITestDataProvider.instance.writeOutAndReadBack(wb);
+        Cell cell = result.getSheetAt(0).getRow(0).getCell(1);
+        assertEquals("A1*2", cell.getCellFormula());
+        assertEquals(0.0, cell.getNumericCellValue(), 0.0);
+    }
+}
@@ -0,0 +1,115 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.xssf.streaming;
+
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+public final class TestSXSSFRowBuffer extends TestCase {
+
+    private static SXSSFRow newRow() {
+        return new SXSSFRow(null, 0);
+    }
+
+    public void testAppendAndFlushFromTheTop() {
+        SXSSFRowBuffer buffer = new SXSSFRowBuffer();
+        SXSSFRow[] rows = new SXSSFRow[1000];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = newRow();
+            buffer.put(i, rows[i]);
+            // keep a window of 10 rows, the way SXSSFSheet.createRow does
+            if (buffer.size() > 10) {
+                assertSame(rows[buffer.firstRowNum()], buffer.firstRow());
+                buffer.removeFirst();
+            }
+        }
+        assertEquals(10, buffer.size());
+        assertEquals(990, buffer.firstRowNum());
+        assertEquals(999, buffer.lastRowNum());
+        assertNull(buffer.get(989));
+        assertSame(rows[995], buffer.get(995));
+        assertEquals(995, buffer.getRowNum(rows[995]));
+        assertEquals(-1, buffer.getRowNum(rows[0]));
+    }
+
+    public void testInsertOutOfOrder() {
+        SXSSFRowBuffer buffer = new SXSSFRowBuffer();
+        int[] rownums = {50, 10, 30, 70, 20, 60, 40, 0};
+        SXSSFRow[] rows = new SXSSFRow[rownums.length];
+        for (int i = 0; i < rownums.length; i++) {
+            rows[i] = newRow();
+            buffer.put(rownums[i], rows[i]);
+        }
+        assertEquals(8, buffer.size());
+        assertEquals(0, buffer.firstRowNum());
+        assertEquals(70, buffer.lastRowNum());
+
+        // replacing keeps the size
+        SXSSFRow replacement = newRow();
+        buffer.put(30, replacement);
+        assertEquals(8, buffer.size());
+        assertSame(replacement, buffer.get(30));
+
+        int expected = 0;
+        for (Iterator<SXSSFRow> it = buffer.iterator(); it.hasNext(); ) {
+            assertEquals(expected, buffer.getRowNum(it.next()));
+            expected += 10;
+        }
+        assertEquals(80, expected);
+
+        Iterator<SXSSFRow> it = buffer.iterator(15, 40);
+        assertSame(buffer.get(20), it.next());
+        assertSame(replacement, it.next());
+        assertSame(buffer.get(40), it.next());
+        assertFalse(it.hasNext());
+    }
+
+    public void testRemove() {
+        SXSSFRowBuffer buffer = new SXSSFRowBuffer();
+        SXSSFRow[] rows = new SXSSFRow[5];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = newRow();
+            buffer.put(i, rows[i]);
+        }
+        assertTrue(buffer.remove(rows[2]));
+        assertFalse(buffer.remove(rows[2]));
+        assertNull(buffer.get(2));
+        assertEquals(4, buffer.size());
+
+        Iterator<SXSSFRow> it = buffer.iterator();
+        assertSame(rows[0], it.next());
+        it.remove();
+        assertSame(rows[1], it.next());
+        assertSame(rows[3], it.next());
+        it.remove();
+        assertSame(rows[4], it.next());
+        assertFalse(it.hasNext());
+
+        assertEquals(2, buffer.size());
+        assertEquals(1, buffer.firstRowNum());
+        assertEquals(4, buffer.lastRowNum());
+
+        buffer.removeFirst();
+        buffer.removeFirst();
+        assertEquals(0, buffer.size());
+        buffer.put(7, rows[0]);
+        assertEquals(7, buffer.firstRowNum());
+        assertEquals(7, buffer.lastRowNum());
+    }
+}
@@ -25,6 +25,11 @@ import org.apache.poi.xssf.SXSSFITestDataProvider;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public final class TestSXSSFWorkbook extends BaseTestWorkbook {
     public static final SXSSFITestDataProvider _testDataProvider = SXSSFITestDataProvider.instance;
@@ -222,6 +227,101 @@ public final class TestSXSSFWorkbook extends BaseTestWorkbook {
 
     }
 
+    public void testSharedStringsTable(){
+        SXSSFWorkbook wb = new SXSSFWorkbook(null, 10, false, true);
+        Sheet sh = wb.createSheet("S1");
+        for(int j = 0; j < 100; j++){
+            Row row = sh.createRow(j);
+            row.createCell(0).setCellValue("label " + (j % 5));
+            row.createCell(1).setCellValue(" padded <" + j + "> & more ");
+        }
+
+        XSSFWorkbook xwb = (XSSFWorkbook)SXSSFITestDataProvider.instance.writeOutAndReadBack(wb);
+        assertEquals(105, xwb.getSharedStringSource().getUniqueCount());
+        assertEquals(200, xwb.getSharedStringSource().getCount());
+        Sheet xsh = xwb.getSheet("S1");
+        for(int j = 0; j < 100; j++){
+            Row row = xsh.getRow(j);
+            assertEquals("label " + (j % 5), row.getCell(0).getStringCellValue());
+            assertEquals(" padded <" + j + "> & more ", row.getCell(1).getStringCellValue());
+        }
+        assertTrue(wb.dispose());
+    }
+
+    public void testSharedStringsTableSpillsToDisk(){
+        XSSFWorkbook template = new XSSFWorkbook();
+        template.createSheet("S1").createRow(0).createCell(0).setCellValue("from template");
+        SXSSFWorkbook wb = new SXSSFWorkbook(template, 10, true, true);
+        wb.setSharedStringsInMemoryLimit(20);
+        Sheet sh = wb.createSheet("S2");
+        for(int j = 0; j < 1000; j++){
+            Row row = sh.createRow(j);
+            row.createCell(0).setCellValue("unique " + j + "\u00e9\t");
+            row.createCell(1).setCellValue("repeated " + (j % 3));
+        }
+        assertTrue(wb._sharedStringSource.getSpilledCount() > 0);
+
+        XSSFWorkbook xwb = (XSSFWorkbook)SXSSFITestDataProvider.instance.writeOutAndReadBack(wb);
+        assertEquals(wb._sharedStringSource.getUniqueCount(), xwb.getSharedStringSource().getUniqueCount());
+        assertEquals(2001, xwb.getSharedStringSource().getCount());
+        assertEquals("from template", xwb.getSheet("S1").getRow(0).getCell(0).getStringCellValue());
+        Sheet xsh = xwb.getSheet("S2");
+        for(int j = 0; j < 1000; j++){
+            Row row = xsh.getRow(j);
+            assertEquals("unique " + j + "\u00e9\t", row.getCell(0).getStringCellValue());
+            assertEquals("repeated " + (j % 3), row.getCell(1).getStringCellValue());
+        }
+        assertTrue(wb.dispose());
+    }
+
+    public void testConcurrentWrite() throws IOException {
+        SXSSFWorkbook wb = new SXSSFWorkbook(null, 10, false, true);
+        int rowNum = 500;
+        int sheetNum = 6;
+        for(int i = 0; i < sheetNum; i++){
+            Sheet sh = wb.createSheet("sheet" + i);
+            for(int j = 0; j < rowNum; j++){
+                Row row = sh.createRow(j);
+                row.createCell(0).setCellValue("label " + (j % 7));
+                row.createCell(1).setCellValue(i * 1000 + j);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        File file = File.createTempFile("poi-sxssf-concurrent", ".xlsx");
+        try {
+            FileOutputStream fos = new FileOutputStream(file);
+            try {
+                wb.write(fos, executor);
+            } finally {
+                fos.close();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // read through ZipInputStream, which relies on the local headers,
+        // and through ZipFile, which relies on the central directory
+        XSSFWorkbook[] readBack = {
+                new XSSFWorkbook(new FileInputStream(file)),
+                new XSSFWorkbook(file.getPath())
+        };
+        for (XSSFWorkbook xwb : readBack) {
+            assertEquals(sheetNum, xwb.getNumberOfSheets());
+            for(int i = 0; i < sheetNum; i++){
+                Sheet sh = xwb.getSheetAt(i);
+                assertEquals("sheet" + i, sh.getSheetName());
+                for(int j = 0; j < rowNum; j++){
+                    Row row = sh.getRow(j);
+                    assertEquals("label " + (j % 7), row.getCell(0).getStringCellValue());
+                    assertEquals(i * 1000 + j, (int)row.getCell(1).getNumericCellValue());
+                }
+            }
+        }
+        assertTrue(file.delete());
+        assertTrue(wb.dispose());
+    }
+
     static void assertWorkbookDispose(SXSSFWorkbook wb)
     {
         int rowNum = 1000;
@@ -0,0 +1,151 @@
+/*
+ *  ====================================================================
+ *    Licensed to the Apache Software Foundation (ASF) under one or more
+ *    contributor license agreements.  See the NOTICE file distributed with
+ *    this work for additional information regarding copyright ownership.
+ *    The ASF licenses this file to You under the Apache License, Version 2.0
+ *    (the "License"); you may not use this file except in compliance with
+ *    the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * ====================================================================
+ */
+
+package org.apache.poi.xssf.streaming;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.SXSSFITestDataProvider;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+public final class TestSheetDataStorage extends TestCase {
+
+    private static byte[] createData(int length) {
+        // a mix of repetitive xml-like text and random bytes
+        byte[] data = new byte[length];
+        Random rnd = new Random(12345);
+        byte[] text = "<row r=\"1\"><c r=\"A1\" t=\"n\"><v>42</v></c></row>\n".getBytes();
+        for (int i = 0; i < length; i++) {
+            data[i] = (i / 5000) % 3 == 2 ? (byte) rnd.nextInt() : text[i % text.length];
+        }
+        return data;
+    }
+
+    private static void assertRoundTrip(SheetDataStorage storage, byte[] data) throws IOException {
+        OutputStream os = storage.getOutputStream();
+        // write in uneven pieces to cross block and chunk boundaries
+        int pos = 0;
+        int step = 1;
+        while (pos < data.length) {
+            int n = Math.min(step, data.length - pos);
+            if (n == 1) {
+                os.write(data[pos]);
+            } else {
+                os.write(data, pos, n);
+            }
+            pos += n;
+            step = step * 3 + 1;
+        }
+        os.close();
+        assertEquals(data.length, storage.getBytesWritten());
+
+        InputStream is = storage.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IOUtils.copy(is, out);
+        is.close();
+        assertTrue(Arrays.equals(data, out.toByteArray()));
+        assertTrue(storage.dispose());
+    }
+
+    public void testLZBlockCodec() {
+        LZBlockCodec codec = new LZBlockCodec();
+        int[] lengths = { 0, 1, 3, 4, 5, 16, 100, 5000, 65536 };
+        for (int length : lengths) {
+            byte[] data = createData(length);
+            byte[] compressed = new byte[LZBlockCodec.maxCompressedLength(length)];
+            int compressedLength = codec.compress(data, length, compressed);
+            byte[] restored = new byte[length];
+            assertEquals(length, LZBlockCodec.decompress(compressed, compressedLength, restored));
+            assertTrue(Arrays.equals(data, restored));
+        }
+
+        byte[] repetitive = new byte[65536];
+        Arrays.fill(repetitive, (byte) 'x');
+        byte[] compressed = new byte[LZBlockCodec.maxCompressedLength(repetitive.length)];
+        int compressedLength = codec.compress(repetitive, repetitive.length, compressed);
+        assertTrue(compressedLength < 1000);
+        byte[] restored = new byte[repetitive.length];
+        assertEquals(repetitive.length, LZBlockCodec.decompress(compressed, compressedLength, restored));
+        assertTrue(Arrays.equals(repetitive, restored));
+    }
+
+    public void testOffHeapStorage() throws IOException {
+        byte[] data = createData(3 * 1024 * 1024 + 17);
+
+        OffHeapSheetDataStorage storage = new OffHeapSheetDataStorage(8 * 1024 * 1024);
+        assertRoundTrip(storage, data);
+        assertEquals(0, storage.getBytesSpilled());
+
+        storage = new OffHeapSheetDataStorage(2 * 1024 * 1024);
+        assertRoundTrip(storage, data);
+        assertEquals(data.length - 2 * 1024 * 1024, storage.getBytesSpilled());
+    }
+
+    public void testMappedFileStorage() throws IOException {
+        byte[] data = createData(300000);
+        MappedFileSheetDataStorage storage = new MappedFileSheetDataStorage(64 * 1024);
+        assertRoundTrip(storage, data);
+        assertEquals(data.length, storage.getBytesSpilled());
+    }
+
+    public void testCompressedFileStorage() throws IOException {
+        byte[] data = createData(300000);
+        CompressedFileSheetDataStorage storage = new CompressedFileSheetDataStorage();
+        assertRoundTrip(storage, data);
+        assertTrue(storage.getBytesSpilled() < data.length);
+    }
+
+    public void testWorkbookWithStorageProviders() {
+        SheetDataStorageProvider[] providers = {
+                new OffHeapSheetDataStorage.Provider(1024 * 1024),
+                new MappedFileSheetDataStorage.Provider(),
+                new CompressedFileSheetDataStorage.Provider()
+        };
+        for (SheetDataStorageProvider provider : providers) {
+            SXSSFWorkbook wb = new SXSSFWorkbook(10);
+            wb.setSheetDataStorageProvider(provider);
+            SXSSFSheet sh = (SXSSFSheet) wb.createSheet("S1");
+            for (int j = 0; j < 1000; j++) {
+                Row row = sh.createRow(j);
+                row.createCell(0).setCellValue("value " + j);
+                row.createCell(1).setCellValue(j);
+            }
+            XSSFWorkbook xwb = (XSSFWorkbook) SXSSFITestDataProvider.instance.writeOutAndReadBack(wb);
+            assertTrue(sh.getSheetDataStorage().getBytesWritten() > 0);
+
+            Sheet xsh = xwb.getSheet("S1");
+            for (int j = 0; j < 1000; j++) {
+                Row row = xsh.getRow(j);
+                assertEquals("value " + j, row.getCell(0).getStringCellValue());
+                assertEquals(j, (int) row.getCell(1).getNumericCellValue());
+            }
+            assertTrue(wb.dispose());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  ====================================================================
+ *    Licensed to the Apache Software Foundation (ASF) under one or more
+ *    contributor license agreements.  See the NOTICE file distributed with
+ *    this work for additional information regarding copyright ownership.
+ *    The ASF licenses this file to You under the Apache License, Version 2.0
+ *    (the "License"); you may not use this file except in compliance with
+ *    the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * ====================================================================
+ */
+
+package org.apache.poi.xssf.streaming;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.IOUtils;
+
+public final class TestSheetDataWriter extends TestCase {
+
+    private static String readBack(SheetDataWriter writer) throws IOException {
+        writer.close();
+        InputStream is = writer.getWorksheetXMLInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IOUtils.copy(is, out);
+            return new String(out.toByteArray(), "UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    public void testWriteCellReference() throws IOException {
+        int[][] refs = {
+                {0, 0}, {25, 0}, {26, 0}, {51, 8}, {52, 99}, {701, 9}, {702, 10}, {16383, 1048575}
+        };
+        SheetDataWriter writer = new SheetDataWriter();
+        try {
+            for (int[] ref : refs) {
+                writer.writeCellReference(ref[0], ref[1]);
+                writer.writeInt(-1);
+            }
+            String[] written = readBack(writer).split("-1");
+            assertEquals(refs.length, written.length);
+            for (int i = 0; i < refs.length; i++) {
+                String expected = new CellReference(refs[i][1], refs[i][0]).formatAsString();
+                assertEquals(expected, written[i]);
+            }
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    public void testWriteDouble() throws IOException {
+        double[] values = {
+                0.0, -0.0, 1.0, -1.0, 0.1, 0.005, -0.005, 12.34, 100.0, 1234567.0, 1e7, 1e15, 1e16, 1e-5, 1e-6,
+                123456789.123, 999999999999999.9, 0.30000000000000004, 1.0 / 3, Math.PI, -Math.E,
+                Double.MAX_VALUE, Double.MIN_VALUE, Long.MAX_VALUE, Integer.MIN_VALUE
+        };
+        SheetDataWriter writer = new SheetDataWriter();
+        try {
+            for (double value : values) {
+                writer.writeDouble(value);
+                writer.writeCellReference(0, 0);
+            }
+            String[] written = readBack(writer).split("A1");
+            assertEquals(values.length, written.length);
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(written[i], values[i], Double.parseDouble(written[i]), 0.0);
+            }
+            assertEquals("0", written[0]);
+            assertEquals("0", written[1]);
+            assertEquals("1", written[2]);
+            assertEquals("-1", written[3]);
+            assertEquals("0.1", written[4]);
+            assertEquals("0.005", written[5]);
+            assertEquals("-0.005", written[6]);
+            assertEquals("12.34", written[7]);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
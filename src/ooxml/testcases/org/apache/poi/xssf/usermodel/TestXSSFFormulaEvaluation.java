@@ -17,9 +17,20 @@
 
 package org.apache.poi.xssf.usermodel;
 
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.poi.ss.formula.EvaluationProfile;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.eval.ErrorEval;
+import org.apache.poi.ss.formula.ptg.Ptg;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellReference;
 import org.apache.poi.xssf.XSSFITestDataProvider;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.STCellFormulaType;
 
 public final class TestXSSFFormulaEvaluation extends BaseTestFormulaEvaluator {
 
@@ -31,6 +42,125 @@ public final class TestXSSFFormulaEvaluation extends BaseTestFormulaEvaluator {
         baseTestSharedFormulas("shared_formulas.xlsx");
     }
 
+    /**
+     * Shared formulas are parsed once per group, the tokens of each cell must be the
+     * same as parsing the formula text of the cell
+     */
+    public void testSharedFormulaTokens(){
+        XSSFWorkbook wb = (XSSFWorkbook)_testDataProvider.openSampleWorkbook("shared_formulas.xlsx");
+        XSSFEvaluationWorkbook evalBook = XSSFEvaluationWorkbook.create(wb);
+        int shared = 0;
+        for (int i = 0; i < wb.getNumberOfSheets(); i++) {
+            for (Row row : wb.getSheetAt(i)) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() != Cell.CELL_TYPE_FORMULA) {
+                        continue;
+                    }
+                    XSSFCell xcell = (XSSFCell)cell;
+                    if (xcell.getCTCell().getF().getT() == STCellFormulaType.SHARED) {
+                        shared++;
+                    }
+                    Ptg[] expected = FormulaParser.parse(cell.getCellFormula(), evalBook, FormulaType.CELL, i);
+                    Ptg[] actual = evalBook.getFormulaTokens(new XSSFEvaluationCell(xcell));
+                    assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+                }
+            }
+        }
+        assertTrue(shared > 0);
+    }
+
+    public void testRecalculate(){
+        XSSFWorkbook wb = (XSSFWorkbook)_testDataProvider.openSampleWorkbook("49872.xlsx");
+        XSSFFormulaEvaluator evaluator = wb.getCreationHelper().createFormulaEvaluator();
+        XSSFSheet sheet = wb.getSheetAt(0);
+        evaluator.evaluateAll();
+
+        // B3:D3 share the formula B1+B2
+        XSSFCell b1 = sheet.getRow(0).getCell(1);
+        XSSFCell b3 = sheet.getRow(2).getCell(1);
+        b1.setCellValue(b1.getNumericCellValue() + 10);
+        evaluator.notifyUpdateCell(b1);
+        Set<Cell> changed = evaluator.recalculate();
+        assertEquals(1, changed.size());
+        assertTrue(changed.contains(b3));
+        assertEquals(13.0, b3.getNumericCellValue());
+        assertEquals(0, evaluator.recalculate().size());
+    }
+
+    public void testEvaluateAllConcurrently(){
+        String[] files = { "shared_formulas.xlsx", "50096.xlsx", "47813.xlsx", "49872.xlsx" };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (String file : files) {
+                XSSFWorkbook expected = (XSSFWorkbook)_testDataProvider.openSampleWorkbook(file);
+                expected.getCreationHelper().createFormulaEvaluator().evaluateAll();
+                XSSFWorkbook actual = (XSSFWorkbook)_testDataProvider.openSampleWorkbook(file);
+                actual.getCreationHelper().createFormulaEvaluator().evaluateAll(executor, 4);
+
+                int count = 0;
+                for (int i = 0; i < expected.getNumberOfSheets(); i++) {
+                    for (Row row : expected.getSheetAt(i)) {
+                        for (Cell cell : row) {
+                            if (cell.getCellType() != Cell.CELL_TYPE_FORMULA) {
+                                continue;
+                            }
+                            XSSFCell other = actual.getSheetAt(i).getRow(row.getRowNum()).getCell(cell.getColumnIndex());
+                            assertEquals(file, ((XSSFCell)cell).getCTCell().toString(), other.getCTCell().toString());
+                            count++;
+                        }
+                    }
+                }
+                assertTrue(file, count > 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Lookups in whole columns keep the values of the used rows only, the cells below them
+     * are still watched for changes
+     */
+    public void testLookupInWholeColumn(){
+        XSSFWorkbook wb = new XSSFWorkbook();
+        XSSFSheet sheet = wb.createSheet();
+        for (int i = 0; i < 100; i++) {
+            sheet.createRow(i).createCell(0).setCellValue(i * 2);
+        }
+        XSSFRow row = sheet.getRow(0);
+        XSSFFormulaEvaluator evaluator = wb.getCreationHelper().createFormulaEvaluator();
+        EvaluationProfile profile = new EvaluationProfile();
+        evaluator.setEvaluationProfile(profile);
+
+        // the values of a range are cached once a second cell searches it
+        for (int i = 1; i <= 2; i++) {
+            XSSFCell cell = row.createCell(i);
+            cell.setCellFormula("MATCH(84,A1:A100,0)");
+            assertEquals(43.0, evaluator.evaluate(cell).getNumberValue());
+        }
+        assertEquals(1, profile.getAreaCacheMissCount());
+
+        profile.reset();
+        for (int i = 3; i <= 4; i++) {
+            XSSFCell cell = row.createCell(i);
+            cell.setCellFormula("MATCH(84,A:A,0)");
+            assertEquals(43.0, evaluator.evaluate(cell).getNumberValue());
+        }
+        assertEquals(1, profile.getAreaCacheMissCount());
+
+        XSSFCell notFound = row.createCell(5);
+        notFound.setCellFormula("MATCH(7,A:A,0)");
+        assertEquals(ErrorEval.NA.getErrorCode(), evaluator.evaluate(notFound).getErrorValue());
+        assertEquals(1, profile.getAreaCacheHitCount());
+
+        // a cell below the rows read before
+        XSSFCell lastCell = sheet.createRow(60000).createCell(0);
+        lastCell.setCellValue(7);
+        evaluator.notifyUpdateCell(lastCell);
+        assertEquals(60001.0, evaluator.evaluate(notFound).getNumberValue());
+        assertEquals(2, profile.getAreaCacheMissCount());
+    }
+
     public void testSharedFormulas_evaluateInCell(){
         XSSFWorkbook wb = (XSSFWorkbook)_testDataProvider.openSampleWorkbook("49872.xlsx");
         FormulaEvaluator evaluator = wb.getCreationHelper().createFormulaEvaluator();
@@ -86,4 +216,9 @@ public final class TestXSSFFormulaEvaluation extends BaseTestFormulaEvaluator {
         }
 
     }
+
+    public void testGetCellValues() {
+        XSSFSheet sheet = new XSSFWorkbook().createSheet();
+        baseTestGetCellValues(sheet, new XSSFEvaluationSheet(sheet));
+    }
 }
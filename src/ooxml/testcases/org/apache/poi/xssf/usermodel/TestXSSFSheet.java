@@ -17,8 +17,13 @@
 
 package org.apache.poi.xssf.usermodel;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.List;
 
+import javax.xml.namespace.QName;
+
+import org.apache.poi.POIXMLDocumentPart;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.xssf.XSSFITestDataProvider;
@@ -29,6 +34,7 @@ import org.apache.poi.xssf.model.CalculationChain;
 import org.apache.poi.xssf.usermodel.helpers.ColumnHelper;
 import org.apache.poi.util.HexDump;
 import org.apache.poi.hssf.record.PasswordRecord;
+import org.apache.xmlbeans.XmlOptions;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.*;
 
 
@@ -1091,4 +1097,54 @@ public final class TestXSSFSheet extends BaseTestSheet {
          sheet = workbook.getSheet("Sheet 1");
          assertEquals(false, sheet.getForceFormulaRecalculation());
 	}
+
+    /**
+     * The rows written by XSSFSheetDataWriter give the same worksheet as
+     *  saving it all with XMLBeans
+     */
+    public void testWriteSheetData() throws Exception {
+        String[] files = { "53101.xlsx", "WithMoreVariousData.xlsx", "shared_formulas.xlsx",
+                "InlineStrings.xlsx", "47504.xlsx", "FormulaEvalTestData_Copy.xlsx", "Formatting.xlsx" };
+        for (String file : files) {
+            XSSFWorkbook wb = XSSFTestDataSamples.openSampleWorkbook(file);
+            for (int i = 0; i < wb.getNumberOfSheets(); i++) {
+                XSSFSheet sheet = wb.getSheetAt(i);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                sheet.write(out);
+                XmlOptions options = new XmlOptions(POIXMLDocumentPart.DEFAULT_XML_OPTIONS);
+                options.setSaveSyntheticDocumentElement(new QName(CTWorksheet.type.getName().getNamespaceURI(), "worksheet"));
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                sheet.getCTWorksheet().save(expected, options);
+
+                // the rows are written without indenting
+                XmlOptions load = new XmlOptions().setLoadStripWhitespace();
+                String message = file + " " + sheet.getSheetName();
+                assertEquals(message,
+                        WorksheetDocument.Factory.parse(new ByteArrayInputStream(expected.toByteArray()), load).xmlText(),
+                        WorksheetDocument.Factory.parse(new ByteArrayInputStream(out.toByteArray()), load).xmlText());
+            }
+        }
+
+        // characters that need escaping
+        XSSFWorkbook wb = new XSSFWorkbook();
+        XSSFSheet sheet = wb.createSheet();
+        XSSFRow row = sheet.createRow(3);
+        row.setHeight((short)400);
+        row.createCell(0).setCellFormula("IF(B4<>\"a&b\",1,2)");
+        row.createCell(1).setCellValue("<a&b>\"\t\n");
+        row.createCell(2).setCellErrorValue(FormulaError.DIV0);
+        row.createCell(3);
+        sheet.createRow(5);
+
+        XSSFWorkbook wb2 = XSSFTestDataSamples.writeOutAndReadBack(wb);
+        XSSFSheet sheet2 = wb2.getSheetAt(0);
+        assertEquals(2, sheet2.getPhysicalNumberOfRows());
+        XSSFRow row2 = sheet2.getRow(3);
+        assertEquals(400, row2.getHeight());
+        assertEquals("IF(B4<>\"a&b\",1,2)", row2.getCell(0).getCellFormula());
+        assertEquals("<a&b>\"\t\n", row2.getCell(1).getStringCellValue());
+        assertEquals(FormulaError.DIV0.getCode(), row2.getCell(2).getErrorCellValue());
+        assertEquals(Cell.CELL_TYPE_BLANK, row2.getCell(3).getCellType());
+        assertNotNull(sheet2.getRow(5));
+    }
 }
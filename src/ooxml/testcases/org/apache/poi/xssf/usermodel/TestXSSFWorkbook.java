@@ -17,17 +17,24 @@
 
 package org.apache.poi.xssf.usermodel;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.CRC32;
 
+import org.apache.poi.POIXMLDocumentPart;
 import org.apache.poi.POIXMLProperties;
 import org.apache.poi.hssf.HSSFTestDataSamples;
 import org.apache.poi.openxml4j.opc.*;
 import org.apache.poi.openxml4j.opc.internal.PackagePropertiesPart;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.util.IOUtils;
 import org.apache.poi.util.TempFile;
 import org.apache.poi.xssf.XSSFITestDataProvider;
 import org.apache.poi.xssf.XSSFTestDataSamples;
@@ -448,4 +455,105 @@ public final class TestXSSFWorkbook extends BaseTestWorkbook {
         assertEquals(IndexedColors.RED.index,
                 sh.getCTWorksheet().getSheetPr().getTabColor().getIndexed());
     }
+
+    public void testLoadSheetsOnDemand() throws Exception {
+        XSSFWorkbook eager = XSSFTestDataSamples.openSampleWorkbook("WithVariousData.xlsx");
+        XSSFWorkbook wb = new XSSFWorkbook(OPCPackage.open(
+                HSSFTestDataSamples.openSampleFileStream("WithVariousData.xlsx")), true);
+        assertTrue(wb.isLoadSheetsOnDemand());
+        assertFalse(eager.isLoadSheetsOnDemand());
+        int sheetCount = wb.getNumberOfSheets();
+        assertTrue(sheetCount > 1);
+        XSSFSheet[] sheets = new XSSFSheet[sheetCount];
+        for (POIXMLDocumentPart part : wb.getRelations()) {
+            if (part instanceof XSSFSheet) {
+                XSSFSheet sheet = (XSSFSheet) part;
+                assertTrue(sheet.isReadDeferred());
+                sheets[wb.getSheetIndex(sheet)] = sheet;
+            }
+        }
+        // names don't need the worksheets
+        for (int i = 0; i < sheetCount; i++) {
+            assertEquals(eager.getSheetName(i), wb.getSheetName(i));
+            assertTrue(sheets[i].isReadDeferred());
+        }
+
+        XSSFSheet second = wb.getSheetAt(1);
+        assertSame(sheets[1], second);
+        assertFalse(second.isReadDeferred());
+        assertTrue(sheets[0].isReadDeferred());
+        assertEquals(eager.getSheetAt(1).getPhysicalNumberOfRows(), second.getPhysicalNumberOfRows());
+        second.createRow(second.getLastRowNum() + 1).createCell(0).setCellValue("added");
+
+        byte[] original = IOUtils.toByteArray(sheets[0].getPackagePart().getInputStream());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        wb.write(out);
+        // never used, written back unchanged
+        assertTrue(sheets[0].isReadDeferred());
+        OPCPackage pkg = OPCPackage.open(new ByteArrayInputStream(out.toByteArray()));
+        byte[] written = IOUtils.toByteArray(pkg.getPart(sheets[0].getPackagePart().getPartName()).getInputStream());
+        assertTrue(Arrays.equals(original, written));
+
+        XSSFWorkbook result = new XSSFWorkbook(pkg);
+        XSSFSheet resultSheet = result.getSheetAt(1);
+        assertEquals("added", resultSheet.getRow(resultSheet.getLastRowNum()).getCell(0).getStringCellValue());
+        assertEquals(eager.getSheetAt(0).getPhysicalNumberOfRows(), result.getSheetAt(0).getPhysicalNumberOfRows());
+
+        // iterating and looking up by name parse the sheets
+        assertSame(sheets[0], wb.getSheet(wb.getSheetName(0)));
+        assertFalse(sheets[0].isReadDeferred());
+        for (XSSFSheet sheet : wb) {
+            assertFalse(sheet.isReadDeferred());
+            if (sheet != second) {
+                assertEquals(eager.getSheet(sheet.getSheetName()).getPhysicalNumberOfRows(), sheet.getPhysicalNumberOfRows());
+            }
+        }
+    }
+
+    public void testReadSheetsInParallel() throws Exception {
+        String[] files = { "WithMoreVariousData.xlsx", "SimpleWithComments.xlsx", "WithChartSheet.xlsx", "SampleSS.xlsx" };
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (String file : files) {
+                XSSFWorkbook expected = XSSFTestDataSamples.openSampleWorkbook(file);
+                XSSFWorkbook wb = new XSSFWorkbook(OPCPackage.open(
+                        HSSFTestDataSamples.openSampleFileStream(file)), executor);
+                assertEquals(file, expected.getNumberOfSheets(), wb.getNumberOfSheets());
+                for (int i = 0; i < wb.getNumberOfSheets(); i++) {
+                    XSSFSheet expectedSheet = expected.getSheetAt(i);
+                    XSSFSheet sheet = wb.getSheetAt(i);
+                    assertEquals(file, expectedSheet.getClass(), sheet.getClass());
+                    assertEquals(file, expectedSheet.getSheetName(), sheet.getSheetName());
+                    assertEquals(file, expectedSheet.getPhysicalNumberOfRows(), sheet.getPhysicalNumberOfRows());
+                    assertEquals(file, expectedSheet.getNumHyperlinks(), sheet.getNumHyperlinks());
+                    assertEquals(file, expectedSheet.getNumberOfComments(), sheet.getNumberOfComments());
+                    for (Row expectedRow : expectedSheet) {
+                        Row row = sheet.getRow(expectedRow.getRowNum());
+                        assertEquals(file, expectedRow.getPhysicalNumberOfCells(), row.getPhysicalNumberOfCells());
+                        for (Cell expectedCell : expectedRow) {
+                            assertEquals(file, expectedCell.toString(), row.getCell(expectedCell.getColumnIndex()).toString());
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testWriteCompressedConcurrently() throws Exception {
+        XSSFWorkbook wb = XSSFTestDataSamples.openSampleWorkbook("WithMoreVariousData.xlsx");
+        wb.getSheetAt(0).createRow(100).createCell(0).setCellValue("added");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            wb.write(out, CompressionOption.FAST, executor);
+        } finally {
+            executor.shutdown();
+        }
+        XSSFWorkbook result = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(wb.getNumberOfSheets(), result.getNumberOfSheets());
+        assertEquals("added", result.getSheetAt(0).getRow(100).getCell(0).getStringCellValue());
+        assertEquals(wb.getSheetAt(0).getPhysicalNumberOfRows(), result.getSheetAt(0).getPhysicalNumberOfRows());
+    }
 }
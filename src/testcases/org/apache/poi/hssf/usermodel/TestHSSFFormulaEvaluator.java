@@ -17,11 +17,16 @@
 
 package org.apache.poi.hssf.usermodel;
 
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import junit.framework.AssertionFailedError;
 
 import org.apache.poi.hssf.HSSFTestDataSamples;
 import org.apache.poi.hssf.HSSFITestDataProvider;
 import org.apache.poi.hssf.record.NameRecord;
+import org.apache.poi.ss.formula.eval.NotImplementedException;
 import org.apache.poi.ss.formula.eval.NumberEval;
 import org.apache.poi.ss.formula.eval.ValueEval;
 import org.apache.poi.ss.formula.EvaluationCell;
@@ -30,6 +35,8 @@ import org.apache.poi.ss.formula.WorkbookEvaluator;
 import org.apache.poi.ss.formula.WorkbookEvaluatorTestHelper;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.BaseTestFormulaEvaluator;
 
 /**
@@ -235,4 +242,184 @@ public final class TestHSSFFormulaEvaluator extends BaseTestFormulaEvaluator {
         baseTestSharedFormulas("shared_formulas.xls");
     }
 
+    /**
+     * Only formula cells depending on the notified changes are recalculated
+     */
+    public void testRecalculate() {
+        HSSFWorkbook wb = new HSSFWorkbook();
+        HSSFSheet sheet = wb.createSheet("Sheet1");
+        HSSFRow row1 = sheet.createRow(0);
+        HSSFRow row2 = sheet.createRow(1);
+        HSSFCell a1 = row1.createCell(0);
+        HSSFCell a2 = row2.createCell(0);
+        HSSFCell b1 = row1.createCell(1);
+        HSSFCell b2 = row2.createCell(1);
+        HSSFCell c1 = row1.createCell(2);
+        HSSFCell d1 = row1.createCell(3);
+        HSSFCell e1 = row1.createCell(4);
+        a1.setCellValue(10);
+        a2.setCellValue(20);
+        b1.setCellFormula("A1*2");
+        b2.setCellFormula("A2*2");
+        c1.setCellFormula("B1+B2");
+        d1.setCellFormula("1+1");
+        e1.setCellFormula("IF(A1>5,\"big\",\"small\")");
+
+        HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+        fe.evaluateAll();
+        assertEquals(60, c1.getNumericCellValue(), 0.0);
+
+        a1.setCellValue(3);
+        fe.notifyUpdateCell(a1);
+        confirmChanged(fe.recalculate(), new Cell[] { b1, c1, e1 });
+        assertEquals(6, b1.getNumericCellValue(), 0.0);
+        assertEquals(46, c1.getNumericCellValue(), 0.0);
+        assertEquals("small", e1.getStringCellValue());
+
+        // E1 is recalculated, but stays the same
+        a1.setCellValue(4);
+        fe.notifyUpdateCell(a1);
+        confirmChanged(fe.recalculate(), new Cell[] { b1, c1 });
+        assertEquals(48, c1.getNumericCellValue(), 0.0);
+
+        // changes are collected until the next call
+        a1.setCellValue(5);
+        fe.notifyUpdateCell(a1);
+        a1.setCellValue(4);
+        fe.notifyUpdateCell(a1);
+        a2.setCellValue(20);
+        fe.notifyUpdateCell(a2);
+        confirmChanged(fe.recalculate(), new Cell[] { });
+
+        HSSFCell f1 = row1.createCell(5);
+        f1.setCellFormula("C1+1");
+        fe.notifySetFormula(f1);
+        confirmChanged(fe.recalculate(), new Cell[] { f1 });
+        assertEquals(49, f1.getNumericCellValue(), 0.0);
+
+        b2.setCellFormula("A2*3");
+        fe.notifySetFormula(b2);
+        confirmChanged(fe.recalculate(), new Cell[] { b2, c1, f1 });
+        assertEquals(69, f1.getNumericCellValue(), 0.0);
+        assertEquals(2, d1.getNumericCellValue(), 0.0);
+    }
+
+    public void testEvaluateAllConcurrently() {
+        String[] files = { "SampleSS.xls", "shared_formulas.xls", "3dFormulas.xls", "IfFormulaTest.xls",
+                "sumifformula.xls", "SharedFormulaTest.xls" };
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (String file : files) {
+                HSSFWorkbook expected = HSSFTestDataSamples.openSampleWorkbook(file);
+                new HSSFFormulaEvaluator(expected).evaluateAll();
+                HSSFWorkbook actual = HSSFTestDataSamples.openSampleWorkbook(file);
+                new HSSFFormulaEvaluator(actual).evaluateAll(executor, 3);
+                confirmSameResults(file, expected, actual);
+            }
+
+            // failures are rethrown
+            HSSFWorkbook wb = HSSFTestDataSamples.openSampleWorkbook("mortgage-calculation.xls");
+            try {
+                new HSSFFormulaEvaluator(wb).evaluateAll(executor, 3);
+                fail("expected NotImplementedException");
+            } catch (NotImplementedException e) {
+                assertEquals("Error evaluating cell Sheet1!B4", e.getMessage());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Precedents are evaluated before the cells using them, so long chains do not recurse
+     */
+    public void testEvaluateAllConcurrentlyLongChain() {
+        HSSFWorkbook wb = new HSSFWorkbook();
+        HSSFSheet sheet = wb.createSheet("Sheet1");
+        sheet.createRow(0).createCell(0).setCellValue(0);
+        int n = 20000;
+        for (int i = 1; i < n; i++) {
+            HSSFRow row = sheet.createRow(i);
+            row.createCell(0).setCellFormula("A" + i + "+1");
+            row.createCell(1).setCellFormula("$A$" + n + "*2");
+        }
+        // all of column B is one level, split between the tasks
+        sheet.getRow(0).createCell(2).setCellFormula("SUM(B2:B" + n + ")");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            new HSSFFormulaEvaluator(wb).evaluateAll(executor, 3);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(n - 1, sheet.getRow(n - 1).getCell(0).getNumericCellValue(), 0.0);
+        assertEquals(2 * (n - 1), sheet.getRow(n - 1).getCell(1).getNumericCellValue(), 0.0);
+        assertEquals(2.0 * (n - 1) * (n - 1), sheet.getRow(0).getCell(2).getNumericCellValue(), 0.0);
+    }
+
+    private static void confirmSameResults(String file, Workbook expected, Workbook actual) {
+        int count = 0;
+        for (int i = 0; i < expected.getNumberOfSheets(); i++) {
+            for (Row row : expected.getSheetAt(i)) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() != Cell.CELL_TYPE_FORMULA) {
+                        continue;
+                    }
+                    Cell other = actual.getSheetAt(i).getRow(row.getRowNum()).getCell(cell.getColumnIndex());
+                    String msg = file + " " + cell.getCellFormula();
+                    assertEquals(msg, cell.getCachedFormulaResultType(), other.getCachedFormulaResultType());
+                    assertEquals(msg, cell.toString(), other.toString());
+                    assertEquals(msg, String.valueOf(getCachedResult(cell)), String.valueOf(getCachedResult(other)));
+                    count++;
+                }
+            }
+        }
+        assertTrue(file, count > 0);
+    }
+
+    private static Object getCachedResult(Cell cell) {
+        switch (cell.getCachedFormulaResultType()) {
+            case Cell.CELL_TYPE_NUMERIC:
+                return Double.valueOf(cell.getNumericCellValue());
+            case Cell.CELL_TYPE_STRING:
+                return cell.getStringCellValue();
+            case Cell.CELL_TYPE_BOOLEAN:
+                return Boolean.valueOf(cell.getBooleanCellValue());
+            case Cell.CELL_TYPE_ERROR:
+                return Byte.valueOf(cell.getErrorCellValue());
+        }
+        return null;
+    }
+
+    /**
+     * The dirty cells of a long chain of formulas are found without recursion
+     */
+    public void testRecalculateLongChain() {
+        HSSFWorkbook wb = new HSSFWorkbook();
+        HSSFSheet sheet = wb.createSheet("Sheet1");
+        HSSFCell a1 = sheet.createRow(0).createCell(0);
+        a1.setCellValue(0);
+        int n = 20000;
+        for (int i = 1; i < n; i++) {
+            sheet.createRow(i).createCell(0).setCellFormula("A" + i + "+1");
+        }
+        HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+        fe.evaluateAll();
+
+        a1.setCellValue(1);
+        fe.notifyUpdateCell(a1);
+        assertEquals(n - 1, fe.recalculate().size());
+        assertEquals(n, sheet.getRow(n - 1).getCell(0).getNumericCellValue(), 0.0);
+    }
+
+    private static void confirmChanged(Set<Cell> actual, Cell[] expected) {
+        assertEquals(expected.length, actual.size());
+        for (Cell cell : expected) {
+            assertTrue(cell.getCellFormula(), actual.contains(cell));
+        }
+    }
+
+    public void testGetCellValues() {
+        HSSFSheet sheet = new HSSFWorkbook().createSheet();
+        baseTestGetCellValues(sheet, new HSSFEvaluationSheet(sheet));
+    }
 }
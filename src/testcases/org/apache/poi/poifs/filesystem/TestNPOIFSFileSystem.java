@@ -20,6 +20,7 @@ package org.apache.poi.poifs.filesystem;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import junit.framework.TestCase;
@@ -484,7 +485,9 @@ public final class TestNPOIFSFileSystem extends TestCase {
       NPOIFSFileSystem fsB = new NPOIFSFileSystem(_inst.openResourceAsStream("BlockSize512.zvi"));
       NPOIFSFileSystem fsC = new NPOIFSFileSystem(_inst.getFile("BlockSize4096.zvi"));
       NPOIFSFileSystem fsD = new NPOIFSFileSystem(_inst.openResourceAsStream("BlockSize4096.zvi"));
-      for(NPOIFSFileSystem fs : new NPOIFSFileSystem[] {fsA,fsB,fsC,fsD}) {
+      NPOIFSFileSystem fsE = new NPOIFSFileSystem(_inst.getFile("BlockSize512.zvi"), true, true);
+      NPOIFSFileSystem fsF = new NPOIFSFileSystem(_inst.getFile("BlockSize4096.zvi"), true, true);
+      for(NPOIFSFileSystem fs : new NPOIFSFileSystem[] {fsA,fsB,fsC,fsD,fsE,fsF}) {
          DirectoryEntry root = fs.getRoot();
          assertEquals(5, root.getEntryCount());
          
@@ -524,7 +527,9 @@ public final class TestNPOIFSFileSystem extends TestCase {
       NPOIFSFileSystem fsB = new NPOIFSFileSystem(_inst.openResourceAsStream("BlockSize512.zvi"));
       NPOIFSFileSystem fsC = new NPOIFSFileSystem(_inst.getFile("BlockSize4096.zvi"));
       NPOIFSFileSystem fsD = new NPOIFSFileSystem(_inst.openResourceAsStream("BlockSize4096.zvi"));
-      for(NPOIFSFileSystem fs : new NPOIFSFileSystem[] {fsA,fsB,fsC,fsD}) {
+      NPOIFSFileSystem fsE = new NPOIFSFileSystem(_inst.getFile("BlockSize512.zvi"), true, true);
+      NPOIFSFileSystem fsF = new NPOIFSFileSystem(_inst.getFile("BlockSize4096.zvi"), true, true);
+      for(NPOIFSFileSystem fs : new NPOIFSFileSystem[] {fsA,fsB,fsC,fsD,fsE,fsF}) {
          DirectoryEntry root = fs.getRoot();
          Entry si = root.getEntry("\u0005SummaryInformation");
          
@@ -548,6 +553,60 @@ public final class TestNPOIFSFileSystem extends TestCase {
       }
    }
    
+   /**
+    * Blocks are served from the cache once read, for both
+    *  big block streams and the mini stream
+    */
+   public void testBlockCache() throws Exception {
+      NPOIFSFileSystem uncached = new NPOIFSFileSystem(_inst.getFile("BlockSize512.zvi"));
+      uncached.setBlockCacheSize(0);
+      assertEquals(0, uncached.getBlockCacheSize());
+      long uncachedHits = uncached.getBlockCacheHits();
+      long uncachedMisses = uncached.getBlockCacheMisses();
+      
+      NPOIFSFileSystem fsA = new NPOIFSFileSystem(_inst.getFile("BlockSize512.zvi"));
+      NPOIFSFileSystem fsB = new NPOIFSFileSystem(_inst.openResourceAsStream("BlockSize512.zvi"));
+      NPOIFSFileSystem fsC = new NPOIFSFileSystem(_inst.getFile("BlockSize512.zvi"), true, true);
+      for(NPOIFSFileSystem fs : new NPOIFSFileSystem[] {fsA,fsB,fsC}) {
+         assertEquals(NPOIFSFileSystem.DEFAULT_BLOCK_CACHE_SIZE, fs.getBlockCacheSize());
+         
+         // Thumbnail is a big block stream, the others are in the mini stream
+         for(String name : new String[] {"Thumbnail", "\u0005SummaryInformation", "Tags"}) {
+            byte[] expected = readAll(uncached, name);
+            long hits = fs.getBlockCacheHits();
+            long misses = fs.getBlockCacheMisses();
+            
+            assertTrue(name, Arrays.equals(expected, readAll(fs, name)));
+            assertTrue(name, fs.getBlockCacheMisses() > misses);
+            
+            // Second time round it's all from the cache
+            misses = fs.getBlockCacheMisses();
+            assertTrue(name, Arrays.equals(expected, readAll(fs, name)));
+            assertEquals(name, misses, fs.getBlockCacheMisses());
+            assertTrue(name, fs.getBlockCacheHits() > hits);
+         }
+         
+         // A tiny cache evicts blocks, but still gives the right data
+         fs.setBlockCacheSize(1);
+         assertEquals(1, fs.getBlockCacheSize());
+         assertTrue(Arrays.equals(readAll(uncached, "Thumbnail"), readAll(fs, "Thumbnail")));
+         long misses = fs.getBlockCacheMisses();
+         readAll(fs, "Thumbnail");
+         assertTrue(fs.getBlockCacheMisses() > misses);
+      }
+      assertEquals(uncachedHits, uncached.getBlockCacheHits());
+      assertEquals(uncachedMisses, uncached.getBlockCacheMisses());
+   }
+   
+   private static byte[] readAll(NPOIFSFileSystem fs, String name) throws Exception {
+      DocumentEntry doc = (DocumentEntry)fs.getRoot().getEntry(name);
+      NDocumentInputStream inp = new NDocumentInputStream(doc);
+      byte[] contents = new byte[doc.getSize()];
+      assertEquals(doc.getSize(), inp.read(contents));
+      inp.close();
+      return contents;
+   }
+   
    /**
     * Read a file, write it and read it again.
     * Then, alter+add some streams, write and read
@@ -19,11 +19,15 @@
 
 package org.apache.poi.poifs.nio;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 
 import org.apache.poi.POIDataSamples;
+import org.apache.poi.util.TempFile;
 
 import junit.framework.TestCase;
 
@@ -78,6 +82,107 @@ public class TestDataSource extends TestCase
       } catch(IllegalArgumentException e) {}
    }
    
+   public void testMappedFile() throws Exception {
+      File f = data.getFile("Notes.ole2");
+      
+      MappedFileBackedDataSource ds = new MappedFileBackedDataSource(f, true);
+      assertEquals(8192, ds.size());
+      
+      // Start of file
+      ByteBuffer bs; 
+      bs = ds.read(4, 0);
+      assertEquals(4, bs.capacity());
+      assertEquals(0, bs.position());
+      assertEquals(0xd0-256, bs.get(0));
+      assertEquals(0xcf-256, bs.get(1));
+      assertEquals(0x11-000, bs.get(2));
+      assertEquals(0xe0-256, bs.get(3));
+      
+      // Mid way through
+      bs = ds.read(8, 0x400);
+      assertEquals(8, bs.capacity());
+      assertEquals(0, bs.position());
+      assertEquals((byte)'R', bs.get(0));
+      assertEquals(0, bs.get(1));
+      assertEquals((byte)'o', bs.get(2));
+      assertEquals(0, bs.get(3));
+      
+      // Can go to the end, but not past it
+      bs = ds.read(8, 8190);
+      assertEquals(0, bs.position());
+      assertEquals(2, bs.remaining());
+      
+      // Can't go off the end
+      try {
+         bs = ds.read(4, 8192);
+         fail("Shouldn't be able to read off the end of the file");
+      } catch(IndexOutOfBoundsException e) {}
+      
+      // Read only
+      try {
+         ds.write(ByteBuffer.allocate(4), 0);
+         fail("Shouldn't be able to write to a read only file");
+      } catch(IllegalStateException e) {}
+      
+      ds.close();
+   }
+   
+   public void testMappedFileSegmentsAndWrite() throws Exception {
+      File f = TempFile.createTempFile("poifs", ".ole2");
+      FileOutputStream out = new FileOutputStream(f);
+      byte[] expected = new byte[2500];
+      for(int i=0; i<expected.length; i++) {
+         expected[i] = (byte)i;
+      }
+      out.write(expected);
+      out.close();
+      
+      // Segments of 1000 bytes, the last one partly used
+      RandomAccessFile raf = new RandomAccessFile(f, "rw");
+      MappedFileBackedDataSource ds = new MappedFileBackedDataSource(raf.getChannel(), false, 1000);
+      assertEquals(2500, ds.size());
+      
+      // Within a segment, and across two
+      ByteBuffer bs = ds.read(10, 995);
+      assertEquals(10, bs.remaining());
+      for(int i=0; i<10; i++) {
+         assertEquals(expected[995+i], bs.get());
+      }
+      
+      // Changes to the read buffers go to the file
+      bs = ds.read(4, 1200);
+      bs.put(0, (byte)-1);
+      assertEquals(-1, ds.read(1, 1200).get());
+      
+      // Overwrite across a segment boundary
+      ByteBuffer src = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 });
+      ds.write(src, 998);
+      assertEquals(0, src.remaining());
+      bs = ds.read(4, 998);
+      assertEquals(1, bs.get());
+      assertEquals(2, bs.get());
+      assertEquals(3, bs.get());
+      assertEquals(4, bs.get());
+      
+      // Extend past the end and the last segment
+      ds.write(ByteBuffer.wrap(new byte[600]), 2600);
+      assertEquals(3200, ds.size());
+      bs = ds.read(4, 2996);
+      assertEquals(4, bs.remaining());
+      bs = ds.read(10, 2495);
+      assertEquals(expected[2495], bs.get());
+      
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ds.copyTo(baos);
+      byte[] copy = baos.toByteArray();
+      assertEquals(3200, copy.length);
+      assertEquals(-1, copy[1200]);
+      assertEquals(expected[1500], copy[1500]);
+      assertEquals(4, copy[1001]);
+      
+      ds.close();
+   }
+   
    public void testByteArray() throws Exception {
       byte[] data = new byte[256];
       byte b;
@@ -29,8 +29,11 @@ import junit.framework.TestSuite;
 public final class AllSSFormulaTests {
 	public static Test suite() {
 		TestSuite result = new TestSuite(AllSSFormulaTests.class.getName());
+		result.addTestSuite(TestCachedAreaValues.class);
 		result.addTestSuite(TestCellCacheEntry.class);
 		result.addTestSuite(TestEvaluationCache.class);
+		result.addTestSuite(TestEvaluationProfile.class);
+		result.addTestSuite(TestFormulaEvaluationPlan.class);
 		result.addTestSuite(TestWorkbookEvaluator.class);
 		result.addTestSuite(TestForkedEvaluator.class);
 		return result;
@@ -55,4 +55,10 @@ public abstract class EvaluationListener implements IEvaluationListener {
 	public void onClearDependentCachedValue(ICacheEntry entry, int depth) {
 		// do nothing
 	}
+	public void onFormulaTokensCacheHit(EvaluationCell cell, ICacheEntry entry) {
+		// do nothing
+	}
+	public void onFormulaTokensCacheMiss(EvaluationCell cell, ICacheEntry entry) {
+		// do nothing
+	}
 }
@@ -0,0 +1,385 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+
+package org.apache.poi.ss.formula;
+
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.eval.ErrorEval;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellValue;
+
+/**
+ * Tests for {@link CachedAreaValues}, as used by the lookup, criteria and numeric functions
+ */
+public final class TestCachedAreaValues extends TestCase {
+
+    private HSSFSheet _sheet;
+    private HSSFFormulaEvaluator _evaluator;
+    private int _nextFormulaColumn;
+
+    @Override
+    protected void setUp() {
+        HSSFWorkbook wb = new HSSFWorkbook();
+        _sheet = wb.createSheet("Sheet1");
+        // A1:A40 numbers, A41:A80 strings, A81:A82 booleans, A83:A100 blank
+        for (int i = 0; i < 82; i++) {
+            HSSFRow row = _sheet.createRow(i);
+            if (i < 40) {
+                row.createCell(0).setCellValue(i * 10);
+            } else if (i < 80) {
+                row.createCell(0).setCellValue("Item" + i);
+            } else {
+                row.createCell(0).setCellValue(i == 80);
+            }
+            row.createCell(1).setCellValue("b" + i);
+        }
+        // a duplicate of A4
+        _sheet.getRow(39).getCell(0).setCellValue(30);
+
+        // A102:BR102 numbers, A103:BR103 strings
+        HSSFRow keys = _sheet.createRow(101);
+        HSSFRow values = _sheet.createRow(102);
+        for (int i = 0; i < 70; i++) {
+            keys.createCell(i).setCellValue(i * 5);
+            values.createCell(i).setCellValue("h" + i);
+        }
+        _evaluator = new HSSFFormulaEvaluator(wb);
+        _nextFormulaColumn = 3;
+        _evaluator.setTrackDirtyCells(true);
+    }
+
+    private HSSFCell getCell(int rowIndex, int columnIndex) {
+        HSSFRow row = _sheet.getRow(rowIndex);
+        if (row == null) {
+            row = _sheet.createRow(rowIndex);
+        }
+        HSSFCell cell = row.getCell(columnIndex);
+        if (cell == null) {
+            cell = row.createCell(columnIndex);
+        }
+        return cell;
+    }
+
+    /**
+     * Each formula gets its own cell, as the values of an area are only cached once more than
+     * one cell reads it
+     */
+    private HSSFCell nextFormulaCell() {
+        return getCell(110, _nextFormulaColumn++);
+    }
+
+    private void confirmString(String expected, String formula) {
+        HSSFCell cell = nextFormulaCell();
+        cell.setCellFormula(formula);
+        _evaluator.notifyUpdateCell(cell);
+        CellValue cv = _evaluator.evaluate(cell);
+        assertEquals(formula, Cell.CELL_TYPE_STRING, cv.getCellType());
+        assertEquals(formula, expected, cv.getStringValue());
+    }
+
+    private void confirmNumber(double expected, String formula) {
+        HSSFCell cell = nextFormulaCell();
+        cell.setCellFormula(formula);
+        _evaluator.notifyUpdateCell(cell);
+        CellValue cv = _evaluator.evaluate(cell);
+        assertEquals(formula, Cell.CELL_TYPE_NUMERIC, cv.getCellType());
+        assertEquals(formula, expected, cv.getNumberValue(), 0.0);
+    }
+
+    private void confirmNA(String formula) {
+        HSSFCell cell = nextFormulaCell();
+        cell.setCellFormula(formula);
+        _evaluator.notifyUpdateCell(cell);
+        CellValue cv = _evaluator.evaluate(cell);
+        assertEquals(formula, Cell.CELL_TYPE_ERROR, cv.getCellType());
+        assertEquals(formula, ErrorEval.NA.getErrorCode(), cv.getErrorValue());
+    }
+
+    public void testExactLookups() {
+        // the first occurrence is found
+        confirmString("b3", "VLOOKUP(30,A1:B100,2,FALSE)");
+        confirmString("b45", "VLOOKUP(\"ITEM45\",A1:B100,2,FALSE)");
+        // wildcards are matched one by one
+        confirmString("b40", "VLOOKUP(\"item4?\",A1:B100,2,FALSE)");
+        confirmString("b81", "VLOOKUP(FALSE,A1:B100,2,FALSE)");
+        confirmNA("VLOOKUP(35,A1:B100,2,FALSE)");
+        // no type conversion
+        confirmNA("VLOOKUP(\"30\",A1:B100,2,FALSE)");
+        confirmNA("VLOOKUP(TRUE(),A1:A40,1,FALSE)");
+        // a blank lookup value is zero, blank cells are never matched
+        confirmString("b0", "VLOOKUP(A100,A1:B100,2,FALSE)");
+        confirmNA("VLOOKUP(\"\",A1:B100,2,FALSE)");
+
+        confirmString("h5", "HLOOKUP(25,A102:BR103,2,FALSE)");
+        confirmNA("HLOOKUP(26,A102:BR103,2,FALSE)");
+
+        confirmNumber(80, "MATCH(\"item79\",A1:A100,0)");
+        confirmNumber(53, "MATCH(\"*52\",A1:A100,0)");
+        confirmNumber(4, "MATCH(15,A102:BR102,1)");
+        confirmNA("MATCH(\"x\",A1:A100,0)");
+    }
+
+    public void testChangedCells() {
+        HSSFCell d1 = getCell(0, 3);
+        d1.setCellFormula("VLOOKUP(30,A1:B100,2,FALSE)");
+        HSSFCell d2 = getCell(1, 3);
+        d2.setCellFormula("MATCH(35,A1:A100,0)");
+        HSSFCell d3 = getCell(2, 3);
+        d3.setCellFormula("MATCH(TRUE,A1:A100,0)");
+        assertEquals("b3", _evaluator.evaluate(d1).getStringValue());
+        assertEquals(ErrorEval.NA.getErrorCode(), _evaluator.evaluate(d2).getErrorValue());
+        assertEquals(81, _evaluator.evaluate(d3).getNumberValue(), 0.0);
+
+        HSSFCell a4 = getCell(3, 0);
+        a4.setCellValue(31);
+        _evaluator.notifyUpdateCell(a4);
+        assertEquals("b39", _evaluator.evaluate(d1).getStringValue());
+
+        // a blank cell of the area gets a value
+        HSSFCell a100 = getCell(99, 0);
+        a100.setCellValue(35);
+        _evaluator.notifyUpdateCell(a100);
+        assertEquals(100, _evaluator.evaluate(d2).getNumberValue(), 0.0);
+
+        // every cell using the area is recalculated, but only some results changed
+        Set<Cell> changed = _evaluator.recalculate();
+        assertEquals(2, changed.size());
+        assertTrue(changed.contains(d1));
+        assertTrue(changed.contains(d2));
+
+        // a value replaced by a formula with the same result
+        HSSFCell a81 = getCell(80, 0);
+        a81.setCellFormula("1=1");
+        _evaluator.notifyUpdateCell(a81);
+        assertFalse(_evaluator.recalculate().contains(d3));
+        assertEquals(81, _evaluator.evaluate(d3).getNumberValue(), 0.0);
+
+        a81.setCellFormula("1=2");
+        _evaluator.notifyUpdateCell(a81);
+        assertTrue(_evaluator.recalculate().contains(d3));
+        assertEquals(ErrorEval.NA.getErrorCode(), _evaluator.evaluate(d3).getErrorValue());
+    }
+
+    /**
+     * Whole columns only keep the values of the rows in the sheet, the cells below them are
+     * still watched for new values
+     */
+    public void testWholeColumns() {
+        HSSFCell d1 = getCell(0, 3);
+        d1.setCellFormula("MATCH(\"new\",A:A,0)");
+        HSSFCell d2 = getCell(1, 3);
+        d2.setCellFormula("VLOOKUP(30,A:B,2,FALSE)");
+        HSSFCell d3 = getCell(2, 3);
+        d3.setCellFormula("SUM(A:A)");
+        HSSFCell d4 = getCell(3, 3);
+        d4.setCellFormula("COUNTIF(A:A,\"new\")");
+        assertEquals(ErrorEval.NA.getErrorCode(), _evaluator.evaluate(d1).getErrorValue());
+        assertEquals("b3", _evaluator.evaluate(d2).getStringValue());
+        assertEquals(7440, _evaluator.evaluate(d3).getNumberValue(), 0.0);
+        assertEquals(0, _evaluator.evaluate(d4).getNumberValue(), 0.0);
+
+        HSSFCell a5001 = getCell(5000, 0);
+        a5001.setCellValue("new");
+        _evaluator.notifyUpdateCell(a5001);
+        Set<Cell> changed = _evaluator.recalculate();
+        assertEquals(2, changed.size());
+        assertTrue(changed.contains(d1));
+        assertTrue(changed.contains(d4));
+        assertEquals(5001, _evaluator.evaluate(d1).getNumberValue(), 0.0);
+        assertEquals(1, _evaluator.evaluate(d4).getNumberValue(), 0.0);
+    }
+
+    public void testCircularReference() {
+        // the area contains the formula itself, the values can't be cached while it is evaluated
+        HSSFCell a90 = getCell(89, 0);
+        a90.setCellFormula("VLOOKUP(30,A1:B100,2,FALSE)");
+        assertEquals("b3", _evaluator.evaluate(a90).getStringValue());
+        confirmNumber(90, "MATCH(\"b3\",A1:A100,0)");
+        assertEquals("b3", _evaluator.evaluate(a90).getStringValue());
+    }
+
+    private double evaluateNumber(String formula) {
+        HSSFCell cell = nextFormulaCell();
+        cell.setCellFormula(formula);
+        _evaluator.notifyUpdateCell(cell);
+        CellValue cv = _evaluator.evaluate(cell);
+        assertEquals(formula, Cell.CELL_TYPE_NUMERIC, cv.getCellType());
+        return cv.getNumberValue();
+    }
+
+    public void testCriteria() {
+        for (int i = 0; i < 100; i++) {
+            getCell(i, 2).setCellValue(i + 1);
+        }
+        getCell(98, 0).setCellFormula("1/0");
+        getCell(97, 0).setCellValue("");
+        String[] criteria = {
+            "30", "\"30\"", "\">100\"", "\"<>30\"", "\"Item4*\"", "\"item45\"", "\"<>\"",
+            "\"=\"", "\"\"", "TRUE", "\"FALSE\"", "\"#DIV/0!\"", "\"<=Item50\"", "\">=200\"", "\"*\"",
+            "\"=ITEM45\"", "\"=30\"", "-0", "\"#N/A\"", "FALSE", "\"Item45 \"",
+        };
+        // ranges of 50 cells are tested cell by cell
+        for (int i = 0; i < criteria.length; i++) {
+            String c = criteria[i];
+            assertEquals(c, evaluateNumber("COUNTIF(A1:A50," + c + ")+COUNTIF(A51:A100," + c + ")"),
+                    evaluateNumber("COUNTIF(A1:A100," + c + ")"), 0.0);
+            assertEquals(c, evaluateNumber("SUMIF(A1:A50," + c + ",C1:C50)+SUMIF(A51:A100," + c + ",C51)"),
+                    evaluateNumber("SUMIF(A1:A100," + c + ",C1:C100)"), 0.0);
+            assertEquals(c, evaluateNumber("SUMIFS(C1:C50,A1:A50," + c + ",C1:C50,\">10\")"
+                    + "+SUMIFS(C51:C100,A51:A100," + c + ",C51:C100,\">10\")"),
+                    evaluateNumber("SUMIFS(C1:C100,A1:A100," + c + ",C1:C100,\">10\")"), 0.0);
+        }
+        assertEquals(2, evaluateNumber("COUNTIF(A1:A100,30)"), 0.0);
+        assertEquals(4 + 40, evaluateNumber("SUMIF(A1:A100,30,C1:C100)"), 0.0);
+        assertEquals(40, evaluateNumber("SUMIFS(C1:C100,A1:A100,30,C1:C100,\">10\")"), 0.0);
+    }
+
+    public void testCriteriaChangedCells() {
+        for (int i = 0; i < 100; i++) {
+            getCell(i, 2).setCellValue(i + 1);
+        }
+        HSSFCell d1 = getCell(0, 3);
+        d1.setCellFormula("SUMIF(A1:A100,\"item4*\",C1:C100)");
+        HSSFCell d2 = getCell(1, 3);
+        d2.setCellFormula("COUNTIF(A1:A100,\"<>\")");
+        HSSFCell d3 = getCell(2, 3);
+        d3.setCellFormula("SUMIFS(C1:C100,A1:A100,\">=300\",C1:C100,\"<35\")");
+        assertEquals(455, _evaluator.evaluate(d1).getNumberValue(), 0.0);
+        assertEquals(40, _evaluator.evaluate(d2).getNumberValue(), 0.0);
+        assertEquals(31 + 32 + 33 + 34, _evaluator.evaluate(d3).getNumberValue(), 0.0);
+
+        // the sum range is not cached, its cells are still tracked one by one
+        HSSFCell c41 = getCell(40, 2);
+        c41.setCellValue(1041);
+        _evaluator.notifyUpdateCell(c41);
+        // a blank cell of the criteria range gets a value
+        HSSFCell a100 = getCell(99, 0);
+        a100.setCellValue("item4");
+        _evaluator.notifyUpdateCell(a100);
+
+        Set<Cell> changed = _evaluator.recalculate();
+        assertEquals(2, changed.size());
+        assertEquals(455 + 1000 + 100, _evaluator.evaluate(d1).getNumberValue(), 0.0);
+        assertEquals(41, _evaluator.evaluate(d2).getNumberValue(), 0.0);
+        assertEquals(31 + 32 + 33 + 34, _evaluator.evaluate(d3).getNumberValue(), 0.0);
+    }
+
+    public void testAggregates() {
+        for (int i = 0; i < 100; i++) {
+            getCell(i, 2).setCellValue(i % 7 - 2);
+        }
+        String[] functions = { "SUM", "AVERAGE", "MIN", "MAX", "STDEV", "COUNT", "MAXA", "MEDIAN" };
+        // ranges of 50 cells are read cell by cell
+        for (int i = 0; i < functions.length; i++) {
+            String f = functions[i];
+            assertEquals(f, evaluateNumber(f + "(A1:A50,A51:A100)"), evaluateNumber(f + "(A1:A100)"), 0.0);
+            assertEquals(f, evaluateNumber(f + "(C1:C50,C51:C100,2)"), evaluateNumber(f + "(C1:C100,2)"), 0.0);
+        }
+        assertEquals(evaluateNumber("SUMPRODUCT(A1:A50,C1:C50)+SUMPRODUCT(A51:A100,C51:C100)"),
+                evaluateNumber("SUMPRODUCT(A1:A100,C1:C100)"), 0.0);
+        assertEquals(7440, evaluateNumber("SUM(A1:A100)"), 0.0);
+        assertEquals(186, evaluateNumber("AVERAGE(A1:A100)"), 0.0);
+
+        HSSFCell d1 = getCell(0, 3);
+        d1.setCellFormula("SUM(A1:A100)");
+        HSSFCell d2 = getCell(1, 3);
+        d2.setCellFormula("SUMPRODUCT(A1:A100,C1:C100)");
+        double sumProduct = _evaluator.evaluate(d2).getNumberValue();
+        assertEquals(7440, _evaluator.evaluate(d1).getNumberValue(), 0.0);
+
+        HSSFCell a2 = getCell(1, 0);
+        a2.setCellValue(15);
+        _evaluator.notifyUpdateCell(a2);
+        HSSFCell a99 = getCell(98, 0);
+        a99.setCellValue(5);
+        _evaluator.notifyUpdateCell(a99);
+        assertEquals(7440 + 5 + 5, _evaluator.evaluate(d1).getNumberValue(), 0.0);
+        // C2 is -1, C99 is -2
+        assertEquals(sumProduct - 5 - 10, _evaluator.evaluate(d2).getNumberValue(), 0.0);
+
+        a99.setCellFormula("1/0");
+        _evaluator.notifyUpdateCell(a99);
+        assertEquals(ErrorEval.DIV_ZERO.getErrorCode(), _evaluator.evaluate(d1).getErrorValue());
+        assertEquals(ErrorEval.DIV_ZERO.getErrorCode(), _evaluator.evaluate(d2).getErrorValue());
+    }
+
+    /**
+     * The growing ranges of running totals are each read by one cell only, their values are
+     * not kept
+     */
+    public void testRunningTotals() {
+        for (int i = 0; i < 100; i++) {
+            getCell(i, 2).setCellValue(i + 1);
+            getCell(i, 3).setCellFormula("SUM($C$1:C" + (i + 1) + ")");
+        }
+        EvaluationProfile profile = new EvaluationProfile();
+        _evaluator.setEvaluationProfile(profile);
+        _evaluator.evaluateAll();
+        assertEquals(5050, getCell(99, 3).getNumericCellValue(), 0.0);
+
+        // recalculating the same cells doesn't cache the ranges either
+        HSSFCell c1 = getCell(0, 2);
+        c1.setCellValue(2);
+        _evaluator.notifyUpdateCell(c1);
+        assertEquals(100, _evaluator.recalculate().size());
+        assertEquals(5051, getCell(99, 3).getNumericCellValue(), 0.0);
+        assertEquals(0, profile.getAreaCacheMissCount());
+
+        // a second cell reading the same range caches it
+        HSSFCell e1 = getCell(0, 4);
+        e1.setCellFormula("SUM($C$1:C100)");
+        assertEquals(5051, _evaluator.evaluate(e1).getNumberValue(), 0.0);
+        assertEquals(1, profile.getAreaCacheMissCount());
+    }
+
+    /**
+     * Every row looks up its own key, the criteria are looked up by value and not kept
+     */
+    public void testCriteriaUniqueKeys() {
+        for (int i = 0; i < 100; i++) {
+            getCell(i, 2).setCellValue(i + 1);
+        }
+        // numeric strings match number criteria
+        getCell(1, 0).setCellValue("10");
+        getCell(2, 0).setCellValue(-0.0);
+        // A83:A100 are blank
+        for (int i = 0; i < 82; i++) {
+            getCell(i, 3).setCellFormula("SUMIF($A$1:$A$100,A" + (i + 1) + ",$C$1:$C$100)");
+        }
+        _evaluator.evaluateAll();
+        assertEquals(1, getCell(0, 3).getNumericCellValue(), 0.0);
+        assertEquals(2, getCell(1, 3).getNumericCellValue(), 0.0);
+        assertEquals(3, getCell(2, 3).getNumericCellValue(), 0.0);
+        // the duplicate key in A40
+        assertEquals(4 + 40, getCell(3, 3).getNumericCellValue(), 0.0);
+        assertEquals(4 + 40, getCell(39, 3).getNumericCellValue(), 0.0);
+        assertEquals(46, getCell(45, 3).getNumericCellValue(), 0.0);
+        assertEquals(81, getCell(80, 3).getNumericCellValue(), 0.0);
+        for (int i = 4; i < 80; i++) {
+            assertEquals(i == 39 ? 44 : i + 1, getCell(i, 3).getNumericCellValue(), 0.0);
+        }
+    }
+}
@@ -92,6 +92,8 @@ public class TestEvaluationCache extends TestCase {
 		private final HSSFWorkbook _book;
 		private Map<ICacheEntry,EvaluationCell> _formulaCellsByCacheEntry;
 		private Map<ICacheEntry,Loc> _plainCellLocsByCacheEntry;
+		private int _formulaTokensHits;
+		private int _formulaTokensMisses;
 
 		public EvalListener(HSSFWorkbook wb) {
 			_book = wb;
@@ -152,6 +154,21 @@ public class TestEvaluationCache extends TestCase {
 				_plainCellLocsByCacheEntry.put(entry, loc);
 			}
 		}
+		public void onFormulaTokensCacheHit(EvaluationCell cell, ICacheEntry entry) {
+			_formulaTokensHits++;
+		}
+		public void onFormulaTokensCacheMiss(EvaluationCell cell, ICacheEntry entry) {
+			_formulaTokensMisses++;
+		}
+		/**
+		 * @return the hits and misses of the formula tokens cache, as "hits/misses"
+		 */
+		public String getAndClearFormulaTokensStats() {
+			String result = _formulaTokensHits + "/" + _formulaTokensMisses;
+			_formulaTokensHits = 0;
+			_formulaTokensMisses = 0;
+			return result;
+		}
 		private void log(String tag, int rowIndex, int columnIndex, Object value) {
 			StringBuffer sb = new StringBuffer(64);
 			sb.append(tag).append(' ');
@@ -264,6 +281,10 @@ public class TestEvaluationCache extends TestCase {
 			return _evalListener.getAndClearLog();
 		}
 
+		public String getAndClearFormulaTokensStats() {
+			return _evalListener.getAndClearFormulaTokensStats();
+		}
+
 		public void clearAllCachedResultValues() {
 			_evaluator.clearAllCachedResultValues();
 		}
@@ -529,6 +550,35 @@ public class TestEvaluationCache extends TestCase {
 		});
 	}
 
+	/**
+	 * Formulas are parsed once, changed inputs re-evaluate them with the cached tokens
+	 */
+	public void testFormulaTokensCache() {
+
+		MySheet ms = createMediumComplex();
+		ms.getAndClearFormulaTokensStats();
+
+		confirmEvaluate(ms, "A1", 46);
+		assertEquals("0/5", ms.getAndClearFormulaTokensStats());
+		confirmEvaluate(ms, "A1", 46);
+		assertEquals("0/0", ms.getAndClearFormulaTokensStats());
+
+		// dependent formulas are re-evaluated, but not parsed again
+		ms.setCellValue("D2", 4);
+		ms.getAndClearLog();
+		confirmEvaluate(ms, "A1", 36);
+		assertEquals("5/0", ms.getAndClearFormulaTokensStats());
+
+		// only the changed formula is parsed again
+		ms.setCellFormula("C1", "SUM(D1:E1)");
+		confirmEvaluate(ms, "A1", 27);
+		assertEquals("3/1", ms.getAndClearFormulaTokensStats());
+
+		ms.clearAllCachedResultValues();
+		confirmEvaluate(ms, "A1", 27);
+		assertEquals("0/5", ms.getAndClearFormulaTokensStats());
+	}
+
 	public void testBlankCells() {
 
 
@@ -0,0 +1,100 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.EvaluationProfile.CellStatistics;
+import org.apache.poi.ss.formula.EvaluationProfile.FunctionStatistics;
+
+/**
+ * Tests for {@link EvaluationProfile}
+ */
+public final class TestEvaluationProfile extends TestCase {
+
+    public void testStatistics() {
+        HSSFWorkbook wb = new HSSFWorkbook();
+        HSSFSheet sheet = wb.createSheet("Sheet1");
+        for (int i = 0; i < 100; i++) {
+            sheet.createRow(i).createCell(0).setCellValue(i);
+        }
+        HSSFRow row = sheet.getRow(0);
+        row.createCell(1).setCellFormula("A1*2");
+        row.createCell(2).setCellFormula("SUM(B1,A2)+1");
+        row.createCell(3).setCellFormula("MATCH(50,A1:A100,0)*C1");
+        row.createCell(4).setCellFormula("MATCH(60,A1:A100,0)");
+        row.createCell(5).setCellFormula("MATCH(70,A1:A100,0)");
+
+        HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+        EvaluationProfile profile = new EvaluationProfile(2);
+        fe.setEvaluationProfile(profile);
+        assertEquals(102, fe.evaluate(row.getCell(3)).getNumberValue(), 0.0);
+        assertEquals(61, fe.evaluate(row.getCell(4)).getNumberValue(), 0.0);
+        assertEquals(71, fe.evaluate(row.getCell(5)).getNumberValue(), 0.0);
+        assertEquals(2, fe.evaluate(row.getCell(2)).getNumberValue(), 0.0);
+
+        assertEquals(5, profile.getEvaluatedCellCount());
+        assertEquals(1, profile.getCellCacheHitCount());
+        // the area is cached once the second cell reads it
+        assertEquals(1, profile.getAreaCacheMissCount());
+        assertEquals(1, profile.getAreaCacheHitCount());
+        // D1 -> C1 -> B1
+        assertEquals(3, profile.getMaxEvaluationDepth());
+
+        List<FunctionStatistics> functions = profile.getFunctionStatistics();
+        assertEquals(4, functions.size());
+        long totalNanos = Long.MAX_VALUE;
+        for (FunctionStatistics stats : functions) {
+            assertTrue(stats.getTotalNanos() <= totalNanos);
+            totalNanos = stats.getTotalNanos();
+            String name = stats.getName();
+            int expectedCount = name.equals("MATCH") ? 3 : name.equals("*") ? 2 : 1;
+            assertEquals(name, expectedCount, stats.getCallCount());
+            assertTrue(name, name.equals("MATCH") || name.equals("*") || name.equals("+") || name.equals("SUM"));
+        }
+
+        List<CellStatistics> cells = profile.getSlowestCells();
+        assertEquals(2, cells.size());
+        assertTrue(cells.get(0).getNanos() >= cells.get(1).getNanos());
+        // D1 includes C1 and B1
+        assertEquals("Sheet1!D1", cells.get(0).formatAsString());
+
+        String report = profile.getReport();
+        assertTrue(report, report.startsWith("Evaluated cells: 5, cache hits: 1, max evaluation depth: 3\n"));
+        assertTrue(report, report.indexOf("  MATCH\t3\t") > 0);
+        assertTrue(report, report.indexOf("  Sheet1!D1\t") > 0);
+
+        // nothing is collected without a profile
+        fe.setEvaluationProfile(null);
+        fe.clearAllCachedResultValues();
+        fe.evaluate(row.getCell(3));
+        assertEquals(5, profile.getEvaluatedCellCount());
+
+        profile.reset();
+        assertEquals(0, profile.getEvaluatedCellCount());
+        assertEquals(0, profile.getFunctionStatistics().size());
+        assertEquals(0, profile.getSlowestCells().size());
+        assertEquals(0, profile.getMaxEvaluationDepth());
+    }
+}
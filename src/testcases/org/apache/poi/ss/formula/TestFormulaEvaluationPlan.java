@@ -0,0 +1,151 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+==================================================================== */
+
+package org.apache.poi.ss.formula;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.hssf.model.HSSFFormulaParser;
+import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFEvaluationTestHelper;
+import org.apache.poi.hssf.usermodel.HSSFFormulaEvaluator;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.eval.NumberEval;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.Row;
+
+/**
+ * Tests for {@link FormulaEvaluationPlan}
+ */
+public final class TestFormulaEvaluationPlan extends TestCase {
+
+	private static final String[] FORMULAS = {
+		"1+2*3",
+		"-(2^3)&\"x\"",
+		"50%+A1",
+		"\"a\"=\"A\"",
+		"1/0+A1",
+		"(A1+(1+1))*(2-3)",
+		"IF(A1>1,\"big\"&\"!\",-1)",
+		"IF(A1<1,1)",
+		"IF(A1>1,,2)",
+		"IF(1/0,1,2)",
+		"IF(A1>1,SUM(A1,2+3),\"\")",
+		"IF(A2>1,IF(A3=3,\"x\"&\"y\",1+1),0)",
+		"CHOOSE(A1,1+1,\"b\",3)",
+		"CHOOSE(A1+1,1,2*A2,3)",
+		"CHOOSE(5,1,2)",
+		"CHOOSE(1/0,1,2)",
+		"SUM(A1:A3)*2",
+		"AVERAGE(A1:A3,2*2)",
+		"COUNT(A1,,A2)",
+		"A1*2+A2/A3-1",
+		"(A1-1)*-1",
+		"(A1-A1)*2",
+		"0-0*(A1-A1)",
+		"1/(A1-1)*2",
+		"A2^2000*0",
+		"(A1+A2)&\"x\"",
+		"(A1+\"x\")*2",
+		"IF((A1+A2)>2,A1*A2,A1-A2)",
+		"CHOOSE(A1*2-1,1,2,A1+A3)",
+	};
+
+	public void testSameResultsAsTokens() {
+		HSSFWorkbook wb = new HSSFWorkbook();
+		HSSFSheet sheet = wb.createSheet("Sheet1");
+		for (int i = 0; i < 3; i++) {
+			sheet.createRow(i).createCell(0).setCellValue(i + 1);
+		}
+		Row row = sheet.createRow(5);
+		for (int i = 0; i < FORMULAS.length; i++) {
+			row.createCell(i).setCellFormula(FORMULAS[i]);
+		}
+
+		HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+		for (int i = 0; i < FORMULAS.length; i++) {
+			Cell cell = row.getCell(i);
+			// evaluated token by token when the debug output is on
+			HSSFFormulaEvaluator debugFe = new HSSFFormulaEvaluator(wb);
+			debugFe.setDebugEvaluationOutputForNextEval(true);
+			CellValue expected = debugFe.evaluate(cell);
+
+			CellValue actual = fe.evaluate(cell);
+			assertEquals(FORMULAS[i], expected.formatAsString(), actual.formatAsString());
+		}
+	}
+
+	public void testSharedPlan() {
+		HSSFWorkbook wb = new HSSFWorkbook();
+		wb.createSheet("Sheet1");
+		String key = getKey(wb, "IF(A1>1,SUM(A1:B2)*(2+3),\"x\")");
+		assertEquals(key, getKey(wb, "IF(C7>1,SUM(D1:E9)*(2+3),\"x\")"));
+		assertEquals(key, getKey(wb, "IF($A$1>1,SUM(D$1:$E9)*(2+3),\"x\")"));
+		assertFalse(key.equals(getKey(wb, "IF(A1>1,SUM(A1:B2)*(2+4),\"x\")")));
+		assertFalse(key.equals(getKey(wb, "IF(A1>1,SUM(A1:B2)*(2+3),\"y\")")));
+		assertFalse(key.equals(getKey(wb, "IF(A1>1,SUM(A1)*(2+3),\"x\")")));
+		assertFalse(key.equals(getKey(wb, "IF(A1>1,AVERAGE(A1:B2)*(2+3),\"x\")")));
+	}
+
+	private static String getKey(HSSFWorkbook wb, String formula) {
+		return FormulaEvaluationPlan.getKey(HSSFFormulaParser.parse(formula, wb));
+	}
+
+	/**
+	 * A plan is evaluated again for each cell of a chain of formulas sharing it, before the
+	 * previous evaluation finished
+	 */
+	public void testNestedEvaluation() {
+		HSSFWorkbook wb = new HSSFWorkbook();
+		HSSFSheet sheet = wb.createSheet("Sheet1");
+		sheet.createRow(0).createCell(0).setCellValue(1);
+		for (int i = 1; i < 100; i++) {
+			sheet.createRow(i).createCell(0).setCellFormula("A" + i + "+(1+1)");
+		}
+		Ptg[] ptgs = HSSFFormulaParser.parse("A1+(1+1)", wb);
+		assertTrue(FormulaEvaluationPlan.compile(ptgs).isCompiled());
+
+		HSSFFormulaEvaluator fe = new HSSFFormulaEvaluator(wb);
+		assertEquals(199, fe.evaluate(sheet.getRow(99).getCell(0)).getNumberValue(), 0.0);
+		assertEquals(101, fe.evaluate(sheet.getRow(50).getCell(0)).getNumberValue(), 0.0);
+	}
+
+	/**
+	 * The plans are dropped with the cached values, and only the most recently used are kept
+	 */
+	public void testPlansBounded() {
+		HSSFWorkbook wb = new HSSFWorkbook();
+		HSSFSheet sheet = wb.createSheet("Sheet1");
+		int n = 10010;
+		for (int i = 0; i < n; i++) {
+			// a different constant for each cell, so that no plan is shared
+			sheet.createRow(i).createCell(0).setCellFormula("1+" + i);
+		}
+		WorkbookEvaluator evaluator = WorkbookEvaluatorTestHelper.createEvaluator(wb, null);
+		for (int i = 0; i < n; i++) {
+			EvaluationCell cell = HSSFEvaluationTestHelper.wrapCell((HSSFCell)sheet.getRow(i).getCell(0));
+			assertEquals(i + 1, ((NumberEval)evaluator.evaluate(cell)).getNumberValue(), 0.0);
+		}
+		assertEquals(10000, evaluator.getEvaluationPlanCount());
+
+		evaluator.clearAllCachedResultValues();
+		assertEquals(0, evaluator.getEvaluationPlanCount());
+	}
+}
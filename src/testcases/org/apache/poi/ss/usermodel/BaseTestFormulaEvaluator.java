@@ -21,6 +21,8 @@ import junit.framework.AssertionFailedError;
 import junit.framework.TestCase;
 
 import org.apache.poi.ss.ITestDataProvider;
+import org.apache.poi.ss.formula.EvaluationCell;
+import org.apache.poi.ss.formula.EvaluationSheet;
 
 /**
  * Common superclass for testing implementatiosn of{@link FormulaEvaluator}
@@ -300,4 +302,61 @@ public abstract class BaseTestFormulaEvaluator extends TestCase {
         assertEquals(2162.62, fe.evaluateInCell(cellC1).getNumericCellValue(), 0.0);
         assertEquals(2162.61, fe.evaluateInCell(cellD1).getNumericCellValue(), 0.0);
     }
-}
\ No newline at end of file
+
+    /**
+     * Checks the bulk read of {@link EvaluationSheet#getCellValues} against
+     *  the cells of the sheet, for an area with fewer physical rows than its
+     *  height as well as for a fully populated one
+     */
+    protected final void baseTestGetCellValues(Sheet sheet, EvaluationSheet evalSheet) {
+        Row row = sheet.createRow(1);
+        row.createCell(0).setCellValue(1.5);
+        row.createCell(1).setCellValue("abc");
+        row.createCell(2).setCellValue(true);
+        row.createCell(3).setCellErrorValue(FormulaError.DIV0.getCode());
+        row.createCell(4).setCellFormula("A2*2");
+        row.createCell(5, Cell.CELL_TYPE_BLANK);
+        row = sheet.createRow(2);
+        row.createCell(1).setCellValue(-3);
+        row = sheet.createRow(7);
+        row.createCell(6).setCellValue("outside");
+
+        // rows 0 to 5, columns 0 to 5: rows 0, 3, 4 and 5 are missing
+        int[] cellTypes = new int[36];
+        double[] numbers = new double[36];
+        Object[] values = new Object[36];
+        evalSheet.getCellValues(0, 0, 5, 5, cellTypes, numbers, values);
+        for (int i = 0; i < 36; i++) {
+            int rowIndex = i / 6;
+            if (rowIndex != 1 && !(rowIndex == 2 && i % 6 == 1)) {
+                assertEquals(Cell.CELL_TYPE_BLANK, cellTypes[i]);
+                assertNull(values[i]);
+            }
+        }
+        assertEquals(Cell.CELL_TYPE_NUMERIC, cellTypes[6]);
+        assertEquals(1.5, numbers[6], 0.0);
+        assertEquals(Cell.CELL_TYPE_STRING, cellTypes[7]);
+        assertEquals("abc", values[7]);
+        assertEquals(Cell.CELL_TYPE_BOOLEAN, cellTypes[8]);
+        assertEquals(Boolean.TRUE, values[8]);
+        assertEquals(Cell.CELL_TYPE_ERROR, cellTypes[9]);
+        assertEquals(Integer.valueOf(FormulaError.DIV0.getCode()), values[9]);
+        assertEquals(Cell.CELL_TYPE_FORMULA, cellTypes[10]);
+        EvaluationCell formulaCell = (EvaluationCell) values[10];
+        assertEquals(1, formulaCell.getRowIndex());
+        assertEquals(4, formulaCell.getColumnIndex());
+        assertEquals(Cell.CELL_TYPE_BLANK, cellTypes[11]);
+        assertEquals(Cell.CELL_TYPE_NUMERIC, cellTypes[13]);
+        assertEquals(-3.0, numbers[13], 0.0);
+
+        // a single row, read through the rows directly
+        cellTypes = new int[3];
+        numbers = new double[3];
+        values = new Object[3];
+        evalSheet.getCellValues(1, 1, 1, 3, cellTypes, numbers, values);
+        assertEquals(Cell.CELL_TYPE_STRING, cellTypes[0]);
+        assertEquals("abc", values[0]);
+        assertEquals(Boolean.TRUE, values[1]);
+        assertEquals(Integer.valueOf(FormulaError.DIV0.getCode()), values[2]);
+    }
+}